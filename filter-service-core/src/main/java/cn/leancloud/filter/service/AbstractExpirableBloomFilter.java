@@ -0,0 +1,279 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A skeleton for {@link ExpirableBloomFilter} which handles the metadata shared by all kinds
+ * of expirable Bloom filters, like the creation time, the expiration time, and push off the
+ * expiration forward on access when {@code validPeriodAfterAccess} is set. Subclasses only need
+ * to care about how the values are stored.
+ * <p>
+ * The expiration time is kept as epoch milliseconds in an atomic field, and it only moves forward. So
+ * accessing a filter and checking if it's expired neither take a lock nor create any object, which
+ * matters a lot when lots of threads are hitting the same filter.
+ */
+@JsonIgnoreProperties(value = {"type", "hashScheme"}, allowGetters = true)
+public abstract class AbstractExpirableBloomFilter implements ExpirableBloomFilter {
+    private static final DateTimeFormatter ISO_8601_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    public static class ZonedDateTimeSerializer extends JsonSerializer<ZonedDateTime> {
+        @Override
+        public void serialize(ZonedDateTime arg0, JsonGenerator arg1, SerializerProvider arg2) throws IOException {
+            final String zonedTime = arg0.format(ISO_8601_FORMATTER);
+            arg1.writeString(zonedTime);
+        }
+    }
+
+    public static class ZonedDateTimeDeserializer extends JsonDeserializer<ZonedDateTime> {
+        @Override
+        public ZonedDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            return ZonedDateTime.parse(p.getText(), ISO_8601_FORMATTER);
+        }
+    }
+
+    public static class DurationSerializer extends JsonSerializer<Duration> {
+        @Override
+        public void serialize(Duration arg0, JsonGenerator arg1, SerializerProvider arg2) throws IOException {
+            arg1.writeNumber(arg0.getSeconds());
+        }
+    }
+
+    public static class DurationDeserializer extends JsonDeserializer<Duration> {
+        @Nullable
+        @Override
+        public Duration deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.getNumberValue() != null) {
+                return Duration.ofSeconds(p.getNumberValue().intValue());
+            }
+            return null;
+        }
+    }
+
+    private final ZonedDateTime created;
+    @Nullable
+    private final Duration validPeriodAfterAccess;
+    private final double fpp;
+    private final int expectedInsertions;
+    private final Timer timer;
+    private final long validPeriodAfterAccessMillis;
+    private final long expirationUpdateGranularityMillis;
+    private final AtomicLong expirationMillis;
+
+    /**
+     * Constructor for {@link AbstractExpirableBloomFilter}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the constructed filter; must be positive
+     * @param fpp                    the desired false positive probability (must be positive and less than 1.0)
+     * @param created                the creation time for the constructed filter
+     * @param expiration             the expiration time of the constructed filter. When time past this expiration
+     *                               time, the constructed filter will be expired and can not be used any more.
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset.
+     *                               This argument is used under test to set an arbitrary current time.
+     */
+    protected AbstractExpirableBloomFilter(int expectedInsertions,
+                                           double fpp,
+                                           ZonedDateTime created,
+                                           ZonedDateTime expiration,
+                                           @Nullable Duration validPeriodAfterAccess,
+                                           Timer timer) {
+        this.fpp = fpp;
+        this.expectedInsertions = expectedInsertions;
+        this.created = created;
+        this.validPeriodAfterAccess = validPeriodAfterAccess;
+        this.timer = timer;
+        this.validPeriodAfterAccessMillis = validPeriodAfterAccess == null ? -1 : validPeriodAfterAccess.toMillis();
+        this.expirationUpdateGranularityMillis = Configuration.expirationUpdateGranularity().toMillis();
+        this.expirationMillis = new AtomicLong(expiration.toInstant().toEpochMilli());
+    }
+
+    @JsonGetter("type")
+    @Override
+    public abstract BloomFilterType type();
+
+    @Nullable
+    @Override
+    @JsonInclude(Include.NON_NULL)
+    @JsonGetter("hashScheme")
+    public HashScheme hashScheme() {
+        return null;
+    }
+
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
+    public ZonedDateTime created() {
+        return created;
+    }
+
+    @Override
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
+    public ZonedDateTime expiration() {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(expirationMillis.get()), ZoneOffset.UTC);
+    }
+
+    @Override
+    @JsonGetter("fpp")
+    public double fpp() {
+        return fpp;
+    }
+
+    @Override
+    @JsonGetter("expectedInsertions")
+    public int expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    @Override
+    public long expirationMillis() {
+        return expirationMillis.get();
+    }
+
+    @Override
+    public boolean expired() {
+        return timer.currentTimeMillis() > expirationMillis.get();
+    }
+
+    @Nullable
+    @JsonInclude(Include.NON_NULL)
+    @JsonGetter("validPeriodAfterAccess")
+    @JsonSerialize(using = DurationSerializer.class)
+    @JsonDeserialize(using = DurationDeserializer.class)
+    Duration validPeriodAfterAccess() {
+        return validPeriodAfterAccess;
+    }
+
+    /**
+     * Push off the expiration of this filter forward if {@code validPeriodAfterAccess} is set.
+     * Subclasses should call this method after every access to this filter.
+     * <p>
+     * The expiration is only updated when it advances by at least the configured
+     * {@link Configuration#expirationUpdateGranularity()}, so most of the concurrent accesses to a
+     * hot filter only read the expiration and never write it.
+     */
+    protected final void tryExtendExpiration() {
+        if (validPeriodAfterAccessMillis >= 0) {
+            final long newExpiration = timer.currentTimeMillis() + validPeriodAfterAccessMillis;
+            long expiration;
+            while (newExpiration > (expiration = expirationMillis.get()) &&
+                    newExpiration - expiration >= expirationUpdateGranularityMillis) {
+                if (expirationMillis.compareAndSet(expiration, newExpiration)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public final void extendExpiration(long newExpirationMillis) {
+        long expiration;
+        while (newExpirationMillis > (expiration = expirationMillis.get())) {
+            if (expirationMillis.compareAndSet(expiration, newExpirationMillis)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write the metadata of this filter, namely the expected insertions, fpp, creation time, expiration time
+     * and valid period after access, to a {@link DataOutputStream}.
+     *
+     * @param dout the {@link DataOutputStream} to write to
+     * @throws IOException if an I/O error occurs.
+     */
+    protected final void writeMetadataTo(DataOutputStream dout) throws IOException {
+        dout.writeInt(expectedInsertions);
+        dout.writeDouble(fpp);
+        dout.writeLong(created.toEpochSecond());
+        dout.writeLong(expiration().toEpochSecond());
+        if (validPeriodAfterAccess != null) {
+            dout.writeLong(validPeriodAfterAccess.toNanos());
+        } else {
+            dout.writeLong(-1);
+        }
+    }
+
+    /**
+     * Check if the metadata of this filter equals to the metadata of another filter. The time fields
+     * are compared in seconds because that's the precision they are persisted in.
+     *
+     * @param that the other filter
+     * @return true when all the metadata are equal
+     */
+    protected final boolean metadataEquals(AbstractExpirableBloomFilter that) {
+        if ((validPeriodAfterAccess == null && that.validPeriodAfterAccess == null) ||
+                validPeriodAfterAccess != null && that.validPeriodAfterAccess != null) {
+            final ZonedDateTime expiration = expiration();
+            final ZonedDateTime thatExpiration = that.expiration();
+            return Double.compare(that.fpp, fpp) == 0 &&
+                    expectedInsertions == that.expectedInsertions &&
+                    created.toInstant().getEpochSecond() == that.created.toInstant().getEpochSecond() &&
+                    created.getOffset() == that.created.getOffset() &&
+                    expiration.toInstant().getEpochSecond() == thatExpiration.toInstant().getEpochSecond() &&
+                    expiration.getOffset() == thatExpiration.getOffset() &&
+                    (validPeriodAfterAccess == null ||
+                            validPeriodAfterAccess.getSeconds() ==
+                                    that.validPeriodAfterAccess.getSeconds());
+        }
+        return false;
+    }
+
+    /**
+     * Compute a hash code from the metadata of this filter.
+     *
+     * @return the hash code of the metadata
+     */
+    protected final int metadataHashCode() {
+        int ret = created.hashCode();
+        ret = 31 * ret + expiration().hashCode();
+        ret = 31 * ret + Double.hashCode(fpp);
+        ret = 31 * ret + Integer.hashCode(expectedInsertions);
+        if (validPeriodAfterAccess != null) {
+            ret = 31 * ret + validPeriodAfterAccess.hashCode();
+        }
+        return ret;
+    }
+
+    /**
+     * Get the {@link Timer} used by this filter.
+     *
+     * @return the {@link Timer} used by this filter
+     */
+    protected final Timer timer() {
+        return timer;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "expectedInsertions=" + expectedInsertions +
+                ", fpp=" + fpp +
+                ", expiration=" + expiration() +
+                ", validPeriodAfterAccess=" + validPeriodAfterAccess +
+                ", created=" + created +
+                '}';
+    }
+}
@@ -0,0 +1,418 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable binary fuse filter with 8 bits fingerprints. It's built once from all of its values and
+ * values can never be put into it after that. In return, it only needs about 9 bits per value for a false
+ * positive probability of about 0.4%, and every {@link #mightContain(String)} only reads 3 bytes.
+ * <p>
+ * Every value is mapped to 3 slots in 3 consecutive segments of the fingerprint array, and the filter is
+ * built so that the xor of the 3 slots equals to the fingerprint of the value. Please refer to
+ * "Binary Fuse Filters: Fast and Smaller Than Xor Filters" by Thomas Mueller Graf and Daniel Lemire
+ * for details.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class BinaryFuseFilter extends AbstractExpirableBloomFilter {
+    /**
+     * The false positive probability of a binary fuse filter with 8 bits fingerprints.
+     */
+    static final double FPP = 1.0d / 256;
+    private static final int ARITY = 3;
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+    private static final int MAX_BUILD_ATTEMPTS = 100;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    static BinaryFuseFilter readFrom(InputStream in) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final long seed = din.readLong();
+        final int segmentLength = din.readInt();
+        final int segmentCount = din.readInt();
+        final int arrayLength = din.readInt();
+        if (segmentLength <= 0 || segmentLength > MAX_SEGMENT_LENGTH || Integer.bitCount(segmentLength) != 1 ||
+                segmentCount <= 0 || arrayLength != (long) (segmentCount + ARITY - 1) * segmentLength) {
+            throw new InvalidFilterException("invalid layout for binary fuse filter, segmentLength: " + segmentLength +
+                    ", segmentCount: " + segmentCount + ", arrayLength: " + arrayLength);
+        }
+        final byte[] fingerprints = new byte[arrayLength];
+        din.readFully(fingerprints);
+
+        return new BinaryFuseFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                seed,
+                segmentLength,
+                segmentCount,
+                fingerprints,
+                Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Build a {@code BinaryFuseFilter} from all of its values.
+     *
+     * @param values                 all the values of the built filter. Duplicate values are allowed
+     * @param created                the creation time for the built filter
+     * @param expiration             the expiration time of the built filter
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @return the built {@code BinaryFuseFilter}
+     */
+    static BinaryFuseFilter build(Collection<String> values,
+                                  ZonedDateTime created,
+                                  ZonedDateTime expiration,
+                                  @Nullable Duration validPeriodAfterAccess) {
+        return build(values, created, expiration, validPeriodAfterAccess, Timer.DEFAULT_TIMER);
+    }
+
+    static BinaryFuseFilter build(Collection<String> values,
+                                  ZonedDateTime created,
+                                  ZonedDateTime expiration,
+                                  @Nullable Duration validPeriodAfterAccess,
+                                  Timer timer) {
+        final long[] keys = new long[values.size()];
+        int i = 0;
+        for (String value : values) {
+            keys[i++] = hash(value);
+        }
+        // duplicate keys are removed here so every key left is put into the filter exactly once
+        Arrays.sort(keys);
+        int size = 0;
+        for (int j = 0; j < keys.length; j++) {
+            if (j == 0 || keys[j] != keys[j - 1]) {
+                keys[size++] = keys[j];
+            }
+        }
+
+        final int segmentLength = segmentLength(size);
+        final int segmentCount = segmentCount(size, segmentLength);
+        final byte[] fingerprints = new byte[(segmentCount + ARITY - 1) * segmentLength];
+        final long seed = fill(Arrays.copyOf(keys, size), segmentLength, segmentCount, fingerprints);
+        return new BinaryFuseFilter(
+                size,
+                FPP,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                seed,
+                segmentLength,
+                segmentCount,
+                fingerprints,
+                timer);
+    }
+
+    private final long seed;
+    private final int segmentLength;
+    private final int segmentLengthMask;
+    private final int segmentCount;
+    private final int segmentCountLength;
+    /**
+     * Estimate the bytes of memory occupied by a {@code BinaryFuseFilter} built from the given number of values.
+     * Duplicate values are only put into the filter once, so the actual filter may be smaller than the estimation.
+     *
+     * @param numValues the number of values to build the filter
+     * @return the estimated bytes of memory occupied by the filter
+     */
+    static long estimatedMemoryBytes(int numValues) {
+        final int segmentLength = segmentLength(numValues);
+        return (long) (segmentCount(numValues, segmentLength) + ARITY - 1) * segmentLength;
+    }
+
+    private static int segmentLength(int size) {
+        // the layout computation requires at least 2 keys
+        final int sizeForLayout = Math.max(size, 2);
+        return Math.min(MAX_SEGMENT_LENGTH,
+                1 << (int) Math.floor(Math.log(sizeForLayout) / Math.log(3.33) + 2.25));
+    }
+
+    private static int segmentCount(int size, int segmentLength) {
+        final int sizeForLayout = Math.max(size, 2);
+        final double sizeFactor = Math.max(1.125, 0.875 + 0.25 * Math.log(1000000) / Math.log(sizeForLayout));
+        final int capacity = (int) Math.min(Integer.MAX_VALUE, (long) (sizeForLayout * sizeFactor));
+        int segmentCount = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+        final int arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+        segmentCount = (arrayLength + segmentLength - 1) / segmentLength;
+        return segmentCount <= ARITY - 1 ? 1 : segmentCount - (ARITY - 1);
+    }
+
+    private final byte[] fingerprints;
+
+    private BinaryFuseFilter(int expectedInsertions,
+                             double fpp,
+                             ZonedDateTime created,
+                             ZonedDateTime expiration,
+                             @Nullable Duration validPeriodAfterAccess,
+                             long seed,
+                             int segmentLength,
+                             int segmentCount,
+                             byte[] fingerprints,
+                             Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        this.seed = seed;
+        this.segmentLength = segmentLength;
+        this.segmentLengthMask = segmentLength - 1;
+        this.segmentCount = segmentCount;
+        this.segmentCountLength = segmentCount * segmentLength;
+        this.fingerprints = fingerprints;
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.SEALED;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        return fingerprints.length;
+    }
+
+    @Override
+    public HashScheme hashScheme() {
+        return HashScheme.MURMUR3_64;
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        HashScheme.MURMUR3_64.checkHash(hash);
+        return mightContainHash(hash.asLong());
+    }
+
+    private boolean mightContainHash(long valueHash) {
+        final long hash = mix(valueHash + seed);
+        final int index0 = (int) multiplyHighUnsigned(hash, segmentCountLength);
+        final int index1 = (index0 + segmentLength) ^ (int) ((hash >>> 18) & segmentLengthMask);
+        final int index2 = (index0 + 2 * segmentLength) ^ (int) (hash & segmentLengthMask);
+        final int f = fingerprint(hash) ^ fingerprints[index0] ^ fingerprints[index1] ^ fingerprints[index2];
+        tryExtendExpiration();
+        return (f & 0xFF) == 0;
+    }
+
+    /**
+     * Always throws {@link UnsupportedOperationException} because a {@code BinaryFuseFilter} is immutable.
+     */
+    @Override
+    public boolean set(String value) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() +
+                " is immutable and do not support set");
+    }
+
+    /**
+     * Always throws {@link UnsupportedOperationException} because a {@code BinaryFuseFilter} is immutable.
+     */
+    @Override
+    public boolean set(ByteBuffer value) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() +
+                " is immutable and do not support set");
+    }
+
+    /**
+     * Always throws {@link UnsupportedOperationException} because a {@code BinaryFuseFilter} is immutable.
+     */
+    @Override
+    public boolean set(HashCode hash) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() +
+                " is immutable and do not support set");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeLong(seed);
+        dout.writeInt(segmentLength);
+        dout.writeInt(segmentCount);
+        dout.writeInt(fingerprints.length);
+        dout.write(fingerprints);
+        dout.flush();
+    }
+
+    int arrayLength() {
+        return fingerprints.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final BinaryFuseFilter that = (BinaryFuseFilter) o;
+        return metadataEquals(that) &&
+                seed == that.seed &&
+                segmentLength == that.segmentLength &&
+                segmentCount == that.segmentCount &&
+                Arrays.equals(fingerprints, that.fingerprints);
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + Long.hashCode(seed);
+        ret = 31 * ret + segmentLength;
+        ret = 31 * ret + segmentCount;
+        return ret;
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static long hash(ByteBuffer value) {
+        return HASH_FUNCTION.hashBytes(value.duplicate()).asLong();
+    }
+
+    /**
+     * The finalizer of MurmurHash3, used to derive a new hash for every seed from the hash of a value.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int fingerprint(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Returns the high 64 bits of the unsigned 128 bits product of {@code hash} and {@code n}, which maps
+     * {@code hash} to [0, n) uniformly. {@code n} must be non-negative.
+     */
+    private static long multiplyHighUnsigned(long hash, int n) {
+        return ((hash >>> 32) * n + (((hash & 0xFFFFFFFFL) * n) >>> 32)) >>> 32;
+    }
+
+    private static int slot(long hash, int index, int segmentLength, int segmentCountLength) {
+        long h = multiplyHighUnsigned(hash, segmentCountLength) + (long) index * segmentLength;
+        final long hh = hash & ((1L << 36) - 1);
+        h ^= (hh >>> (36 - 18 * index)) & (segmentLength - 1);
+        return (int) h;
+    }
+
+    /**
+     * Fill the fingerprints of the keys by peeling the 3-partite hypergraph formed by the keys and their
+     * slots, then assigning the slots in the reverse order of peeling. Retry with another seed when the
+     * hypergraph can not be peeled completely, which rarely happens.
+     *
+     * @return the seed used to fill the fingerprints
+     */
+    private static long fill(long[] keys, int segmentLength, int segmentCount, byte[] fingerprints) {
+        final int size = keys.length;
+        final int arrayLength = fingerprints.length;
+        final int segmentCountLength = segmentCount * segmentLength;
+        final long[] reverseOrder = new long[size];
+        final byte[] reverseSlot = new byte[size];
+        final int[] count = new int[arrayLength];
+        final long[] xorHash = new long[arrayLength];
+        final int[] alone = new int[arrayLength];
+
+        for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+            final long seed = ThreadLocalRandom.current().nextLong();
+            Arrays.fill(count, 0);
+            Arrays.fill(xorHash, 0);
+
+            // the lower 2 bits of the count is the xor of the indexes (0, 1, 2) of the slots mapped to the
+            // keys which are using it, so when only one key is left we know which slot of the key it is
+            for (long key : keys) {
+                final long hash = mix(key + seed);
+                for (int index = 0; index < ARITY; index++) {
+                    final int slot = slot(hash, index, segmentLength, segmentCountLength);
+                    count[slot] = (count[slot] + 4) ^ index;
+                    xorHash[slot] ^= hash;
+                }
+            }
+
+            int alonePos = 0;
+            for (int i = 0; i < arrayLength; i++) {
+                if ((count[i] >> 2) == 1) {
+                    alone[alonePos++] = i;
+                }
+            }
+
+            int reverseOrderPos = 0;
+            while (alonePos > 0) {
+                final int slot = alone[--alonePos];
+                if ((count[slot] >> 2) != 1) {
+                    continue;
+                }
+
+                final long hash = xorHash[slot];
+                final int found = count[slot] & 3;
+                reverseOrder[reverseOrderPos] = hash;
+                reverseSlot[reverseOrderPos] = (byte) found;
+                reverseOrderPos++;
+                for (int other = 1; other < ARITY; other++) {
+                    final int index = (found + other) % ARITY;
+                    final int otherSlot = slot(hash, index, segmentLength, segmentCountLength);
+                    count[otherSlot] = (count[otherSlot] - 4) ^ index;
+                    xorHash[otherSlot] ^= hash;
+                    if ((count[otherSlot] >> 2) == 1) {
+                        alone[alonePos++] = otherSlot;
+                    }
+                }
+                count[slot] = 0;
+                xorHash[slot] = 0;
+            }
+
+            if (reverseOrderPos == size) {
+                Arrays.fill(fingerprints, (byte) 0);
+                for (int i = reverseOrderPos - 1; i >= 0; i--) {
+                    final long hash = reverseOrder[i];
+                    final int found = reverseSlot[i];
+                    int f = fingerprint(hash);
+                    int target = 0;
+                    for (int index = 0; index < ARITY; index++) {
+                        final int slot = slot(hash, index, segmentLength, segmentCountLength);
+                        if (index == found) {
+                            target = slot;
+                        } else {
+                            f ^= fingerprints[slot];
+                        }
+                    }
+                    fingerprints[target] = (byte) f;
+                }
+                return seed;
+            }
+        }
+
+        throw new IllegalStateException("failed to build binary fuse filter with " + size + " values after " +
+                MAX_BUILD_ATTEMPTS + " attempts");
+    }
+}
@@ -0,0 +1,45 @@
+package cn.leancloud.filter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+
+public class BinaryFuseFilterFactory implements BloomFilterFactory<BinaryFuseFilter, ExpirableBloomFilterConfig> {
+    @Override
+    public BinaryFuseFilter createFilter(ExpirableBloomFilterConfig config) {
+        final Collection<String> values = config.values();
+        if (values == null) {
+            throw new IllegalArgumentException("values are required to build filter of type: " +
+                    BloomFilterType.SEALED.typeName());
+        }
+
+        final ZonedDateTime creation = config.creation();
+        final ZonedDateTime expiration = config.expiration(creation);
+
+        return BinaryFuseFilter.build(
+                values,
+                creation,
+                expiration,
+                config.validPeriodAfterAccess());
+    }
+
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        final Collection<String> values = config.values();
+        return values == null ? 0 : BinaryFuseFilter.estimatedMemoryBytes(values.size());
+    }
+
+    @Override
+    public BinaryFuseFilter readFrom(InputStream stream) throws IOException {
+        return BinaryFuseFilter.readFrom(stream);
+    }
+
+    @Override
+    public BinaryFuseFilter readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type != BloomFilterType.SEALED) {
+            throw new InvalidFilterException("unsupported filter type: " + type.typeName());
+        }
+        return readFrom(stream);
+    }
+}
@@ -0,0 +1,414 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.HeapLongArray;
+import cn.leancloud.filter.service.utils.LongArray;
+import cn.leancloud.filter.service.utils.MappedLongArray;
+import cn.leancloud.filter.service.utils.Timer;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * A cache-line-blocked Bloom filter. Unlike {@link GuavaBloomFilter} which spreads the k probes
+ * of a value over the whole bit array, this filter picks a 512 bits (64 bytes) block for each
+ * value and puts all the k probes inside that block. So every {@link #set(String)} or
+ * {@link #mightContain(String)} only touches one cache line in most cases (the JVM do not promise
+ * the alignment of the backing array, so a block may span two cache lines at worst).
+ * <p>
+ * Concentrating the probes in a block increases the real false positive probability a bit for
+ * the same number of bits, so we compute the number of bits needed by the blocked layout to reach
+ * the desired fpp instead of using the classic formula directly.
+ * <p>
+ * The bits can be stored on heap, or off heap in a file mapped to memory from a {@link MappedStorageDirectory}.
+ * An off-heap filter is persisted by flushing the mapped file then only writing the name of that file
+ * along with the metadata of the filter, so its bits are never copied on persistence or recovery.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class BlockedBloomFilter extends AbstractExpirableBloomFilter {
+    static final int BLOCK_BITS = 512;
+    static final int LONGS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+    private static final int MAX_NUM_HASH_FUNCTIONS = 32;
+    private static final long PROBE_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final byte HEAP_STORAGE = 0;
+    private static final byte MAPPED_STORAGE = 1;
+
+    static BlockedBloomFilter readFrom(InputStream in, @Nullable MappedStorageDirectory storageDirectory)
+            throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final int numHashFunctions = din.readInt();
+        final byte storage = din.readByte();
+        final int numLongs = din.readInt();
+        final LongArray bits;
+        switch (storage) {
+            case HEAP_STORAGE:
+                final HeapLongArray heapBits = new HeapLongArray(numLongs);
+                for (int i = 0; i < numLongs; i++) {
+                    heapBits.lazySet(i, din.readLong());
+                }
+                bits = heapBits;
+                break;
+            case MAPPED_STORAGE:
+                final String fileName = din.readUTF();
+                if (storageDirectory == null) {
+                    throw new InvalidFilterException("got off-heap blocked Bloom filter with mapped file: " + fileName +
+                            " but off-heap storage is not enabled");
+                }
+                bits = storageDirectory.open(fileName, numLongs);
+                break;
+            default:
+                throw new InvalidFilterException("unknown storage: " + storage + " for blocked Bloom filter");
+        }
+
+        return new BlockedBloomFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                numHashFunctions,
+                bits,
+                storageDirectory,
+                Timer.DEFAULT_TIMER);
+    }
+
+    private final int numHashFunctions;
+    private final int numBlocks;
+    private final LongArray bits;
+    @Nullable
+    private final MappedStorageDirectory storageDirectory;
+
+    BlockedBloomFilter(int expectedInsertions,
+                       double fpp,
+                       ZonedDateTime created,
+                       ZonedDateTime expiration,
+                       @Nullable Duration validPeriodAfterAccess) {
+        this(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Constructor for {@link BlockedBloomFilter}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the constructed {@code BlockedBloomFilter};
+     *                               must be positive
+     * @param fpp                    the desired false positive probability (must be positive and less than 1.0)
+     * @param created                the creation time for the constructed {@code BlockedBloomFilter}
+     * @param expiration             the expiration time of the constructed {@code BlockedBloomFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset
+     */
+    BlockedBloomFilter(int expectedInsertions,
+                       double fpp,
+                       ZonedDateTime created,
+                       ZonedDateTime expiration,
+                       @Nullable Duration validPeriodAfterAccess,
+                       Timer timer) {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                optimalNumOfHashFunctions(bitsPerKey(fpp)),
+                new HeapLongArray(numLongs(expectedInsertions, fpp)),
+                null,
+                timer);
+    }
+
+    /**
+     * Constructor for an off-heap {@link BlockedBloomFilter} whose bits are stored in a new file
+     * allocated from {@code storageDirectory}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the constructed {@code BlockedBloomFilter};
+     *                               must be positive
+     * @param fpp                    the desired false positive probability (must be positive and less than 1.0)
+     * @param created                the creation time for the constructed {@code BlockedBloomFilter}
+     * @param expiration             the expiration time of the constructed {@code BlockedBloomFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param storageDirectory       the directory to allocate the file to store bits
+     * @throws IOException if failed to allocate the file to store bits
+     */
+    BlockedBloomFilter(int expectedInsertions,
+                       double fpp,
+                       ZonedDateTime created,
+                       ZonedDateTime expiration,
+                       @Nullable Duration validPeriodAfterAccess,
+                       MappedStorageDirectory storageDirectory) throws IOException {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                optimalNumOfHashFunctions(bitsPerKey(fpp)),
+                storageDirectory.allocate(numLongs(expectedInsertions, fpp)),
+                storageDirectory,
+                Timer.DEFAULT_TIMER);
+    }
+
+    private BlockedBloomFilter(int expectedInsertions,
+                               double fpp,
+                               ZonedDateTime created,
+                               ZonedDateTime expiration,
+                               @Nullable Duration validPeriodAfterAccess,
+                               int numHashFunctions,
+                               LongArray bits,
+                               @Nullable MappedStorageDirectory storageDirectory,
+                               Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        if (bits.length() == 0 || bits.length() % LONGS_PER_BLOCK != 0) {
+            throw new InvalidFilterException("invalid bit array length: " + bits.length() +
+                    " for blocked Bloom filter (expected: a positive multiple of " + LONGS_PER_BLOCK + ")");
+        }
+        if (numHashFunctions <= 0 || numHashFunctions > MAX_NUM_HASH_FUNCTIONS) {
+            throw new InvalidFilterException("invalid number of hash functions: " + numHashFunctions +
+                    " for blocked Bloom filter (expected: > 0 && <= " + MAX_NUM_HASH_FUNCTIONS + ")");
+        }
+        this.numHashFunctions = numHashFunctions;
+        this.numBlocks = bits.length() / LONGS_PER_BLOCK;
+        this.bits = bits;
+        this.storageDirectory = storageDirectory;
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.BLOCKED;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        return bitSize() / Byte.SIZE;
+    }
+
+    @Override
+    public HashScheme hashScheme() {
+        return HashScheme.MURMUR3_64;
+    }
+
+    @Override
+    public boolean set(String value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(ByteBuffer value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(HashCode hash) {
+        HashScheme.MURMUR3_64.checkHash(hash);
+        return setHash(hash.asLong());
+    }
+
+    private boolean setHash(long hash) {
+        final int blockOffset = blockOffset(hash);
+        long probe = hash;
+        boolean bitsChanged = false;
+        for (int i = 0; i < numHashFunctions; i++) {
+            probe *= PROBE_MULTIPLIER;
+            final int bitIndex = (int) (probe >>> 55);
+            bitsChanged |= setBit(blockOffset + (bitIndex >>> 6), 1L << bitIndex);
+        }
+        tryExtendExpiration();
+        return bitsChanged;
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        HashScheme.MURMUR3_64.checkHash(hash);
+        return mightContainHash(hash.asLong());
+    }
+
+    private boolean mightContainHash(long hash) {
+        final int blockOffset = blockOffset(hash);
+        long probe = hash;
+        boolean contain = true;
+        for (int i = 0; i < numHashFunctions; i++) {
+            probe *= PROBE_MULTIPLIER;
+            final int bitIndex = (int) (probe >>> 55);
+            if ((bits.get(blockOffset + (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                contain = false;
+                break;
+            }
+        }
+        tryExtendExpiration();
+        return contain;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeInt(numHashFunctions);
+        if (bits instanceof MappedLongArray) {
+            final MappedLongArray mappedBits = (MappedLongArray) bits;
+            mappedBits.force();
+            dout.writeByte(MAPPED_STORAGE);
+            dout.writeInt(bits.length());
+            dout.writeUTF(mappedBits.path().getFileName().toString());
+        } else {
+            dout.writeByte(HEAP_STORAGE);
+            dout.writeInt(bits.length());
+            // write a point-in-time image of the bits, so the updates during the writing do not tear it
+            try (HeapLongArray.Snapshot snapshot = ((HeapLongArray) bits).snapshot()) {
+                for (int i = 0; i < snapshot.length(); i++) {
+                    dout.writeLong(snapshot.get(i));
+                }
+            }
+        }
+        dout.flush();
+    }
+
+    @Override
+    public void release() {
+        if (storageDirectory != null) {
+            storageDirectory.release((MappedLongArray) bits);
+        }
+    }
+
+    @JsonGetter("offHeap")
+    @Override
+    public boolean offHeap() {
+        return storageDirectory != null;
+    }
+
+    int numHashFunctions() {
+        return numHashFunctions;
+    }
+
+    long bitSize() {
+        return (long) bits.length() * Long.SIZE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final BlockedBloomFilter that = (BlockedBloomFilter) o;
+        return metadataEquals(that) &&
+                numHashFunctions == that.numHashFunctions &&
+                bits.length() == that.bits.length() &&
+                offHeap() == that.offHeap();
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + numHashFunctions;
+        ret = 31 * ret + bits.length();
+        return ret;
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static long hash(ByteBuffer value) {
+        return HASH_FUNCTION.hashBytes(value.duplicate()).asLong();
+    }
+
+    private int blockOffset(long hash) {
+        // map the high 32 bits of the hash to [0, numBlocks) without division
+        return (int) (((hash >>> 32) * numBlocks) >>> 32) * LONGS_PER_BLOCK;
+    }
+
+    private boolean setBit(int index, long mask) {
+        long oldValue;
+        do {
+            oldValue = bits.get(index);
+            if ((oldValue & mask) != 0) {
+                return false;
+            }
+        } while (!bits.compareAndSet(index, oldValue, oldValue | mask));
+        return true;
+    }
+
+    /**
+     * Compute the number of longs needed by a blocked Bloom filter to store {@code expectedInsertions}
+     * values with the desired false positive probability.
+     */
+    static long estimatedMemoryBytes(int expectedInsertions, double fpp) {
+        return numBlocks(expectedInsertions, fpp) * BLOCK_BITS / Byte.SIZE;
+    }
+
+    static int numLongs(int expectedInsertions, double fpp) {
+        final long numBlocks = numBlocks(expectedInsertions, fpp);
+        if (numBlocks * LONGS_PER_BLOCK > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Could not create blocked Bloom filter of " +
+                    numBlocks * BLOCK_BITS + " bits");
+        }
+        return (int) numBlocks * LONGS_PER_BLOCK;
+    }
+
+    private static long numBlocks(int expectedInsertions, double fpp) {
+        return Math.max(1L, (long) Math.ceil(bitsPerKey(fpp) * expectedInsertions / BLOCK_BITS));
+    }
+
+    /**
+     * Find the minimum bits per key, in a step of 1%, for a blocked Bloom filter to reach the desired
+     * false positive probability. We start from the bits per key of a classic Bloom filter which is
+     * always a lower bound.
+     */
+    static double bitsPerKey(double fpp) {
+        double bitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        for (int i = 0; i < 200 && estimateFpp(bitsPerKey, optimalNumOfHashFunctions(bitsPerKey)) > fpp; i++) {
+            bitsPerKey *= 1.01;
+        }
+        return bitsPerKey;
+    }
+
+    static int optimalNumOfHashFunctions(double bitsPerKey) {
+        return (int) Math.max(1, Math.min(MAX_NUM_HASH_FUNCTIONS, Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    /**
+     * Estimate the false positive probability of a blocked Bloom filter. The number of keys in a
+     * block follows a Poisson distribution with a mean of {@code BLOCK_BITS / bitsPerKey}, and a
+     * block with i keys behaves like a classic Bloom filter with {@code BLOCK_BITS} bits.
+     */
+    static double estimateFpp(double bitsPerKey, int numHashFunctions) {
+        final double lambda = BLOCK_BITS / bitsPerKey;
+        final double logLambda = Math.log(lambda);
+        final int maxKeys = (int) Math.ceil(lambda + 20 * Math.sqrt(lambda) + 20);
+        double logPoisson = -lambda;
+        double fpp = 0;
+        for (int i = 0; i <= maxKeys; i++) {
+            if (i > 0) {
+                logPoisson += logLambda - Math.log(i);
+            }
+            final double bitSetProbability = 1 - Math.pow(1 - 1.0d / BLOCK_BITS, (double) i * numHashFunctions);
+            fpp += Math.exp(logPoisson) * Math.pow(bitSetProbability, numHashFunctions);
+        }
+        return fpp;
+    }
+}
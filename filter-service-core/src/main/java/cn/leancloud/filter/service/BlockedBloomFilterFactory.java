@@ -0,0 +1,78 @@
+package cn.leancloud.filter.service;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+
+public class BlockedBloomFilterFactory implements BloomFilterFactory<BlockedBloomFilter, ExpirableBloomFilterConfig> {
+    @Nullable
+    private final MappedStorageDirectory storageDirectory;
+
+    /**
+     * Create a {@code BlockedBloomFilterFactory} which can only create filters on heap.
+     */
+    BlockedBloomFilterFactory() {
+        this(null);
+    }
+
+    /**
+     * Create a {@code BlockedBloomFilterFactory}.
+     *
+     * @param storageDirectory the directory to store the bits of the off-heap filters. Null to disable
+     *                         off-heap filters.
+     */
+    BlockedBloomFilterFactory(@Nullable MappedStorageDirectory storageDirectory) {
+        this.storageDirectory = storageDirectory;
+    }
+
+    @Override
+    public BlockedBloomFilter createFilter(ExpirableBloomFilterConfig config) {
+        final ZonedDateTime creation = config.creation();
+        final ZonedDateTime expiration = config.expiration(creation);
+
+        if (config.offHeap()) {
+            if (storageDirectory == null) {
+                throw new IllegalStateException("off-heap storage is not enabled");
+            }
+
+            try {
+                return new BlockedBloomFilter(
+                        config.expectedInsertions(),
+                        config.fpp(),
+                        creation,
+                        expiration,
+                        config.validPeriodAfterAccess(),
+                        storageDirectory);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("failed to allocate off-heap storage for filter", ex);
+            }
+        }
+
+        return new BlockedBloomFilter(
+                config.expectedInsertions(),
+                config.fpp(),
+                creation,
+                expiration,
+                config.validPeriodAfterAccess());
+    }
+
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        return BlockedBloomFilter.estimatedMemoryBytes(config.expectedInsertions(), config.fpp());
+    }
+
+    @Override
+    public BlockedBloomFilter readFrom(InputStream stream) throws IOException {
+        return BlockedBloomFilter.readFrom(stream, storageDirectory);
+    }
+
+    @Override
+    public BlockedBloomFilter readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type != BloomFilterType.BLOCKED) {
+            throw new InvalidFilterException("unsupported filter type: " + type.typeName());
+        }
+        return readFrom(stream);
+    }
+}
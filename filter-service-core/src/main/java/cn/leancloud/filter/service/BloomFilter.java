@@ -1,13 +1,32 @@
 package cn.leancloud.filter.service;
 
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An abstract bloom filter interface used to decouple our service
  * with the actual bloom filter implementations.
+ * <p>
+ * Values can be either {@code String}s or binary keys. A binary key is the remaining bytes of a
+ * {@link ByteBuffer} or all the bytes of a {@code byte[]}, and it's the same value as the {@code String}
+ * encoded to the same bytes in UTF-8. So {@code set("abc")} followed by
+ * {@code mightContain("abc".getBytes(StandardCharsets.UTF_8))} returns true.
+ * <p>
+ * Values can also be given by their hashes computed by the clients with the {@link HashScheme} declared by
+ * {@link #hashScheme()}, which saves hashing the values again in this service.
  */
 public interface BloomFilter {
+    /**
+     * Get the type of this {@code BloomFilter}.
+     *
+     * @return the type of this {@code BloomFilter}
+     */
+    BloomFilterType type();
+
     /**
      * Get the number of expected insertions to this {@code BloomFilter}.
      *
@@ -33,6 +52,27 @@ public interface BloomFilter {
      */
     boolean mightContain(String value);
 
+    /**
+     * Same as {@link #mightContain(String)} but with the remaining bytes of a {@link ByteBuffer} as the
+     * value. The position of the buffer is not changed.
+     *
+     * @param value the testing value
+     * @return true if the {@code value} <i>might</i> have been put in this
+     * filter, false if this is <i>definitely</i> not the case.
+     */
+    boolean mightContain(ByteBuffer value);
+
+    /**
+     * Same as {@link #mightContain(String)} but with all the bytes of a {@code byte[]} as the value.
+     *
+     * @param value the testing value
+     * @return true if the {@code value} <i>might</i> have been put in this
+     * filter, false if this is <i>definitely</i> not the case.
+     */
+    default boolean mightContain(byte[] value) {
+        return mightContain(ByteBuffer.wrap(value));
+    }
+
     /**
      * Puts an element into this {@code BloomFilter}. Ensures that subsequent invocations of {@link
      * #mightContain(String)} with the same element will always return {@code true}.
@@ -46,6 +86,120 @@ public interface BloomFilter {
      */
     boolean set(String value);
 
+    /**
+     * Same as {@link #set(String)} but with the remaining bytes of a {@link ByteBuffer} as the value.
+     * The position of the buffer is not changed.
+     *
+     * @param value the value to put into this {@code BloomFilter}
+     * @return true if the Bloom filter's bits changed as a result of this operation
+     */
+    boolean set(ByteBuffer value);
+
+    /**
+     * Same as {@link #set(String)} but with all the bytes of a {@code byte[]} as the value.
+     *
+     * @param value the value to put into this {@code BloomFilter}
+     * @return true if the Bloom filter's bits changed as a result of this operation
+     */
+    default boolean set(byte[] value) {
+        return set(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Get the scheme of the hashes accepted by {@link #mightContain(HashCode)} and {@link #set(HashCode)}.
+     *
+     * @return the scheme of the accepted hashes, or null if this {@code BloomFilter} do not accept hashes
+     */
+    @Nullable
+    default HashScheme hashScheme() {
+        return null;
+    }
+
+    /**
+     * Same as {@link #mightContain(String)} but with the hash of the value computed with the
+     * {@link #hashScheme()} of this {@code BloomFilter}.
+     *
+     * @param hash the hash of the testing value
+     * @return true if the value <i>might</i> have been put in this
+     * filter, false if this is <i>definitely</i> not the case.
+     * @throws UnsupportedOperationException if this {@code BloomFilter} do not accept hashes
+     * @throws IllegalArgumentException      if the hash has less bits than required by {@link #hashScheme()}
+     */
+    default boolean mightContain(HashCode hash) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() + " do not support hashes");
+    }
+
+    /**
+     * Same as {@link #set(String)} but with the hash of the value computed with the {@link #hashScheme()}
+     * of this {@code BloomFilter}.
+     *
+     * @param hash the hash of the value to put into this {@code BloomFilter}
+     * @return true if the Bloom filter's bits changed as a result of this operation
+     * @throws UnsupportedOperationException if this {@code BloomFilter} do not accept hashes
+     * @throws IllegalArgumentException      if the hash has less bits than required by {@link #hashScheme()}
+     */
+    default boolean set(HashCode hash) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() + " do not support hashes");
+    }
+
+    /**
+     * Check if this {@code BloomFilter} supports {@link #remove(String)}.
+     *
+     * @return true if values can be removed from this {@code BloomFilter}
+     */
+    default boolean supportRemove() {
+        return false;
+    }
+
+    /**
+     * Removes an element from this {@code BloomFilter}. Only supported when {@link #supportRemove()}
+     * returns true.
+     *
+     * @param value the value to remove from this {@code BloomFilter}
+     * @return true if the {@code value} <i>might</i> have been put in this filter and was removed,
+     * false if the {@code value} is <i>definitely</i> not in this filter
+     * @throws UnsupportedOperationException if this {@code BloomFilter} do not support remove
+     */
+    default boolean remove(String value) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() + " do not support remove");
+    }
+
+    /**
+     * Same as {@link #remove(String)} but with the remaining bytes of a {@link ByteBuffer} as the value.
+     * The position of the buffer is not changed.
+     *
+     * @param value the value to remove from this {@code BloomFilter}
+     * @return true if the {@code value} <i>might</i> have been put in this filter and was removed,
+     * false if the {@code value} is <i>definitely</i> not in this filter
+     * @throws UnsupportedOperationException if this {@code BloomFilter} do not support remove
+     */
+    default boolean remove(ByteBuffer value) {
+        throw new UnsupportedOperationException("filter of type: " + type().typeName() + " do not support remove");
+    }
+
+    /**
+     * Same as {@link #remove(String)} but with all the bytes of a {@code byte[]} as the value.
+     *
+     * @param value the value to remove from this {@code BloomFilter}
+     * @return true if the {@code value} <i>might</i> have been put in this filter and was removed,
+     * false if the {@code value} is <i>definitely</i> not in this filter
+     * @throws UnsupportedOperationException if this {@code BloomFilter} do not support remove
+     */
+    default boolean remove(byte[] value) {
+        return remove(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Drop the oldest generation of values in this {@code BloomFilter} if it's time to do so. Only
+     * {@link BloomFilterType#ROTATING} filters have generations, other filters do nothing here.
+     * It's called periodically by a background job.
+     *
+     * @return true if this {@code BloomFilter} was rotated
+     */
+    default boolean tryRotate() {
+        return false;
+    }
+
     /**
      * Check if this {@code BloomFilter} is still valid. Only valid {@code BloomFilter} can stay
      * in this service. Otherwise, it should be cleaned in an appropriate time.
@@ -55,10 +209,101 @@ public interface BloomFilter {
     boolean valid();
 
     /**
-     * Serialize this {@code BloomFilter} to a {@link OutputStream}.
+     * Get the estimated bytes of memory occupied by the bits of this {@code BloomFilter}. The estimation
+     * of most filters is decided on creation and never changes afterwards. Filters which grow after
+     * creation, like {@link ScalableBloomFilter}, count the memory of the grown parts as well, and reserve
+     * it from the {@link MemoryBudget} attached by {@link #attachMemoryBudget(MemoryBudget)} before growing.
+     *
+     * @return the estimated bytes of memory occupied by this {@code BloomFilter}
+     */
+    long estimatedMemoryBytes();
+
+    /**
+     * Attach the {@link MemoryBudget} to reserve memory from when this {@code BloomFilter} grows. Filters
+     * which never grow after creation ignore the budget.
+     *
+     * @param budget the {@link MemoryBudget} to reserve memory from
+     * @return the estimated bytes of memory occupied by this {@code BloomFilter} when the budget is attached,
+     * the memory allocated afterwards is reserved from the budget
+     */
+    default long attachMemoryBudget(MemoryBudget budget) {
+        return estimatedMemoryBytes();
+    }
+
+    /**
+     * Detach the {@link MemoryBudget} attached by {@link #attachMemoryBudget(MemoryBudget)}, so the memory
+     * allocated afterwards is no longer reserved from it.
+     *
+     * @return the estimated bytes of memory occupied by this {@code BloomFilter} when the budget is detached,
+     * which is all the memory accounted in the budget for this {@code BloomFilter}
+     */
+    default long detachMemoryBudget() {
+        return estimatedMemoryBytes();
+    }
+
+    /**
+     * Get the time in milliseconds since the epoch after which this {@code BloomFilter} may become invalid.
+     * It's only a hint to check {@link #valid()} no earlier than necessary. The default implementation
+     * returns {@link Long#MIN_VALUE} which means the validity of this {@code BloomFilter} should be checked
+     * every time.
+     *
+     * @return the time in milliseconds since the epoch after which this {@code BloomFilter} may become invalid
+     */
+    default long expirationMillis() {
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Push off the expiration of this {@code BloomFilter} forward to the given time, if it's earlier than that.
+     * It's used to restore the expiration recorded apart from the serialized form of this {@code BloomFilter},
+     * which may be extended by accesses after the serialized form was written. The default implementation
+     * does nothing, as the validity of such a {@code BloomFilter} does not depend on an expiration.
+     *
+     * @param expirationMillis the time in milliseconds since the epoch to extend the expiration to
+     */
+    default void extendExpiration(long expirationMillis) {}
+
+    /**
+     * Check if the bits of this {@code BloomFilter} are stored off heap, in a file mapped into memory.
+     * The serialized form of such a {@code BloomFilter} only refers to its backing file.
+     *
+     * @return true if the bits of this {@code BloomFilter} are stored off heap
+     */
+    default boolean offHeap() {
+        return false;
+    }
+
+    /**
+     * Check if this {@code BloomFilter} was changed since the last call of {@link #clearDirty()}, so it
+     * needs to be persisted again. The default implementation does not track changes and always returns
+     * true.
+     *
+     * @return true if this {@code BloomFilter} may have been changed since it was persisted last time
+     */
+    default boolean dirty() {
+        return true;
+    }
+
+    /**
+     * Mark this {@code BloomFilter} as not changed. It's called right before this {@code BloomFilter} is
+     * persisted, so any change during the persistence marks it dirty again.
+     */
+    default void clearDirty() {}
+
+    /**
+     * Serialize this {@code BloomFilter} to a {@link OutputStream}. It may be called while this
+     * {@code BloomFilter} is being updated, in which case the implementations should write an image of
+     * this {@code BloomFilter} at a point in time instead of a mix of the values before and after the updates.
      *
      * @param out the {@link OutputStream} to write to
      * @throws IOException if an I/O error occurs.
      */
     void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Release the resources held by this {@code BloomFilter}, like the file used to store its bits.
+     * It's called after this {@code BloomFilter} was removed from the service. The operations in flight
+     * on a released {@code BloomFilter} are still safe but there's no guarantee for their results.
+     */
+    default void release() {}
 }
@@ -18,6 +18,16 @@ public interface BloomFilterFactory<F extends BloomFilter, C extends BloomFilter
      */
     F createFilter(C config);
 
+    /**
+     * Estimate the bytes of memory occupied by the {@link BloomFilter} created with the input configuration,
+     * without creating it. It should be the same as the {@link BloomFilter#estimatedMemoryBytes()} of the
+     * created {@link BloomFilter}.
+     *
+     * @param config the configuration used to create {@link BloomFilter}
+     * @return the estimated bytes of memory occupied by the {@link BloomFilter}
+     */
+    long estimatedMemoryBytes(C config);
+
     /**
      * Deserialize a {@link BloomFilter} with type T from a {@link InputStream}.
      *
@@ -26,4 +36,22 @@ public interface BloomFilterFactory<F extends BloomFilter, C extends BloomFilter
      * @throws IOException if any I/O error occurs
      */
     F readFrom(InputStream stream) throws IOException;
+
+    /**
+     * Deserialize a {@link BloomFilter} with the given {@link BloomFilterType} from a {@link InputStream}.
+     * Factories which can produce several types of {@link BloomFilter} should override this method. The
+     * default implementation only accepts {@link BloomFilterType#GUAVA} which is the type of all the
+     * filters persisted before the type was introduced.
+     *
+     * @param type   the type of the {@link BloomFilter} to deserialize
+     * @param stream the {@link InputStream} to read from
+     * @return a {@link BloomFilter} deserialized from the bytes read from the {@code InputStream}
+     * @throws IOException if any I/O error occurs
+     */
+    default F readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type != BloomFilterType.GUAVA) {
+            throw new InvalidFilterException("unsupported filter type: " + type.typeName());
+        }
+        return readFrom(stream);
+    }
 }
@@ -1,16 +1,30 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.BloomFilterManager.CreateFilterResult;
+import cn.leancloud.filter.service.WriteAheadLog.Operation;
+import cn.leancloud.filter.service.WriteAheadLog.SyncPolicy;
+import cn.leancloud.filter.service.WriteAheadLog.ValueType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.google.common.hash.HashCode;
 import com.linecorp.armeria.common.HttpResponse;
 import com.linecorp.armeria.common.HttpStatus;
 import com.linecorp.armeria.common.MediaType;
 import com.linecorp.armeria.server.annotation.*;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static cn.leancloud.filter.service.ServiceParameterPreconditions.checkNotNull;
 import static cn.leancloud.filter.service.ServiceParameterPreconditions.checkParameter;
@@ -21,11 +35,29 @@ import static cn.leancloud.filter.service.ServiceParameterPreconditions.checkPar
 @ExceptionHandler(GlobalExceptionHandler.class)
 public final class BloomFilterHttpService {
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null);
 
     private final BloomFilterManager<?, ? super ExpirableBloomFilterConfig> bloomFilterManager;
+    @Nullable
+    private final WriteAheadLog writeAheadLog;
 
     public BloomFilterHttpService(BloomFilterManager<?, ? super ExpirableBloomFilterConfig> bloomFilterManager) {
+        this(bloomFilterManager, null);
+    }
+
+    /**
+     * Create the service with a {@link WriteAheadLog} to log the values set or removed by the requests.
+     * The creation and the deletion of the filters are logged by listening on the {@link BloomFilterManager}.
+     * A request which sets or removes values is responded after the values are written to the log, except
+     * when the log is configured with {@link SyncPolicy#NEVER}.
+     *
+     * @param bloomFilterManager the manager of the filters
+     * @param writeAheadLog      the log to append the values to, or null to not log them
+     */
+    public BloomFilterHttpService(BloomFilterManager<?, ? super ExpirableBloomFilterConfig> bloomFilterManager,
+                                  @Nullable WriteAheadLog writeAheadLog) {
         this.bloomFilterManager = bloomFilterManager;
+        this.writeAheadLog = writeAheadLog;
     }
 
     @Put("/{name}")
@@ -37,6 +69,11 @@ public final class BloomFilterHttpService {
                 req.get("validPeriodAfterCreate") : req.get("validPeriod");
         final JsonNode validPeriodAfterAccess = req.get("validPeriodAfterAccess");
         final JsonNode overwrite = req.get("overwrite");
+        final JsonNode type = req.get("type");
+        final JsonNode offHeap = req.get("offHeap");
+        final JsonNode scalable = req.get("scalable");
+        final JsonNode rotationPeriod = req.get("rotationPeriod");
+        final JsonNode generations = req.get("generations");
         final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
 
         if (expectedInsertions != null) {
@@ -54,16 +91,74 @@ public final class BloomFilterHttpService {
             config.setValidPeriodAfterAccess(Duration.ofSeconds(validPeriodAfterAccess.intValue()));
         }
 
-        final CreateFilterResult<?> createResult;
-        if (overwrite != null && overwrite.isBoolean() && overwrite.asBoolean()) {
-            createResult = bloomFilterManager.createFilter(name, config, true);
-        } else {
-            createResult = bloomFilterManager.createFilter(name, config);
+        if (type != null) {
+            final BloomFilterType filterType = BloomFilterType.fromTypeName(type.asText());
+            checkParameter("type", filterType != null, "unknown filter type: %s", type.asText());
+            checkParameter("type", filterType != BloomFilterType.SCALABLE,
+                    "use \"scalable\": true with the type of the sub-filters to create scalable filters");
+            checkParameter("type", filterType != BloomFilterType.ROTATING,
+                    "use \"rotationPeriod\" with the type of the generations to create rotating filters");
+            checkParameter("type", filterType != BloomFilterType.SEALED,
+                    "use the build API to build sealed filters from all of their values");
+            config.setType(filterType);
         }
-        return HttpResponse.of(
-                createResult.isCreated() ? HttpStatus.CREATED : HttpStatus.OK,
-                MediaType.JSON_UTF_8,
-                MAPPER.valueToTree(createResult.getFilter()).toString());
+
+        if (offHeap != null && offHeap.isBoolean() && offHeap.asBoolean()) {
+            checkParameter("offHeap", config.type() == BloomFilterType.BLOCKED,
+                    "only \"%s\" filters can be stored off heap", BloomFilterType.BLOCKED.typeName());
+            config.setOffHeap(true);
+        }
+
+        if (scalable != null && scalable.isBoolean() && scalable.asBoolean()) {
+            checkParameter("scalable", ScalableBloomFilter.supportSubFilterType(config.type()),
+                    "filters of type: %s can not be scalable", config.type().typeName());
+            checkParameter("scalable", !config.offHeap(), "off-heap filters can not be scalable");
+            config.setScalable(true);
+        }
+
+        if (rotationPeriod != null) {
+            checkParameter("rotationPeriod", RotatingBloomFilter.supportSubFilterType(config.type()),
+                    "filters of type: %s can not be rotated", config.type().typeName());
+            checkParameter("rotationPeriod", !config.offHeap(), "off-heap filters can not be rotated");
+            checkParameter("rotationPeriod", !config.scalable(), "scalable filters can not be rotated");
+            config.setRotationPeriod(Duration.ofSeconds(rotationPeriod.intValue()));
+            if (generations != null) {
+                config.setGenerations(generations.intValue());
+            }
+        }
+
+        return createFilter(name, config, overwrite);
+    }
+
+    @Put("/{name}/build")
+    public HttpResponse build(@Param String name,
+                              @RequestObject JsonNode req) {
+        final JsonNode values = checkNotNull("values", req.get("values"));
+        checkParameter("values", values.isArray(), "expect Json array");
+        checkParameter("values", values.size() > 0, "expect non-empty Json array");
+        final JsonNode validPeriodAfterCreate = req.get("validPeriod") == null ?
+                req.get("validPeriodAfterCreate") : req.get("validPeriod");
+        final JsonNode validPeriodAfterAccess = req.get("validPeriodAfterAccess");
+        final JsonNode overwrite = req.get("overwrite");
+
+        final Set<String> sealedValues = new HashSet<>(values.size());
+        for (final JsonNode value : values) {
+            checkParameter("values", value.isTextual(), "expect string type for all values");
+            sealedValues.add(value.textValue());
+        }
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(sealedValues.size(), BinaryFuseFilter.FPP)
+                .setType(BloomFilterType.SEALED)
+                .setValues(sealedValues);
+
+        if (validPeriodAfterCreate != null) {
+            config.setValidPeriodAfterCreate(Duration.ofSeconds(validPeriodAfterCreate.intValue()));
+        }
+
+        if (validPeriodAfterAccess != null) {
+            config.setValidPeriodAfterAccess(Duration.ofSeconds(validPeriodAfterAccess.intValue()));
+        }
+
+        return createFilter(name, config, overwrite);
     }
 
     @Get("/{name}")
@@ -111,39 +206,379 @@ public final class BloomFilterHttpService {
     }
 
     @Post("/{name}/check-and-set")
-    public JsonNode checkAndSet(@Param String name,
-                                @RequestObject JsonNode req)
+    public CompletableFuture<JsonNode> checkAndSet(@Param String name,
+                                                   @RequestObject JsonNode req)
             throws FilterNotFoundException {
         final JsonNode testingValue = checkNotNull("value", req.get("value"));
         checkParameter("value", testingValue.isTextual(), "expect string type");
 
-        final BloomFilter filter = bloomFilterManager.ensureGetValidFilter(name);
-        final boolean contain = !filter.set(testingValue.textValue());
-        return BooleanNode.valueOf(contain);
+        final boolean contain = bloomFilterManager.update(name, filter -> !filter.set(testingValue.textValue()));
+        return acknowledge(logValues(Operation.SET, name, ValueType.STRING,
+                Collections.singletonList(toBytes(testingValue.textValue()))), BooleanNode.valueOf(contain));
     }
 
     @Post("/{name}/multi-check-and-set")
-    public JsonNode multiCheckAndSet(@Param String name,
-                                     @RequestObject JsonNode req)
+    public CompletableFuture<JsonNode> multiCheckAndSet(@Param String name,
+                                                        @RequestObject JsonNode req)
+            throws FilterNotFoundException {
+        final JsonNode values = checkNotNull("values", req.get("values"));
+        checkParameter("values", values.isArray(), "expect Json array");
+
+        final List<byte[]> setValues = new ArrayList<>(values.size());
+        final ArrayNode result;
+        final CompletableFuture<Void> written;
+        try {
+            result = bloomFilterManager.update(name, filter -> {
+                final ArrayNode response = MAPPER.createArrayNode();
+                setValues.clear();
+                for (final JsonNode value : values) {
+                    if (value.isTextual()) {
+                        response.add(BooleanNode.valueOf(!filter.set(value.textValue())));
+                        setValues.add(toBytes(value.textValue()));
+                    } else {
+                        response.add(BooleanNode.FALSE);
+                    }
+                }
+                return response;
+            });
+        } finally {
+            // the values set before a failure are kept in the filter, so they are logged as well
+            written = logValues(Operation.SET, name, ValueType.STRING, setValues);
+        }
+        return acknowledge(written, result);
+    }
+
+    @Post("/{name}/remove")
+    public CompletableFuture<JsonNode> removeValue(@Param String name,
+                                                   @RequestObject JsonNode req)
+            throws FilterNotFoundException {
+        final JsonNode removingValue = checkNotNull("value", req.get("value"));
+        checkParameter("value", removingValue.isTextual(), "expect string type");
+
+        final boolean removed = bloomFilterManager.update(name,
+                filter -> ensureSupportRemove(filter).remove(removingValue.textValue()));
+        if (!removed) {
+            return CompletableFuture.completedFuture(BooleanNode.FALSE);
+        }
+        return acknowledge(logValues(Operation.REMOVE, name, ValueType.STRING,
+                Collections.singletonList(toBytes(removingValue.textValue()))), BooleanNode.TRUE);
+    }
+
+    @Post("/{name}/multi-remove")
+    public CompletableFuture<JsonNode> multiRemoveValues(@Param String name,
+                                                         @RequestObject JsonNode req)
             throws FilterNotFoundException {
         final JsonNode values = checkNotNull("values", req.get("values"));
         checkParameter("values", values.isArray(), "expect Json array");
 
+        final List<byte[]> removedValues = new ArrayList<>(values.size());
+        final ArrayNode result;
+        final CompletableFuture<Void> written;
+        try {
+            result = bloomFilterManager.update(name, filter -> {
+                ensureSupportRemove(filter);
+                final ArrayNode response = MAPPER.createArrayNode();
+                removedValues.clear();
+                for (final JsonNode value : values) {
+                    final boolean removed = value.isTextual() && filter.remove(value.textValue());
+                    response.add(removed);
+                    if (removed) {
+                        removedValues.add(toBytes(value.textValue()));
+                    }
+                }
+                return response;
+            });
+        } finally {
+            written = logValues(Operation.REMOVE, name, ValueType.STRING, removedValues);
+        }
+        return acknowledge(written, result);
+    }
+
+    @Post("/{name}/bytes/check")
+    @ConsumesOctetStream
+    public JsonNode checkBytes(@Param String name,
+                               @RequestObject byte[] value)
+            throws FilterNotFoundException {
+        final BloomFilter filter = bloomFilterManager.ensureGetValidFilter(name);
+        final boolean contain = filter.mightContain(value);
+        return BooleanNode.valueOf(contain);
+    }
+
+    @Post("/{name}/bytes/multi-check")
+    @ConsumesOctetStream
+    public JsonNode multiCheckBytes(@Param String name,
+                                    @RequestObject byte[] values)
+            throws FilterNotFoundException {
+        final List<ByteBuffer> testingValues = splitBinaryValues(values);
+
         final BloomFilter filter = bloomFilterManager.ensureGetValidFilter(name);
         final ArrayNode response = MAPPER.createArrayNode();
-        for (final JsonNode value : values) {
-            if (value.isTextual()) {
-                response.add(BooleanNode.valueOf(!filter.set(value.textValue())));
-            } else {
-                response.add(BooleanNode.FALSE);
-            }
+        for (final ByteBuffer value : testingValues) {
+            response.add(filter.mightContain(value));
+        }
+        return response;
+    }
+
+    @Post("/{name}/bytes/check-and-set")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> checkAndSetBytes(@Param String name,
+                                                        @RequestObject byte[] value)
+            throws FilterNotFoundException {
+        final boolean contain = bloomFilterManager.update(name, filter -> !filter.set(value));
+        return acknowledge(logValues(Operation.SET, name, ValueType.BYTES, Collections.singletonList(value)),
+                BooleanNode.valueOf(contain));
+    }
+
+    @Post("/{name}/bytes/multi-check-and-set")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> multiCheckAndSetBytes(@Param String name,
+                                                             @RequestObject byte[] values)
+            throws FilterNotFoundException {
+        final List<ByteBuffer> testingValues = splitBinaryValues(values);
+
+        final List<ByteBuffer> setValues = new ArrayList<>(testingValues.size());
+        final ArrayNode result;
+        final CompletableFuture<Void> written;
+        try {
+            result = bloomFilterManager.update(name, filter -> {
+                final ArrayNode response = MAPPER.createArrayNode();
+                setValues.clear();
+                for (final ByteBuffer value : testingValues) {
+                    response.add(!filter.set(value));
+                    setValues.add(value);
+                }
+                return response;
+            });
+        } finally {
+            written = logValues(Operation.SET, name, ValueType.BYTES, toBytes(setValues));
+        }
+        return acknowledge(written, result);
+    }
+
+    @Post("/{name}/bytes/remove")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> removeBytes(@Param String name,
+                                                   @RequestObject byte[] value)
+            throws FilterNotFoundException {
+        final boolean removed = bloomFilterManager.update(name, filter -> ensureSupportRemove(filter).remove(value));
+        if (!removed) {
+            return CompletableFuture.completedFuture(BooleanNode.FALSE);
+        }
+        return acknowledge(logValues(Operation.REMOVE, name, ValueType.BYTES, Collections.singletonList(value)),
+                BooleanNode.TRUE);
+    }
+
+    @Post("/{name}/bytes/multi-remove")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> multiRemoveBytes(@Param String name,
+                                                        @RequestObject byte[] values)
+            throws FilterNotFoundException {
+        final List<ByteBuffer> removingValues = splitBinaryValues(values);
+
+        final List<ByteBuffer> removedValues = new ArrayList<>(removingValues.size());
+        final ArrayNode result;
+        final CompletableFuture<Void> written;
+        try {
+            result = bloomFilterManager.update(name, filter -> {
+                ensureSupportRemove(filter);
+                final ArrayNode response = MAPPER.createArrayNode();
+                removedValues.clear();
+                for (final ByteBuffer value : removingValues) {
+                    final boolean removed = filter.remove(value);
+                    response.add(removed);
+                    if (removed) {
+                        removedValues.add(value);
+                    }
+                }
+                return response;
+            });
+        } finally {
+            written = logValues(Operation.REMOVE, name, ValueType.BYTES, toBytes(removedValues));
+        }
+        return acknowledge(written, result);
+    }
+
+    @Post("/{name}/hashes/check")
+    @ConsumesOctetStream
+    public JsonNode checkHash(@Param String name,
+                              @Param String scheme,
+                              @RequestObject byte[] hash)
+            throws FilterNotFoundException {
+        final BloomFilter filter = bloomFilterManager.ensureGetValidFilter(name);
+        final HashScheme hashScheme = ensureSupportHashScheme(filter, scheme);
+        checkParameter("hash", hash.length == hashScheme.bytes(),
+                "invalid length: %s of hash (expected: %s)", hash.length, hashScheme.bytes());
+        final boolean contain = filter.mightContain(HashCode.fromBytes(hash));
+        return BooleanNode.valueOf(contain);
+    }
+
+    @Post("/{name}/hashes/multi-check")
+    @ConsumesOctetStream
+    public JsonNode multiCheckHashes(@Param String name,
+                                     @Param String scheme,
+                                     @RequestObject byte[] hashes)
+            throws FilterNotFoundException {
+        final BloomFilter filter = bloomFilterManager.ensureGetValidFilter(name);
+        final List<HashCode> testingHashes = splitHashes(hashes, ensureSupportHashScheme(filter, scheme));
+
+        final ArrayNode response = MAPPER.createArrayNode();
+        for (final HashCode hash : testingHashes) {
+            response.add(filter.mightContain(hash));
         }
         return response;
     }
 
+    @Post("/{name}/hashes/check-and-set")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> checkAndSetHash(@Param String name,
+                                                       @Param String scheme,
+                                                       @RequestObject byte[] hash)
+            throws FilterNotFoundException {
+        final boolean contain = bloomFilterManager.update(name, filter -> {
+            final HashScheme hashScheme = ensureSupportHashScheme(filter, scheme);
+            checkParameter("hash", hash.length == hashScheme.bytes(),
+                    "invalid length: %s of hash (expected: %s)", hash.length, hashScheme.bytes());
+            return !filter.set(HashCode.fromBytes(hash));
+        });
+        return acknowledge(logValues(Operation.SET, name, ValueType.HASH, Collections.singletonList(hash)),
+                BooleanNode.valueOf(contain));
+    }
+
+    @Post("/{name}/hashes/multi-check-and-set")
+    @ConsumesOctetStream
+    public CompletableFuture<JsonNode> multiCheckAndSetHashes(@Param String name,
+                                                              @Param String scheme,
+                                                              @RequestObject byte[] hashes)
+            throws FilterNotFoundException {
+        final List<byte[]> setHashes = new ArrayList<>();
+        final ArrayNode result;
+        final CompletableFuture<Void> written;
+        try {
+            result = bloomFilterManager.update(name, filter -> {
+                final List<HashCode> testingHashes = splitHashes(hashes, ensureSupportHashScheme(filter, scheme));
+
+                final ArrayNode response = MAPPER.createArrayNode();
+                setHashes.clear();
+                for (final HashCode hash : testingHashes) {
+                    response.add(!filter.set(hash));
+                    setHashes.add(hash.asBytes());
+                }
+                return response;
+            });
+        } finally {
+            written = logValues(Operation.SET, name, ValueType.HASH, setHashes);
+        }
+        return acknowledge(written, result);
+    }
+
     @Delete("/{name}")
     public HttpResponse remove(@Param String name) {
         bloomFilterManager.remove(name);
         return HttpResponse.of(HttpStatus.OK);
     }
+
+    private HttpResponse createFilter(String name, ExpirableBloomFilterConfig config, @Nullable JsonNode overwrite) {
+        final CreateFilterResult<?> createResult;
+        if (overwrite != null && overwrite.isBoolean() && overwrite.asBoolean()) {
+            createResult = bloomFilterManager.createFilter(name, config, true);
+        } else {
+            createResult = bloomFilterManager.createFilter(name, config);
+        }
+        return HttpResponse.of(
+                createResult.isCreated() ? HttpStatus.CREATED : HttpStatus.OK,
+                MediaType.JSON_UTF_8,
+                MAPPER.valueToTree(createResult.getFilter()).toString());
+    }
+
+    /**
+     * Log the values to the write-ahead log.
+     *
+     * @return a future completed when the response of the operation can be sent. Unless the log never flushes,
+     * it's completed after the values are written, so an operation acknowledged is not lost on a crash
+     */
+    private CompletableFuture<Void> logValues(Operation operation, String name, ValueType type, List<byte[]> values) {
+        if (writeAheadLog == null || values.isEmpty()) {
+            return WRITTEN;
+        }
+
+        final CompletableFuture<Void> written = writeAheadLog.logValues(operation, name, type, values);
+        return writeAheadLog.syncPolicy() == SyncPolicy.NEVER ? WRITTEN : written;
+    }
+
+    private static CompletableFuture<JsonNode> acknowledge(CompletableFuture<Void> written, JsonNode response) {
+        return written.thenApply(unused -> response);
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<byte[]> toBytes(List<ByteBuffer> values) {
+        final List<byte[]> bytes = new ArrayList<>(values.size());
+        for (final ByteBuffer value : values) {
+            final byte[] array = new byte[value.remaining()];
+            value.duplicate().get(array);
+            bytes.add(array);
+        }
+        return bytes;
+    }
+
+    /**
+     * Split the body of a binary multi-value request into values. Every value in the body is prefixed with
+     * its length in bytes as a 4 bytes big-endian integer. The returned buffers share the content of the body,
+     * so no value is copied.
+     */
+    private static List<ByteBuffer> splitBinaryValues(byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<ByteBuffer> values = new ArrayList<>();
+        int offset = 0;
+        while (offset < body.length) {
+            checkParameter("values", body.length - offset >= Integer.BYTES,
+                    "incomplete length of value at offset: %s", offset);
+            final int length = buffer.getInt(offset);
+            offset += Integer.BYTES;
+            checkParameter("values", length >= 0 && length <= body.length - offset,
+                    "invalid length: %s of value at offset: %s", length, offset);
+            values.add(ByteBuffer.wrap(body, offset, length).slice());
+            offset += length;
+        }
+        return values;
+    }
+
+    /**
+     * Split the body of a multi-hash request into hashes. The hashes in the body are concatenated one after
+     * another, and all of them have the size of the input {@link HashScheme}.
+     */
+    private static List<HashCode> splitHashes(byte[] body, HashScheme scheme) {
+        final int size = scheme.bytes();
+        checkParameter("hashes", body.length % size == 0,
+                "invalid length: %s of hashes (expected: multiple of %s)", body.length, size);
+        final List<HashCode> hashes = new ArrayList<>(body.length / size);
+        for (int offset = 0; offset < body.length; offset += size) {
+            hashes.add(HashCode.fromBytes(Arrays.copyOfRange(body, offset, offset + size)));
+        }
+        return hashes;
+    }
+
+    private static HashScheme ensureSupportHashScheme(BloomFilter filter, String schemeName) {
+        final HashScheme scheme = HashScheme.fromSchemeName(schemeName);
+        checkParameter("scheme", scheme != null, "unknown hash scheme: %s", schemeName);
+        assert scheme != null;
+        final HashScheme filterScheme = filter.hashScheme();
+        if (filterScheme == null) {
+            throw new UnsupportedOperationException("filter of type: " + filter.type().typeName() +
+                    " do not support hashes");
+        }
+        checkParameter("scheme", scheme.compatibleWith(filterScheme),
+                "hash scheme: %s can not be used by filter with hash scheme: %s", schemeName, filterScheme.schemeName());
+        return scheme;
+    }
+
+    private static BloomFilter ensureSupportRemove(BloomFilter filter) {
+        if (!filter.supportRemove()) {
+            throw new UnsupportedOperationException("filter of type: " + filter.type().typeName() +
+                    " do not support remove");
+        }
+        return filter;
+    }
 }
@@ -2,6 +2,7 @@ package cn.leancloud.filter.service;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * A manager to manage {@link BloomFilter}s.
@@ -96,6 +97,18 @@ public interface BloomFilterManager<F extends BloomFilter, C extends BloomFilter
     @Nullable
     F getFilter(String name);
 
+    /**
+     * Get the Bloom filter with the input name including the invalid one, only if it's in memory. Unlike
+     * {@link #getFilter(String)}, an evicted filter is not loaded back, and the filter is not taken as accessed,
+     * so background jobs can check the filters without keeping them in memory.
+     *
+     * @param name the name of the target Bloom filter
+     * @return the Bloom filter if it exists in memory, or null if no Bloom filter with
+     * the target name in the memory of this manager
+     */
+    @Nullable
+    F peekFilter(String name);
+
     /**
      * Get the Bloom filter with the input name. The difference between this method
      * and {@link #getFilter(String)} is that this method will throw a {@link FilterNotFoundException}
@@ -109,6 +122,23 @@ public interface BloomFilterManager<F extends BloomFilter, C extends BloomFilter
      */
     F ensureGetValidFilter(String name) throws FilterNotFoundException;
 
+    /**
+     * Apply an update on the valid Bloom filter with the input name. The default implementation applies the
+     * update on the filter returned by {@link #ensureGetValidFilter(String)}. An implementation which may
+     * move the filter out of memory concurrently should make sure the update is not lost on the instance
+     * moved out.
+     *
+     * @param name   the name of the target Bloom filter
+     * @param update the update to apply on the filter
+     * @param <R>    the type of the result of the update
+     * @return the result of the update
+     * @throws FilterNotFoundException when there's no valid Bloom filter with the target name
+     *                                 exists in this manager
+     */
+    default <R> R update(String name, Function<? super F, ? extends R> update) throws FilterNotFoundException {
+        return update.apply(ensureGetValidFilter(name));
+    }
+
     /**
      * Returns all the names of the Bloom filters in this manager including the invalid ones.
      *
@@ -1,76 +1,238 @@
 package cn.leancloud.filter.service;
 
+import cn.leancloud.filter.service.ColdFilterStorage.ColdFilter;
+import cn.leancloud.filter.service.utils.Timer;
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public final class BloomFilterManagerImpl<T extends BloomFilter, C extends BloomFilterConfig<? extends C>>
         implements BloomFilterManager<T, C>,
         Listenable<BloomFilterManagerListener<? super T, C>> {
+    private static final Logger logger = LoggerFactory.getLogger(BloomFilterManagerImpl.class);
     private static final FilterNotFoundException FILTER_NOT_FOUND_EXCEPTION = new FilterNotFoundException();
+    // the last access time of a filter is only updated when it advances by at least this many milliseconds,
+    // which is precise enough to pick the least recently accessed filters to evict
+    private static final long ACCESS_TIME_GRANULARITY_MILLIS = 1000;
 
     private final List<BloomFilterManagerListener<? super T, C>> listeners;
     private final ConcurrentHashMap<String, T> filterMap;
     private final BloomFilterFactory<? extends T, ? super C> factory;
-    private final Lock filterMapLock = new ReentrantLock();
+    private final long maxFilterMemoryBytes;
+    private final long maxTotalFilterMemoryBytes;
+    private final AtomicLong usedMemoryBytes;
+    private final MemoryBudget memoryBudget;
+    @Nullable
+    private final ColdFilterStorage<T> coldFilterStorage;
+    private final ConcurrentHashMap<String, ColdFilter> coldFilters;
+    private final ConcurrentHashMap<String, Long> lastAccessMillis;
+    // the instances evicted from memory, only kept while they are still referenced by the in-flight updates
+    private final Set<T> evictedFilters;
+    private final long coldFilterWatermarkBytes;
+    private final long coldFilterMinIdleMillis;
+    private final Timer timer;
 
     BloomFilterManagerImpl(BloomFilterFactory<? extends T, ? super C> factory) {
+        this(factory, Configuration.maxFilterMemoryBytes(), Configuration.maxTotalFilterMemoryBytes());
+    }
+
+    BloomFilterManagerImpl(BloomFilterFactory<? extends T, ? super C> factory,
+                           long maxFilterMemoryBytes,
+                           long maxTotalFilterMemoryBytes) {
+        this(factory, maxFilterMemoryBytes, maxTotalFilterMemoryBytes, null,
+                Long.MAX_VALUE, Duration.ZERO, Timer.DEFAULT_TIMER);
+    }
+
+    BloomFilterManagerImpl(BloomFilterFactory<? extends T, ? super C> factory,
+                           ColdFilterStorage<T> coldFilterStorage) {
+        this(factory, Configuration.maxFilterMemoryBytes(), Configuration.maxTotalFilterMemoryBytes(),
+                coldFilterStorage, Configuration.coldFilterWatermarkBytes(), Configuration.coldFilterMinIdle(),
+                Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Create a manager which evicts the filters to a {@link ColdFilterStorage} when {@link #evictColdFilters()}
+     * finds that the memory of all the filters exceeds {@code coldFilterWatermarkBytes}.
+     *
+     * @param factory                   the factory to create filters
+     * @param maxFilterMemoryBytes      the max estimated memory of a single filter
+     * @param maxTotalFilterMemoryBytes the max estimated memory of all the filters
+     * @param coldFilterStorage         the storage of the evicted filters, or null to never evict filters
+     * @param coldFilterWatermarkBytes  the memory of all the filters above which filters are evicted
+     * @param coldFilterMinIdle         only the filters not accessed for at least this long can be evicted
+     * @param timer                     the timer to get the access time of the filters
+     */
+    BloomFilterManagerImpl(BloomFilterFactory<? extends T, ? super C> factory,
+                           long maxFilterMemoryBytes,
+                           long maxTotalFilterMemoryBytes,
+                           @Nullable ColdFilterStorage<T> coldFilterStorage,
+                           long coldFilterWatermarkBytes,
+                           Duration coldFilterMinIdle,
+                           Timer timer) {
         this.filterMap = new ConcurrentHashMap<>();
         this.factory = factory;
         this.listeners = new CopyOnWriteArrayList<>();
+        this.maxFilterMemoryBytes = maxFilterMemoryBytes;
+        this.maxTotalFilterMemoryBytes = maxTotalFilterMemoryBytes;
+        this.usedMemoryBytes = new AtomicLong();
+        this.memoryBudget = new FilterMemoryBudget();
+        this.coldFilterStorage = coldFilterStorage;
+        this.coldFilters = new ConcurrentHashMap<>();
+        this.lastAccessMillis = new ConcurrentHashMap<>();
+        this.evictedFilters = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+        this.coldFilterWatermarkBytes = coldFilterWatermarkBytes;
+        this.coldFilterMinIdleMillis = coldFilterMinIdle.toMillis();
+        this.timer = timer;
     }
 
+    /**
+     * The new filter is allocated outside of any lock and then installed by a per-name compare-and-set on
+     * the filter map, so operations on different names never contend. The operation retries when the filter
+     * with the same name was changed concurrently.
+     * <p>
+     * Before allocating, the estimated memory of the new filter is checked against the limit for a single
+     * filter and reserved from the memory budget for all the filters, so a filter which can not fit is
+     * rejected without allocating it. The memory a filter allocates when it grows after creation is checked
+     * and reserved the same way through the {@link MemoryBudget} attached to it.
+     * <p>
+     * The listeners are notified while the new filter is installed, before any other thread can see it, so
+     * a listener logging the operations sees the creation before any operation on the new filter.
+     */
     @Override
     public CreateFilterResult<T> createFilter(String name, C config, boolean overwrite) {
-        T filter;
-        T prevFilter;
-        boolean created = false;
-        filterMapLock.lock();
-        try {
-            prevFilter = filterMap.get(name);
-            if (overwrite || prevFilter == null || !prevFilter.valid()) {
-                filter = factory.createFilter(config);
-                filterMap.put(name, filter);
-                created = true;
-            } else {
-                filter = prevFilter;
+        T filter = null;
+        while (true) {
+            final T prevFilter = getFilter(name);
+            if (!overwrite && prevFilter != null && prevFilter.valid()) {
+                if (filter != null) {
+                    discard(filter);
+                }
+                return new CreateFilterResult<>(prevFilter, false);
             }
-        } finally {
-            filterMapLock.unlock();
-        }
 
-        if (created) {
-            if (prevFilter != null) {
-                notifyBloomFilterRemoved(name, prevFilter);
+            if (filter == null) {
+                filter = allocate(config);
             }
 
-            notifyBloomFilterCreated(name, config, filter);
-        }
+            final T newFilter = filter;
+            // compare the previous filter by identity rather than by equals, so a filter which is equal to,
+            // but not the same as the one we saw is not replaced silently
+            final T installed = filterMap.compute(name, (k, current) -> {
+                if (current != prevFilter) {
+                    return current;
+                }
 
-        return new CreateFilterResult<>(filter, created);
+                if (prevFilter != null) {
+                    notifyBloomFilterRemoved(name, prevFilter);
+                }
+                notifyBloomFilterCreated(name, config, newFilter);
+                return newFilter;
+            });
+            if (installed == newFilter) {
+                touch(name);
+                if (prevFilter != null) {
+                    releaseMemory(prevFilter.detachMemoryBudget());
+                    deleteColdFilter(name);
+                }
+                return new CreateFilterResult<>(newFilter, true);
+            }
+        }
     }
 
+    /**
+     * Add filters without checking the memory budget, because they were already admitted before, like the
+     * filters recovered from the persistent storage. Their memory is still accounted in the budget. A filter
+     * replaced by an added one is removed the same way as by {@link #remove(String)}.
+     */
     @Override
     public void addFilters(Iterable<FilterRecord<? extends T>> filters) {
-        filterMapLock.lock();
-        try {
-            for (FilterRecord<? extends T> holder : filters) {
-                filterMap.put(holder.name(), holder.filter());
+        for (FilterRecord<? extends T> holder : filters) {
+            final String name = holder.name();
+            final T filter = holder.filter();
+            final T prevFilter = filterMap.put(name, filter);
+            touch(name);
+            // adding the same filter again does not remove it
+            if (prevFilter != filter) {
+                usedMemoryBytes.addAndGet(filter.attachMemoryBudget(memoryBudget));
+                if (prevFilter != null) {
+                    releaseMemory(prevFilter.detachMemoryBudget());
+                    deleteColdFilter(name);
+                    notifyBloomFilterRemoved(name, prevFilter);
+                }
             }
-        } finally {
-            filterMapLock.unlock();
         }
     }
 
+    /**
+     * Add the filters found in the {@link ColdFilterStorage} after a restart. A filter may also be in memory
+     * if it was recovered from a snapshot as well, then the one stored later wins.
+     *
+     * @param coldFilters    the filters found in the {@link ColdFilterStorage}
+     * @param snapshotMillis the time in milliseconds since the epoch when the snapshot of the filters in
+     *                       memory was taken
+     */
+    void addColdFilters(Iterable<ColdFilter> coldFilters, long snapshotMillis) {
+        assert coldFilterStorage != null;
+        for (ColdFilter coldFilter : coldFilters) {
+            final String name = coldFilter.name();
+            if (filterMap.containsKey(name)) {
+                if (coldFilter.storedMillis() <= snapshotMillis) {
+                    // the filter was loaded back and saved again in the snapshot after it was stored
+                    coldFilterStorage.delete(name);
+                    continue;
+                }
+
+                final T filter = filterMap.remove(name);
+                lastAccessMillis.remove(name);
+                if (filter != null) {
+                    discard(filter);
+                }
+            }
+            this.coldFilters.put(name, coldFilter);
+        }
+    }
+
+    /**
+     * Get the Bloom filter with the input name. An evicted filter is loaded back into memory, except
+     * that an evicted filter already expired is dropped and null is returned.
+     */
     @Nullable
     @Override
     public T getFilter(String name) {
+        T filter = filterMap.get(name);
+        if (filter == null) {
+            if (coldFilters.isEmpty()) {
+                return null;
+            }
+            filter = loadColdFilter(name);
+        }
+
+        if (filter != null) {
+            touch(name);
+        }
+        return filter;
+    }
+
+    @Nullable
+    @Override
+    public T peekFilter(String name) {
         return filterMap.get(name);
     }
 
@@ -83,48 +245,151 @@ public final class BloomFilterManagerImpl<T extends BloomFilter, C extends Bloom
         return filter;
     }
 
+    /**
+     * A filter may be evicted while an update is applied on it, then the update applied after the filter
+     * was written to the {@link ColdFilterStorage} is lost. So when the filter was evicted by the end of
+     * the update, the update is applied again on the filter loaded back. Like the operations replayed from
+     * the write-ahead log, an update which was already written may be applied twice, which is harmless to a
+     * Bloom filter, but a counting or a cuckoo filter may count it twice.
+     */
+    @Override
+    public <R> R update(String name, Function<? super T, ? extends R> update) throws FilterNotFoundException {
+        T filter = ensureGetValidFilter(name);
+        while (true) {
+            final R result = update.apply(filter);
+            // weak keys are compared by identity, so an equal filter loaded back is not taken as evicted
+            if (filterMap.get(name) == filter || !evictedFilters.contains(filter)) {
+                return result;
+            }
+            filter = ensureGetValidFilter(name);
+        }
+    }
+
     @Override
     public List<String> getAllFilterNames() {
-        return new ArrayList<>(filterMap.keySet());
+        if (coldFilters.isEmpty()) {
+            return new ArrayList<>(filterMap.keySet());
+        }
+
+        final Set<String> names = new HashSet<>(filterMap.keySet());
+        names.addAll(coldFilters.keySet());
+        return new ArrayList<>(names);
     }
 
     @Override
     public int size() {
-        return filterMap.size();
+        return filterMap.size() + coldFilters.size();
     }
 
+    /**
+     * Remove a Bloom filter with target name from this manager. An evicted filter is removed along with
+     * its file without loading it back, so the listeners are only notified for a filter in memory. Like
+     * on creation, the listeners are notified while the filter is removed, so they see the removal and the
+     * creation of the filters with the same name in the order they happened.
+     */
     @Override
     public void remove(String name) {
-        final T filter;
-
-        filterMapLock.lock();
-        try {
-            filter = filterMap.remove(name);
-        } finally {
-            filterMapLock.unlock();
-        }
-
+        final ColdFilter coldFilter = coldFilters.remove(name);
+        final T filter = removeAndNotify(name, null);
         if (filter != null) {
-            notifyBloomFilterRemoved(name, filter);
+            releaseMemory(filter.detachMemoryBudget());
+            lastAccessMillis.remove(name);
+            deleteColdFilter(name);
+        } else if (coldFilter != null) {
+            deleteColdFilter(name);
         }
     }
 
     @Override
     public void remove(String name, T filter) {
-        final boolean removed;
+        final T removed = removeAndNotify(name, filter);
+        if (removed != null) {
+            releaseMemory(removed.detachMemoryBudget());
+            lastAccessMillis.remove(name);
+            deleteColdFilter(name);
+        }
+    }
 
-        filterMapLock.lock();
-        try {
-            removed = filterMap.remove(name, filter);
-        } finally {
-            filterMapLock.unlock();
+    /**
+     * Evict the filters in memory which were not accessed for the longest time to the {@link ColdFilterStorage},
+     * until the memory of all the filters drops below the watermark. Only the filters not accessed for at least
+     * the min idle time are evicted. Filters stored off heap are never evicted, because their bits are already
+     * backed by files and paged out by the operating system. The evicted filters which expired are dropped here
+     * as well.
+     *
+     * @return how many filters were evicted
+     */
+    synchronized int evictColdFilters() {
+        if (coldFilterStorage == null) {
+            return 0;
         }
 
-        if (removed) {
-            notifyBloomFilterRemoved(name, filter);
+        final long now = timer.currentTimeMillis();
+        for (ColdFilter coldFilter : coldFilters.values()) {
+            if (expired(coldFilter, now) && coldFilters.remove(coldFilter.name(), coldFilter)) {
+                deleteColdFilter(coldFilter.name());
+            }
         }
+
+        if (usedMemoryBytes.get() <= coldFilterWatermarkBytes) {
+            return 0;
+        }
+
+        final List<Map.Entry<String, Long>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Long> e : lastAccessMillis.entrySet()) {
+            if (now - e.getValue() >= coldFilterMinIdleMillis) {
+                candidates.add(e);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Map.Entry::getValue));
+
+        int evicted = 0;
+        for (Map.Entry<String, Long> candidate : candidates) {
+            if (usedMemoryBytes.get() <= coldFilterWatermarkBytes) {
+                break;
+            }
+
+            final String name = candidate.getKey();
+            final T filter = filterMap.get(name);
+            if (filter == null) {
+                // the filter was removed or evicted after it was accessed
+                lastAccessMillis.remove(name, candidate.getValue());
+                continue;
+            }
+
+            if (filter.offHeap()) {
+                continue;
+            }
+
+            if (evict(name, filter, candidate.getValue())) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Get how many filters are evicted from memory.
+     *
+     * @return the number of the evicted filters
+     */
+    int coldFilterSize() {
+        return coldFilters.size();
     }
 
+    /**
+     * Get the total estimated memory of all the filters in memory in this manager.
+     *
+     * @return the total estimated bytes of memory of all the filters in memory
+     */
+    long usedMemoryBytes() {
+        return usedMemoryBytes.get();
+    }
+
+    /**
+     * Iterate the filters in memory. The evicted filters are not included as they are already stored in
+     * their own files.
+     */
     @Override
     public Iterator<FilterRecord<T>> iterator() {
         return filterMap.entrySet().stream().map(e -> new FilterRecord<>(e.getKey(), e.getValue())).iterator();
@@ -140,6 +405,160 @@ public final class BloomFilterManagerImpl<T extends BloomFilter, C extends Bloom
         return listeners.remove(listener);
     }
 
+    private T allocate(C config) {
+        final long estimatedBytes = factory.estimatedMemoryBytes(config);
+        if (estimatedBytes > maxFilterMemoryBytes) {
+            throw new FilterTooLargeException("estimated memory of the filter: " + estimatedBytes +
+                    "B exceeds the limit: " + maxFilterMemoryBytes + "B");
+        }
+
+        reserveMemory(estimatedBytes);
+        final T filter;
+        try {
+            filter = factory.createFilter(config);
+        } catch (RuntimeException | Error ex) {
+            releaseMemory(estimatedBytes);
+            throw ex;
+        }
+        // replace the reservation with the actual estimation of the created filter, which is used on release
+        usedMemoryBytes.addAndGet(filter.attachMemoryBudget(memoryBudget) - estimatedBytes);
+        return filter;
+    }
+
+    private void discard(T filter) {
+        releaseMemory(filter.detachMemoryBudget());
+        filter.release();
+    }
+
+    @Nullable
+    private T loadColdFilter(String name) {
+        assert coldFilterStorage != null;
+        // load the filter while holding the entry of the evicted filter, so it's loaded only once
+        // and can not be evicted or removed concurrently
+        coldFilters.computeIfPresent(name, (k, coldFilter) -> {
+            if (expired(coldFilter, timer.currentTimeMillis())) {
+                deleteColdFilter(name);
+                return null;
+            }
+
+            final T filter;
+            try {
+                filter = coldFilterStorage.read(coldFilter);
+            } catch (IOException ex) {
+                throw new PersistentStorageException("failed to load cold filter: " + name +
+                        " from: " + coldFilter.path(), ex);
+            }
+
+            usedMemoryBytes.addAndGet(filter.attachMemoryBudget(memoryBudget));
+            if (filterMap.putIfAbsent(name, filter) != null) {
+                discard(filter);
+            } else {
+                notifyBloomFilterLoaded(name, filter);
+            }
+            // the file is kept as a backup until the filter is saved again in the next snapshot
+            return null;
+        });
+        return filterMap.get(name);
+    }
+
+    private boolean evict(String name, T filter, long accessMillis) {
+        assert coldFilterStorage != null;
+        final ColdFilter coldFilter;
+        try {
+            coldFilter = coldFilterStorage.write(name, filter);
+        } catch (IOException ex) {
+            logger.warn("Failed to evict filter: {} to cold filter storage.", name, ex);
+            return false;
+        }
+
+        final boolean[] evicted = new boolean[1];
+        coldFilters.compute(name, (k, current) -> {
+            // the filter is only evicted when it's not accessed or replaced during the write
+            if (lastAccessMillis.remove(name, accessMillis)) {
+                // mark the filter before removing it, so an update which finds it removed knows it was evicted
+                evictedFilters.add(filter);
+                if (filterMap.remove(name, filter)) {
+                    evicted[0] = true;
+                    return coldFilter;
+                }
+                evictedFilters.remove(filter);
+                lastAccessMillis.putIfAbsent(name, accessMillis);
+            }
+            return current;
+        });
+
+        if (evicted[0]) {
+            discard(filter);
+        } else if (!filterMap.containsKey(name) && !coldFilters.containsKey(name)) {
+            // the filter was removed during the write
+            coldFilterStorage.delete(name);
+        }
+        return evicted[0];
+    }
+
+    /**
+     * Remove the filter with the input name and notify the listeners while holding the entry of the name.
+     *
+     * @param name     the name of the filter to remove
+     * @param expected only remove the filter when it equals to this one, or null to remove any filter
+     * @return the removed filter, or null when no filter was removed
+     */
+    @Nullable
+    private T removeAndNotify(String name, @Nullable T expected) {
+        final List<T> removed = new ArrayList<>(1);
+        filterMap.computeIfPresent(name, (k, current) -> {
+            if (expected != null && !expected.equals(current)) {
+                return current;
+            }
+
+            notifyBloomFilterRemoved(name, current);
+            removed.add(current);
+            return null;
+        });
+        return removed.isEmpty() ? null : removed.get(0);
+    }
+
+    private void touch(String name) {
+        if (coldFilterStorage == null) {
+            return;
+        }
+
+        final long now = timer.currentTimeMillis();
+        final Long last = lastAccessMillis.get(name);
+        if (last == null || now - last >= ACCESS_TIME_GRANULARITY_MILLIS) {
+            lastAccessMillis.put(name, now);
+        }
+    }
+
+    private void deleteColdFilter(String name) {
+        if (coldFilterStorage != null) {
+            coldFilterStorage.delete(name);
+        }
+    }
+
+    private boolean expired(ColdFilter coldFilter, long now) {
+        // Long.MIN_VALUE means the filter decides its validity by itself, so load it to check
+        return coldFilter.expirationMillis() != Long.MIN_VALUE && now > coldFilter.expirationMillis();
+    }
+
+    private void reserveMemory(long bytes) {
+        while (true) {
+            final long used = usedMemoryBytes.get();
+            if (bytes > maxTotalFilterMemoryBytes - used) {
+                throw new MemoryBudgetExceededException("estimated memory of the filter: " + bytes +
+                        "B exceeds the available memory budget: " + Math.max(0, maxTotalFilterMemoryBytes - used) + "B");
+            }
+
+            if (usedMemoryBytes.compareAndSet(used, used + bytes)) {
+                return;
+            }
+        }
+    }
+
+    private void releaseMemory(long bytes) {
+        usedMemoryBytes.addAndGet(-bytes);
+    }
+
     private void notifyBloomFilterCreated(String name, C config, T filter) {
         notifyListeners(l -> l.onBloomFilterCreated(name, config, filter));
     }
@@ -148,9 +567,33 @@ public final class BloomFilterManagerImpl<T extends BloomFilter, C extends Bloom
         notifyListeners(l -> l.onBloomFilterRemoved(name, filter));
     }
 
+    private void notifyBloomFilterLoaded(String name, T filter) {
+        notifyListeners(l -> l.onBloomFilterLoaded(name, filter));
+    }
+
     private void notifyListeners(Consumer<BloomFilterManagerListener<? super T, C>> consumer) {
         for (BloomFilterManagerListener<? super T, C> listener : listeners) {
             consumer.accept(listener);
         }
     }
+
+    /**
+     * The {@link MemoryBudget} attached to the filters in this manager, which checks the memory a filter
+     * allocates when it grows against the same limits as on creation.
+     */
+    private final class FilterMemoryBudget implements MemoryBudget {
+        @Override
+        public void reserve(long filterBytes, long bytes) {
+            if (bytes > maxFilterMemoryBytes - filterBytes) {
+                throw new FilterFullException("estimated memory of the filter after growing: " + (filterBytes + bytes) +
+                        "B exceeds the limit: " + maxFilterMemoryBytes + "B");
+            }
+            reserveMemory(bytes);
+        }
+
+        @Override
+        public void release(long bytes) {
+            releaseMemory(bytes);
+        }
+    }
 }
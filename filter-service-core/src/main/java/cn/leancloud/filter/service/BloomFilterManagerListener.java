@@ -9,7 +9,8 @@ package cn.leancloud.filter.service;
 public interface BloomFilterManagerListener<F extends BloomFilter, C extends BloomFilterConfig<? extends C>> {
     /**
      * Called when a Bloom filter was created by {@link BloomFilterManager}.
-     * Please note do not block in this method, due to this maybe a synchronous method.
+     * Please note do not block in this method, due to this maybe a synchronous method. It may also be called
+     * while the manager is installing the filter, so do not call back the manager in this method.
      *
      * @param name   the name of the operated filter
      * @param config the configuration used to create the {@code filter}
@@ -19,10 +20,21 @@ public interface BloomFilterManagerListener<F extends BloomFilter, C extends Blo
 
     /**
      * Called when a Bloom filter was removed from {@link BloomFilterManager}.
-     * Please note do not block in this method, due to this maybe a synchronous method.
+     * Please note do not block in this method, due to this maybe a synchronous method. It may also be called
+     * while the manager is removing the filter, so do not call back the manager in this method.
      *
      * @param name   the name of the operated filter
      * @param filter the removed Bloom filter
      */
     default void onBloomFilterRemoved(String name, F filter) {}
+
+    /**
+     * Called when a Bloom filter evicted from the memory of {@link BloomFilterManager} was loaded back.
+     * Please note do not block in this method, due to this maybe a synchronous method. It may also be called
+     * while the manager is loading the filter, so do not call back the manager in this method.
+     *
+     * @param name   the name of the operated filter
+     * @param filter the Bloom filter loaded back
+     */
+    default void onBloomFilterLoaded(String name, F filter) {}
 }
@@ -0,0 +1,99 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * All the types of {@link BloomFilter} supported by this service. Each type has a name used by
+ * the APIs to select the type of a filter on creation, and a magic used by {@link FilterRecord}
+ * to tell how to deserialize a persisted filter.
+ */
+public enum BloomFilterType {
+    /**
+     * Bloom filter backed by the Bloom filter from Guava.
+     */
+    GUAVA("guava", (byte) 0),
+    /**
+     * Bloom filter which puts all the probes for a value in a single cache line sized block.
+     */
+    BLOCKED("blocked", (byte) 1),
+    /**
+     * Bloom filter which uses 4 bits counters instead of bits so values can be removed from it.
+     */
+    COUNTING("counting", (byte) 2),
+    /**
+     * Cuckoo filter which stores a fingerprint for every value and supports removing values.
+     */
+    CUCKOO("cuckoo", (byte) 3),
+    /**
+     * Chain of Bloom filters which grows when more values than expected are put into it. Filters of this type
+     * are created by setting {@link ExpirableBloomFilterConfig#setScalable(boolean)} with the type of the
+     * sub-filters, so this type can not be used to create filters directly.
+     */
+    SCALABLE("scalable", (byte) 4),
+    /**
+     * Immutable binary fuse filter which is built once from all of its values. Filters of this type are built
+     * by setting {@link ExpirableBloomFilterConfig#setValues(Collection)}, and values can not be put into them
+     * after that.
+     */
+    SEALED("sealed", (byte) 5),
+    /**
+     * Bloom filter which keeps a fixed number of generations of sub-filters and drops the oldest generation
+     * periodically, so values are forgotten after a while without dropping all the values at once. Filters of
+     * this type are created by setting {@link ExpirableBloomFilterConfig#setRotationPeriod(Duration)} with the
+     * type of the sub-filters, so this type can not be used to create filters directly.
+     */
+    ROTATING("rotating", (byte) 6);
+
+    private final String typeName;
+    private final byte magic;
+
+    BloomFilterType(String typeName, byte magic) {
+        this.typeName = typeName;
+        this.magic = magic;
+    }
+
+    /**
+     * Get the {@code BloomFilterType} with the input name.
+     *
+     * @param typeName the name of the type
+     * @return the {@code BloomFilterType} with the input name, or null when no type has the input name
+     */
+    @Nullable
+    public static BloomFilterType fromTypeName(String typeName) {
+        for (BloomFilterType type : values()) {
+            if (type.typeName.equals(typeName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the {@code BloomFilterType} with the input magic.
+     *
+     * @param magic the magic of the type
+     * @return the {@code BloomFilterType} with the input magic, or null when no type has the input magic
+     */
+    @Nullable
+    public static BloomFilterType fromMagic(byte magic) {
+        for (BloomFilterType type : values()) {
+            if (type.magic == magic) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    @JsonValue
+    public String typeName() {
+        return typeName;
+    }
+
+    public byte magic() {
+        return magic;
+    }
+}
@@ -2,6 +2,7 @@ package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.Configuration.TriggerPersistenceCriteria;
 import cn.leancloud.filter.service.metrics.MetricsService;
+import cn.leancloud.filter.service.utils.Timer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.linecorp.armeria.common.HttpResponse;
 import com.linecorp.armeria.common.metric.MeterIdPrefixFunction;
@@ -20,6 +21,7 @@ import picocli.CommandLine.UnmatchedArgumentException;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +33,9 @@ import java.util.concurrent.atomic.LongAdder;
 
 public final class Bootstrap {
     private static final Logger logger = LoggerFactory.getLogger(Bootstrap.class);
+    private static final String MAPPED_STORAGE_DIRECTORY_NAME = "mapped";
+    private static final String COLD_FILTER_STORAGE_DIRECTORY_NAME = "cold-filters";
+    private static final String WRITE_AHEAD_LOG_DIRECTORY_NAME = "wal";
 
     public static void main(String[] args) throws Exception {
         final ParseCommandLineArgsResult ret = parseCommandLineArgs(args);
@@ -113,9 +118,13 @@ public final class Bootstrap {
     private final MetricsService metricsService;
     private final BackgroundJobScheduler scheduler;
     private final ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+    private final MappedStorageDirectory mappedStorageDirectory;
     private final CountUpdateBloomFilterFactory<ExpirableBloomFilterConfig> factory;
+    private final ColdFilterStorage<BloomFilter> coldFilterStorage;
     private final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> bloomFilterManager;
     private final PersistentManager<BloomFilter> persistentManager;
+    @Nullable
+    private final WriteAheadLog writeAheadLog;
     private final Server server;
 
     public Bootstrap(ServerOptions opts) throws Exception {
@@ -132,23 +141,51 @@ public final class Bootstrap {
         scheduledThreadPoolExecutor.allowCoreThreadTimeOut(true);
 
         this.scheduler = new BackgroundJobScheduler(registry, scheduledThreadPoolExecutor);
-        this.factory = new CountUpdateBloomFilterFactory<>(new GuavaBloomFilterFactory(), new LongAdder());
-        this.persistentManager = new PersistentManager<>(Paths.get(Configuration.persistentStorageDirectory()));
+        final Path persistentPath = Paths.get(Configuration.persistentStorageDirectory());
+        if (Configuration.enableWriteAheadLog()) {
+            this.writeAheadLog = new WriteAheadLog(persistentPath.resolve(WRITE_AHEAD_LOG_DIRECTORY_NAME),
+                    Configuration.writeAheadLogSyncPolicy(), Configuration.writeAheadLogSyncInterval().toMillis(),
+                    registry);
+            this.persistentManager = new PersistentManager<>(persistentPath, writeAheadLog::lastLogSequence, registry);
+        } else {
+            this.writeAheadLog = null;
+            this.persistentManager = new PersistentManager<>(persistentPath, () -> 0L, registry);
+        }
+        this.mappedStorageDirectory = new MappedStorageDirectory(persistentPath.resolve(MAPPED_STORAGE_DIRECTORY_NAME));
+        this.factory = new CountUpdateBloomFilterFactory<>(
+                new MultiTypeBloomFilterFactory(mappedStorageDirectory), new LongAdder());
+        this.coldFilterStorage = new ColdFilterStorage<>(
+                persistentPath.resolve(COLD_FILTER_STORAGE_DIRECTORY_NAME), factory, registry);
         this.bloomFilterManager = newBloomFilterManager();
         this.server = newServer(registry, opts, scheduledThreadPoolExecutor);
     }
 
     void start(boolean forTesting) throws Exception {
+        Timer.DEFAULT_TIMER.startTicking(Configuration.clockResolution());
         recoverPreviousBloomFilters();
 
+        final InvalidBloomFilterPurgatory<BloomFilter, ExpirableBloomFilterConfig> purgatory =
+                new InvalidBloomFilterPurgatory<>(bloomFilterManager);
+        bloomFilterManager.addListener(purgatory);
         scheduler.scheduleFixedIntervalJob(
-                new PurgeFiltersJob(new InvalidBloomFilterPurgatory<>(bloomFilterManager)),
+                new PurgeFiltersJob(purgatory),
                 "purgeExpiredFilters",
                 Configuration.purgeFilterInterval());
 
+        scheduler.scheduleFixedIntervalJob(
+                new EvictColdFiltersJob(bloomFilterManager),
+                "evictColdFilters",
+                Configuration.evictColdFiltersInterval());
+
+        scheduler.scheduleFixedIntervalJob(
+                new RotateFiltersJob<>(bloomFilterManager),
+                "rotateFilters",
+                Configuration.rotateFilterInterval());
+
         for (TriggerPersistenceCriteria criteria : Configuration.persistenceCriteria()) {
             scheduler.scheduleFixedIntervalJob(
-                    new PersistentFiltersJob<>(bloomFilterManager, persistentManager, factory.filterUpdateTimesCounter(), criteria),
+                    new PersistentFiltersJob<>(bloomFilterManager, persistentManager, factory.filterUpdateTimesCounter(),
+                            criteria, writeAheadLog),
                     "persistentFilters",
                     criteria.checkingPeriod()
             );
@@ -171,7 +208,11 @@ public final class Bootstrap {
             scheduledThreadPoolExecutor.awaitTermination(1, TimeUnit.DAYS);
 
             metricsService.stop();
+            if (writeAheadLog != null) {
+                writeAheadLog.close();
+            }
             persistentManager.close();
+            Timer.DEFAULT_TIMER.stopTicking();
             logger.info("Filter service has been stopped.");
         } catch (Exception ex) {
             logger.info("Got unexpected exception during shutdown filter service, exit anyway.", ex);
@@ -202,6 +243,15 @@ public final class Bootstrap {
         final List<FilterRecord<? extends BloomFilter>> records =
                 persistentManager.recoverFilters(factory, Configuration.allowRecoverFromCorruptedPersistentFile());
         bloomFilterManager.addFilters(records);
+        bloomFilterManager.addColdFilters(coldFilterStorage.recover(), persistentManager.lastPersistedMillis());
+        if (writeAheadLog != null) {
+            writeAheadLog.replay(bloomFilterManager, factory, persistentManager::persistedLogSequence);
+            writeAheadLog.start(persistentManager.lastPersistedLogSequence());
+            // listen after replaying, so the replayed operations are not logged again
+            bloomFilterManager.addListener(newWriteAheadLogListener(writeAheadLog));
+        }
+        // all the mapped files still in use have been opened by now
+        mappedStorageDirectory.deleteUnusedFiles();
     }
 
     private Server newServer(MeterRegistry registry, ServerOptions opts, ScheduledExecutorService scheduledExecutorService) {
@@ -222,7 +272,7 @@ public final class Bootstrap {
                 .meterRegistry(registry);
 
         sb.service("/v1/ping", (ctx, req) -> HttpResponse.of("pong"));
-        sb.annotatedService("/v1/bloomfilter", new BloomFilterHttpService(bloomFilterManager))
+        sb.annotatedService("/v1/bloomfilter", new BloomFilterHttpService(bloomFilterManager, writeAheadLog))
                 .decorator(MetricCollectingService.newDecorator(MeterIdPrefixFunction.ofDefault(Configuration.metricsPrefix())));
         if (opts.docServiceEnabled()) {
             sb.serviceUnder("/v1/docs", new DocService());
@@ -231,7 +281,7 @@ public final class Bootstrap {
     }
 
     private BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> newBloomFilterManager() {
-        final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> bloomFilterManager = new BloomFilterManagerImpl<>(factory);
+        final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> bloomFilterManager = new BloomFilterManagerImpl<>(factory, coldFilterStorage);
         bloomFilterManager.addListener(new BloomFilterManagerListener<BloomFilter, ExpirableBloomFilterConfig>() {
             @Override
             public void onBloomFilterCreated(String name, ExpirableBloomFilterConfig config, BloomFilter filter) {
@@ -245,8 +295,24 @@ public final class Bootstrap {
                 } else {
                     logger.info("Bloom filter with name: {} was removed.", name);
                 }
+                filter.release();
             }
         });
         return bloomFilterManager;
     }
+
+    private static BloomFilterManagerListener<BloomFilter, ExpirableBloomFilterConfig> newWriteAheadLogListener(
+            WriteAheadLog writeAheadLog) {
+        return new BloomFilterManagerListener<BloomFilter, ExpirableBloomFilterConfig>() {
+            @Override
+            public void onBloomFilterCreated(String name, ExpirableBloomFilterConfig config, BloomFilter filter) {
+                writeAheadLog.logCreate(name, config, filter);
+            }
+
+            @Override
+            public void onBloomFilterRemoved(String name, BloomFilter filter) {
+                writeAheadLog.logDelete(name);
+            }
+        };
+    }
 }
@@ -0,0 +1,209 @@
+package cn.leancloud.filter.service;
+
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the filters evicted from memory, one file for each filter, so they can be loaded back on
+ * the next access. Every file contains a single {@link FilterRecord} and is named after the hash of
+ * the name of the filter, so a filter evicted again simply replaces its previous file.
+ * <p>
+ * The files outlive the process. They are found again by {@link #recover()} when the service restarts.
+ *
+ * @param <F> the type of the stored filters
+ */
+public final class ColdFilterStorage<F extends BloomFilter> {
+    private static final Logger logger = LoggerFactory.getLogger(ColdFilterStorage.class);
+    private static final String FILTER_FILE_SUFFIX = ".filter";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * A filter stored in a {@link ColdFilterStorage}.
+     */
+    public static final class ColdFilter {
+        private final String name;
+        private final Path path;
+        private final long expirationMillis;
+        private final long storedMillis;
+
+        ColdFilter(String name, Path path, long expirationMillis, long storedMillis) {
+            this.name = name;
+            this.path = path;
+            this.expirationMillis = expirationMillis;
+            this.storedMillis = storedMillis;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        /**
+         * Get the {@link BloomFilter#expirationMillis()} of the filter at the time it was stored.
+         *
+         * @return the expiration of the stored filter in milliseconds since the epoch
+         */
+        public long expirationMillis() {
+            return expirationMillis;
+        }
+
+        /**
+         * Get the time in milliseconds since the epoch when the filter was stored.
+         *
+         * @return the time when the filter was stored
+         */
+        public long storedMillis() {
+            return storedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "ColdFilter{" +
+                    "name='" + name + '\'' +
+                    ", path=" + path +
+                    ", expirationMillis=" + expirationMillis +
+                    ", storedMillis=" + storedMillis +
+                    '}';
+        }
+    }
+
+    private final Path directory;
+    private final BloomFilterFactory<? extends F, ?> factory;
+    private final Counter evictions;
+    private final Counter faults;
+    private final Timer faultLatency;
+
+    ColdFilterStorage(Path directory, BloomFilterFactory<? extends F, ?> factory, MeterRegistry registry)
+            throws IOException {
+        final File dir = directory.toFile();
+        if (dir.exists() && !dir.isDirectory()) {
+            throw new IllegalStateException("invalid cold filter directory path, it's a regular file: " + directory);
+        }
+
+        FileUtils.forceMkdir(dir);
+        this.directory = directory;
+        this.factory = factory;
+        this.evictions = registry.counter(Configuration.metricsPrefix() + ".coldFilter.evictions");
+        this.faults = registry.counter(Configuration.metricsPrefix() + ".coldFilter.faults");
+        this.faultLatency = registry.timer(Configuration.metricsPrefix() + ".coldFilter.faultLatency");
+    }
+
+    /**
+     * Write a filter to its file. The file is replaced atomically, so a crash during the write leaves
+     * the previous file, if any, untouched.
+     *
+     * @param name   the name of the filter
+     * @param filter the filter to write
+     * @return the {@link ColdFilter} to read the filter back
+     * @throws IOException if an I/O error occurs
+     */
+    ColdFilter write(String name, F filter) throws IOException {
+        final Path path = filterPath(name);
+        final Path tempPath = path.resolveSibling(path.getFileName() + TEMPORARY_FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            new FilterRecord<>(name, filter).writeFullyTo(channel);
+            channel.force(true);
+        }
+
+        FilterServiceFileUtils.atomicMoveWithFallback(tempPath, path);
+        evictions.increment();
+        return new ColdFilter(name, path, filter.expirationMillis(), Files.getLastModifiedTime(path).toMillis());
+    }
+
+    /**
+     * Read a filter back from its file. The file is kept until {@link #delete(String)} is called.
+     *
+     * @param coldFilter the stored filter
+     * @return the filter read
+     * @throws IOException if an I/O error occurs
+     */
+    F read(ColdFilter coldFilter) throws IOException {
+        final long start = System.nanoTime();
+        final FilterRecord<? extends F> record = readRecord(coldFilter.path());
+        faults.increment();
+        faultLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return record.filter();
+    }
+
+    /**
+     * Delete the file of a filter if it exists.
+     *
+     * @param name the name of the filter
+     */
+    void delete(String name) {
+        final Path path = filterPath(name);
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("Failed to delete the file: {} of cold filter: {}.", path, name, ex);
+        }
+    }
+
+    /**
+     * Find all the filters stored in this storage, like after a restart. Every file is read once to
+     * get the name and the expiration of its filter, and the filter read is dropped immediately.
+     * Unfinished temporary files and corrupted files are deleted.
+     *
+     * @return all the filters stored
+     * @throws IOException if an I/O error occurs on listing the files
+     */
+    List<ColdFilter> recover() throws IOException {
+        final List<ColdFilter> coldFilters = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                if (fileName.endsWith(TEMPORARY_FILE_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                } else if (fileName.endsWith(FILTER_FILE_SUFFIX)) {
+                    try {
+                        final FilterRecord<? extends F> record = readRecord(path);
+                        coldFilters.add(new ColdFilter(record.name(), path, record.filter().expirationMillis(),
+                                Files.getLastModifiedTime(path).toMillis()));
+                    } catch (IOException | PersistentStorageException ex) {
+                        logger.warn("Delete cold filter file: \"{}\" which can not be read, got error msg: \"{}\".",
+                                path, ex.getMessage());
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        }
+        logger.info("Recovered " + coldFilters.size() + " cold filters from: " + directory);
+        return coldFilters;
+    }
+
+    // Package private for testing
+    Path filterPath(String name) {
+        return directory.resolve(Hashing.sha256().hashString(name, StandardCharsets.UTF_8) + FILTER_FILE_SUFFIX);
+    }
+
+    private FilterRecord<? extends F> readRecord(Path path) throws IOException {
+        try (FilterRecordInputStream<? extends F> stream = new FilterRecordInputStream<>(path, factory)) {
+            final FilterRecord<? extends F> record = stream.nextFilterRecord();
+            if (record == null) {
+                throw new InvalidFilterException("no filter in cold filter file: " + path);
+            }
+            return record;
+        }
+    }
+}
@@ -48,6 +48,18 @@ public final class Configuration {
         return instance.purgeFilterInterval;
     }
 
+    static Duration rotateFilterInterval() {
+        return instance.rotateFilterInterval;
+    }
+
+    static Duration clockResolution() {
+        return instance.clockResolution;
+    }
+
+    static Duration expirationUpdateGranularity() {
+        return instance.expirationUpdateGranularity;
+    }
+
     static int maxHttpConnections() {
         return instance.maxHttpConnections;
     }
@@ -80,6 +92,26 @@ public final class Configuration {
         return instance.defaultValidSecondsAfterCreate;
     }
 
+    static long maxFilterMemoryBytes() {
+        return instance.maxFilterMemoryBytes;
+    }
+
+    static long maxTotalFilterMemoryBytes() {
+        return instance.maxTotalFilterMemoryBytes;
+    }
+
+    static long coldFilterWatermarkBytes() {
+        return instance.coldFilterWatermarkBytes;
+    }
+
+    static Duration coldFilterMinIdle() {
+        return instance.coldFilterMinIdle;
+    }
+
+    static Duration evictColdFiltersInterval() {
+        return instance.evictColdFiltersInterval;
+    }
+
     static String persistentStorageDirectory() {
         return instance.persistentStorageDirectory;
     }
@@ -88,10 +120,42 @@ public final class Configuration {
         return instance.allowRecoverFromCorruptedPersistentFile;
     }
 
+    static boolean enableWriteAheadLog() {
+        return instance.enableWriteAheadLog;
+    }
+
+    static WriteAheadLog.SyncPolicy writeAheadLogSyncPolicy() {
+        return instance.writeAheadLogSyncPolicy;
+    }
+
+    static Duration writeAheadLogSyncInterval() {
+        return instance.writeAheadLogSyncInterval;
+    }
+
     static int channelBufferSizeForFilterPersistence() {
         return instance.channelBufferSizeForFilterPersistence;
     }
 
+    static int persistenceThreads() {
+        return instance.persistenceThreads;
+    }
+
+    static int recoveryThreads() {
+        return instance.recoveryThreads;
+    }
+
+    static long persistenceBytesPerSecond() {
+        return instance.persistenceBytesPerSecond;
+    }
+
+    static long persistenceForceIntervalBytes() {
+        return instance.persistenceForceIntervalBytes;
+    }
+
+    static boolean enableSnapshotCompression() {
+        return instance.enableSnapshotCompression;
+    }
+
     static SupportedChannelOptions channelOptions() {
         return instance.channelOptions;
     }
@@ -111,6 +175,9 @@ public final class Configuration {
     static String spec() {
         return "\nmetricsPrefix: " + metricsPrefix() + "\n" +
                 "purgeFilterIntervalMillis: " + purgeFilterInterval().toMillis() + "\n" +
+                "rotateFilterIntervalMillis: " + rotateFilterInterval().toMillis() + "\n" +
+                "clockResolutionMillis: " + clockResolution().toMillis() + "\n" +
+                "expirationUpdateGranularityMillis: " + expirationUpdateGranularity().toMillis() + "\n" +
                 "maxHttpConnections: " + maxHttpConnections() + "\n" +
                 "maxHttpRequestLength: " + maxHttpRequestLength() + "B\n" +
                 "maxWorkerThreadPoolSize: " + maxWorkerThreadPoolSize() + "\n" +
@@ -119,10 +186,23 @@ public final class Configuration {
                 "defaultExpectedInsertions: " + defaultExpectedInsertions() + "\n" +
                 "defaultFalsePositiveProbability: " + defaultFalsePositiveProbability() + "\n" +
                 "defaultValidSecondsAfterCreate: " + defaultValidPeriodAfterCreate().getSeconds() + "\n" +
+                "maxFilterMemoryBytes: " + maxFilterMemoryBytes() + "B\n" +
+                "maxTotalFilterMemoryBytes: " + maxTotalFilterMemoryBytes() + "B\n" +
+                "coldFilterWatermarkBytes: " + coldFilterWatermarkBytes() + "B\n" +
+                "coldFilterMinIdleMillis: " + coldFilterMinIdle().toMillis() + "\n" +
+                "evictColdFiltersIntervalMillis: " + evictColdFiltersInterval().toMillis() + "\n" +
                 "persistentStorageDirectory: " + persistentStorageDirectory() + "\n" +
                 "channelBufferSizeForFilterPersistence: " + channelBufferSizeForFilterPersistence() + "B" + "\n" +
+                "persistenceThreads: " + persistenceThreads() + "\n" +
+                "recoveryThreads: " + recoveryThreads() + "\n" +
+                "persistenceBytesPerSecond: " + persistenceBytesPerSecond() + "B\n" +
+                "persistenceForceIntervalBytes: " + persistenceForceIntervalBytes() + "B\n" +
+                "enableSnapshotCompression: " + enableSnapshotCompression() + "\n" +
                 "triggerPersistenceCriteria: " + persistenceCriteria() + "\n" +
                 "allowRecoverFromCorruptedPersistentFile: " + allowRecoverFromCorruptedPersistentFile() + "\n" +
+                "enableWriteAheadLog: " + enableWriteAheadLog() + "\n" +
+                "writeAheadLogSyncPolicy: " + writeAheadLogSyncPolicy().policyName() + "\n" +
+                "writeAheadLogSyncIntervalMillis: " + writeAheadLogSyncInterval().toMillis() + "\n" +
                 "channelOptions: " + channelOptions() + "\n" +
                 "gracefulShutdownQuietPeriodMillis: " + gracefulShutdownQuietPeriodMillis() + "\n" +
                 "gracefulShutdownTimeoutMillis: " + gracefulShutdownTimeoutMillis() + "\n";
@@ -130,6 +210,9 @@ public final class Configuration {
 
     private String metricsPrefix;
     private Duration purgeFilterInterval;
+    private Duration rotateFilterInterval;
+    private Duration clockResolution;
+    private Duration expirationUpdateGranularity;
     private int maxHttpConnections;
     private int maxHttpRequestLength;
     private int maxWorkerThreadPoolSize;
@@ -138,9 +221,22 @@ public final class Configuration {
     private int defaultExpectedInsertions;
     private double defaultFalsePositiveProbability;
     private Duration defaultValidSecondsAfterCreate;
+    private long maxFilterMemoryBytes;
+    private long maxTotalFilterMemoryBytes;
+    private long coldFilterWatermarkBytes;
+    private Duration coldFilterMinIdle;
+    private Duration evictColdFiltersInterval;
     private String persistentStorageDirectory;
     private boolean allowRecoverFromCorruptedPersistentFile;
+    private boolean enableWriteAheadLog;
+    private WriteAheadLog.SyncPolicy writeAheadLogSyncPolicy;
+    private Duration writeAheadLogSyncInterval;
     private int channelBufferSizeForFilterPersistence;
+    private int persistenceThreads;
+    private int recoveryThreads;
+    private long persistenceBytesPerSecond;
+    private long persistenceForceIntervalBytes;
+    private boolean enableSnapshotCompression;
     private SupportedChannelOptions channelOptions;
     private List<TriggerPersistenceCriteria> persistenceCriteria;
     private long gracefulShutdownQuietPeriodMillis;
@@ -150,6 +246,9 @@ public final class Configuration {
     Configuration() {
         this.metricsPrefix = "filterService";
         this.purgeFilterInterval = Duration.ofMillis(300);
+        this.rotateFilterInterval = Duration.ofMillis(1000);
+        this.clockResolution = Duration.ofMillis(10);
+        this.expirationUpdateGranularity = Duration.ZERO;
         this.maxHttpConnections = 1000;
         this.maxHttpRequestLength = 10485760;
         this.maxWorkerThreadPoolSize = 10;
@@ -158,9 +257,22 @@ public final class Configuration {
         this.defaultExpectedInsertions = 1000_000;
         this.defaultFalsePositiveProbability = 0.0001;
         this.defaultValidSecondsAfterCreate = Duration.ofDays(1);
+        this.maxFilterMemoryBytes = Long.MAX_VALUE;
+        this.maxTotalFilterMemoryBytes = Long.MAX_VALUE;
+        this.coldFilterWatermarkBytes = Long.MAX_VALUE;
+        this.coldFilterMinIdle = Duration.ofMinutes(10);
+        this.evictColdFiltersInterval = Duration.ofMillis(1000);
         this.persistentStorageDirectory = System.getProperty("user.dir");
         this.allowRecoverFromCorruptedPersistentFile = true;
+        this.enableWriteAheadLog = false;
+        this.writeAheadLogSyncPolicy = WriteAheadLog.SyncPolicy.INTERVAL;
+        this.writeAheadLogSyncInterval = Duration.ofMillis(100);
         this.channelBufferSizeForFilterPersistence = 102400;
+        this.persistenceThreads = 1;
+        this.recoveryThreads = Runtime.getRuntime().availableProcessors();
+        this.persistenceBytesPerSecond = Long.MAX_VALUE;
+        this.persistenceForceIntervalBytes = Long.MAX_VALUE;
+        this.enableSnapshotCompression = false;
         this.channelOptions = new SupportedChannelOptions();
         this.persistenceCriteria = Collections.singletonList(new TriggerPersistenceCriteria(Duration.ofMinutes(5), 100));
         this.gracefulShutdownQuietPeriodMillis = 0;
@@ -182,6 +294,33 @@ public final class Configuration {
         this.purgeFilterInterval = Duration.ofMillis(purgeFilterIntervalMillis);
     }
 
+    @JsonSetter("rotateFilterIntervalMillis")
+    public void setRotateFilterInterval(int rotateFilterIntervalMillis) {
+        if (rotateFilterIntervalMillis <= 0) {
+            throw new IllegalArgumentException("rotateFilterIntervalMillis: "
+                    + rotateFilterIntervalMillis + " (expected: > 0)");
+        }
+        this.rotateFilterInterval = Duration.ofMillis(rotateFilterIntervalMillis);
+    }
+
+    @JsonSetter("clockResolutionMillis")
+    public void setClockResolution(int clockResolutionMillis) {
+        if (clockResolutionMillis <= 0) {
+            throw new IllegalArgumentException("clockResolutionMillis: "
+                    + clockResolutionMillis + " (expected: > 0)");
+        }
+        this.clockResolution = Duration.ofMillis(clockResolutionMillis);
+    }
+
+    @JsonSetter("expirationUpdateGranularityMillis")
+    public void setExpirationUpdateGranularity(int expirationUpdateGranularityMillis) {
+        if (expirationUpdateGranularityMillis < 0) {
+            throw new IllegalArgumentException("expirationUpdateGranularityMillis: "
+                    + expirationUpdateGranularityMillis + " (expected: >= 0)");
+        }
+        this.expirationUpdateGranularity = Duration.ofMillis(expirationUpdateGranularityMillis);
+    }
+
     public void setMaxHttpConnections(int maxHttpConnections) {
         if (maxHttpConnections <= 0) {
             throw new IllegalArgumentException("maxHttpConnections: "
@@ -249,6 +388,48 @@ public final class Configuration {
         this.defaultValidSecondsAfterCreate = Duration.ofSeconds(defaultValidSecondsAfterCreate);
     }
 
+    public void setMaxFilterMemoryBytes(long maxFilterMemoryBytes) {
+        if (maxFilterMemoryBytes <= 0) {
+            throw new IllegalArgumentException("maxFilterMemoryBytes: "
+                    + maxFilterMemoryBytes + " (expected: > 0)");
+        }
+        this.maxFilterMemoryBytes = maxFilterMemoryBytes;
+    }
+
+    public void setMaxTotalFilterMemoryBytes(long maxTotalFilterMemoryBytes) {
+        if (maxTotalFilterMemoryBytes <= 0) {
+            throw new IllegalArgumentException("maxTotalFilterMemoryBytes: "
+                    + maxTotalFilterMemoryBytes + " (expected: > 0)");
+        }
+        this.maxTotalFilterMemoryBytes = maxTotalFilterMemoryBytes;
+    }
+
+    public void setColdFilterWatermarkBytes(long coldFilterWatermarkBytes) {
+        if (coldFilterWatermarkBytes <= 0) {
+            throw new IllegalArgumentException("coldFilterWatermarkBytes: "
+                    + coldFilterWatermarkBytes + " (expected: > 0)");
+        }
+        this.coldFilterWatermarkBytes = coldFilterWatermarkBytes;
+    }
+
+    @JsonSetter("coldFilterMinIdleMillis")
+    public void setColdFilterMinIdle(long coldFilterMinIdleMillis) {
+        if (coldFilterMinIdleMillis <= 0) {
+            throw new IllegalArgumentException("coldFilterMinIdleMillis: "
+                    + coldFilterMinIdleMillis + " (expected: > 0)");
+        }
+        this.coldFilterMinIdle = Duration.ofMillis(coldFilterMinIdleMillis);
+    }
+
+    @JsonSetter("evictColdFiltersIntervalMillis")
+    public void setEvictColdFiltersInterval(int evictColdFiltersIntervalMillis) {
+        if (evictColdFiltersIntervalMillis <= 0) {
+            throw new IllegalArgumentException("evictColdFiltersIntervalMillis: "
+                    + evictColdFiltersIntervalMillis + " (expected: > 0)");
+        }
+        this.evictColdFiltersInterval = Duration.ofMillis(evictColdFiltersIntervalMillis);
+    }
+
     public void setChannelBufferSizeForFilterPersistence(int channelBufferSizeForFilterPersistence) {
         if (channelBufferSizeForFilterPersistence <= 0) {
             throw new IllegalArgumentException("channelBufferSizeForFilterPersistence: "
@@ -257,6 +438,22 @@ public final class Configuration {
         this.channelBufferSizeForFilterPersistence = channelBufferSizeForFilterPersistence;
     }
 
+    public void setPersistenceThreads(int persistenceThreads) {
+        if (persistenceThreads <= 0) {
+            throw new IllegalArgumentException("persistenceThreads: "
+                    + persistenceThreads + " (expected: > 0)");
+        }
+        this.persistenceThreads = persistenceThreads;
+    }
+
+    public void setRecoveryThreads(int recoveryThreads) {
+        if (recoveryThreads <= 0) {
+            throw new IllegalArgumentException("recoveryThreads: "
+                    + recoveryThreads + " (expected: > 0)");
+        }
+        this.recoveryThreads = recoveryThreads;
+    }
+
     public void setPersistentStorageDirectory(@Nullable String persistentStorageDirectory) {
         if (persistentStorageDirectory == null || persistentStorageDirectory.isEmpty()) {
             persistentStorageDirectory = System.getProperty("user.dir");
@@ -267,10 +464,52 @@ public final class Configuration {
         this.persistentStorageDirectory = persistentStorageDirectory;
     }
 
+    public void setPersistenceBytesPerSecond(long persistenceBytesPerSecond) {
+        if (persistenceBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("persistenceBytesPerSecond: "
+                    + persistenceBytesPerSecond + " (expected: > 0)");
+        }
+        this.persistenceBytesPerSecond = persistenceBytesPerSecond;
+    }
+
+    public void setPersistenceForceIntervalBytes(long persistenceForceIntervalBytes) {
+        if (persistenceForceIntervalBytes <= 0) {
+            throw new IllegalArgumentException("persistenceForceIntervalBytes: "
+                    + persistenceForceIntervalBytes + " (expected: > 0)");
+        }
+        this.persistenceForceIntervalBytes = persistenceForceIntervalBytes;
+    }
+
+    public void setEnableSnapshotCompression(boolean enableSnapshotCompression) {
+        this.enableSnapshotCompression = enableSnapshotCompression;
+    }
+
     public void setAllowRecoverFromCorruptedPersistentFile(boolean allowRecoverFromCorruptedPersistentFile) {
         this.allowRecoverFromCorruptedPersistentFile = allowRecoverFromCorruptedPersistentFile;
     }
 
+    public void setEnableWriteAheadLog(boolean enableWriteAheadLog) {
+        this.enableWriteAheadLog = enableWriteAheadLog;
+    }
+
+    public void setWriteAheadLogSyncPolicy(String writeAheadLogSyncPolicy) {
+        final WriteAheadLog.SyncPolicy policy = WriteAheadLog.SyncPolicy.fromPolicyName(writeAheadLogSyncPolicy);
+        if (policy == null) {
+            throw new IllegalArgumentException("writeAheadLogSyncPolicy: "
+                    + writeAheadLogSyncPolicy + " (expected: always, interval or never)");
+        }
+        this.writeAheadLogSyncPolicy = policy;
+    }
+
+    @JsonSetter("writeAheadLogSyncIntervalMillis")
+    public void setWriteAheadLogSyncInterval(int writeAheadLogSyncIntervalMillis) {
+        if (writeAheadLogSyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("writeAheadLogSyncIntervalMillis: "
+                    + writeAheadLogSyncIntervalMillis + " (expected: > 0)");
+        }
+        this.writeAheadLogSyncInterval = Duration.ofMillis(writeAheadLogSyncIntervalMillis);
+    }
+
     public void setChannelOptions(SupportedChannelOptions channelOptions) {
         requireNonNull(channelOptions, "channelOptions");
 
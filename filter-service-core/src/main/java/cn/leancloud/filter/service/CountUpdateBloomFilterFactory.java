@@ -24,8 +24,18 @@ public final class CountUpdateBloomFilterFactory<C extends BloomFilterConfig<? e
         return new CountUpdateBloomFilterWrapper(factory.createFilter(config), filterUpdateTimesCounter);
     }
 
+    @Override
+    public long estimatedMemoryBytes(C config) {
+        return factory.estimatedMemoryBytes(config);
+    }
+
     @Override
     public CountUpdateBloomFilterWrapper readFrom(InputStream stream) throws IOException {
         return new CountUpdateBloomFilterWrapper(factory.readFrom(stream), filterUpdateTimesCounter);
     }
+
+    @Override
+    public CountUpdateBloomFilterWrapper readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        return new CountUpdateBloomFilterWrapper(factory.readFrom(type, stream), filterUpdateTimesCounter);
+    }
 }
@@ -1,21 +1,36 @@
 package cn.leancloud.filter.service;
 
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A {@link BloomFilter} wrapper which counts the updates to all the filters in a shared counter, and
+ * tracks whether the wrapped filter was updated since it was persisted last time.
+ */
 public final class CountUpdateBloomFilterWrapper implements BloomFilter {
     private final LongAdder filterUpdateTimesCounter;
     @JsonUnwrapped
     private final BloomFilter filter;
+    // a new or read back filter is dirty until it's persisted with its current state
+    private volatile boolean dirty = true;
 
     CountUpdateBloomFilterWrapper(BloomFilter filter, LongAdder filterUpdateTimesCounter) {
         this.filterUpdateTimesCounter = filterUpdateTimesCounter;
         this.filter = filter;
     }
 
+    @Override
+    public BloomFilterType type() {
+        return filter.type();
+    }
+
     @Override
     public int expectedInsertions() {
         return filter.expectedInsertions();
@@ -31,10 +46,85 @@ public final class CountUpdateBloomFilterWrapper implements BloomFilter {
         return filter.mightContain(value);
     }
 
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return filter.mightContain(value);
+    }
+
+    @Nullable
+    @Override
+    public HashScheme hashScheme() {
+        return filter.hashScheme();
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        return filter.mightContain(hash);
+    }
+
     @Override
     public boolean set(String value) {
         filterUpdateTimesCounter.increment();
-        return filter.set(value);
+        try {
+            return filter.set(value);
+        } finally {
+            markDirty();
+        }
+    }
+
+    @Override
+    public boolean set(ByteBuffer value) {
+        filterUpdateTimesCounter.increment();
+        try {
+            return filter.set(value);
+        } finally {
+            markDirty();
+        }
+    }
+
+    @Override
+    public boolean set(HashCode hash) {
+        filterUpdateTimesCounter.increment();
+        try {
+            return filter.set(hash);
+        } finally {
+            markDirty();
+        }
+    }
+
+    @Override
+    public boolean supportRemove() {
+        return filter.supportRemove();
+    }
+
+    @Override
+    public boolean remove(String value) {
+        filterUpdateTimesCounter.increment();
+        try {
+            return filter.remove(value);
+        } finally {
+            markDirty();
+        }
+    }
+
+    @Override
+    public boolean remove(ByteBuffer value) {
+        filterUpdateTimesCounter.increment();
+        try {
+            return filter.remove(value);
+        } finally {
+            markDirty();
+        }
+    }
+
+    @Override
+    public boolean tryRotate() {
+        if (filter.tryRotate()) {
+            filterUpdateTimesCounter.increment();
+            markDirty();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -42,11 +132,56 @@ public final class CountUpdateBloomFilterWrapper implements BloomFilter {
         return filter.valid();
     }
 
+    @Override
+    public long estimatedMemoryBytes() {
+        return filter.estimatedMemoryBytes();
+    }
+
+    @Override
+    public long attachMemoryBudget(MemoryBudget budget) {
+        return filter.attachMemoryBudget(budget);
+    }
+
+    @Override
+    public long detachMemoryBudget() {
+        return filter.detachMemoryBudget();
+    }
+
+    @Override
+    public long expirationMillis() {
+        return filter.expirationMillis();
+    }
+
+    @Override
+    public void extendExpiration(long expirationMillis) {
+        filter.extendExpiration(expirationMillis);
+    }
+
+    @Override
+    public boolean offHeap() {
+        return filter.offHeap();
+    }
+
+    @Override
+    public boolean dirty() {
+        return dirty;
+    }
+
+    @Override
+    public void clearDirty() {
+        dirty = false;
+    }
+
     @Override
     public void writeTo(OutputStream out) throws IOException {
         filter.writeTo(out);
     }
 
+    @Override
+    public void release() {
+        filter.release();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -60,4 +195,15 @@ public final class CountUpdateBloomFilterWrapper implements BloomFilter {
     public int hashCode() {
         return filter.hashCode();
     }
+
+    /**
+     * Mark this filter dirty. It must be called after the update on the filter is done, so a snapshot which
+     * clears the dirty mark in between either has the update written or leaves the filter dirty.
+     */
+    private void markDirty() {
+        // read before write to not invalidate the cache line shared by all the readers on every update
+        if (!dirty) {
+            dirty = true;
+        }
+    }
 }
@@ -0,0 +1,390 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.HeapLongArray;
+import cn.leancloud.filter.service.utils.Timer;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * A counting Bloom filter which supports removing values. Every bit of a classic Bloom filter is replaced by
+ * a 4 bits counter, and 16 counters are packed into a long. {@link #set(String)} increases the k counters
+ * of a value and {@link #remove(String)} decreases them, so a value is considered absent again once one of
+ * its counters drops to zero.
+ * <p>
+ * A counter stops at 15 and is never decreased once it reaches 15, because we no longer know how many values
+ * share it. That keeps the filter free of false negatives at the cost of some values can never be removed
+ * completely. Please note that removing a value which was never put into this filter but is reported as
+ * a false positive will decrease the counters of other values and may cause false negatives. So only remove
+ * values which were put into this filter before.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class CountingBloomFilter extends AbstractExpirableBloomFilter {
+    static final int BITS_PER_COUNTER = 4;
+    static final int COUNTERS_PER_LONG = Long.SIZE / BITS_PER_COUNTER;
+    static final long MAX_COUNTER_VALUE = (1L << BITS_PER_COUNTER) - 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    static CountingBloomFilter readFrom(InputStream in) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final int numHashFunctions = din.readInt();
+        final int numLongs = din.readInt();
+        if (numLongs <= 0) {
+            throw new InvalidFilterException("invalid counter array length: " + numLongs +
+                    " for counting Bloom filter (expected: > 0)");
+        }
+        final HeapLongArray counters = new HeapLongArray(numLongs);
+        for (int i = 0; i < numLongs; i++) {
+            counters.lazySet(i, din.readLong());
+        }
+
+        return new CountingBloomFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                numHashFunctions,
+                counters,
+                Timer.DEFAULT_TIMER);
+    }
+
+    private final int numHashFunctions;
+    private final long numCounters;
+    private final HeapLongArray counters;
+
+    CountingBloomFilter(int expectedInsertions,
+                        double fpp,
+                        ZonedDateTime created,
+                        ZonedDateTime expiration,
+                        @Nullable Duration validPeriodAfterAccess) {
+        this(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Constructor for {@link CountingBloomFilter}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the constructed {@code CountingBloomFilter};
+     *                               must be positive
+     * @param fpp                    the desired false positive probability (must be positive and less than 1.0)
+     * @param created                the creation time for the constructed {@code CountingBloomFilter}
+     * @param expiration             the expiration time of the constructed {@code CountingBloomFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset
+     */
+    CountingBloomFilter(int expectedInsertions,
+                        double fpp,
+                        ZonedDateTime created,
+                        ZonedDateTime expiration,
+                        @Nullable Duration validPeriodAfterAccess,
+                        Timer timer) {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                optimalNumOfHashFunctions(expectedInsertions, optimalNumOfCounters(expectedInsertions, fpp)),
+                new HeapLongArray(numLongs(expectedInsertions, fpp)),
+                timer);
+    }
+
+    private CountingBloomFilter(int expectedInsertions,
+                                double fpp,
+                                ZonedDateTime created,
+                                ZonedDateTime expiration,
+                                @Nullable Duration validPeriodAfterAccess,
+                                int numHashFunctions,
+                                HeapLongArray counters,
+                                Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        if (numHashFunctions <= 0 || numHashFunctions > Byte.MAX_VALUE) {
+            throw new InvalidFilterException("invalid number of hash functions: " + numHashFunctions +
+                    " for counting Bloom filter (expected: > 0 && <= " + Byte.MAX_VALUE + ")");
+        }
+        this.numHashFunctions = numHashFunctions;
+        this.numCounters = (long) counters.length() * COUNTERS_PER_LONG;
+        this.counters = counters;
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.COUNTING;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        return (long) counters.length() * Long.BYTES;
+    }
+
+    @Override
+    public HashScheme hashScheme() {
+        return HashScheme.MURMUR3_128;
+    }
+
+    @Override
+    public boolean set(String value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(ByteBuffer value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(HashCode hash) {
+        HashScheme.MURMUR3_128.checkHash(hash);
+        return setHash(hash.asBytes());
+    }
+
+    private boolean setHash(byte[] hash) {
+        final long hash2 = upperEight(hash);
+        long combinedHash = lowerEight(hash);
+        boolean countersChanged = false;
+        for (int i = 0; i < numHashFunctions; i++) {
+            countersChanged |= increment((combinedHash & Long.MAX_VALUE) % numCounters);
+            combinedHash += hash2;
+        }
+        tryExtendExpiration();
+        return countersChanged;
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        final boolean contain = mightContainHash(hash(value));
+        tryExtendExpiration();
+        return contain;
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        final boolean contain = mightContainHash(hash(value));
+        tryExtendExpiration();
+        return contain;
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        HashScheme.MURMUR3_128.checkHash(hash);
+        final boolean contain = mightContainHash(hash.asBytes());
+        tryExtendExpiration();
+        return contain;
+    }
+
+    /**
+     * Remove a value from this {@code CountingBloomFilter}. The value should have been put into this
+     * filter before, otherwise the other values in this filter may be affected.
+     *
+     * @param value the value to remove
+     * @return true if the value <i>might</i> be in this filter and it was removed, false if the value is
+     * <i>definitely</i> not in this filter and nothing changed
+     */
+    @Override
+    public boolean remove(String value) {
+        return removeHash(hash(value));
+    }
+
+    /**
+     * Same as {@link #remove(String)} but with the remaining bytes of a {@link ByteBuffer} as the value.
+     */
+    @Override
+    public boolean remove(ByteBuffer value) {
+        return removeHash(hash(value));
+    }
+
+    private boolean removeHash(byte[] hash) {
+        final boolean removed;
+        if (mightContainHash(hash)) {
+            final long hash2 = upperEight(hash);
+            long combinedHash = lowerEight(hash);
+            for (int i = 0; i < numHashFunctions; i++) {
+                decrement((combinedHash & Long.MAX_VALUE) % numCounters);
+                combinedHash += hash2;
+            }
+            removed = true;
+        } else {
+            removed = false;
+        }
+        tryExtendExpiration();
+        return removed;
+    }
+
+    @Override
+    public boolean supportRemove() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeInt(numHashFunctions);
+        dout.writeInt(counters.length());
+        // write a point-in-time image of the counters, so the updates during the writing do not tear it
+        try (HeapLongArray.Snapshot snapshot = counters.snapshot()) {
+            for (int i = 0; i < snapshot.length(); i++) {
+                dout.writeLong(snapshot.get(i));
+            }
+        }
+        dout.flush();
+    }
+
+    int numHashFunctions() {
+        return numHashFunctions;
+    }
+
+    long numCounters() {
+        return numCounters;
+    }
+
+    long counter(long index) {
+        return (counters.get((int) (index / COUNTERS_PER_LONG)) >>> shift(index)) & MAX_COUNTER_VALUE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final CountingBloomFilter that = (CountingBloomFilter) o;
+        return metadataEquals(that) &&
+                numHashFunctions == that.numHashFunctions &&
+                numCounters == that.numCounters;
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + numHashFunctions;
+        ret = 31 * ret + Long.hashCode(numCounters);
+        return ret;
+    }
+
+    private static byte[] hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asBytes();
+    }
+
+    private static byte[] hash(ByteBuffer value) {
+        return HASH_FUNCTION.hashBytes(value.duplicate()).asBytes();
+    }
+
+    private static long lowerEight(byte[] bytes) {
+        return Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]);
+    }
+
+    private static long upperEight(byte[] bytes) {
+        return Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]);
+    }
+
+    private static int shift(long index) {
+        return (int) (index % COUNTERS_PER_LONG) * BITS_PER_COUNTER;
+    }
+
+    private boolean mightContainHash(byte[] hash) {
+        final long hash2 = upperEight(hash);
+        long combinedHash = lowerEight(hash);
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (counter((combinedHash & Long.MAX_VALUE) % numCounters) == 0) {
+                return false;
+            }
+            combinedHash += hash2;
+        }
+        return true;
+    }
+
+    /**
+     * Increase the counter at the input index by one unless it has reached the max value.
+     *
+     * @return true if the counter was zero before
+     */
+    private boolean increment(long index) {
+        final int longIndex = (int) (index / COUNTERS_PER_LONG);
+        final int shift = shift(index);
+        long oldValue;
+        long counter;
+        do {
+            oldValue = counters.get(longIndex);
+            counter = (oldValue >>> shift) & MAX_COUNTER_VALUE;
+            if (counter == MAX_COUNTER_VALUE) {
+                return false;
+            }
+        } while (!counters.compareAndSet(longIndex, oldValue, oldValue + (1L << shift)));
+        return counter == 0;
+    }
+
+    /**
+     * Decrease the counter at the input index by one unless it is zero or it has reached the max value.
+     */
+    private void decrement(long index) {
+        final int longIndex = (int) (index / COUNTERS_PER_LONG);
+        final int shift = shift(index);
+        long oldValue;
+        long counter;
+        do {
+            oldValue = counters.get(longIndex);
+            counter = (oldValue >>> shift) & MAX_COUNTER_VALUE;
+            if (counter == 0 || counter == MAX_COUNTER_VALUE) {
+                return;
+            }
+        } while (!counters.compareAndSet(longIndex, oldValue, oldValue - (1L << shift)));
+    }
+
+    /**
+     * Compute the number of longs needed by a counting Bloom filter to store {@code expectedInsertions}
+     * values with the desired false positive probability.
+     */
+    static long estimatedMemoryBytes(int expectedInsertions, double fpp) {
+        return numLongsUnchecked(optimalNumOfCounters(expectedInsertions, fpp)) * Long.BYTES;
+    }
+
+    static int numLongs(int expectedInsertions, double fpp) {
+        final long numCounters = optimalNumOfCounters(expectedInsertions, fpp);
+        final long numLongs = numLongsUnchecked(numCounters);
+        if (numLongs > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Could not create counting Bloom filter of " +
+                    numCounters + " counters");
+        }
+        return (int) numLongs;
+    }
+
+    private static long numLongsUnchecked(long numCounters) {
+        return Math.max(1L, (numCounters + COUNTERS_PER_LONG - 1) / COUNTERS_PER_LONG);
+    }
+
+    /**
+     * Computes m (total counters of the counting Bloom filter) which is expected to achieve, for the
+     * specified expected insertions, the required false positive probability. It's the same as the number
+     * of bits for a classic Bloom filter.
+     */
+    static long optimalNumOfCounters(long expectedInsertions, double fpp) {
+        return Math.max(1L, (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+    }
+
+    /**
+     * Computes the optimal k (number of hashes per value inserted in counting Bloom filter), given the
+     * expected insertions and total number of counters in the counting Bloom filter.
+     */
+    static int optimalNumOfHashFunctions(long expectedInsertions, long numCounters) {
+        return Math.max(1, (int) Math.min(Byte.MAX_VALUE,
+                Math.round((double) numCounters / expectedInsertions * Math.log(2))));
+    }
+}
@@ -0,0 +1,38 @@
+package cn.leancloud.filter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+
+public class CountingBloomFilterFactory implements BloomFilterFactory<CountingBloomFilter, ExpirableBloomFilterConfig> {
+    @Override
+    public CountingBloomFilter createFilter(ExpirableBloomFilterConfig config) {
+        final ZonedDateTime creation = config.creation();
+        final ZonedDateTime expiration = config.expiration(creation);
+
+        return new CountingBloomFilter(
+                config.expectedInsertions(),
+                config.fpp(),
+                creation,
+                expiration,
+                config.validPeriodAfterAccess());
+    }
+
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        return CountingBloomFilter.estimatedMemoryBytes(config.expectedInsertions(), config.fpp());
+    }
+
+    @Override
+    public CountingBloomFilter readFrom(InputStream stream) throws IOException {
+        return CountingBloomFilter.readFrom(stream);
+    }
+
+    @Override
+    public CountingBloomFilter readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type != BloomFilterType.COUNTING) {
+            throw new InvalidFilterException("unsupported filter type: " + type.typeName());
+        }
+        return readFrom(stream);
+    }
+}
@@ -0,0 +1,446 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A cuckoo filter which stores a small fingerprint for every value in one of the two candidate buckets
+ * of that value. Every bucket has 4 slots and all the slots are packed into a {@code long[]} with
+ * {@code fingerprintBits} bits for each slot. When both candidate buckets of a new value are full, a
+ * random fingerprint in them is kicked out to its alternate bucket, and so on.
+ * <p>
+ * For a desired false positive probability at 0.001 and below, a cuckoo filter needs less bits per value
+ * than a classic Bloom filter, and values can be removed from it. But unlike a Bloom filter, a cuckoo
+ * filter can be full. When a value can not be put into the filter after {@link #MAX_KICKS} kicks, all the
+ * kicks are rolled back and a {@link FilterFullException} is thrown, so the filter stays unchanged.
+ * <p>
+ * {@link #set(String)} do not put a value which might already be in the filter again, otherwise a few
+ * {@code check-and-set} on the same value would fill up its buckets. The price is that two values sharing
+ * the same fingerprint and bucket share one slot, so removing one of them removes the other too. That
+ * happens at about the rate of the false positive probability. And the same as {@link CountingBloomFilter},
+ * only remove values which were put into this filter before.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class CuckooFilter extends AbstractExpirableBloomFilter {
+    static final int SLOTS_PER_BUCKET = 4;
+    static final int MIN_FINGERPRINT_BITS = 4;
+    static final int MAX_FINGERPRINT_BITS = 32;
+    static final int MAX_KICKS = 500;
+    private static final double MAX_LOAD_FACTOR = 0.95;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    static CuckooFilter readFrom(InputStream in) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final int fingerprintBits = din.readInt();
+        final int numBuckets = din.readInt();
+        final int numLongs = din.readInt();
+        if (fingerprintBits < MIN_FINGERPRINT_BITS || fingerprintBits > MAX_FINGERPRINT_BITS) {
+            throw new InvalidFilterException("invalid fingerprint bits: " + fingerprintBits +
+                    " for cuckoo filter (expected: >= " + MIN_FINGERPRINT_BITS + " && <= " + MAX_FINGERPRINT_BITS + ")");
+        }
+        if (numBuckets <= 0 || numLongs != numLongs(numBuckets, fingerprintBits)) {
+            throw new InvalidFilterException("invalid table length: " + numLongs + " with " + numBuckets +
+                    " buckets for cuckoo filter");
+        }
+        final long[] table = new long[numLongs];
+        for (int i = 0; i < numLongs; i++) {
+            table[i] = din.readLong();
+        }
+
+        return new CuckooFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                fingerprintBits,
+                numBuckets,
+                table,
+                Timer.DEFAULT_TIMER);
+    }
+
+    private final int fingerprintBits;
+    private final int fingerprintMask;
+    private final int numBuckets;
+    private final long[] table;
+    private final ReadWriteLock lock;
+
+    CuckooFilter(int expectedInsertions,
+                 double fpp,
+                 ZonedDateTime created,
+                 ZonedDateTime expiration,
+                 @Nullable Duration validPeriodAfterAccess) {
+        this(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Constructor for {@link CuckooFilter}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the constructed {@code CuckooFilter};
+     *                               must be positive
+     * @param fpp                    the desired false positive probability (must be positive and less than 1.0)
+     * @param created                the creation time for the constructed {@code CuckooFilter}
+     * @param expiration             the expiration time of the constructed {@code CuckooFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset
+     */
+    CuckooFilter(int expectedInsertions,
+                 double fpp,
+                 ZonedDateTime created,
+                 ZonedDateTime expiration,
+                 @Nullable Duration validPeriodAfterAccess,
+                 Timer timer) {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                fingerprintBits(fpp),
+                numBuckets(expectedInsertions),
+                null,
+                timer);
+    }
+
+    private CuckooFilter(int expectedInsertions,
+                         double fpp,
+                         ZonedDateTime created,
+                         ZonedDateTime expiration,
+                         @Nullable Duration validPeriodAfterAccess,
+                         int fingerprintBits,
+                         int numBuckets,
+                         @Nullable long[] table,
+                         Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        this.fingerprintBits = fingerprintBits;
+        this.fingerprintMask = (int) ((1L << fingerprintBits) - 1);
+        this.numBuckets = numBuckets;
+        this.table = table == null ? new long[numLongs(numBuckets, fingerprintBits)] : table;
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.CUCKOO;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        return (long) table.length * Long.BYTES;
+    }
+
+    @Override
+    public HashScheme hashScheme() {
+        return HashScheme.MURMUR3_64;
+    }
+
+    /**
+     * Puts a value into this {@code CuckooFilter} if it is not in this filter.
+     *
+     * @param value the value to put into this {@code CuckooFilter}
+     * @return true if the value was put into this filter, false if the value <i>might</i> be in this
+     * filter already
+     * @throws FilterFullException if there's no room for the value in this filter
+     */
+    @Override
+    public boolean set(String value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(ByteBuffer value) {
+        return setHash(hash(value));
+    }
+
+    @Override
+    public boolean set(HashCode hash) {
+        HashScheme.MURMUR3_64.checkHash(hash);
+        return setHash(hash.asLong());
+    }
+
+    private boolean setHash(long hash) {
+        final int fingerprint = fingerprint(hash);
+        final int bucket = bucketIndex(hash);
+        final int altBucket = altBucketIndex(bucket, fingerprint);
+        final boolean added;
+        lock.writeLock().lock();
+        try {
+            if (bucketContains(bucket, fingerprint) || bucketContains(altBucket, fingerprint)) {
+                added = false;
+            } else {
+                added = insertIntoBucket(bucket, fingerprint) ||
+                        insertIntoBucket(altBucket, fingerprint) ||
+                        kickAndInsert(ThreadLocalRandom.current().nextBoolean() ? bucket : altBucket, fingerprint);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        tryExtendExpiration();
+        return added;
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return mightContainHash(hash(value));
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        HashScheme.MURMUR3_64.checkHash(hash);
+        return mightContainHash(hash.asLong());
+    }
+
+    private boolean mightContainHash(long hash) {
+        final int fingerprint = fingerprint(hash);
+        final int bucket = bucketIndex(hash);
+        final boolean contain;
+        lock.readLock().lock();
+        try {
+            contain = bucketContains(bucket, fingerprint) ||
+                    bucketContains(altBucketIndex(bucket, fingerprint), fingerprint);
+        } finally {
+            lock.readLock().unlock();
+        }
+        tryExtendExpiration();
+        return contain;
+    }
+
+    @Override
+    public boolean remove(String value) {
+        return removeHash(hash(value));
+    }
+
+    @Override
+    public boolean remove(ByteBuffer value) {
+        return removeHash(hash(value));
+    }
+
+    private boolean removeHash(long hash) {
+        final int fingerprint = fingerprint(hash);
+        final int bucket = bucketIndex(hash);
+        final boolean removed;
+        lock.writeLock().lock();
+        try {
+            removed = removeFromBucket(bucket, fingerprint) ||
+                    removeFromBucket(altBucketIndex(bucket, fingerprint), fingerprint);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        tryExtendExpiration();
+        return removed;
+    }
+
+    @Override
+    public boolean supportRemove() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeInt(fingerprintBits);
+        dout.writeInt(numBuckets);
+        dout.writeInt(table.length);
+        lock.readLock().lock();
+        try {
+            for (long word : table) {
+                dout.writeLong(word);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        dout.flush();
+    }
+
+    int fingerprintBits() {
+        return fingerprintBits;
+    }
+
+    int numBuckets() {
+        return numBuckets;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final CuckooFilter that = (CuckooFilter) o;
+        return metadataEquals(that) &&
+                fingerprintBits == that.fingerprintBits &&
+                numBuckets == that.numBuckets;
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + fingerprintBits;
+        ret = 31 * ret + numBuckets;
+        return ret;
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static long hash(ByteBuffer value) {
+        return HASH_FUNCTION.hashBytes(value.duplicate()).asLong();
+    }
+
+    private int fingerprint(long hash) {
+        final int fingerprint = (int) hash & fingerprintMask;
+        // zero is reserved for empty slots
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private int bucketIndex(long hash) {
+        // map the high 32 bits of the hash to [0, numBuckets) without division
+        return (int) (((hash >>> 32) * numBuckets) >>> 32);
+    }
+
+    /**
+     * Get the alternate bucket of a fingerprint. {@code altBucketIndex(altBucketIndex(i, f), f) == i}
+     * always holds so we can move a fingerprint between its two buckets back and forth without knowing
+     * the original value. The number of buckets do not need to be a power of two.
+     */
+    private int altBucketIndex(int bucket, int fingerprint) {
+        final long fingerprintHash = (fingerprint * 0x5bd1e995L) & Integer.MAX_VALUE;
+        return (int) Math.floorMod(fingerprintHash - bucket, (long) numBuckets);
+    }
+
+    private boolean bucketContains(int bucket, int fingerprint) {
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if (readSlot(bucket, slot) == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean insertIntoBucket(int bucket, int fingerprint) {
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if (readSlot(bucket, slot) == 0) {
+                writeSlot(bucket, slot, fingerprint);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeFromBucket(int bucket, int fingerprint) {
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if (readSlot(bucket, slot) == fingerprint) {
+                writeSlot(bucket, slot, 0);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean kickAndInsert(int bucket, int fingerprint) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int[] kickedBuckets = new int[MAX_KICKS];
+        final int[] kickedSlots = new int[MAX_KICKS];
+        int currentBucket = bucket;
+        int currentFingerprint = fingerprint;
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            final int slot = random.nextInt(SLOTS_PER_BUCKET);
+            kickedBuckets[kick] = currentBucket;
+            kickedSlots[kick] = slot;
+            final int kickedFingerprint = readSlot(currentBucket, slot);
+            writeSlot(currentBucket, slot, currentFingerprint);
+            currentFingerprint = kickedFingerprint;
+            currentBucket = altBucketIndex(currentBucket, currentFingerprint);
+            if (insertIntoBucket(currentBucket, currentFingerprint)) {
+                return true;
+            }
+        }
+
+        // roll back all the kicks in reverse order to leave this filter unchanged
+        for (int kick = MAX_KICKS - 1; kick >= 0; kick--) {
+            final int kickedFingerprint = readSlot(kickedBuckets[kick], kickedSlots[kick]);
+            writeSlot(kickedBuckets[kick], kickedSlots[kick], currentFingerprint);
+            currentFingerprint = kickedFingerprint;
+        }
+        throw new FilterFullException("cuckoo filter is full, expectedInsertions: " + expectedInsertions());
+    }
+
+    private int readSlot(int bucket, int slot) {
+        final long bitOffset = ((long) bucket * SLOTS_PER_BUCKET + slot) * fingerprintBits;
+        final int wordIndex = (int) (bitOffset >>> 6);
+        final int shift = (int) (bitOffset & 63);
+        long value = table[wordIndex] >>> shift;
+        if (shift + fingerprintBits > Long.SIZE) {
+            value |= table[wordIndex + 1] << (Long.SIZE - shift);
+        }
+        return (int) value & fingerprintMask;
+    }
+
+    private void writeSlot(int bucket, int slot, int fingerprint) {
+        final long bitOffset = ((long) bucket * SLOTS_PER_BUCKET + slot) * fingerprintBits;
+        final int wordIndex = (int) (bitOffset >>> 6);
+        final int shift = (int) (bitOffset & 63);
+        final long mask = fingerprintMask & 0xFFFFFFFFL;
+        final long value = fingerprint & 0xFFFFFFFFL;
+        table[wordIndex] = (table[wordIndex] & ~(mask << shift)) | (value << shift);
+        if (shift + fingerprintBits > Long.SIZE) {
+            final int highShift = Long.SIZE - shift;
+            table[wordIndex + 1] = (table[wordIndex + 1] & ~(mask >>> highShift)) | (value >>> highShift);
+        }
+    }
+
+    /**
+     * Compute the bits of the fingerprint needed to reach the desired false positive probability. A lookup
+     * compares the fingerprint with at most {@code 2 * SLOTS_PER_BUCKET} fingerprints, so the false positive
+     * probability is about {@code 2 * SLOTS_PER_BUCKET / 2^fingerprintBits}.
+     */
+    static long estimatedMemoryBytes(int expectedInsertions, double fpp) {
+        return (long) numLongs(numBuckets(expectedInsertions), fingerprintBits(fpp)) * Long.BYTES;
+    }
+
+    static int fingerprintBits(double fpp) {
+        final int bits = (int) Math.ceil(Math.log(2.0 * SLOTS_PER_BUCKET / fpp) / Math.log(2));
+        return Math.max(MIN_FINGERPRINT_BITS, Math.min(MAX_FINGERPRINT_BITS, bits));
+    }
+
+    /**
+     * Compute the number of buckets needed to store {@code expectedInsertions} values without exceeding the
+     * max load factor, at which the insertions begin to fail frequently. Even with the longest fingerprint,
+     * the table for {@link Integer#MAX_VALUE} values still fits in a {@code long[]}.
+     */
+    static int numBuckets(int expectedInsertions) {
+        return (int) Math.max(1L, (long) Math.ceil(expectedInsertions / (SLOTS_PER_BUCKET * MAX_LOAD_FACTOR)));
+    }
+
+    static int numLongs(int numBuckets, int fingerprintBits) {
+        return (int) (((long) numBuckets * SLOTS_PER_BUCKET * fingerprintBits + Long.SIZE - 1) / Long.SIZE);
+    }
+}
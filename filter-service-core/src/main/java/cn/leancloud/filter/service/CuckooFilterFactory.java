@@ -0,0 +1,38 @@
+package cn.leancloud.filter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+
+public class CuckooFilterFactory implements BloomFilterFactory<CuckooFilter, ExpirableBloomFilterConfig> {
+    @Override
+    public CuckooFilter createFilter(ExpirableBloomFilterConfig config) {
+        final ZonedDateTime creation = config.creation();
+        final ZonedDateTime expiration = config.expiration(creation);
+
+        return new CuckooFilter(
+                config.expectedInsertions(),
+                config.fpp(),
+                creation,
+                expiration,
+                config.validPeriodAfterAccess());
+    }
+
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        return CuckooFilter.estimatedMemoryBytes(config.expectedInsertions(), config.fpp());
+    }
+
+    @Override
+    public CuckooFilter readFrom(InputStream stream) throws IOException {
+        return CuckooFilter.readFrom(stream);
+    }
+
+    @Override
+    public CuckooFilter readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type != BloomFilterType.CUCKOO) {
+            throw new InvalidFilterException("unsupported filter type: " + type.typeName());
+        }
+        return readFrom(stream);
+    }
+}
@@ -8,7 +8,11 @@ public enum Errors {
     UNKNOWN_ERROR(-1, "unknown error"),
     NONE(0, "none"),
     BAD_PARAMETER(1, "invalid parameter"),
-    FILTER_NOT_FOUND(2, "filter not found");
+    FILTER_NOT_FOUND(2, "filter not found"),
+    UNSUPPORTED_OPERATION(3, "operation not supported by filter"),
+    FILTER_FULL(4, "filter is full"),
+    FILTER_TOO_LARGE(5, "filter is too large"),
+    MEMORY_BUDGET_EXCEEDED(6, "memory budget for filters exceeded");
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
@@ -0,0 +1,29 @@
+package cn.leancloud.filter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A job to evict the least recently accessed filters in a {@link BloomFilterManagerImpl} to its
+ * {@link ColdFilterStorage} when the memory of all the filters exceeds the watermark.
+ */
+public final class EvictColdFiltersJob implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(EvictColdFiltersJob.class);
+    private final BloomFilterManagerImpl<?, ?> manager;
+
+    EvictColdFiltersJob(BloomFilterManagerImpl<?, ?> manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final int evicted = manager.evictColdFilters();
+            if (evicted > 0) {
+                logger.debug("Evicted {} cold filters.", evicted);
+            }
+        } catch (Exception ex) {
+            logger.error("Evict cold filters failed.", ex);
+        }
+    }
+}
@@ -20,6 +20,11 @@ public interface ExpirableBloomFilter extends BloomFilter {
      */
     boolean expired();
 
+    @Override
+    default long expirationMillis() {
+        return expiration().toInstant().toEpochMilli();
+    }
+
     @Override
     default boolean valid() {
         return !expired();
@@ -1,8 +1,12 @@
 package cn.leancloud.filter.service;
 
+import cn.leancloud.filter.service.utils.Timer;
+
 import javax.annotation.Nullable;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Objects;
 
 import static cn.leancloud.filter.service.ServiceParameterPreconditions.checkNotNull;
 import static cn.leancloud.filter.service.ServiceParameterPreconditions.checkParameter;
@@ -11,19 +15,51 @@ final class ExpirableBloomFilterConfig extends AbstractBloomFilterConfig<Expirab
     private Duration validPeriodAfterCreate;
     @Nullable
     private Duration validPeriodAfterAccess;
+    private BloomFilterType type;
+    private boolean offHeap;
+    private boolean scalable;
+    @Nullable
+    private Collection<String> values;
+    @Nullable
+    private Duration rotationPeriod;
+    private int generations;
+    @Nullable
+    private ZonedDateTime creation;
 
     ExpirableBloomFilterConfig() {
         this.validPeriodAfterCreate = Configuration.defaultValidPeriodAfterCreate();
+        this.type = BloomFilterType.GUAVA;
+        this.generations = RotatingBloomFilter.DEFAULT_GENERATIONS;
     }
 
     ExpirableBloomFilterConfig(int expectedInsertions, double fpp) {
         super(expectedInsertions, fpp);
         this.validPeriodAfterCreate = Configuration.defaultValidPeriodAfterCreate();
+        this.type = BloomFilterType.GUAVA;
+        this.generations = RotatingBloomFilter.DEFAULT_GENERATIONS;
     }
 
     ExpirableBloomFilterConfig(ExpirableBloomFilterConfig config) {
         super(config.expectedInsertions(), config.fpp());
         this.validPeriodAfterAccess = config.validPeriodAfterAccess();
+        this.type = config.type();
+        this.offHeap = config.offHeap();
+        this.scalable = config.scalable();
+        this.values = config.values();
+        this.rotationPeriod = config.rotationPeriod();
+        this.generations = config.generations();
+        this.creation = config.creation;
+    }
+
+    BloomFilterType type() {
+        return type;
+    }
+
+    ExpirableBloomFilterConfig setType(BloomFilterType type) {
+        checkNotNull("type", type);
+
+        this.type = type;
+        return this;
     }
 
     Duration validPeriodAfterCreate() {
@@ -41,6 +77,125 @@ final class ExpirableBloomFilterConfig extends AbstractBloomFilterConfig<Expirab
         return this;
     }
 
+    boolean offHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Set whether to store the bits of the filter off heap, in a file mapped to memory.
+     * Only {@link BloomFilterType#BLOCKED} filters support off-heap storage.
+     *
+     * @param offHeap true to store the bits of the filter off heap
+     * @return this
+     */
+    ExpirableBloomFilterConfig setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    boolean scalable() {
+        return scalable;
+    }
+
+    /**
+     * Set whether to create a {@link ScalableBloomFilter} which grows when more values than
+     * {@code expectedInsertions} are put into it. The filters with the configured {@code type}
+     * are used as the sub-filters of the created {@link ScalableBloomFilter}.
+     *
+     * @param scalable true to create a {@link ScalableBloomFilter}
+     * @return this
+     */
+    ExpirableBloomFilterConfig setScalable(boolean scalable) {
+        this.scalable = scalable;
+        return this;
+    }
+
+    @Nullable
+    Collection<String> values() {
+        return values;
+    }
+
+    /**
+     * Set all the values of a {@link BloomFilterType#SEALED} filter. A sealed filter is built from these
+     * values on creation and can not accept any other values after that.
+     *
+     * @param values all the values of the sealed filter
+     * @return this
+     */
+    ExpirableBloomFilterConfig setValues(Collection<String> values) {
+        checkNotNull("values", values);
+
+        this.values = values;
+        return this;
+    }
+
+    @Nullable
+    Duration rotationPeriod() {
+        return rotationPeriod;
+    }
+
+    /**
+     * Set the rotation period to create a {@link RotatingBloomFilter} which only remembers values in a
+     * sliding window of time. The filters with the configured {@code type} are used as the generations
+     * of the created {@link RotatingBloomFilter}.
+     *
+     * @param rotationPeriod the time duration between two rotations
+     * @return this
+     */
+    ExpirableBloomFilterConfig setRotationPeriod(Duration rotationPeriod) {
+        checkNotNull("rotationPeriod", rotationPeriod);
+        checkParameter("rotationPeriod",
+                rotationPeriod.getSeconds() > 0L,
+                "expected: > 0, actual: %s",
+                rotationPeriod);
+
+        this.rotationPeriod = rotationPeriod;
+        return this;
+    }
+
+    int generations() {
+        return generations;
+    }
+
+    /**
+     * Set the max number of generations kept by a {@link RotatingBloomFilter}.
+     *
+     * @param generations the max number of generations
+     * @return this
+     */
+    ExpirableBloomFilterConfig setGenerations(int generations) {
+        checkParameter("generations",
+                generations >= RotatingBloomFilter.MIN_GENERATIONS && generations <= RotatingBloomFilter.MAX_GENERATIONS,
+                "expected: >= %s && <= %s, actual: %s",
+                RotatingBloomFilter.MIN_GENERATIONS, RotatingBloomFilter.MAX_GENERATIONS, generations);
+
+        this.generations = generations;
+        return this;
+    }
+
+    /**
+     * Get the creation time of the filter created with this config. It's the current time, unless the
+     * creation time is set by {@link #setCreation(ZonedDateTime)}.
+     *
+     * @return the creation time of the filter
+     */
+    ZonedDateTime creation() {
+        return creation != null ? creation : Timer.DEFAULT_TIMER.utcNow();
+    }
+
+    /**
+     * Set the creation time of the filter, to rebuild a filter which was created before.
+     *
+     * @param creation the creation time of the filter
+     * @return this
+     */
+    ExpirableBloomFilterConfig setCreation(ZonedDateTime creation) {
+        checkNotNull("creation", creation);
+
+        this.creation = creation;
+        return this;
+    }
+
     @Nullable
     Duration validPeriodAfterAccess() {
         return validPeriodAfterAccess;
@@ -81,13 +236,27 @@ final class ExpirableBloomFilterConfig extends AbstractBloomFilterConfig<Expirab
         if (!super.equals(o)) return false;
         final ExpirableBloomFilterConfig that = (ExpirableBloomFilterConfig) o;
         return validPeriodAfterCreate.equals(that.validPeriodAfterCreate) &&
-                (validPeriodAfterAccess == null || validPeriodAfterAccess.equals(that.validPeriodAfterAccess));
+                (validPeriodAfterAccess == null || validPeriodAfterAccess.equals(that.validPeriodAfterAccess)) &&
+                type == that.type &&
+                offHeap == that.offHeap &&
+                scalable == that.scalable &&
+                Objects.equals(values, that.values) &&
+                Objects.equals(rotationPeriod, that.rotationPeriod) &&
+                generations == that.generations &&
+                Objects.equals(creation, that.creation);
     }
 
     @Override
     public int hashCode() {
         int ret = super.hashCode();
         ret = 31 * ret + validPeriodAfterCreate.hashCode();
+        ret = 31 * ret + type.hashCode();
+        ret = 31 * ret + Boolean.hashCode(offHeap);
+        ret = 31 * ret + Boolean.hashCode(scalable);
+        ret = 31 * ret + Objects.hashCode(values);
+        ret = 31 * ret + Objects.hashCode(rotationPeriod);
+        ret = 31 * ret + generations;
+        ret = 31 * ret + Objects.hashCode(creation);
 
         if (validPeriodAfterAccess != null) {
             ret = 31 * ret + validPeriodAfterAccess.hashCode();
@@ -101,6 +270,13 @@ final class ExpirableBloomFilterConfig extends AbstractBloomFilterConfig<Expirab
                 super.toString() +
                 "validPeriodAfterCreate=" + validPeriodAfterCreate +
                 ", validPeriodAfterAccess=" + validPeriodAfterAccess +
+                ", type=" + type +
+                ", offHeap=" + offHeap +
+                ", scalable=" + scalable +
+                ", values=" + (values == null ? null : values.size() + " values") +
+                ", rotationPeriod=" + rotationPeriod +
+                ", generations=" + generations +
+                ", creation=" + creation +
                 '}';
     }
 
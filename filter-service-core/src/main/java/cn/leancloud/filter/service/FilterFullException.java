@@ -0,0 +1,19 @@
+package cn.leancloud.filter.service;
+
+/**
+ * A {@link RuntimeException} that is raised when a value can not be put into a filter because
+ * the filter has no room for it anymore.
+ */
+public final class FilterFullException extends RuntimeException {
+    private static final long serialVersionUID = -1L;
+
+    public FilterFullException(String message) {
+        super(message);
+    }
+
+    // We don't need stack trace for this exception
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -1,6 +1,7 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.utils.ChecksumedBufferedOutputStream;
+import cn.leancloud.filter.service.utils.ZeroRunOutputStream;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -12,11 +13,17 @@ import java.nio.charset.StandardCharsets;
 /**
  * The schema is:
  * BodyLength: Int32
- * MAGIC: Byte
+ * MAGIC: Byte, the magic of the {@link BloomFilterType} of the filter, with {@link #EXPIRATION_FLAG} set if
+ * the body starts with ExpirationMillis, and with {@link #COMPRESSED_FLAG} set if Filter is compressed
  * CRC: Uint32
+ * ExpirationMillis: Int64, the {@link BloomFilter#expirationMillis()} of the filter when it was written. Absent
+ * in the records written by the previous versions
  * NameLength: Int32
  * Name: Bytes
- * Filter: Bytes
+ * Filter: Bytes, encoded by {@link ZeroRunOutputStream} if {@link #COMPRESSED_FLAG} is set
+ * <p>
+ * ExpirationMillis is put right after the header, so a record of an expired filter can be skipped by reading
+ * only a few bytes of it.
  */
 public final class FilterRecord<F extends BloomFilter> {
     static final int BODY_LENGTH_OFFSET = 0;
@@ -26,8 +33,38 @@ public final class FilterRecord<F extends BloomFilter> {
     static final int CRC_OFFSET = MAGIC_OFFSET + MAGIC_LENGTH;
     static final int CRC_LENGTH = 4;
     static final int HEADER_OVERHEAD = CRC_OFFSET + CRC_LENGTH;
+    static final byte EXPIRATION_FLAG = (byte) 0x80;
+    static final int EXPIRATION_LENGTH = 8;
+    static final byte COMPRESSED_FLAG = (byte) 0x40;
+
+    /**
+     * Check if a record has ExpirationMillis by the MAGIC in its header.
+     */
+    static boolean hasExpiration(byte magic) {
+        return (magic & EXPIRATION_FLAG) != 0;
+    }
 
-    static final byte DEFAULT_MAGIC = (byte) 0;
+    /**
+     * Check if the Filter of a record is compressed by the MAGIC in its header.
+     */
+    static boolean compressed(byte magic) {
+        return (magic & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Get the magic of the {@link BloomFilterType} from the MAGIC in the header of a record.
+     */
+    static byte typeMagic(byte magic) {
+        return (byte) (magic & ~(EXPIRATION_FLAG | COMPRESSED_FLAG));
+    }
+
+    /**
+     * Check if a filter is expired by the {@link BloomFilter#expirationMillis()} recorded when it was persisted,
+     * so an expired filter can be skipped without being read.
+     */
+    static boolean expired(long expirationMillis, long now) {
+        return expirationMillis != Long.MIN_VALUE && now > expirationMillis;
+    }
 
     private final String name;
     private final F filter;
@@ -46,15 +83,29 @@ public final class FilterRecord<F extends BloomFilter> {
     }
 
     public int writeFullyTo(FileChannel channel) throws IOException {
+        return writeFullyTo(channel, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Write this record at the current position of {@code channel}, with the body written through
+     * {@code channelStream}.
+     *
+     * @param channel       the channel to write this record to
+     * @param channelStream the stream writing to {@code channel} at its current position
+     * @return the bytes of this record written
+     * @throws IOException if an I/O error occurs
+     */
+    int writeFullyTo(FileChannel channel, OutputStream channelStream) throws IOException {
         final long startPos = channel.position();
         // write body first then we can know how large the body is
         channel.position(startPos + HEADER_OVERHEAD);
 
         // we don't need to close this stream. it'll be effectively closed when the underlying channel closed
         final ChecksumedBufferedOutputStream stream = new ChecksumedBufferedOutputStream(
-                Channels.newOutputStream(channel),
+                channelStream,
                 Configuration.channelBufferSizeForFilterPersistence());
-        writeBody(stream);
+        final boolean compressed = Configuration.enableSnapshotCompression();
+        writeBody(stream, compressed);
         stream.flush();
 
         // write header
@@ -63,7 +114,8 @@ public final class FilterRecord<F extends BloomFilter> {
 
         final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_OVERHEAD);
         headerBuffer.putInt(BODY_LENGTH_OFFSET, bodyLen);
-        headerBuffer.put(MAGIC_OFFSET, DEFAULT_MAGIC);
+        final int flags = compressed ? EXPIRATION_FLAG | COMPRESSED_FLAG : EXPIRATION_FLAG;
+        headerBuffer.put(MAGIC_OFFSET, (byte) (filter.type().magic() | flags));
         headerBuffer.putInt(CRC_OFFSET, (int) stream.checksum());
         writeBufferTo(channel, headerBuffer);
 
@@ -96,12 +148,19 @@ public final class FilterRecord<F extends BloomFilter> {
                 '}';
     }
 
-    private void writeBody(OutputStream out) throws IOException {
+    private void writeBody(OutputStream out, boolean compressed) throws IOException {
         final DataOutputStream dout = new DataOutputStream(out);
+        dout.writeLong(filter.expirationMillis());
         final byte[] nameInBytes = name.getBytes(StandardCharsets.UTF_8);
         dout.writeInt(nameInBytes.length);
         dout.write(nameInBytes);
-        filter.writeTo(out);
+        if (compressed) {
+            final ZeroRunOutputStream zout = new ZeroRunOutputStream(out);
+            filter.writeTo(zout);
+            zout.finish();
+        } else {
+            filter.writeTo(out);
+        }
     }
 
     private int writeBufferTo(GatheringByteChannel channel, ByteBuffer buffer) throws IOException {
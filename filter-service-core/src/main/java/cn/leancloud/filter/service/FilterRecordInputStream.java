@@ -1,23 +1,38 @@
 package cn.leancloud.filter.service;
 
+import cn.leancloud.filter.service.utils.ByteBufferPool;
 import cn.leancloud.filter.service.utils.Crc32C;
+import cn.leancloud.filter.service.utils.FileChannelInputStream;
+import cn.leancloud.filter.service.utils.ZeroRunInputStream;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CheckedInputStream;
 
 import static cn.leancloud.filter.service.FilterRecord.*;
 import static cn.leancloud.filter.service.UnfinishedFilterException.shortReadFilterBody;
 import static cn.leancloud.filter.service.UnfinishedFilterException.shortReadFilterHeader;
 
 public final class FilterRecordInputStream<F extends BloomFilter> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FilterRecordInputStream.class);
+    // the buffers to read the bodies of the records, shared by all the streams and reused across the records
+    private static final ByteBufferPool bufferPool = new ByteBufferPool(Runtime.getRuntime().availableProcessors());
+
     private static void readFully(FileChannel channel, ByteBuffer destinationBuffer, long position) throws IOException {
         if (position < 0) {
             throw new IllegalArgumentException("position:" + position + " (expected: >=0)");
@@ -48,6 +63,7 @@ public final class FilterRecordInputStream<F extends BloomFilter> implements Clo
     private final long end;
     private final ByteBuffer headerBuffer;
     private final BloomFilterFactory<F, ?> factory;
+    private final int bufferSize;
     private long position;
 
     public FilterRecordInputStream(Path recordFilePath, BloomFilterFactory<F, ?> factory) throws IOException {
@@ -56,44 +72,129 @@ public final class FilterRecordInputStream<F extends BloomFilter> implements Clo
         this.position = channel.position();
         this.headerBuffer = ByteBuffer.allocate(HEADER_OVERHEAD);
         this.factory = factory;
-        this.end = channel.size();
+        this.bufferSize = Configuration.channelBufferSizeForFilterPersistence();
+        // the records in a segment with an index end at the index
+        final long indexPosition = SegmentIndex.indexPosition(channel);
+        this.end = indexPosition >= 0 ? indexPosition : channel.size();
     }
 
     @Nullable
     public FilterRecord<? extends F> nextFilterRecord() throws IOException {
-        if (end - position <= HEADER_OVERHEAD) {
-            if (end == position) {
-                return null;
+        while (true) {
+            if (end - position <= HEADER_OVERHEAD) {
+                if (end == position) {
+                    return null;
+                }
+
+                throw shortReadFilterHeader(recordFilePath.toString(), (int) (HEADER_OVERHEAD - (end - position)));
             }
 
+            final FilterRecord<? extends F> record = readRecord();
+            if (record != null) {
+                return record;
+            }
+        }
+    }
+
+    /**
+     * Read the record starting at the given position of the file. The following {@link #nextFilterRecord()}
+     * continues from the end of this record.
+     *
+     * @param recordPosition the position of the record in the file
+     * @return the record read, or null if the filter of the record was stored off heap and its storage is missing
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable
+    FilterRecord<? extends F> readFilterRecordAt(long recordPosition) throws IOException {
+        if (recordPosition < 0 || recordPosition > end) {
+            throw new IllegalArgumentException("recordPosition: " + recordPosition + " (expected: >= 0 and <= " + end + ")");
+        }
+
+        position = recordPosition;
+        if (end - position <= HEADER_OVERHEAD) {
             throw shortReadFilterHeader(recordFilePath.toString(), (int) (HEADER_OVERHEAD - (end - position)));
         }
+        return readRecord();
+    }
 
-        headerBuffer.rewind();
-        readFullyOrFail(channel, headerBuffer, position);
-        headerBuffer.rewind();
+    /**
+     * Read the record starting at the given position of the file. Unlike {@link #readFilterRecordAt(long)},
+     * the position of this stream is not moved, so this method can be called concurrently from multiple threads.
+     *
+     * @param recordPosition the position of the record in the file
+     * @return the record read, or null if the filter of the record was stored off heap and its storage is missing
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable
+    FilterRecord<? extends F> decodeFilterRecordAt(long recordPosition) throws IOException {
+        if (recordPosition < 0 || recordPosition > end) {
+            throw new IllegalArgumentException("recordPosition: " + recordPosition + " (expected: >= 0 and <= " + end + ")");
+        }
 
-        final int bodyLen = headerBuffer.getInt(BODY_LENGTH_OFFSET);
-        if (end - position < HEADER_OVERHEAD + bodyLen) {
-            throw shortReadFilterBody(recordFilePath.toString(), (int) ((bodyLen + HEADER_OVERHEAD) - (end - position)));
+        if (end - recordPosition <= HEADER_OVERHEAD) {
+            throw shortReadFilterHeader(recordFilePath.toString(), (int) (HEADER_OVERHEAD - (end - recordPosition)));
         }
+        return readRecordAt(recordPosition, ByteBuffer.allocate(HEADER_OVERHEAD));
+    }
 
-        checkMagic(headerBuffer);
+    /**
+     * Find the positions of the records from the current position to the end of the file by reading only
+     * their headers, so the records can be read later by {@link #decodeFilterRecordAt(long)} in any order.
+     * The bodies of the records are not checked here. The position of this stream is moved to the end of
+     * the last record found.
+     *
+     * @param positions the list to add the positions of the records found to. On error, the positions
+     *                  of the records before the one failed are still added
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidFilterException if a record is unfinished, has an invalid body length or an unknown magic
+     */
+    void indexRecordPositions(List<Long> positions) throws IOException {
+        indexRecordPositions(positions, Long.MIN_VALUE);
+    }
 
-        final ByteBuffer bodyBuffer = ByteBuffer.allocate(bodyLen);
-        readFullyOrFail(channel, bodyBuffer, position + HEADER_OVERHEAD);
-        bodyBuffer.flip();
+    /**
+     * Same as {@link #indexRecordPositions(List)}, except that the records of the filters which are already
+     * expired at {@code now} by the ExpirationMillis of the records are skipped. The records written by the
+     * previous versions have no ExpirationMillis, they are never skipped.
+     *
+     * @param positions the list to add the positions of the records found to. On error, the positions
+     *                  of the records before the one failed are still added
+     * @param now       the current time in milliseconds, or {@link Long#MIN_VALUE} to skip no record
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidFilterException if a record is unfinished, has an invalid body length or an unknown magic
+     */
+    void indexRecordPositions(List<Long> positions, long now) throws IOException {
+        final ByteBuffer expirationBuffer = ByteBuffer.allocate(EXPIRATION_LENGTH);
+        while (end != position) {
+            if (end - position <= HEADER_OVERHEAD) {
+                throw shortReadFilterHeader(recordFilePath.toString(), (int) (HEADER_OVERHEAD - (end - position)));
+            }
 
-        checkCrc(headerBuffer, bodyBuffer);
+            headerBuffer.rewind();
+            readFullyOrFail(channel, headerBuffer, position);
+            final int bodyLen = checkBodyLength(headerBuffer, position);
+            if (end - position < HEADER_OVERHEAD + bodyLen) {
+                throw shortReadFilterBody(recordFilePath.toString(), (int) ((bodyLen + HEADER_OVERHEAD) - (end - position)));
+            }
 
-        final ByteBuffer filterNameBuffer = readFilterNameBuffer(bodyBuffer);
-        final String name = StandardCharsets.UTF_8.decode(filterNameBuffer).toString();
-        final F filter = factory.readFrom(new ByteArrayInputStream(bodyBuffer.array(),
-                bodyBuffer.position() + filterNameBuffer.limit(), bodyBuffer.remaining()));
+            checkMagic(headerBuffer, position);
+            if (now == Long.MIN_VALUE || !expired(readExpiration(headerBuffer, expirationBuffer, position), now)) {
+                positions.add(position);
+            }
+            position += bodyLen + HEADER_OVERHEAD;
+        }
+    }
 
-        // every thing is fine, we move position forward
-        position += bodyLen + HEADER_OVERHEAD;
-        return new FilterRecord<>(name, filter);
+    /**
+     * Read the {@link SegmentIndex} at the end of the file, if the file is a segment with an index.
+     *
+     * @return the index read, or null if the file has no index
+     * @throws IOException            if an I/O error occurs
+     * @throws InvalidFilterException if the index is corrupted
+     */
+    @Nullable
+    SegmentIndex readSegmentIndex() throws IOException {
+        return SegmentIndex.readFrom(channel);
     }
 
     @Override
@@ -101,30 +202,147 @@ public final class FilterRecordInputStream<F extends BloomFilter> implements Clo
         channel.close();
     }
 
-    private void checkMagic(ByteBuffer headerBuffer) {
+    @Nullable
+    private FilterRecord<? extends F> readRecord() throws IOException {
+        final FilterRecord<? extends F> record = readRecordAt(position, headerBuffer);
+        // every thing is fine, we move position forward
+        position += headerBuffer.getInt(BODY_LENGTH_OFFSET) + HEADER_OVERHEAD;
+        return record;
+    }
+
+    @Nullable
+    private FilterRecord<? extends F> readRecordAt(long recordPosition, ByteBuffer headerBuffer) throws IOException {
+        headerBuffer.rewind();
+        readFullyOrFail(channel, headerBuffer, recordPosition);
+        headerBuffer.rewind();
+
+        final int bodyLen = checkBodyLength(headerBuffer, recordPosition);
+        if (end - recordPosition < HEADER_OVERHEAD + bodyLen) {
+            throw shortReadFilterBody(recordFilePath.toString(), (int) ((bodyLen + HEADER_OVERHEAD) - (end - recordPosition)));
+        }
+
+        final BloomFilterType type = checkMagic(headerBuffer, recordPosition);
+
+        final long bodyPosition = recordPosition + HEADER_OVERHEAD;
+        final ByteBuffer buffer = bufferPool.acquire(bufferSize);
+        try {
+            if (bodyLen <= buffer.capacity()) {
+                buffer.limit(bodyLen);
+                readFullyOrFail(channel, buffer, bodyPosition);
+                buffer.flip();
+                checkCrc(headerBuffer, Crc32C.compute(buffer, 0, bodyLen), recordPosition);
+                return readFilterRecord(type, headerBuffer.get(MAGIC_OFFSET),
+                        new ByteArrayInputStream(buffer.array(), 0, bodyLen), recordPosition);
+            }
+
+            // the body is larger than the buffer, so the filter is deserialized from the file through the buffer
+            // and the body is checked while it's read. So no buffer as large as the body is needed, and the body
+            // is read only once. The filter is dropped if the body turns out to be corrupted
+            final CheckedInputStream bodyStream = new CheckedInputStream(
+                    new FileChannelInputStream(channel, bodyPosition, bodyLen, buffer), Crc32C.create());
+            final FilterRecord<? extends F> record;
+            try {
+                record = readFilterRecord(type, headerBuffer.get(MAGIC_OFFSET), bodyStream, recordPosition);
+            } catch (IOException | RuntimeException ex) {
+                // a corrupted body may fail the deserialization, report the corruption instead if so
+                final long actualCrc;
+                try {
+                    actualCrc = exhaustAndGetCrc(bodyStream);
+                } catch (IOException exhaustEx) {
+                    ex.addSuppressed(exhaustEx);
+                    throw ex;
+                }
+                checkCrc(headerBuffer, actualCrc, recordPosition);
+                throw ex;
+            }
+            checkCrc(headerBuffer, exhaustAndGetCrc(bodyStream), recordPosition);
+            return record;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Nullable
+    private FilterRecord<? extends F> readFilterRecord(BloomFilterType type,
+                                                       byte magic,
+                                                       InputStream bodyStream,
+                                                       long recordPosition) throws IOException {
+        final DataInputStream din = new DataInputStream(bodyStream);
+        if (hasExpiration(magic)) {
+            // the filter knows its own expiration, this one is only used to skip the record without reading it
+            din.readLong();
+        }
+        final byte[] nameInBytes = new byte[din.readInt()];
+        din.readFully(nameInBytes);
+        final String name = new String(nameInBytes, StandardCharsets.UTF_8);
+        final F filter;
+        try {
+            filter = factory.readFrom(type, compressed(magic) ? new ZeroRunInputStream(bodyStream) : bodyStream);
+        } catch (NoSuchFileException ex) {
+            // the filter was stored off heap and it was removed along with its backing file
+            // after this snapshot was taken, skip it
+            logger.warn("Skip filter: {} at position: {} from file: {} because its off-heap storage: {} is missing.",
+                    name, recordPosition, recordFilePath, ex.getFile());
+            return null;
+        }
+
+        return new FilterRecord<>(name, filter);
+    }
+
+    private int checkBodyLength(ByteBuffer headerBuffer, long recordPosition) {
+        final int bodyLen = headerBuffer.getInt(BODY_LENGTH_OFFSET);
+        if (bodyLen < 0) {
+            throw new InvalidFilterException("invalid body length: " + bodyLen + " from position: "
+                    + recordPosition + " from file: " + recordFilePath);
+        }
+        return bodyLen;
+    }
+
+    private BloomFilterType checkMagic(ByteBuffer headerBuffer, long recordPosition) {
         final byte magic = headerBuffer.get(MAGIC_OFFSET);
-        if (magic != DEFAULT_MAGIC) {
+        final BloomFilterType type = BloomFilterType.fromMagic(typeMagic(magic));
+        if (type == null) {
             throw new InvalidFilterException("read unknown Magic: " + magic + " from position: "
-                    + position + " from file: " + recordFilePath);
+                    + recordPosition + " from file: " + recordFilePath);
+        }
+        return type;
+    }
+
+    /**
+     * Read the ExpirationMillis of a record without reading the rest of its body.
+     *
+     * @return the ExpirationMillis of the record, or {@link Long#MIN_VALUE} if the record has no ExpirationMillis
+     */
+    private long readExpiration(ByteBuffer headerBuffer, ByteBuffer expirationBuffer, long recordPosition)
+            throws IOException {
+        if (!hasExpiration(headerBuffer.get(MAGIC_OFFSET))) {
+            return Long.MIN_VALUE;
+        }
+
+        if (headerBuffer.getInt(BODY_LENGTH_OFFSET) < EXPIRATION_LENGTH) {
+            throw new InvalidFilterException("invalid body length: " + headerBuffer.getInt(BODY_LENGTH_OFFSET) +
+                    " from position: " + recordPosition + " from file: " + recordFilePath);
         }
+
+        expirationBuffer.clear();
+        readFullyOrFail(channel, expirationBuffer, recordPosition + HEADER_OVERHEAD);
+        return expirationBuffer.getLong(0);
     }
 
-    private void checkCrc(ByteBuffer headerBuffer, ByteBuffer bodyBuffer) {
+    private long exhaustAndGetCrc(CheckedInputStream bodyStream) throws IOException {
+        // the bytes of the body not consumed by the deserialization are still covered by the crc
+        ByteStreams.exhaust(bodyStream);
+        return bodyStream.getChecksum().getValue();
+    }
+
+    private void checkCrc(ByteBuffer headerBuffer, long actualCrc, long recordPosition) {
         final long expectCrc = readCrc(headerBuffer);
-        final long actualCrc = Crc32C.compute(bodyBuffer, 0, bodyBuffer.limit());
         if (actualCrc != expectCrc) {
             throw new InvalidFilterException("got unmatched crc when read filter from position: "
-                    + position + " from file: " + recordFilePath + ". expect: " + expectCrc + ", actual: " + actualCrc);
+                    + recordPosition + " from file: " + recordFilePath + ". expect: " + expectCrc + ", actual: " + actualCrc);
         }
     }
 
-    private ByteBuffer readFilterNameBuffer(ByteBuffer bodyBuffer) {
-        final int nameLength = bodyBuffer.getInt();
-        final ByteBuffer filterNameBuffer = bodyBuffer.slice();
-        filterNameBuffer.limit(nameLength);
-        return filterNameBuffer;
-    }
-
     private long readCrc(ByteBuffer headerBuffer) {
         // read unsigned int
         return headerBuffer.getInt(CRC_OFFSET) & 0xffffffffL;
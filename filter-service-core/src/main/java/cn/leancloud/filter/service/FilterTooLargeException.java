@@ -0,0 +1,19 @@
+package cn.leancloud.filter.service;
+
+/**
+ * A {@link RuntimeException} that is raised when a filter can not be created because the estimated
+ * memory of it exceeds the limit for a single filter.
+ */
+public final class FilterTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = -1L;
+
+    public FilterTooLargeException(String message) {
+        super(message);
+    }
+
+    // We don't need stack trace for this exception
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -22,6 +22,22 @@ public final class GlobalExceptionHandler implements ExceptionHandlerFunction {
             return HttpResponse.of(HttpStatus.BAD_REQUEST,
                     MediaType.JSON_UTF_8,
                     Errors.BAD_PARAMETER.buildErrorInfoInJson(cause.getMessage()).toString());
+        } else if (cause instanceof FilterFullException) {
+            return HttpResponse.of(HttpStatus.CONFLICT,
+                    MediaType.JSON_UTF_8,
+                    Errors.FILTER_FULL.buildErrorInfoInJson(cause.getMessage()).toString());
+        } else if (cause instanceof FilterTooLargeException) {
+            return HttpResponse.of(HttpStatus.BAD_REQUEST,
+                    MediaType.JSON_UTF_8,
+                    Errors.FILTER_TOO_LARGE.buildErrorInfoInJson(cause.getMessage()).toString());
+        } else if (cause instanceof MemoryBudgetExceededException) {
+            return HttpResponse.of(HttpStatus.INSUFFICIENT_STORAGE,
+                    MediaType.JSON_UTF_8,
+                    Errors.MEMORY_BUDGET_EXCEEDED.buildErrorInfoInJson(cause.getMessage()).toString());
+        } else if (cause instanceof UnsupportedOperationException) {
+            return HttpResponse.of(HttpStatus.BAD_REQUEST,
+                    MediaType.JSON_UTF_8,
+                    Errors.UNSUPPORTED_OPERATION.buildErrorInfoInJson(cause.getMessage()).toString());
         } else if (cause instanceof IllegalArgumentException) {
             return HttpResponse.of(HttpStatus.BAD_REQUEST,
                     MediaType.JSON_UTF_8,
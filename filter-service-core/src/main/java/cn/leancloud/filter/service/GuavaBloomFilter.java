@@ -1,61 +1,40 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.utils.Timer;
-import com.fasterxml.jackson.annotation.*;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonSerializer;
-import com.fasterxml.jackson.databind.SerializerProvider;
-import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.google.common.hash.Funnels;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @SuppressWarnings("UnstableApiUsage")
-public final class GuavaBloomFilter implements ExpirableBloomFilter {
-    private static final DateTimeFormatter ISO_8601_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-
-    public static class ZonedDateTimeSerializer extends JsonSerializer<ZonedDateTime> {
-        @Override
-        public void serialize(ZonedDateTime arg0, JsonGenerator arg1, SerializerProvider arg2) throws IOException {
-            final String zonedTime = arg0.format(ISO_8601_FORMATTER);
-            arg1.writeString(zonedTime);
-        }
-    }
-
-    public static class ZonedDateTimeDeserializer extends JsonDeserializer<ZonedDateTime> {
-        @Override
-        public ZonedDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return ZonedDateTime.parse(p.getText(), ISO_8601_FORMATTER);
-        }
-    }
-
-    public static class DurationSerializer extends JsonSerializer<Duration> {
-        @Override
-        public void serialize(Duration arg0, JsonGenerator arg1, SerializerProvider arg2) throws IOException {
-            arg1.writeNumber(arg0.getSeconds());
-        }
-    }
+public final class GuavaBloomFilter extends AbstractExpirableBloomFilter {
+    /**
+     * Funnels {@code String} values in UTF-8 and binary values as they are, so a {@code String} value and
+     * its UTF-8 bytes are the same value. {@code String} values are funneled in the same way as
+     * {@code Funnels.stringFunnel(StandardCharsets.UTF_8)}, which keeps the persisted filters compatible.
+     */
+    private enum ValueFunnel implements Funnel<Object> {
+        INSTANCE;
 
-    public static class DurationDeserializer extends JsonDeserializer<Duration> {
-        @Nullable
         @Override
-        public Duration deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            if (p.getNumberValue() != null) {
-                return Duration.ofSeconds(p.getNumberValue().intValue());
+        public void funnel(Object from, PrimitiveSink into) {
+            if (from instanceof ByteBuffer) {
+                into.putBytes(((ByteBuffer) from).duplicate());
+            } else {
+                into.putString((CharSequence) from, StandardCharsets.UTF_8);
             }
-            return null;
         }
     }
 
@@ -65,8 +44,8 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
         final double fpp = din.readDouble();
         final long created = din.readLong();
         final long expiration = din.readLong();
-        final com.google.common.hash.BloomFilter<CharSequence> filter =
-                com.google.common.hash.BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+        final com.google.common.hash.BloomFilter<Object> filter =
+                com.google.common.hash.BloomFilter.readFrom(in, ValueFunnel.INSTANCE);
         final long validPeriodAfterAccess = din.readLong();
 
         return new GuavaBloomFilter(
@@ -79,15 +58,25 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
                 Timer.DEFAULT_TIMER);
     }
 
-    private final ZonedDateTime created;
+    /**
+     * Estimate the bytes of memory occupied by a {@code GuavaBloomFilter}. It's the size of the bit array
+     * allocated by the Bloom filter from Guava, whose number of bits is computed in the same way.
+     *
+     * @param expectedInsertions the number of expected insertions to the filter
+     * @param fpp                the desired false positive probability of the filter
+     * @return the estimated bytes of memory occupied by the filter
+     */
+    static long estimatedMemoryBytes(int expectedInsertions, double fpp) {
+        final long numBits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return Math.max(1L, (numBits + Long.SIZE - 1) / Long.SIZE) * Long.BYTES;
+    }
+
+    @JsonIgnore
+    private final com.google.common.hash.BloomFilter<Object> filter;
+    // the bits of the Guava filter can be updated concurrently, so the updates share this lock, and copying
+    // the bits takes it exclusively to get a point-in-time image
     @JsonIgnore
-    private final com.google.common.hash.BloomFilter<CharSequence> filter;
-    @Nullable
-    private final Duration validPeriodAfterAccess;
-    private final double fpp;
-    private final int expectedInsertions;
-    private final Timer timer;
-    private ZonedDateTime expiration;
+    private final ReadWriteLock copyLock;
 
     /**
      * Constructor with default timer used by {@link GuavaBloomFilterFactory} and JSON serialization.
@@ -130,7 +119,7 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
                 expiration,
                 validPeriodAfterAccess,
                 com.google.common.hash.BloomFilter.create(
-                        Funnels.stringFunnel(StandardCharsets.UTF_8),
+                        ValueFunnel.INSTANCE,
                         expectedInsertions,
                         fpp),
                 timer);
@@ -141,58 +130,47 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
                              ZonedDateTime created,
                              ZonedDateTime expiration,
                              @Nullable Duration validPeriodAfterAccess,
-                             com.google.common.hash.BloomFilter<CharSequence> filter,
+                             com.google.common.hash.BloomFilter<Object> filter,
                              Timer timer) {
-        this.fpp = fpp;
-        this.expectedInsertions = expectedInsertions;
-        this.created = created;
-        this.expiration = expiration;
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
         this.filter = filter;
-        this.validPeriodAfterAccess = validPeriodAfterAccess;
-        this.timer = timer;
-    }
-
-    @JsonSerialize(using = ZonedDateTimeSerializer.class)
-    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
-    public ZonedDateTime created() {
-        return created;
-    }
-
-    @Override
-    @JsonSerialize(using = ZonedDateTimeSerializer.class)
-    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
-    public synchronized ZonedDateTime expiration() {
-        return expiration;
+        this.copyLock = new ReentrantReadWriteLock();
     }
 
     @Override
-    @JsonGetter("fpp")
-    public double fpp() {
-        return fpp;
+    public BloomFilterType type() {
+        return BloomFilterType.GUAVA;
     }
 
     @Override
-    @JsonGetter("expectedInsertions")
-    public int expectedInsertions() {
-        return expectedInsertions;
+    public long estimatedMemoryBytes() {
+        return estimatedMemoryBytes(expectedInsertions(), fpp());
     }
 
     @Override
     public boolean set(String value) {
-        final boolean result = filter.put(value);
+        final boolean result;
+        copyLock.readLock().lock();
+        try {
+            result = filter.put(value);
+        } finally {
+            copyLock.readLock().unlock();
+        }
         tryExtendExpiration();
         return result;
     }
 
     @Override
-    public boolean expired() {
-        if (validPeriodAfterAccess == null) {
-            return timer.utcNow().isAfter(expiration);
-        } else {
-            synchronized (this) {
-                return timer.utcNow().isAfter(expiration);
-            }
+    public boolean set(ByteBuffer value) {
+        final boolean result;
+        copyLock.readLock().lock();
+        try {
+            result = filter.put(value);
+        } finally {
+            copyLock.readLock().unlock();
         }
+        tryExtendExpiration();
+        return result;
     }
 
     @Override
@@ -202,13 +180,36 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
         return result;
     }
 
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        final boolean result = filter.mightContain(value);
+        tryExtendExpiration();
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bits are copied before writing, and the updates are only blocked while copying, so the written
+     * image is taken at a point in time. It takes as much memory as the filter until it's written.
+     */
+    @Override
     public void writeTo(OutputStream out) throws IOException {
+        final com.google.common.hash.BloomFilter<Object> image;
+        copyLock.writeLock().lock();
+        try {
+            image = filter.copy();
+        } finally {
+            copyLock.writeLock().unlock();
+        }
+
         final DataOutputStream dout = new DataOutputStream(out);
-        dout.writeInt(expectedInsertions);
-        dout.writeDouble(fpp);
-        dout.writeLong(created.toEpochSecond());
-        dout.writeLong(expiration.toEpochSecond());
-        filter.writeTo(out);
+        dout.writeInt(expectedInsertions());
+        dout.writeDouble(fpp());
+        dout.writeLong(created().toEpochSecond());
+        dout.writeLong(expiration().toEpochSecond());
+        image.writeTo(out);
+        final Duration validPeriodAfterAccess = validPeriodAfterAccess();
         if (validPeriodAfterAccess != null) {
             dout.writeLong(validPeriodAfterAccess.toNanos());
         } else {
@@ -221,59 +222,11 @@ public final class GuavaBloomFilter implements ExpirableBloomFilter {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         final GuavaBloomFilter that = (GuavaBloomFilter) o;
-        if ((validPeriodAfterAccess == null && that.validPeriodAfterAccess == null) ||
-                validPeriodAfterAccess != null && that.validPeriodAfterAccess != null) {
-            return Double.compare(that.fpp, fpp) == 0 &&
-                    expectedInsertions == that.expectedInsertions &&
-                    created.toInstant().getEpochSecond() == that.created.toInstant().getEpochSecond() &&
-                    created.getOffset() == that.created.getOffset() &&
-                    expiration.toInstant().getEpochSecond() == that.expiration.toInstant().getEpochSecond() &&
-                    expiration.getOffset() == that.expiration.getOffset() &&
-                    (validPeriodAfterAccess == null ||
-                            validPeriodAfterAccess.getSeconds() ==
-                                    that.validPeriodAfterAccess.getSeconds());
-
-        }
-        return false;
+        return metadataEquals(that);
     }
 
     @Override
     public int hashCode() {
-        int ret = created.hashCode();
-        ret = 31 * ret + expiration.hashCode();
-        ret = 31 * ret + Double.hashCode(fpp);
-        ret = 31 * ret + Integer.hashCode(expectedInsertions);
-        if (validPeriodAfterAccess != null) {
-            ret = 31 * ret + validPeriodAfterAccess.hashCode();
-        }
-        return ret;
-    }
-
-    @Override
-    public String toString() {
-        return "GuavaBloomFilter{" +
-                ", expectedInsertions=" + expectedInsertions +
-                ", fpp=" + fpp +
-                ", expiration=" + expiration +
-                ", validPeriodAfterAccess" + validPeriodAfterAccess +
-                ", created=" + created +
-                '}';
-    }
-
-    @Nullable
-    @JsonInclude(Include.NON_NULL)
-    @JsonGetter("validPeriodAfterAccess")
-    @JsonSerialize(using = DurationSerializer.class)
-    @JsonDeserialize(using = DurationDeserializer.class)
-    Duration validPeriodAfterAccess() {
-        return validPeriodAfterAccess;
-    }
-
-    private void tryExtendExpiration() {
-        if (validPeriodAfterAccess != null) {
-            synchronized (this) {
-                expiration = timer.utcNow().plus(validPeriodAfterAccess);
-            }
-        }
+        return metadataHashCode();
     }
 }
@@ -2,13 +2,12 @@ package cn.leancloud.filter.service;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 
 public class GuavaBloomFilterFactory implements BloomFilterFactory<GuavaBloomFilter, ExpirableBloomFilterConfig> {
     @Override
     public GuavaBloomFilter createFilter(ExpirableBloomFilterConfig config) {
-        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime creation = config.creation();
         final ZonedDateTime expiration = config.expiration(creation);
 
         return new GuavaBloomFilter(
@@ -19,6 +18,11 @@ public class GuavaBloomFilterFactory implements BloomFilterFactory<GuavaBloomFil
                 config.validPeriodAfterAccess());
     }
 
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        return GuavaBloomFilter.estimatedMemoryBytes(config.expectedInsertions(), config.fpp());
+    }
+
     @Override
     public GuavaBloomFilter readFrom(InputStream stream) throws IOException {
         return GuavaBloomFilter.readFrom(stream);
@@ -0,0 +1,97 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nullable;
+
+/**
+ * Schemes of the hashes accepted by {@link BloomFilter#mightContain(HashCode)} and
+ * {@link BloomFilter#set(HashCode)}. All the schemes are based on the 128 bits murmur3 hash
+ * (murmur3_x64_128 with seed 0) of the bytes of a value, which is the hash used internally by the
+ * filters of this service. So the hash of a value is the same value as the value itself for a filter.
+ * <p>
+ * The bytes of a hash are in the order produced by the hash function, like {@link HashCode#asBytes()}.
+ * A scheme with less bits takes the first bytes of the 128 bits hash, so a hash of a scheme with more bits
+ * can also be used by the filters with a scheme with less bits.
+ */
+public enum HashScheme {
+    /**
+     * The first 64 bits of the 128 bits murmur3 hash.
+     */
+    MURMUR3_64("murmur3_64", 64),
+    /**
+     * The whole 128 bits murmur3 hash.
+     */
+    MURMUR3_128("murmur3_128", 128);
+
+    private final String schemeName;
+    private final int bits;
+
+    HashScheme(String schemeName, int bits) {
+        this.schemeName = schemeName;
+        this.bits = bits;
+    }
+
+    /**
+     * Get the {@code HashScheme} with the input name.
+     *
+     * @param schemeName the name of the scheme
+     * @return the {@code HashScheme} with the input name, or null when no scheme has the input name
+     */
+    @Nullable
+    public static HashScheme fromSchemeName(String schemeName) {
+        for (HashScheme scheme : values()) {
+            if (scheme.schemeName.equals(schemeName)) {
+                return scheme;
+            }
+        }
+        return null;
+    }
+
+    @JsonValue
+    public String schemeName() {
+        return schemeName;
+    }
+
+    /**
+     * Get the number of bits of the hashes of this scheme.
+     *
+     * @return the number of bits of a hash
+     */
+    public int bits() {
+        return bits;
+    }
+
+    /**
+     * Get the number of bytes of the hashes of this scheme.
+     *
+     * @return the number of bytes of a hash
+     */
+    public int bytes() {
+        return bits / Byte.SIZE;
+    }
+
+    /**
+     * Check if the hashes of this scheme can be used by the filters with the input scheme.
+     *
+     * @param filterScheme the scheme of a filter
+     * @return true if the hashes of this scheme have at least the bits required by {@code filterScheme}
+     */
+    public boolean compatibleWith(HashScheme filterScheme) {
+        return bits >= filterScheme.bits;
+    }
+
+    /**
+     * Check if the input hash has the bits required by this scheme.
+     *
+     * @param hash the hash to check
+     * @throws IllegalArgumentException if the input hash has less bits than this scheme
+     */
+    void checkHash(HashCode hash) {
+        if (hash.bits() < bits) {
+            throw new IllegalArgumentException("hash of " + hash.bits() + " bits is too short for hash scheme: " +
+                    schemeName + " (expected: >= " + bits + " bits)");
+        }
+    }
+}
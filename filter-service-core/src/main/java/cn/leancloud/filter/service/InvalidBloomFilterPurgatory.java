@@ -1,20 +1,127 @@
 package cn.leancloud.filter.service;
 
-public final class InvalidBloomFilterPurgatory<F extends BloomFilter> implements Purgatory {
-    private BloomFilterManager<F, ?> manager;
+import cn.leancloud.filter.service.utils.Timer;
 
-    public InvalidBloomFilterPurgatory(BloomFilterManager<F, ?> manager) {
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link Purgatory} to purge the invalid filters in a {@link BloomFilterManager}.
+ * <p>
+ * Instead of scanning all the filters on every purge, the names of the filters are indexed in buckets
+ * by their {@link BloomFilter#expirationMillis()}. Each bucket covers a tick of time, and a purge only
+ * visits the buckets whose tick has passed, so the work done is proportional to the number of filters
+ * which are due. The expiration of a filter can be extended on access, so a due filter which is still
+ * valid is moved lazily to the bucket of its current expiration rather than being re-indexed on every access.
+ * <p>
+ * The filters in the manager at construction are indexed on the first purge. Filters created after that
+ * are indexed through {@link #onBloomFilterCreated}, so this purgatory should be added as a listener
+ * of the manager.
+ * <p>
+ * Only the filters in memory are checked, so a purge never loads an evicted filter back or delays its
+ * eviction. An evicted filter drops out of the index when it's due and is indexed again through
+ * {@link #onBloomFilterLoaded} when it's loaded back. The evicted filters which expired are dropped by
+ * the manager when it evicts cold filters.
+ */
+public final class InvalidBloomFilterPurgatory<F extends BloomFilter, C extends BloomFilterConfig<? extends C>>
+        implements Purgatory, BloomFilterManagerListener<F, C> {
+    private final BloomFilterManager<F, C> manager;
+    private final Timer timer;
+    private final long tickMillis;
+    // names of the filters waiting to be indexed, written by any thread and drained on purge
+    private final Queue<String> pendingNames;
+    // the index is only accessed on purge, so it needs no synchronization other than the one on purge
+    private final TreeMap<Long, List<String>> buckets;
+    private final Map<String, Long> scheduledTicks;
+
+    public InvalidBloomFilterPurgatory(BloomFilterManager<F, C> manager) {
+        this(manager, Configuration.purgeFilterInterval(), Timer.DEFAULT_TIMER);
+    }
+
+    InvalidBloomFilterPurgatory(BloomFilterManager<F, C> manager, Duration tick, Timer timer) {
+        if (tick.toMillis() <= 0) {
+            throw new IllegalArgumentException("tick: " + tick.toMillis() + "ms (expected: > 0)");
+        }
         this.manager = manager;
+        this.timer = timer;
+        this.tickMillis = tick.toMillis();
+        this.pendingNames = new ConcurrentLinkedQueue<>();
+        this.buckets = new TreeMap<>();
+        this.scheduledTicks = new HashMap<>();
+        for (FilterRecord<F> holder : manager) {
+            pendingNames.add(holder.name());
+        }
     }
 
     @Override
-    public void purge() {
-        for (FilterRecord<F> holder : manager) {
-            final F filter = holder.filter();
-            if (!filter.valid()) {
-                final String name = holder.name();
-                manager.remove(name, filter);
+    public void onBloomFilterCreated(String name, C config, F filter) {
+        pendingNames.add(name);
+    }
+
+    @Override
+    public void onBloomFilterLoaded(String name, F filter) {
+        pendingNames.add(name);
+    }
+
+    @Override
+    public synchronized void purge() {
+        final long nowTick = tickOf(timer.currentTimeMillis());
+        String name;
+        while ((name = pendingNames.poll()) != null) {
+            final F filter = manager.peekFilter(name);
+            if (filter != null) {
+                if (tickOf(filter.expirationMillis()) <= nowTick) {
+                    purgeOrReschedule(name, filter, nowTick);
+                } else {
+                    schedule(name, filter, nowTick);
+                }
             }
         }
+
+        while (!buckets.isEmpty() && buckets.firstKey() <= nowTick) {
+            final Map.Entry<Long, List<String>> bucket = buckets.pollFirstEntry();
+            for (String dueName : bucket.getValue()) {
+                // the name was scheduled to another bucket after it was put into this one
+                if (!scheduledTicks.remove(dueName, bucket.getKey())) {
+                    continue;
+                }
+
+                final F filter = manager.peekFilter(dueName);
+                if (filter != null) {
+                    purgeOrReschedule(dueName, filter, nowTick);
+                }
+            }
+        }
+    }
+
+    int scheduledFilters() {
+        return scheduledTicks.size();
+    }
+
+    private void purgeOrReschedule(String name, F filter, long nowTick) {
+        if (filter.valid()) {
+            schedule(name, filter, nowTick);
+        } else {
+            manager.remove(name, filter);
+        }
+    }
+
+    private void schedule(String name, F filter, long nowTick) {
+        // a filter is invalid after its expiration, so check it no earlier than the next tick
+        final long tick = Math.max(tickOf(filter.expirationMillis()), nowTick + 1);
+        final Long prevTick = scheduledTicks.put(name, tick);
+        if (prevTick == null || prevTick != tick) {
+            buckets.computeIfAbsent(tick, k -> new ArrayList<>()).add(name);
+        }
+    }
+
+    private long tickOf(long millis) {
+        return Math.floorDiv(millis, tickMillis);
     }
 }
@@ -0,0 +1,124 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.MappedLongArray;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A directory to store the bits of the off-heap filters. Every off-heap filter has its own file
+ * in this directory, and the file is mapped to memory by {@link MappedLongArray}.
+ * <p>
+ * One file can be mapped by several filter instances at the same time, for example, when a filter
+ * is recovered from both the snapshot file and the temporary snapshot file. So we count the references
+ * of every file and only delete a file when no filter is using it.
+ */
+final class MappedStorageDirectory {
+    private static final Logger logger = LoggerFactory.getLogger(MappedStorageDirectory.class);
+    private static final String MAPPED_FILE_SUFFIX = ".bits";
+
+    private final Path directory;
+    private final Map<String, Integer> references;
+
+    MappedStorageDirectory(Path directory) throws IOException {
+        final File dir = directory.toFile();
+        if (dir.exists() && !dir.isDirectory()) {
+            throw new IllegalStateException("invalid mapped storage directory path, it's a regular file: " + directory);
+        }
+
+        FileUtils.forceMkdir(dir);
+        this.directory = directory;
+        this.references = new HashMap<>();
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Create a new file in this directory and map it as a {@link MappedLongArray}.
+     *
+     * @param length the length of the array
+     * @return the created {@link MappedLongArray}
+     * @throws IOException if any I/O error occurs
+     */
+    synchronized MappedLongArray allocate(int length) throws IOException {
+        final String fileName = UUID.randomUUID().toString() + MAPPED_FILE_SUFFIX;
+        final MappedLongArray array = MappedLongArray.create(directory.resolve(fileName), length);
+        references.merge(fileName, 1, Integer::sum);
+        return array;
+    }
+
+    /**
+     * Map an existing file in this directory as a {@link MappedLongArray}.
+     *
+     * @param fileName the name of the file
+     * @param length   the expected length of the array
+     * @return the mapped {@link MappedLongArray}
+     * @throws IOException if any I/O error occurs. Throws {@link java.nio.file.NoSuchFileException} if the
+     *                     file do not exist
+     */
+    synchronized MappedLongArray open(String fileName, int length) throws IOException {
+        final MappedLongArray array = MappedLongArray.open(directory.resolve(fileName), length);
+        references.merge(fileName, 1, Integer::sum);
+        return array;
+    }
+
+    /**
+     * Release a {@link MappedLongArray} allocated or opened by this directory. The backing file will
+     * be deleted when no one is using it. The memory mapping is not closed explicitly so operations
+     * in flight on the released array are still safe. It'll be unmapped when the array is garbage collected.
+     *
+     * @param array the array to release
+     */
+    synchronized void release(MappedLongArray array) {
+        final String fileName = array.path().getFileName().toString();
+        final Integer refCount = references.get(fileName);
+        if (refCount == null) {
+            return;
+        }
+
+        if (refCount > 1) {
+            references.put(fileName, refCount - 1);
+        } else {
+            references.remove(fileName);
+            deleteFile(array.path());
+        }
+    }
+
+    /**
+     * Delete all the files which are not used by any filter. They are left by filters which were created after
+     * the last persistence and were lost on a crash, so this method should be called after all the filters
+     * have been recovered.
+     *
+     * @throws IOException if any I/O error occurs when listing this directory
+     */
+    synchronized void deleteUnusedFiles() throws IOException {
+        final File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(MAPPED_FILE_SUFFIX));
+        if (files == null) {
+            throw new IOException("failed to list files in directory: " + directory);
+        }
+
+        for (File file : files) {
+            if (!references.containsKey(file.getName())) {
+                deleteFile(file.toPath());
+            }
+        }
+    }
+
+    private void deleteFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("Failed to delete mapped file: " + path, ex);
+        }
+    }
+}
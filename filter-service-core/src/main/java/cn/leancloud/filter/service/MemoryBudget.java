@@ -0,0 +1,24 @@
+package cn.leancloud.filter.service;
+
+/**
+ * The memory budget a {@link BloomFilter} reserves memory from before it grows after creation, so the
+ * memory of the grown parts is accounted along with the memory allocated on creation.
+ */
+public interface MemoryBudget {
+    /**
+     * Reserve memory for a filter which is going to grow.
+     *
+     * @param filterBytes the estimated bytes of memory occupied by the filter before it grows
+     * @param bytes       the estimated bytes of memory the filter is going to allocate
+     * @throws FilterFullException           if the filter would exceed the limit of the memory of a single filter
+     * @throws MemoryBudgetExceededException if the memory of all the filters would exceed the budget
+     */
+    void reserve(long filterBytes, long bytes);
+
+    /**
+     * Release the memory reserved by {@link #reserve(long, long)}, when the filter failed to allocate it.
+     *
+     * @param bytes the bytes of memory to release
+     */
+    void release(long bytes);
+}
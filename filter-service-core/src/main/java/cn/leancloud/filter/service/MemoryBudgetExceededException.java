@@ -0,0 +1,19 @@
+package cn.leancloud.filter.service;
+
+/**
+ * A {@link RuntimeException} that is raised when a filter can not be created because the total
+ * estimated memory of all the filters would exceed the memory budget for filters.
+ */
+public final class MemoryBudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = -1L;
+
+    public MemoryBudgetExceededException(String message) {
+        super(message);
+    }
+
+    // We don't need stack trace for this exception
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
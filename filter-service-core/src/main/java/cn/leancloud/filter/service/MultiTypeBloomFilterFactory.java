@@ -0,0 +1,111 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A {@link BloomFilterFactory} which dispatches the creation and the deserialization of a
+ * {@link BloomFilter} to the factory registered for the {@link BloomFilterType} of that filter.
+ * {@link ScalableBloomFilter}s and {@link RotatingBloomFilter}s are handled by this factory itself
+ * because their sub-filters are created by the factories registered here.
+ */
+public final class MultiTypeBloomFilterFactory
+        implements BloomFilterFactory<ExpirableBloomFilter, ExpirableBloomFilterConfig> {
+    private final Map<BloomFilterType, BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig>> factories;
+
+    MultiTypeBloomFilterFactory() {
+        this(null);
+    }
+
+    /**
+     * Create a {@code MultiTypeBloomFilterFactory}.
+     *
+     * @param storageDirectory the directory to store the bits of the off-heap filters. Null to disable
+     *                         off-heap filters.
+     */
+    MultiTypeBloomFilterFactory(@Nullable MappedStorageDirectory storageDirectory) {
+        this.factories = new EnumMap<>(BloomFilterType.class);
+        this.factories.put(BloomFilterType.GUAVA, new GuavaBloomFilterFactory());
+        this.factories.put(BloomFilterType.BLOCKED, new BlockedBloomFilterFactory(storageDirectory));
+        this.factories.put(BloomFilterType.COUNTING, new CountingBloomFilterFactory());
+        this.factories.put(BloomFilterType.CUCKOO, new CuckooFilterFactory());
+        this.factories.put(BloomFilterType.SEALED, new BinaryFuseFilterFactory());
+    }
+
+    @Override
+    public ExpirableBloomFilter createFilter(ExpirableBloomFilterConfig config) {
+        if (config.scalable()) {
+            final ZonedDateTime creation = config.creation();
+            return new ScalableBloomFilter(
+                    config.expectedInsertions(),
+                    config.fpp(),
+                    creation,
+                    config.expiration(creation),
+                    config.validPeriodAfterAccess(),
+                    config.type(),
+                    this,
+                    Timer.DEFAULT_TIMER);
+        }
+        final Duration rotationPeriod = config.rotationPeriod();
+        if (rotationPeriod != null) {
+            final ZonedDateTime creation = config.creation();
+            return new RotatingBloomFilter(
+                    config.expectedInsertions(),
+                    config.fpp(),
+                    creation,
+                    config.expiration(creation),
+                    config.validPeriodAfterAccess(),
+                    config.type(),
+                    this,
+                    config.generations(),
+                    rotationPeriod,
+                    Timer.DEFAULT_TIMER);
+        }
+        return factory(config.type()).createFilter(config);
+    }
+
+    @Override
+    public long estimatedMemoryBytes(ExpirableBloomFilterConfig config) {
+        if (config.scalable()) {
+            return factory(config.type()).estimatedMemoryBytes(
+                    ScalableBloomFilter.subFilterConfig(config.expectedInsertions(), config.fpp(), 0, config.type()));
+        }
+        if (config.rotationPeriod() != null) {
+            final ExpirableBloomFilterConfig generationConfig = RotatingBloomFilter.generationConfig(
+                    config.expectedInsertions(), config.fpp(), config.generations(), config.type());
+            return factory(config.type()).estimatedMemoryBytes(generationConfig) * config.generations();
+        }
+        return factory(config.type()).estimatedMemoryBytes(config);
+    }
+
+    @Override
+    public ExpirableBloomFilter readFrom(InputStream stream) throws IOException {
+        return readFrom(BloomFilterType.GUAVA, stream);
+    }
+
+    @Override
+    public ExpirableBloomFilter readFrom(BloomFilterType type, InputStream stream) throws IOException {
+        if (type == BloomFilterType.SCALABLE) {
+            return ScalableBloomFilter.readFrom(stream, this);
+        }
+        if (type == BloomFilterType.ROTATING) {
+            return RotatingBloomFilter.readFrom(stream, this);
+        }
+        return factory(type).readFrom(stream);
+    }
+
+    private BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> factory(BloomFilterType type) {
+        final BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException("unsupported filter type: " + type.typeName());
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,141 @@
+package cn.leancloud.filter.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how fast the filters are written to disk by {@link PersistentManager}, so saving the filters is a
+ * steady background cost instead of a burst saturating the disk.
+ * <p>
+ * The bytes written by all the threads saving the filters share one rate limit. The written files are also
+ * forced to disk every time a number of bytes are written to them, so the dirty pages are flushed in small
+ * chunks along the way instead of all at once when the snapshot is committed.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class PersistenceThrottle {
+    @Nullable
+    private final RateLimiter rateLimiter;
+    private final long forceIntervalBytes;
+    private final Counter writtenBytes;
+    private final Timer stallTime;
+    private final Timer forceLatency;
+    private final DistributionSummary throughput;
+
+    /**
+     * Create a {@code PersistenceThrottle}.
+     *
+     * @param bytesPerSecond     the max bytes written per second, or {@link Long#MAX_VALUE} for no limit
+     * @param forceIntervalBytes force a file to disk after every this many bytes written to it, or
+     *                           {@link Long#MAX_VALUE} to leave the file to be forced when it's finished
+     * @param registry           the registry to register the metrics
+     */
+    PersistenceThrottle(long bytesPerSecond, long forceIntervalBytes, MeterRegistry registry) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond: " + bytesPerSecond + " (expected: > 0)");
+        }
+        if (forceIntervalBytes <= 0) {
+            throw new IllegalArgumentException("forceIntervalBytes: " + forceIntervalBytes + " (expected: > 0)");
+        }
+
+        this.rateLimiter = bytesPerSecond == Long.MAX_VALUE ? null : RateLimiter.create(bytesPerSecond);
+        this.forceIntervalBytes = forceIntervalBytes;
+        this.writtenBytes = registry.counter(Configuration.metricsPrefix() + ".persistence.writtenBytes");
+        this.stallTime = registry.timer(Configuration.metricsPrefix() + ".persistence.stallTime");
+        this.forceLatency = registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency");
+        this.throughput = registry.summary(Configuration.metricsPrefix() + ".persistence.throughput");
+    }
+
+    /**
+     * Create an {@link OutputStream} writing to a file at the current position of the file, throttled by
+     * this {@code PersistenceThrottle}. The file is forced periodically as it's written through the stream.
+     * Closing the stream does not close the file.
+     *
+     * @param channel the channel of the file to write
+     * @return the stream to write the file
+     */
+    OutputStream newOutputStream(FileChannel channel) {
+        return new ThrottledOutputStream(channel);
+    }
+
+    /**
+     * Force a file to disk, timed by the force latency metric.
+     *
+     * @param channel  the channel of the file to force
+     * @param metaData whether to force the metadata of the file as well
+     * @throws IOException if an I/O error occurs
+     */
+    void force(FileChannel channel, boolean metaData) throws IOException {
+        final long start = System.nanoTime();
+        channel.force(metaData);
+        forceLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the throughput of a finished snapshot.
+     *
+     * @param bytes        the bytes written in the snapshot
+     * @param elapsedNanos the time taken by the snapshot
+     */
+    void recordSnapshot(long bytes, long elapsedNanos) {
+        if (elapsedNanos > 0) {
+            throughput.record(bytes * 1e9 / elapsedNanos);
+        }
+    }
+
+    private void acquire(int bytes) {
+        if (rateLimiter != null) {
+            final double waitedSeconds = rateLimiter.acquire(bytes);
+            if (waitedSeconds > 0) {
+                stallTime.record((long) (waitedSeconds * TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+            }
+        }
+        writtenBytes.increment(bytes);
+    }
+
+    private final class ThrottledOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long unforcedBytes;
+
+        ThrottledOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return;
+            }
+
+            acquire(len);
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            unforcedBytes += len;
+            if (unforcedBytes >= forceIntervalBytes) {
+                // only the data is forced here, the metadata is forced once when the file is finished
+                force(channel, false);
+                unforcedBytes = 0;
+            }
+        }
+    }
+}
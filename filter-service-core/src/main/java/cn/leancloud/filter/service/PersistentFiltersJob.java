@@ -4,6 +4,7 @@ import cn.leancloud.filter.service.Configuration.TriggerPersistenceCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -14,15 +15,26 @@ public class PersistentFiltersJob<F extends BloomFilter> implements Runnable {
     private final PersistentManager<F> persistentManager;
     private final LongAdder filterUpdateTimesCounter;
     private final TriggerPersistenceCriteria criteria;
+    @Nullable
+    private final WriteAheadLog writeAheadLog;
 
     PersistentFiltersJob(BloomFilterManager<F, ?> bloomFilterManager,
                          PersistentManager<F> persistentManager,
                          LongAdder filterUpdateTimesCounter,
                          TriggerPersistenceCriteria criteria) {
+        this(bloomFilterManager, persistentManager, filterUpdateTimesCounter, criteria, null);
+    }
+
+    PersistentFiltersJob(BloomFilterManager<F, ?> bloomFilterManager,
+                         PersistentManager<F> persistentManager,
+                         LongAdder filterUpdateTimesCounter,
+                         TriggerPersistenceCriteria criteria,
+                         @Nullable WriteAheadLog writeAheadLog) {
         this.bloomFilterManager = bloomFilterManager;
         this.persistentManager = persistentManager;
         this.filterUpdateTimesCounter = filterUpdateTimesCounter;
         this.criteria = criteria;
+        this.writeAheadLog = writeAheadLog;
     }
 
     @Override
@@ -46,7 +58,14 @@ public class PersistentFiltersJob<F extends BloomFilter> implements Runnable {
 
     private void doPersistence() {
         try {
-            persistentManager.freezeAllFilters(bloomFilterManager);
+            if (writeAheadLog != null) {
+                // all the operations logged before rolling are in the snapshot taken after it
+                final long logFileId = writeAheadLog.roll();
+                persistentManager.freezeAllFilters(bloomFilterManager);
+                writeAheadLog.deleteLogFilesBefore(logFileId);
+            } else {
+                persistentManager.freezeAllFilters(bloomFilterManager);
+            }
         } catch (IOException ex) {
             logger.error("Persistent bloom filters failed.", ex);
         } catch (Throwable t) {
@@ -1,6 +1,10 @@
 package cn.leancloud.filter.service;
 
-import cn.leancloud.filter.service.utils.AbstractIterator;
+import cn.leancloud.filter.service.SnapshotManifest.Entry;
+import cn.leancloud.filter.service.utils.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,25 +13,149 @@ import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
 
+/**
+ * Persists the filters in snapshots and recovers them from the last snapshot.
+ * <p>
+ * A snapshot is made of segment files and a {@link SnapshotManifest} which tells where the record of every
+ * filter is. On every snapshot, only the filters which are {@link BloomFilter#dirty()} are written to a new
+ * segment, the unchanged filters are carried over by reference to their records in the previous segments. So the
+ * I/O of a snapshot is proportional to the filters changed since the last one. The expiration of a filter which is
+ * only read may still move forward, it's recorded in the manifest and restored on recovery instead.
+ * A segment no longer referenced is deleted after the new manifest is committed, and the live records of a
+ * segment which is mostly garbage are rewritten to the new segment to reclaim its space.
+ * <p>
+ * With more than one persistence thread, the changed filters are split into groups of about the same size,
+ * and every group is written to its own segment by its own thread. The manifest is committed only after all
+ * the segments are written, so a snapshot is still committed atomically.
+ * <p>
+ * Every segment ends with a {@link SegmentIndex} of its records, so a segment can still be read without scanning
+ * it when the manifest is lost.
+ * <p>
+ * On recovery, the positions of the records are found first, from the manifest, the index of the segments or
+ * by reading only the headers of the records, then the records are checked and deserialized concurrently on a
+ * {@link ForkJoinPool}. The filters already expired by the expiration recorded in the manifest, the index or the
+ * headers of the records are skipped without being read.
+ * <p>
+ * Every persisted filter is tagged with the last sequence of the {@link WriteAheadLog} taken right before it is
+ * written, so the operations which are already in the snapshot are skipped when the log is replayed on top of it.
+ * <p>
+ * The filters are written at the rate limited by {@link PersistenceThrottle}, which also forces the segments to
+ * disk periodically while they are written.
+ * <p>
+ * The single file snapshots written by the previous versions are still recovered, and they are deleted after
+ * the first segmented snapshot is committed.
+ */
 public class PersistentManager<F extends BloomFilter> implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(PersistentManager.class);
     private static final String LOCK_FILE_NAME = "lock";
     private static final String TEMPORARY_PERSISTENT_FILE_SUFFIX = ".tmp";
     private static final String PERSISTENT_FILE_SUFFIX = ".db";
     private static final String PERSISTENT_FILE_NAME = "snapshot";
+    private static final String MANIFEST_FILE_NAME = "snapshot.manifest";
+    private static final String SEGMENT_FILE_PREFIX = "snapshot-";
+    private static final String SEGMENT_FILE_SUFFIX = ".segment";
+    // the live records of a segment are rewritten when they occupy less than this ratio of the segment
+    private static final double MIN_LIVE_RATIO_OF_SEGMENT = 0.5;
 
     private final Path basePath;
     private final FileLock fileLock;
+    private final LongSupplier logSequenceSupplier;
+    private final int persistenceThreads;
+    @Nullable
+    private final ExecutorService persistenceExecutor;
+    private final int recoveryThreads;
+    private final PersistenceThrottle throttle;
+    private final Timer timer;
+    @Nullable
+    private SnapshotManifest manifest;
+    private long nextSegmentId;
 
     PersistentManager(Path persistentPath)
             throws IOException {
+        this(persistentPath, () -> 0L);
+    }
+
+    PersistentManager(Path persistentPath, LongSupplier logSequenceSupplier)
+            throws IOException {
+        this(persistentPath, logSequenceSupplier, new SimpleMeterRegistry());
+    }
+
+    PersistentManager(Path persistentPath, LongSupplier logSequenceSupplier, MeterRegistry registry)
+            throws IOException {
+        this(persistentPath, logSequenceSupplier, Configuration.persistenceThreads(), Configuration.recoveryThreads(),
+                newPersistenceThrottle(registry));
+    }
+
+    PersistentManager(Path persistentPath, LongSupplier logSequenceSupplier, int persistenceThreads)
+            throws IOException {
+        this(persistentPath, logSequenceSupplier, persistenceThreads, Configuration.recoveryThreads());
+    }
+
+    PersistentManager(Path persistentPath,
+                      LongSupplier logSequenceSupplier,
+                      int persistenceThreads,
+                      int recoveryThreads)
+            throws IOException {
+        this(persistentPath, logSequenceSupplier, persistenceThreads, recoveryThreads,
+                newPersistenceThrottle(new SimpleMeterRegistry()));
+    }
+
+    PersistentManager(Path persistentPath,
+                      LongSupplier logSequenceSupplier,
+                      int persistenceThreads,
+                      int recoveryThreads,
+                      PersistenceThrottle throttle)
+            throws IOException {
+        this(persistentPath, logSequenceSupplier, persistenceThreads, recoveryThreads, throttle, Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Create a {@code PersistentManager}.
+     *
+     * @param persistentPath      the directory to save the snapshots of the filters
+     * @param logSequenceSupplier returns the sequence of the last operation logged in the write-ahead log
+     * @param persistenceThreads  the number of threads to save the filters
+     * @param recoveryThreads     the number of threads to recover the filters
+     * @param throttle            the throttle to limit how fast the filters are saved
+     * @param timer               the timer to check whether the filters saved are expired
+     * @throws IOException if an I/O error occurs on locking the directory
+     */
+    PersistentManager(Path persistentPath,
+                      LongSupplier logSequenceSupplier,
+                      int persistenceThreads,
+                      int recoveryThreads,
+                      PersistenceThrottle throttle,
+                      Timer timer)
+            throws IOException {
         final File dir = persistentPath.toFile();
         if (dir.exists() && !dir.isDirectory()) {
             throw new IllegalStateException("invalid persistent directory path, it's a regular file: " + persistentPath);
@@ -37,35 +165,115 @@ public class PersistentManager<F extends BloomFilter> implements Closeable {
 
         this.fileLock = FilterServiceFileUtils.lockDirectory(persistentPath, LOCK_FILE_NAME);
         this.basePath = persistentPath;
+        this.logSequenceSupplier = logSequenceSupplier;
+        this.persistenceThreads = persistenceThreads;
+        if (persistenceThreads > 1) {
+            this.persistenceExecutor = Executors.newFixedThreadPool(persistenceThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("filter-service-persistence-%s")
+                    .setDaemon(true)
+                    .build());
+        } else {
+            this.persistenceExecutor = null;
+        }
+        this.recoveryThreads = recoveryThreads;
+        this.throttle = throttle;
+        this.timer = timer;
+        this.nextSegmentId = listSegmentIds().stream().max(Comparator.naturalOrder()).orElse(-1L) + 1;
     }
 
     synchronized void freezeAllFilters(Iterable<FilterRecord<F>> records) throws IOException {
-        final Path tempPath = temporaryPersistentFilePath();
-        int counter = 0;
-        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
-            for (FilterRecord<F> record : records) {
-                record.writeFullyTo(channel);
-                counter++;
+        final SnapshotManifest prevManifest = currentManifest();
+        final Map<String, Entry> prevEntries = prevManifest.entries();
+        final Map<String, Entry> carriedEntries = new HashMap<>();
+        final Map<String, FilterRecord<F>> carriedRecords = new HashMap<>();
+        final Map<String, FilterRecord<F>> dirtyRecords = new LinkedHashMap<>();
+        for (FilterRecord<F> record : records) {
+            final F filter = record.filter();
+            final Entry prevEntry = prevEntries.get(record.name());
+            if (prevEntry != null && !filter.dirty()) {
+                // the expiration of a filter which is only read may still move forward, so record the current
+                // one rather than writing the filter again
+                final long expirationMillis = filter.expirationMillis();
+                carriedEntries.put(record.name(), prevEntry.expirationMillis() == expirationMillis ?
+                        prevEntry : prevEntry.withExpirationMillis(expirationMillis));
+                carriedRecords.put(record.name(), record);
+            } else {
+                carriedEntries.remove(record.name());
+                carriedRecords.remove(record.name());
+                dirtyRecords.put(record.name(), record);
             }
+        }
 
-            channel.force(true);
+        for (String name : namesInSparseSegments(carriedEntries.values())) {
+            carriedEntries.remove(name);
+            dirtyRecords.put(name, carriedRecords.get(name));
         }
 
-        FilterServiceFileUtils.atomicMoveWithFallback(tempPath, persistentFilePath());
-        logger.debug("Persistent " + counter + " filters.");
+        final Map<String, Entry> entries = new HashMap<>(carriedEntries);
+        final SnapshotManifest newManifest = new SnapshotManifest(entries);
+        boolean success = false;
+        try {
+            if (!dirtyRecords.isEmpty()) {
+                final long start = System.nanoTime();
+                final Map<String, Entry> writtenEntries = writeSegments(dirtyRecords.values());
+                throttle.recordSnapshot(writtenEntries.values().stream().mapToLong(Entry::length).sum(),
+                        System.nanoTime() - start);
+                entries.putAll(writtenEntries);
+            }
+            newManifest.writeTo(manifestFilePath(), temporaryManifestFilePath());
+            success = true;
+        } finally {
+            // the filters written to the failed snapshot were cleared dirty, so none of the filters can be
+            // carried over safely to the next snapshot
+            manifest = success ? newManifest : null;
+        }
+        logger.debug("Persistent {} filters, {} of them were carried over from the previous snapshot.",
+                entries.size(), carriedEntries.size());
+
+        deleteUnusedFiles(newManifest);
     }
 
     synchronized List<FilterRecord<? extends F>> recoverFilters(BloomFilterFactory<? extends F, ?> factory,
                                                                 boolean allowRecoverFromCorruptedFile)
             throws IOException {
+        // the pool is only used once on start, so it's not kept after the recovery
+        final ForkJoinPool recoveryPool = new ForkJoinPool(recoveryThreads);
+        try {
+            return recoverFilters(factory, allowRecoverFromCorruptedFile, recoveryPool);
+        } finally {
+            recoveryPool.shutdown();
+        }
+    }
+
+    private List<FilterRecord<? extends F>> recoverFilters(BloomFilterFactory<? extends F, ?> factory,
+                                                           boolean allowRecoverFromCorruptedFile,
+                                                           ForkJoinPool recoveryPool)
+            throws IOException {
+        if (manifestFilePath().toFile().exists()) {
+            try {
+                final SnapshotManifest prevManifest = SnapshotManifest.readFrom(manifestFilePath());
+                return recoverFiltersFromSegments(factory, allowRecoverFromCorruptedFile, prevManifest, recoveryPool);
+            } catch (InvalidFilterException ex) {
+                if (!allowRecoverFromCorruptedFile) {
+                    throw new PersistentStorageException("failed to recover filters from: " + manifestFilePath(), ex);
+                }
+
+                logger.warn("Recover filters from all the segments because the manifest: " + manifestFilePath() +
+                        " is corrupted. The exception captured as follows:", ex);
+                return recoverFiltersFromAllSegments(factory, recoveryPool);
+            }
+        }
+
         final List<FilterRecord<? extends F>> records = new ArrayList<>();
         if (persistentFilePath().toFile().exists()) {
-            records.addAll(recoverFiltersFromFile(factory, allowRecoverFromCorruptedFile, persistentFilePath()));
+            records.addAll(recoverFiltersFromFile(factory, allowRecoverFromCorruptedFile, persistentFilePath(),
+                    recoveryPool));
         }
 
         if (temporaryPersistentFilePath().toFile().exists()) {
             try {
-                records.addAll(recoverFiltersFromFile(factory, allowRecoverFromCorruptedFile, temporaryPersistentFilePath()));
+                records.addAll(recoverFiltersFromFile(factory, allowRecoverFromCorruptedFile,
+                        temporaryPersistentFilePath(), recoveryPool));
             } catch (IOException | PersistentStorageException ex) {
                 logger.warn("Failed to recover from the file: \"{}\" and got error msg: \"{}\". We just ignore it and carry on.",
                         temporaryPersistentFilePath(), ex.getMessage());
@@ -75,8 +283,48 @@ public class PersistentManager<F extends BloomFilter> implements Closeable {
         return records;
     }
 
+    /**
+     * Get the last time the filters were persisted.
+     *
+     * @return the last modified time in milliseconds since the epoch of the persistent files,
+     * or 0 if no filters were persisted
+     */
+    synchronized long lastPersistedMillis() {
+        return Math.max(manifestFilePath().toFile().lastModified(),
+                Math.max(persistentFilePath().toFile().lastModified(),
+                        temporaryPersistentFilePath().toFile().lastModified()));
+    }
+
+    /**
+     * Get the sequence of the {@link WriteAheadLog} up to which all the operations on a filter are persisted.
+     *
+     * @param name the name of the filter
+     * @return the sequence recorded when the filter was persisted, or 0 if the filter was not persisted
+     * in the last snapshot
+     */
+    synchronized long persistedLogSequence(String name) {
+        final Entry entry = currentManifest().entries().get(name);
+        return entry == null ? 0L : entry.logSequence();
+    }
+
+    /**
+     * Get the greatest sequence of the {@link WriteAheadLog} recorded in the last snapshot.
+     *
+     * @return the greatest sequence recorded, or 0 if no filters were persisted with a sequence
+     */
+    synchronized long lastPersistedLogSequence() {
+        long sequence = 0L;
+        for (Entry entry : currentManifest().entries().values()) {
+            sequence = Math.max(sequence, entry.logSequence());
+        }
+        return sequence;
+    }
+
     @Override
     public synchronized void close() throws IOException {
+        if (persistenceExecutor != null) {
+            persistenceExecutor.shutdown();
+        }
         FilterServiceFileUtils.releaseDirectoryLock(fileLock);
     }
 
@@ -90,18 +338,404 @@ public class PersistentManager<F extends BloomFilter> implements Closeable {
         return basePath.resolve(PERSISTENT_FILE_NAME + PERSISTENT_FILE_SUFFIX);
     }
 
+    // Package private for testing
+    Path manifestFilePath() {
+        return basePath.resolve(MANIFEST_FILE_NAME);
+    }
+
+    // Package private for testing
+    Path segmentFilePath(long segmentId) {
+        return basePath.resolve(String.format("%s%020d%s", SEGMENT_FILE_PREFIX, segmentId, SEGMENT_FILE_SUFFIX));
+    }
+
+    // Package private for testing
+    List<Long> listSegmentIds() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(basePath,
+                SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(),
+                            fileName.length() - SEGMENT_FILE_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("Ignore unknown file: {} in persistent directory.", path);
+                }
+            }
+        }
+        ids.sort(Comparator.naturalOrder());
+        return ids;
+    }
+
+    private Path temporaryManifestFilePath() {
+        return basePath.resolve(MANIFEST_FILE_NAME + TEMPORARY_PERSISTENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Get the manifest of the last snapshot, read from the manifest file if the filters were not recovered.
+     * Unlike {@link #currentManifest()}, the manifest read here is not used to carry over filters.
+     */
+    private SnapshotManifest lastManifest() throws IOException {
+        if (manifest != null) {
+            return manifest;
+        }
+
+        if (manifestFilePath().toFile().exists()) {
+            return SnapshotManifest.readFrom(manifestFilePath());
+        }
+        return SnapshotManifest.EMPTY;
+    }
+
+    private SnapshotManifest currentManifest() {
+        if (manifest == null) {
+            // the filters were not recovered from the previous snapshot, so no filter can be carried over
+            manifest = SnapshotManifest.EMPTY;
+        }
+        return manifest;
+    }
+
+    private Set<String> namesInSparseSegments(Iterable<Entry> carriedEntries) throws IOException {
+        final Map<Long, Long> liveBytesOfSegments = new HashMap<>();
+        for (Entry entry : carriedEntries) {
+            liveBytesOfSegments.merge(entry.segmentId(), (long) entry.length(), Long::sum);
+        }
+
+        final Set<Long> sparseSegments = new HashSet<>();
+        for (Map.Entry<Long, Long> e : liveBytesOfSegments.entrySet()) {
+            final long segmentBytes = recordBytesOfSegment(segmentFilePath(e.getKey()));
+            if (e.getValue() < segmentBytes * MIN_LIVE_RATIO_OF_SEGMENT) {
+                sparseSegments.add(e.getKey());
+            }
+        }
+
+        final Set<String> names = new HashSet<>();
+        for (Entry entry : carriedEntries) {
+            if (sparseSegments.contains(entry.segmentId())) {
+                names.add(entry.name());
+            }
+        }
+        return names;
+    }
+
+    private static long recordBytesOfSegment(Path segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            // the index at the end of the segment is not counted
+            final long indexPosition = SegmentIndex.indexPosition(channel);
+            return indexPosition < 0 ? channel.size() : indexPosition;
+        }
+    }
+
+    private Map<String, Entry> writeSegments(Collection<FilterRecord<F>> records) throws IOException {
+        final List<List<FilterRecord<F>>> groups = splitIntoGroups(records, persistenceThreads);
+        if (persistenceExecutor == null || groups.size() == 1) {
+            return writeSegment(nextSegmentId++, records);
+        }
+
+        final List<Future<Map<String, Entry>>> futures = new ArrayList<>(groups.size());
+        for (List<FilterRecord<F>> group : groups) {
+            final long segmentId = nextSegmentId++;
+            futures.add(persistenceExecutor.submit(() -> writeSegment(segmentId, group)));
+        }
+
+        // wait for all the segments even if some of them failed, so no segment is still being written
+        // after this snapshot
+        final Map<String, Entry> entries = new HashMap<>();
+        Throwable cause = null;
+        boolean interrupted = false;
+        for (Future<Map<String, Entry>> future : futures) {
+            while (true) {
+                try {
+                    entries.putAll(future.get());
+                    break;
+                } catch (ExecutionException ex) {
+                    if (cause == null) {
+                        cause = ex.getCause();
+                    }
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (cause != null) {
+            throw toIOException(cause);
+        } else if (interrupted) {
+            throw new InterruptedIOException("interrupted on writing segments");
+        }
+        return entries;
+    }
+
+    /**
+     * Split the records into at most the given number of groups of about the same size, by adding the largest
+     * record left to the smallest group every time.
+     */
+    private List<List<FilterRecord<F>>> splitIntoGroups(Collection<FilterRecord<F>> records, int maxGroups) {
+        final int numGroups = Math.max(1, Math.min(maxGroups, records.size()));
+        final List<FilterRecord<F>> sortedRecords = new ArrayList<>(records);
+        sortedRecords.sort(Comparator.comparingLong((FilterRecord<F> r) -> r.filter().estimatedMemoryBytes()).reversed());
+
+        final List<List<FilterRecord<F>>> groups = new ArrayList<>(numGroups);
+        final long[] groupBytes = new long[numGroups];
+        final PriorityQueue<Integer> smallestGroups = new PriorityQueue<>(numGroups,
+                Comparator.comparingLong((Integer i) -> groupBytes[i]));
+        for (int i = 0; i < numGroups; i++) {
+            groups.add(new ArrayList<>());
+            smallestGroups.add(i);
+        }
+
+        for (FilterRecord<F> record : sortedRecords) {
+            final int group = smallestGroups.poll();
+            groups.get(group).add(record);
+            groupBytes[group] += record.filter().estimatedMemoryBytes();
+            smallestGroups.add(group);
+        }
+        return groups;
+    }
+
+    private Map<String, Entry> writeSegment(long segmentId, Iterable<FilterRecord<F>> records) throws IOException {
+        final Map<String, Entry> entries = new HashMap<>();
+        final List<SegmentIndex.Entry> indexEntries = new ArrayList<>();
+        final ByteBuffer crcBuffer = ByteBuffer.allocate(FilterRecord.CRC_LENGTH);
+        try (FileChannel channel = FileChannel.open(segmentFilePath(segmentId), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            final OutputStream channelStream = throttle.newOutputStream(channel);
+            for (FilterRecord<F> record : records) {
+                final F filter = record.filter();
+                // take the sequence before writing, so the operations logged after it are replayed even if
+                // some of them are already in the written filter
+                final long logSequence = logSequenceSupplier.getAsLong();
+                // clear before writing, so the changes during the writing mark the filter dirty again
+                filter.clearDirty();
+                final long expirationMillis = filter.expirationMillis();
+                final long position = channel.position();
+                final int length = record.writeFullyTo(channel, channelStream);
+                entries.put(record.name(), new Entry(record.name(), segmentId, position, length, expirationMillis,
+                        logSequence));
+
+                crcBuffer.clear();
+                FilterRecordInputStream.readFullyOrFail(channel, crcBuffer, position + FilterRecord.CRC_OFFSET);
+                indexEntries.add(new SegmentIndex.Entry(record.name(), position, length,
+                        crcBuffer.getInt(0) & 0xffffffffL, expirationMillis));
+            }
+
+            SegmentIndex.writeTo(channel, indexEntries);
+
+            throttle.force(channel, true);
+        }
+        return entries;
+    }
+
+    private static PersistenceThrottle newPersistenceThrottle(MeterRegistry registry) {
+        return new PersistenceThrottle(Configuration.persistenceBytesPerSecond(),
+                Configuration.persistenceForceIntervalBytes(), registry);
+    }
+
+    private void deleteUnusedFiles(SnapshotManifest manifest) throws IOException {
+        final Set<Long> usedSegments = new HashSet<>();
+        for (Entry entry : manifest.entries().values()) {
+            usedSegments.add(entry.segmentId());
+        }
+
+        for (long segmentId : listSegmentIds()) {
+            if (!usedSegments.contains(segmentId)) {
+                Files.deleteIfExists(segmentFilePath(segmentId));
+            }
+        }
+
+        // the filters in the single file snapshots of the previous versions are all in the segments now
+        Files.deleteIfExists(persistentFilePath());
+        Files.deleteIfExists(temporaryPersistentFilePath());
+    }
+
+    private List<FilterRecord<? extends F>> recoverFiltersFromSegments(BloomFilterFactory<? extends F, ?> factory,
+                                                                       boolean allowRecoverFromCorruptedFile,
+                                                                       SnapshotManifest prevManifest,
+                                                                       ForkJoinPool recoveryPool)
+            throws IOException {
+        final Map<Long, List<Entry>> entriesOfSegments = new TreeMap<>();
+        for (Entry entry : prevManifest.entries().values()) {
+            entriesOfSegments.computeIfAbsent(entry.segmentId(), k -> new ArrayList<>()).add(entry);
+        }
+
+        final long now = timer.currentTimeMillis();
+        final List<FilterRecordInputStream<? extends F>> streams = new ArrayList<>();
+        final List<Entry> entriesToRead = new ArrayList<>();
+        final List<Callable<FilterRecord<? extends F>>> tasks = new ArrayList<>();
+        final List<FilterRecord<? extends F>> records = new ArrayList<>();
+        final Map<String, Entry> recoveredEntries = new HashMap<>();
+        try {
+            for (Map.Entry<Long, List<Entry>> e : entriesOfSegments.entrySet()) {
+                final Path segmentPath = segmentFilePath(e.getKey());
+                final List<Entry> entries = e.getValue();
+                entries.sort(Comparator.comparingLong(Entry::position));
+                final FilterRecordInputStream<? extends F> stream;
+                try {
+                    stream = new FilterRecordInputStream<>(segmentPath, factory);
+                } catch (NoSuchFileException ex) {
+                    if (!allowRecoverFromCorruptedFile) {
+                        throw new PersistentStorageException("failed to recover filters from: " + segmentPath, ex);
+                    }
+                    logger.warn("Skip {} filters in missing segment: {}.", entries.size(), segmentPath);
+                    continue;
+                }
+
+                streams.add(stream);
+                for (Entry entry : entries) {
+                    if (FilterRecord.expired(entry.expirationMillis(), now)) {
+                        // no need to read an expired filter which will be dropped anyway
+                        continue;
+                    }
+                    entriesToRead.add(entry);
+                    tasks.add(() -> stream.decodeFilterRecordAt(entry.position()));
+                }
+            }
+
+            final List<Future<FilterRecord<? extends F>>> futures = recoveryPool.invokeAll(tasks);
+            int next = 0;
+            try {
+                for (; next < futures.size(); next++) {
+                    final Entry entry = entriesToRead.get(next);
+                    final Path segmentPath = segmentFilePath(entry.segmentId());
+                    final FilterRecord<? extends F> record;
+                    try {
+                        record = getRecord(futures.get(next));
+                    } catch (IOException | InvalidFilterException ex) {
+                        if (!allowRecoverFromCorruptedFile) {
+                            throw new PersistentStorageException("failed to recover filters from: " + segmentPath, ex);
+                        }
+
+                        logger.warn("Skip corrupted record of filter: " + entry.name() + " at position: " +
+                                entry.position() + " from file: " + segmentPath + ". The exception captured as follows:", ex);
+                        continue;
+                    }
+
+                    if (record == null) {
+                        continue;
+                    }
+
+                    if (!record.name().equals(entry.name())) {
+                        record.filter().release();
+                        final String msg = "expect filter: " + entry.name() + " at position: " +
+                                entry.position() + " from file: " + segmentPath + " but got: " + record.name();
+                        if (!allowRecoverFromCorruptedFile) {
+                            throw new PersistentStorageException(msg);
+                        }
+
+                        logger.warn("Skip mismatched record. {}", msg);
+                        continue;
+                    }
+
+                    final F filter = record.filter();
+                    // the expiration may be extended after the filter was written, as recorded in the manifest
+                    filter.extendExpiration(entry.expirationMillis());
+                    if (filter.valid()) {
+                        // the filter is just the same as the one persisted
+                        filter.clearDirty();
+                        records.add(record);
+                        // the expiration read back may be less precise than the one recorded
+                        recoveredEntries.put(entry.name(), entry.withExpirationMillis(filter.expirationMillis()));
+                    } else {
+                        filter.release();
+                    }
+                }
+            } finally {
+                releaseRecords(futures, next + 1);
+            }
+        } finally {
+            for (FilterRecordInputStream<? extends F> stream : streams) {
+                stream.close();
+            }
+        }
+
+        manifest = new SnapshotManifest(recoveredEntries);
+        logger.info("Recovered " + records.size() + " filters from: " + manifestFilePath());
+        return records;
+    }
+
+    private List<FilterRecord<? extends F>> recoverFiltersFromAllSegments(BloomFilterFactory<? extends F, ?> factory,
+                                                                          ForkJoinPool recoveryPool)
+            throws IOException {
+        // the later segments have the newer records of the filters
+        final Map<String, FilterRecord<? extends F>> records = new LinkedHashMap<>();
+        for (long segmentId : listSegmentIds()) {
+            for (FilterRecord<? extends F> record :
+                    recoverFiltersFromFile(factory, true, segmentFilePath(segmentId), recoveryPool)) {
+                final FilterRecord<? extends F> prevRecord = records.put(record.name(), record);
+                if (prevRecord != null) {
+                    prevRecord.filter().release();
+                }
+            }
+        }
+        return new ArrayList<>(records.values());
+    }
+
     private List<FilterRecord<? extends F>> recoverFiltersFromFile(BloomFilterFactory<? extends F, ?> factory,
                                                                    boolean allowRecoverFromCorruptedFile,
-                                                                   Path filePath) throws IOException {
+                                                                   Path filePath,
+                                                                   ForkJoinPool recoveryPool) throws IOException {
         final List<FilterRecord<? extends F>> records = new ArrayList<>();
         try {
             try (FilterRecordInputStream<? extends F> filterStream = new FilterRecordInputStream<>(filePath, factory)) {
-                readFiltersFromFile(filterStream)
-                        .forEach(r -> {
-                            if (r.filter().valid()) {
-                                records.add(r);
-                            }
-                        });
+                // find the positions of all the records first, then the records can be read concurrently
+                final List<Long> positions = new ArrayList<>();
+                InvalidFilterException indexException = null;
+                final SegmentIndex segmentIndex = readSegmentIndex(filterStream, filePath);
+                if (segmentIndex != null) {
+                    final long now = timer.currentTimeMillis();
+                    for (SegmentIndex.Entry entry : segmentIndex.entries()) {
+                        if (!FilterRecord.expired(entry.expirationMillis(), now)) {
+                            positions.add(entry.position());
+                        }
+                    }
+                } else {
+                    try {
+                        filterStream.indexRecordPositions(positions, timer.currentTimeMillis());
+                    } catch (InvalidFilterException ex) {
+                        indexException = ex;
+                    } catch (IOException ex) {
+                        indexException = new InvalidFilterException("read filter from file:" + filePath + " failed", ex);
+                    }
+                }
+
+                final List<Callable<FilterRecord<? extends F>>> tasks = new ArrayList<>(positions.size());
+                for (long position : positions) {
+                    tasks.add(() -> filterStream.decodeFilterRecordAt(position));
+                }
+
+                // the records after the first broken one are dropped, because the positions of them may be wrong
+                final List<Future<FilterRecord<? extends F>>> futures = recoveryPool.invokeAll(tasks);
+                int next = 0;
+                try {
+                    for (; next < futures.size(); next++) {
+                        final FilterRecord<? extends F> record;
+                        try {
+                            record = getRecord(futures.get(next));
+                        } catch (IOException ex) {
+                            throw new InvalidFilterException("read filter from file:" + filePath + " failed", ex);
+                        }
+
+                        if (record == null) {
+                            continue;
+                        }
+
+                        if (record.filter().valid()) {
+                            records.add(record);
+                        } else {
+                            record.filter().release();
+                        }
+                    }
+                } finally {
+                    releaseRecords(futures, next + 1);
+                }
+
+                if (indexException != null) {
+                    throw indexException;
+                }
             }
             logger.info("Recovered " + records.size() + " filters from: " + filePath);
             return records;
@@ -116,21 +750,60 @@ public class PersistentManager<F extends BloomFilter> implements Closeable {
         }
     }
 
-    private Iterable<FilterRecord<? extends F>> readFiltersFromFile(FilterRecordInputStream<? extends F> filterStream) {
-        return () -> new AbstractIterator<FilterRecord<? extends F>>() {
-            @Nullable
-            @Override
-            protected FilterRecord<? extends F> makeNext() {
-                try {
-                    final FilterRecord<? extends F> record = filterStream.nextFilterRecord();
-                    if (record == null) {
-                        allDone();
-                    }
-                    return record;
-                } catch (IOException ex) {
-                    throw new InvalidFilterException("read filter from file:" + persistentFilePath() + " failed", ex);
+    @Nullable
+    private SegmentIndex readSegmentIndex(FilterRecordInputStream<? extends F> filterStream, Path filePath)
+            throws IOException {
+        try {
+            return filterStream.readSegmentIndex();
+        } catch (InvalidFilterException ex) {
+            logger.warn("Find the filters in file: {} by their headers because its index is corrupted: \"{}\".",
+                    filePath, ex.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private FilterRecord<? extends F> getRecord(Future<FilterRecord<? extends F>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted on recovering filters");
+        } catch (ExecutionException ex) {
+            throw toIOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Release the filters read but not recovered, from the given index to the end of the futures.
+     */
+    private void releaseRecords(List<Future<FilterRecord<? extends F>>> futures, int fromIndex) {
+        for (int i = fromIndex; i < futures.size(); i++) {
+            try {
+                final FilterRecord<? extends F> record = futures.get(i).get();
+                if (record != null) {
+                    record.filter().release();
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                // nothing to release for the failed ones
             }
-        };
+        }
+    }
+
+    /**
+     * Rethrow the cause of a failed task if it's unchecked, or convert it to an {@link IOException}.
+     */
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
     }
 }
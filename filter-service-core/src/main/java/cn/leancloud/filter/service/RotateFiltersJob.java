@@ -0,0 +1,30 @@
+package cn.leancloud.filter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A job to rotate all the filters in a {@link BloomFilterManager} which reached their rotation period.
+ * Only {@link RotatingBloomFilter}s are affected.
+ */
+public final class RotateFiltersJob<F extends BloomFilter> implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(RotateFiltersJob.class);
+    private final BloomFilterManager<F, ?> manager;
+
+    RotateFiltersJob(BloomFilterManager<F, ?> manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (FilterRecord<F> holder : manager) {
+                if (holder.filter().tryRotate()) {
+                    logger.debug("Bloom filter with name: {} was rotated.", holder.name());
+                }
+            }
+        } catch (Exception ex) {
+            logger.error("Rotate bloom filters failed.", ex);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.google.common.hash.HashCode;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A Bloom filter which only remembers the values put into it in a sliding window of time. It keeps at most
+ * {@code generations} sub-filters, one for each {@code rotationPeriod}. Values are put into the newest
+ * generation and checked against all the generations. Once every {@code rotationPeriod}, a new empty generation
+ * is appended and the oldest generation is dropped when there are already {@code generations} of them.
+ * <p>
+ * So a value is remembered for at least {@code (generations - 1) * rotationPeriod} and at most
+ * {@code generations * rotationPeriod} after it was put last time. Unlike recreating a filter after it expired,
+ * only the oldest values are forgotten on each rotation, and the memory used is bounded by the number of
+ * generations.
+ * <p>
+ * Every generation is created with {@code expectedInsertions} as the number of values expected to be put into
+ * it during a {@code rotationPeriod}, and with a false positive probability of {@code fpp / generations},
+ * which keeps the false positive probability of the whole filter below {@code fpp}.
+ */
+public final class RotatingBloomFilter extends AbstractExpirableBloomFilter {
+    static final int DEFAULT_GENERATIONS = 4;
+    static final int MIN_GENERATIONS = 2;
+    static final int MAX_GENERATIONS = 32;
+
+    static RotatingBloomFilter readFrom(InputStream in,
+                                        BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory)
+            throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final byte subFilterMagic = din.readByte();
+        final BloomFilterType subFilterType = BloomFilterType.fromMagic(subFilterMagic);
+        if (subFilterType == null || !supportSubFilterType(subFilterType)) {
+            throw new InvalidFilterException("unsupported sub-filter magic: " + subFilterMagic +
+                    " for rotating Bloom filter");
+        }
+        final int maxGenerations = din.readInt();
+        if (maxGenerations < MIN_GENERATIONS || maxGenerations > MAX_GENERATIONS) {
+            throw new InvalidFilterException("invalid generations: " + maxGenerations +
+                    " for rotating Bloom filter (expected: >= " + MIN_GENERATIONS + " && <= " + MAX_GENERATIONS + ")");
+        }
+        final long rotationPeriod = din.readLong();
+        final long lastRotation = din.readLong();
+        final int numGenerations = din.readInt();
+        if (numGenerations <= 0 || numGenerations > maxGenerations) {
+            throw new InvalidFilterException("invalid number of generations: " + numGenerations +
+                    " for rotating Bloom filter (expected: > 0 && <= " + maxGenerations + ")");
+        }
+        final List<ExpirableBloomFilter> generations = new ArrayList<>(numGenerations);
+        for (int i = 0; i < numGenerations; i++) {
+            generations.add(subFilterFactory.readFrom(subFilterType, in));
+        }
+
+        return new RotatingBloomFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                subFilterType,
+                subFilterFactory,
+                maxGenerations,
+                Duration.ofMillis(rotationPeriod),
+                generations,
+                lastRotation,
+                Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Check if the filters with the input type can be used as the generations of a {@code RotatingBloomFilter}.
+     * Only the filters which never fail on {@code set} and do not support remove can be used.
+     *
+     * @param type the type of the generations
+     * @return true if the filters with the input type can be used as generations
+     */
+    static boolean supportSubFilterType(BloomFilterType type) {
+        return type == BloomFilterType.GUAVA || type == BloomFilterType.BLOCKED;
+    }
+
+    private final BloomFilterType subFilterType;
+    private final BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory;
+    private final int maxGenerations;
+    private final Duration rotationPeriod;
+    private final Object rotateLock;
+    private volatile List<ExpirableBloomFilter> generations;
+    private volatile long lastRotation;
+
+    /**
+     * Constructor for {@link RotatingBloomFilter}.
+     *
+     * @param expectedInsertions     the number of values expected to be put into a generation during a
+     *                               {@code rotationPeriod}; must be positive
+     * @param fpp                    the desired false positive probability of the whole filter (must be positive
+     *                               and less than 1.0)
+     * @param created                the creation time for the constructed {@code RotatingBloomFilter}
+     * @param expiration             the expiration time of the constructed {@code RotatingBloomFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param subFilterType          the type of the generations
+     * @param subFilterFactory       the factory to create generations
+     * @param maxGenerations         the max number of generations kept by the constructed filter
+     * @param rotationPeriod         the time duration between two rotations
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset
+     */
+    RotatingBloomFilter(int expectedInsertions,
+                        double fpp,
+                        ZonedDateTime created,
+                        ZonedDateTime expiration,
+                        @Nullable Duration validPeriodAfterAccess,
+                        BloomFilterType subFilterType,
+                        BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory,
+                        int maxGenerations,
+                        Duration rotationPeriod,
+                        Timer timer) {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                subFilterType,
+                subFilterFactory,
+                maxGenerations,
+                rotationPeriod,
+                Collections.singletonList(
+                        newGeneration(expectedInsertions, fpp, maxGenerations, subFilterType, subFilterFactory)),
+                created.toInstant().toEpochMilli(),
+                timer);
+    }
+
+    private RotatingBloomFilter(int expectedInsertions,
+                                double fpp,
+                                ZonedDateTime created,
+                                ZonedDateTime expiration,
+                                @Nullable Duration validPeriodAfterAccess,
+                                BloomFilterType subFilterType,
+                                BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory,
+                                int maxGenerations,
+                                Duration rotationPeriod,
+                                List<ExpirableBloomFilter> generations,
+                                long lastRotation,
+                                Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        if (!supportSubFilterType(subFilterType)) {
+            throw new IllegalArgumentException("unsupported sub-filter type: " + subFilterType.typeName() +
+                    " for rotating Bloom filter");
+        }
+        if (maxGenerations < MIN_GENERATIONS || maxGenerations > MAX_GENERATIONS) {
+            throw new IllegalArgumentException("invalid generations: " + maxGenerations +
+                    " for rotating Bloom filter (expected: >= " + MIN_GENERATIONS + " && <= " + MAX_GENERATIONS + ")");
+        }
+        if (rotationPeriod.toMillis() <= 0) {
+            throw new IllegalArgumentException("invalid rotation period: " + rotationPeriod +
+                    " for rotating Bloom filter (expected: > 0)");
+        }
+        this.subFilterType = subFilterType;
+        this.subFilterFactory = subFilterFactory;
+        this.maxGenerations = maxGenerations;
+        this.rotationPeriod = rotationPeriod;
+        this.generations = Collections.unmodifiableList(new ArrayList<>(generations));
+        this.lastRotation = lastRotation;
+        this.rotateLock = new Object();
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.ROTATING;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        final List<ExpirableBloomFilter> generations = this.generations;
+        return generations.get(generations.size() - 1).estimatedMemoryBytes() * maxGenerations;
+    }
+
+    @JsonGetter("subFilterType")
+    public BloomFilterType subFilterType() {
+        return subFilterType;
+    }
+
+    /**
+     * Get the scheme of the hashes accepted by this filter, which is the same as its generations.
+     */
+    @Nullable
+    @Override
+    public HashScheme hashScheme() {
+        return generations.get(0).hashScheme();
+    }
+
+    @JsonGetter("generations")
+    public int maxGenerations() {
+        return maxGenerations;
+    }
+
+    @JsonGetter("rotationPeriod")
+    @JsonSerialize(using = DurationSerializer.class)
+    public Duration rotationPeriod() {
+        return rotationPeriod;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The value is always put into the newest generation even if it's found in an older generation, so
+     * it's remembered from now on for another full window.
+     */
+    @Override
+    public boolean set(String value) {
+        return set(filter -> filter.mightContain(value), filter -> filter.set(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The value is always put into the newest generation even if it's found in an older generation, so
+     * it's remembered from now on for another full window.
+     */
+    @Override
+    public boolean set(ByteBuffer value) {
+        return set(filter -> filter.mightContain(value), filter -> filter.set(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The value is always put into the newest generation even if it's found in an older generation, so
+     * it's remembered from now on for another full window.
+     */
+    @Override
+    public boolean set(HashCode hash) {
+        return set(filter -> filter.mightContain(hash), filter -> filter.set(hash));
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return mightContain(filter -> filter.mightContain(value));
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return mightContain(filter -> filter.mightContain(value));
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        return mightContain(filter -> filter.mightContain(hash));
+    }
+
+    private boolean set(Predicate<BloomFilter> mightContain, Predicate<BloomFilter> set) {
+        final List<ExpirableBloomFilter> generations = this.generations;
+        final int newest = generations.size() - 1;
+        boolean contain = false;
+        for (int i = 0; i < newest; i++) {
+            if (mightContain.test(generations.get(i))) {
+                contain = true;
+                break;
+            }
+        }
+
+        final boolean bitsChanged = set.test(generations.get(newest));
+        tryExtendExpiration();
+        return !contain && bitsChanged;
+    }
+
+    private boolean mightContain(Predicate<BloomFilter> mightContain) {
+        boolean contain = false;
+        for (ExpirableBloomFilter filter : generations) {
+            if (mightContain.test(filter)) {
+                contain = true;
+                break;
+            }
+        }
+        tryExtendExpiration();
+        return contain;
+    }
+
+    /**
+     * Append new generations, one for every {@code rotationPeriod} passed since the last rotation, and drop
+     * the oldest generations to keep at most {@code generations} of them.
+     *
+     * @return true if at least one new generation was appended
+     */
+    @Override
+    public boolean tryRotate() {
+        final long now = timer().currentTimeMillis();
+        final long period = rotationPeriod.toMillis();
+        if (now - lastRotation < period) {
+            return false;
+        }
+
+        synchronized (rotateLock) {
+            final long elapsedPeriods = (now - lastRotation) / period;
+            if (elapsedPeriods <= 0) {
+                return false;
+            }
+
+            final List<ExpirableBloomFilter> newGenerations = new ArrayList<>(generations);
+            // no need to create more generations than we can keep, they would be dropped right away
+            for (long i = 0; i < Math.min(elapsedPeriods, maxGenerations); i++) {
+                newGenerations.add(
+                        newGeneration(expectedInsertions(), fpp(), maxGenerations, subFilterType, subFilterFactory));
+            }
+            final List<ExpirableBloomFilter> droppedGenerations = new ArrayList<>();
+            while (newGenerations.size() > maxGenerations) {
+                droppedGenerations.add(newGenerations.remove(0));
+            }
+
+            generations = Collections.unmodifiableList(newGenerations);
+            lastRotation += elapsedPeriods * period;
+            for (ExpirableBloomFilter filter : droppedGenerations) {
+                filter.release();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final List<ExpirableBloomFilter> generations;
+        final long lastRotation;
+        synchronized (rotateLock) {
+            generations = this.generations;
+            lastRotation = this.lastRotation;
+        }
+
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeByte(subFilterType.magic());
+        dout.writeInt(maxGenerations);
+        dout.writeLong(rotationPeriod.toMillis());
+        dout.writeLong(lastRotation);
+        dout.writeInt(generations.size());
+        dout.flush();
+        for (ExpirableBloomFilter filter : generations) {
+            filter.writeTo(out);
+        }
+    }
+
+    @Override
+    public void release() {
+        for (ExpirableBloomFilter filter : generations) {
+            filter.release();
+        }
+    }
+
+    long lastRotation() {
+        return lastRotation;
+    }
+
+    List<ExpirableBloomFilter> generations() {
+        return generations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final RotatingBloomFilter that = (RotatingBloomFilter) o;
+        return metadataEquals(that) &&
+                subFilterType == that.subFilterType &&
+                maxGenerations == that.maxGenerations &&
+                rotationPeriod.equals(that.rotationPeriod) &&
+                lastRotation == that.lastRotation &&
+                generations.equals(that.generations);
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + subFilterType.hashCode();
+        ret = 31 * ret + maxGenerations;
+        ret = 31 * ret + rotationPeriod.hashCode();
+        ret = 31 * ret + Long.hashCode(lastRotation);
+        ret = 31 * ret + generations.hashCode();
+        return ret;
+    }
+
+    private static ExpirableBloomFilter newGeneration(int expectedInsertions,
+                                                      double fpp,
+                                                      int maxGenerations,
+                                                      BloomFilterType subFilterType,
+                                                      BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory) {
+        return subFilterFactory.createFilter(generationConfig(expectedInsertions, fpp, maxGenerations, subFilterType));
+    }
+
+    /**
+     * Get the configuration used to create a generation.
+     *
+     * @param expectedInsertions the number of expected insertions to a generation
+     * @param fpp                the desired false positive probability of the whole filter
+     * @param maxGenerations     the max number of generations of the filter
+     * @param subFilterType      the type of the generation
+     * @return the configuration used to create a generation
+     */
+    static ExpirableBloomFilterConfig generationConfig(int expectedInsertions,
+                                                       double fpp,
+                                                       int maxGenerations,
+                                                       BloomFilterType subFilterType) {
+        // the expiration of generations is never checked, only the expiration of this filter takes effect
+        return new ExpirableBloomFilterConfig(expectedInsertions, fpp / maxGenerations)
+                .setType(subFilterType);
+    }
+}
@@ -0,0 +1,435 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Timer;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A Bloom filter which grows when more values than expected are put into it. It's a chain of
+ * sub-filters. Values are only put into the last sub-filter, and when the number of values put into
+ * the last sub-filter reaches its expected insertions, a new sub-filter with {@link #GROWTH_FACTOR}
+ * times the expected insertions is appended to the chain.
+ * <p>
+ * The false positive probability of the whole chain is the sum of the false positive probability of
+ * every sub-filter, so the i-th (from 0) sub-filter is created with a false positive probability of
+ * {@code fpp * (1 - TIGHTENING_RATIO) * TIGHTENING_RATIO ^ i}, which keeps the sum below {@code fpp}
+ * no matter how many sub-filters are appended.
+ * <p>
+ * A filter stops growing when it has {@link #MAX_SUB_FILTERS} sub-filters or the expected insertions of all
+ * the sub-filters reach {@link #MAX_TOTAL_INSERTIONS}. The memory of a new sub-filter is reserved from the
+ * {@link MemoryBudget} attached to this filter before it's allocated. When the filter can not grow, the
+ * value which fills the last sub-filter is still put, and the following updates which put new values fail
+ * with {@link FilterFullException} or {@link MemoryBudgetExceededException} until the filter can grow.
+ */
+public final class ScalableBloomFilter extends AbstractExpirableBloomFilter {
+    static final int GROWTH_FACTOR = 2;
+    static final double TIGHTENING_RATIO = 0.5;
+    static final int MAX_SUB_FILTERS = 32;
+    static final long MAX_TOTAL_INSERTIONS = Integer.MAX_VALUE;
+
+    static ScalableBloomFilter readFrom(InputStream in,
+                                        BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory)
+            throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        final int expectedInsertions = din.readInt();
+        final double fpp = din.readDouble();
+        final long created = din.readLong();
+        final long expiration = din.readLong();
+        final long validPeriodAfterAccess = din.readLong();
+        final byte subFilterMagic = din.readByte();
+        final BloomFilterType subFilterType = BloomFilterType.fromMagic(subFilterMagic);
+        if (subFilterType == null || !supportSubFilterType(subFilterType)) {
+            throw new InvalidFilterException("unsupported sub-filter magic: " + subFilterMagic +
+                    " for scalable Bloom filter");
+        }
+        final int numSubFilters = din.readInt();
+        if (numSubFilters <= 0 || numSubFilters > MAX_SUB_FILTERS) {
+            throw new InvalidFilterException("invalid number of sub-filters: " + numSubFilters +
+                    " for scalable Bloom filter (expected: > 0 && <= " + MAX_SUB_FILTERS + ")");
+        }
+        final long lastSubFilterInsertions = din.readLong();
+        final List<ExpirableBloomFilter> subFilters = new ArrayList<>(numSubFilters);
+        for (int i = 0; i < numSubFilters; i++) {
+            subFilters.add(subFilterFactory.readFrom(subFilterType, in));
+        }
+
+        return new ScalableBloomFilter(
+                expectedInsertions,
+                fpp,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(expiration), ZoneOffset.UTC),
+                validPeriodAfterAccess == -1 ? null : Duration.ofNanos(validPeriodAfterAccess),
+                subFilterType,
+                subFilterFactory,
+                subFilters,
+                lastSubFilterInsertions,
+                Timer.DEFAULT_TIMER);
+    }
+
+    /**
+     * Check if the filters with the input type can be chained by a {@code ScalableBloomFilter}.
+     * Only the filters which never fail on {@code set} and do not support remove can be chained.
+     *
+     * @param type the type of the sub-filters
+     * @return true if the filters with the input type can be used as sub-filters
+     */
+    static boolean supportSubFilterType(BloomFilterType type) {
+        return type == BloomFilterType.GUAVA || type == BloomFilterType.BLOCKED;
+    }
+
+    private final BloomFilterType subFilterType;
+    private final BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory;
+    private final AtomicLong lastSubFilterInsertions;
+    private final Object growLock;
+    private volatile List<ExpirableBloomFilter> subFilters;
+    // guarded by growLock
+    @Nullable
+    private MemoryBudget memoryBudget;
+
+    /**
+     * Constructor for {@link ScalableBloomFilter}.
+     *
+     * @param expectedInsertions     the number of expected insertions to the first sub-filter; must be positive
+     * @param fpp                    the desired false positive probability of the whole chain (must be positive
+     *                               and less than 1.0)
+     * @param created                the creation time for the constructed {@code ScalableBloomFilter}
+     * @param expiration             the expiration time of the constructed {@code ScalableBloomFilter}
+     * @param validPeriodAfterAccess the time duration to push off the expiration of the filter forward after
+     *                               each access
+     * @param subFilterType          the type of the sub-filters
+     * @param subFilterFactory       the factory to create sub-filters
+     * @param timer                  the {@link Timer} used to get current {@link ZonedDateTime} with UTC offset
+     */
+    ScalableBloomFilter(int expectedInsertions,
+                        double fpp,
+                        ZonedDateTime created,
+                        ZonedDateTime expiration,
+                        @Nullable Duration validPeriodAfterAccess,
+                        BloomFilterType subFilterType,
+                        BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory,
+                        Timer timer) {
+        this(expectedInsertions,
+                fpp,
+                created,
+                expiration,
+                validPeriodAfterAccess,
+                subFilterType,
+                subFilterFactory,
+                Collections.singletonList(newSubFilter(expectedInsertions, fpp, 0, subFilterType, subFilterFactory)),
+                0,
+                timer);
+    }
+
+    private ScalableBloomFilter(int expectedInsertions,
+                                double fpp,
+                                ZonedDateTime created,
+                                ZonedDateTime expiration,
+                                @Nullable Duration validPeriodAfterAccess,
+                                BloomFilterType subFilterType,
+                                BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory,
+                                List<ExpirableBloomFilter> subFilters,
+                                long lastSubFilterInsertions,
+                                Timer timer) {
+        super(expectedInsertions, fpp, created, expiration, validPeriodAfterAccess, timer);
+        if (!supportSubFilterType(subFilterType)) {
+            throw new IllegalArgumentException("unsupported sub-filter type: " + subFilterType.typeName() +
+                    " for scalable Bloom filter");
+        }
+        this.subFilterType = subFilterType;
+        this.subFilterFactory = subFilterFactory;
+        this.subFilters = Collections.unmodifiableList(new ArrayList<>(subFilters));
+        this.lastSubFilterInsertions = new AtomicLong(lastSubFilterInsertions);
+        this.growLock = new Object();
+    }
+
+    @Override
+    public BloomFilterType type() {
+        return BloomFilterType.SCALABLE;
+    }
+
+    @Override
+    public long estimatedMemoryBytes() {
+        long bytes = 0;
+        for (ExpirableBloomFilter filter : subFilters) {
+            bytes += filter.estimatedMemoryBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long attachMemoryBudget(MemoryBudget budget) {
+        synchronized (growLock) {
+            memoryBudget = budget;
+            return estimatedMemoryBytes();
+        }
+    }
+
+    @Override
+    public long detachMemoryBudget() {
+        synchronized (growLock) {
+            memoryBudget = null;
+            return estimatedMemoryBytes();
+        }
+    }
+
+    @JsonGetter("subFilterType")
+    public BloomFilterType subFilterType() {
+        return subFilterType;
+    }
+
+    /**
+     * Get the scheme of the hashes accepted by this filter, which is the same as its sub-filters.
+     */
+    @Nullable
+    @Override
+    public HashScheme hashScheme() {
+        return subFilters.get(0).hashScheme();
+    }
+
+    @JsonGetter("subFilters")
+    public int numSubFilters() {
+        return subFilters.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws FilterFullException           if the last sub-filter is full and the filter can not grow
+     *                                       anymore, or would exceed the memory limit of a single filter
+     * @throws MemoryBudgetExceededException if the last sub-filter is full and the memory of the new
+     *                                       sub-filter exceeds the memory budget of all the filters
+     */
+    @Override
+    public boolean set(String value) {
+        return set(filter -> filter.mightContain(value), filter -> filter.set(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws FilterFullException           if the last sub-filter is full and the filter can not grow
+     *                                       anymore, or would exceed the memory limit of a single filter
+     * @throws MemoryBudgetExceededException if the last sub-filter is full and the memory of the new
+     *                                       sub-filter exceeds the memory budget of all the filters
+     */
+    @Override
+    public boolean set(ByteBuffer value) {
+        return set(filter -> filter.mightContain(value), filter -> filter.set(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws FilterFullException           if the last sub-filter is full and the filter can not grow
+     *                                       anymore, or would exceed the memory limit of a single filter
+     * @throws MemoryBudgetExceededException if the last sub-filter is full and the memory of the new
+     *                                       sub-filter exceeds the memory budget of all the filters
+     */
+    @Override
+    public boolean set(HashCode hash) {
+        return set(filter -> filter.mightContain(hash), filter -> filter.set(hash));
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return mightContain(filter -> filter.mightContain(value));
+    }
+
+    @Override
+    public boolean mightContain(ByteBuffer value) {
+        return mightContain(filter -> filter.mightContain(value));
+    }
+
+    @Override
+    public boolean mightContain(HashCode hash) {
+        return mightContain(filter -> filter.mightContain(hash));
+    }
+
+    private boolean set(Predicate<BloomFilter> mightContain, Predicate<BloomFilter> set) {
+        List<ExpirableBloomFilter> subFilters = this.subFilters;
+        if (lastSubFilterInsertions.get() >= subFilters.get(subFilters.size() - 1).expectedInsertions()) {
+            // the filter failed to grow when the last sub-filter became full, try again before putting the value
+            subFilters = grow(subFilters);
+        }
+
+        final int last = subFilters.size() - 1;
+        for (int i = 0; i < last; i++) {
+            if (mightContain.test(subFilters.get(i))) {
+                tryExtendExpiration();
+                return false;
+            }
+        }
+
+        final boolean bitsChanged = set.test(subFilters.get(last));
+        if (bitsChanged &&
+                lastSubFilterInsertions.incrementAndGet() >= subFilters.get(last).expectedInsertions()) {
+            try {
+                grow(subFilters);
+            } catch (FilterFullException | MemoryBudgetExceededException ex) {
+                // the value was put, so only fail the following updates which need the filter to grow
+            }
+        }
+        tryExtendExpiration();
+        return bitsChanged;
+    }
+
+    private boolean mightContain(Predicate<BloomFilter> mightContain) {
+        boolean contain = false;
+        for (ExpirableBloomFilter filter : subFilters) {
+            if (mightContain.test(filter)) {
+                contain = true;
+                break;
+            }
+        }
+        tryExtendExpiration();
+        return contain;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final List<ExpirableBloomFilter> subFilters;
+        final long lastSubFilterInsertions;
+        synchronized (growLock) {
+            subFilters = this.subFilters;
+            lastSubFilterInsertions = this.lastSubFilterInsertions.get();
+        }
+
+        final DataOutputStream dout = new DataOutputStream(out);
+        writeMetadataTo(dout);
+        dout.writeByte(subFilterType.magic());
+        dout.writeInt(subFilters.size());
+        dout.writeLong(lastSubFilterInsertions);
+        dout.flush();
+        for (ExpirableBloomFilter filter : subFilters) {
+            filter.writeTo(out);
+        }
+    }
+
+    long lastSubFilterInsertions() {
+        return lastSubFilterInsertions.get();
+    }
+
+    List<ExpirableBloomFilter> subFilters() {
+        return subFilters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ScalableBloomFilter that = (ScalableBloomFilter) o;
+        return metadataEquals(that) &&
+                subFilterType == that.subFilterType &&
+                subFilters.equals(that.subFilters);
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = metadataHashCode();
+        ret = 31 * ret + subFilterType.hashCode();
+        ret = 31 * ret + subFilters.hashCode();
+        return ret;
+    }
+
+    /**
+     * Append a new sub-filter to the chain whose last sub-filter is full.
+     *
+     * @param fullSubFilters the sub-filters whose last sub-filter is full
+     * @return the sub-filters after growing
+     * @throws FilterFullException           if the filter can not grow anymore, or would exceed the memory limit
+     *                                       of a single filter
+     * @throws MemoryBudgetExceededException if the memory of the new sub-filter exceeds the memory budget
+     */
+    private List<ExpirableBloomFilter> grow(List<ExpirableBloomFilter> fullSubFilters) {
+        synchronized (growLock) {
+            final ExpirableBloomFilter lastSubFilter = fullSubFilters.get(fullSubFilters.size() - 1);
+            if (subFilters != fullSubFilters || lastSubFilterInsertions.get() < lastSubFilter.expectedInsertions()) {
+                // someone else has grown this filter
+                return subFilters;
+            }
+
+            if (fullSubFilters.size() >= MAX_SUB_FILTERS) {
+                throw new FilterFullException("scalable Bloom filter is full with " + MAX_SUB_FILTERS + " sub-filters");
+            }
+
+            long totalInsertions = 0;
+            for (ExpirableBloomFilter filter : fullSubFilters) {
+                totalInsertions += filter.expectedInsertions();
+            }
+            final int expectedInsertions = (int) Math.min(MAX_TOTAL_INSERTIONS - totalInsertions,
+                    (long) lastSubFilter.expectedInsertions() * GROWTH_FACTOR);
+            if (expectedInsertions <= 0) {
+                throw new FilterFullException("scalable Bloom filter is full with " + totalInsertions +
+                        " expected insertions");
+            }
+
+            final ExpirableBloomFilterConfig config =
+                    subFilterConfig(expectedInsertions, fpp(), fullSubFilters.size(), subFilterType);
+            final MemoryBudget budget = memoryBudget;
+            final long estimatedBytes = subFilterFactory.estimatedMemoryBytes(config);
+            if (budget != null) {
+                budget.reserve(estimatedMemoryBytes(), estimatedBytes);
+            }
+
+            final ExpirableBloomFilter newSubFilter;
+            try {
+                newSubFilter = subFilterFactory.createFilter(config);
+            } catch (RuntimeException | Error ex) {
+                if (budget != null) {
+                    budget.release(estimatedBytes);
+                }
+                throw ex;
+            }
+
+            final List<ExpirableBloomFilter> newSubFilters = new ArrayList<>(fullSubFilters);
+            newSubFilters.add(newSubFilter);
+            lastSubFilterInsertions.set(0);
+            subFilters = Collections.unmodifiableList(newSubFilters);
+            return subFilters;
+        }
+    }
+
+    private static ExpirableBloomFilter newSubFilter(int expectedInsertions,
+                                                     double fpp,
+                                                     int index,
+                                                     BloomFilterType subFilterType,
+                                                     BloomFilterFactory<? extends ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory) {
+        return subFilterFactory.createFilter(subFilterConfig(expectedInsertions, fpp, index, subFilterType));
+    }
+
+    /**
+     * Get the configuration used to create the sub-filter at the given index.
+     *
+     * @param expectedInsertions the number of expected insertions to the sub-filter
+     * @param fpp                the desired false positive probability of the whole filter
+     * @param index              the index of the sub-filter
+     * @param subFilterType      the type of the sub-filter
+     * @return the configuration used to create the sub-filter
+     */
+    static ExpirableBloomFilterConfig subFilterConfig(int expectedInsertions,
+                                                     double fpp,
+                                                     int index,
+                                                     BloomFilterType subFilterType) {
+        final double subFilterFpp = fpp * (1 - TIGHTENING_RATIO) * Math.pow(TIGHTENING_RATIO, index);
+        // the expiration of sub-filters is never checked, only the expiration of this filter takes effect
+        return new ExpirableBloomFilterConfig(expectedInsertions, subFilterFpp)
+                .setType(subFilterType);
+    }
+}
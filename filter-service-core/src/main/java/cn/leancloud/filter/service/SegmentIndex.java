@@ -0,0 +1,231 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Crc32C;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static cn.leancloud.filter.service.FilterRecordInputStream.readFullyOrFail;
+
+/**
+ * The index at the end of a segment file of the version 2 format, which tells where the record of every
+ * filter in the segment is, so a segment can be listed, and its records can be read in any order or skipped
+ * by their expiration, without scanning the whole segment. The segments of the version 1 format have no index.
+ * <p>
+ * The schema of a segment of the version 2 format is:
+ * Records: a sequence of {@link FilterRecord}s
+ * EntryCount: Int32
+ * Entries: EntryCount * Entry
+ * CRC: Uint32, of EntryCount and Entries
+ * IndexPosition: Int64, the position of EntryCount, which is also the end of the Records
+ * Magic: Int32
+ * <p>
+ * The schema of an Entry is:
+ * NameLength: Int32
+ * Name: Bytes
+ * Position: Int64, the position of the record in the segment
+ * Length: Int32, the length of the record
+ * CRC: Uint32, the CRC of the body of the record
+ * ExpirationMillis: Int64, the {@link BloomFilter#expirationMillis()} of the filter when it was persisted
+ */
+final class SegmentIndex {
+    private static final int MAGIC = 0x46534931;
+    private static final int CRC_LENGTH = 4;
+    static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES;
+
+    static final class Entry {
+        private final String name;
+        private final long position;
+        private final int length;
+        private final long crc;
+        private final long expirationMillis;
+
+        Entry(String name, long position, int length, long crc, long expirationMillis) {
+            this.name = name;
+            this.position = position;
+            this.length = length;
+            this.crc = crc;
+            this.expirationMillis = expirationMillis;
+        }
+
+        String name() {
+            return name;
+        }
+
+        long position() {
+            return position;
+        }
+
+        int length() {
+            return length;
+        }
+
+        long crc() {
+            return crc;
+        }
+
+        long expirationMillis() {
+            return expirationMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Entry entry = (Entry) o;
+            return position == entry.position &&
+                    length == entry.length &&
+                    crc == entry.crc &&
+                    expirationMillis == entry.expirationMillis &&
+                    name.equals(entry.name);
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = name.hashCode();
+            ret = 31 * ret + Long.hashCode(position);
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", position=" + position +
+                    ", length=" + length +
+                    ", crc=" + crc +
+                    ", expirationMillis=" + expirationMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * Get the position of the index in a segment from the trailer of the segment.
+     *
+     * @param channel the channel of the segment
+     * @return the position of the index, or -1 if the segment has no index
+     * @throws IOException if an I/O error occurs
+     */
+    static long indexPosition(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < TRAILER_LENGTH) {
+            return -1;
+        }
+
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        readFullyOrFail(channel, trailer, size - TRAILER_LENGTH);
+        final long indexPosition = trailer.getLong(0);
+        if (trailer.getInt(Long.BYTES) != MAGIC || indexPosition < 0 || indexPosition > size - TRAILER_LENGTH) {
+            return -1;
+        }
+        return indexPosition;
+    }
+
+    /**
+     * Read the index of a segment.
+     *
+     * @param channel the channel of the segment
+     * @return the index read, or null if the segment has no index
+     * @throws IOException            if an I/O error occurs
+     * @throws InvalidFilterException if the index is corrupted
+     */
+    @Nullable
+    static SegmentIndex readFrom(FileChannel channel) throws IOException {
+        final long indexPosition = indexPosition(channel);
+        if (indexPosition < 0) {
+            return null;
+        }
+
+        final long indexLength = channel.size() - TRAILER_LENGTH - indexPosition;
+        if (indexLength < Integer.BYTES + CRC_LENGTH || indexLength > Integer.MAX_VALUE) {
+            throw new InvalidFilterException("invalid segment index length: " + indexLength + "B");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) indexLength);
+        readFullyOrFail(channel, buffer, indexPosition);
+        buffer.flip();
+        final long expectCrc = buffer.getInt(buffer.limit() - CRC_LENGTH) & 0xffffffffL;
+        final long actualCrc = Crc32C.compute(buffer, 0, buffer.limit() - CRC_LENGTH);
+        if (expectCrc != actualCrc) {
+            throw new InvalidFilterException("got unmatched crc when read segment index at position: " +
+                    indexPosition + ". expect: " + expectCrc + ", actual: " + actualCrc);
+        }
+
+        try {
+            final int count = buffer.getInt();
+            final List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final byte[] nameInBytes = new byte[buffer.getInt()];
+                buffer.get(nameInBytes);
+                entries.add(new Entry(new String(nameInBytes, StandardCharsets.UTF_8), buffer.getLong(),
+                        buffer.getInt(), buffer.getInt() & 0xffffffffL, buffer.getLong()));
+            }
+            return new SegmentIndex(indexPosition, entries);
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new InvalidFilterException("invalid segment index at position: " + indexPosition, ex);
+        }
+    }
+
+    /**
+     * Write an index at the current position of a segment, after all the records of the segment.
+     *
+     * @param channel the channel of the segment
+     * @param entries the entries of all the records in the segment
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeTo(FileChannel channel, List<Entry> entries) throws IOException {
+        final long indexPosition = channel.position();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            final byte[] nameInBytes = entry.name().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(nameInBytes.length);
+            out.write(nameInBytes);
+            out.writeLong(entry.position());
+            out.writeInt(entry.length());
+            out.writeInt((int) entry.crc());
+            out.writeLong(entry.expirationMillis());
+        }
+        final byte[] body = bytes.toByteArray();
+        out.writeInt((int) Crc32C.compute(body, 0, body.length));
+        out.writeLong(indexPosition);
+        out.writeInt(MAGIC);
+        out.flush();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private final long indexPosition;
+    private final List<Entry> entries;
+
+    SegmentIndex(long indexPosition, List<Entry> entries) {
+        this.indexPosition = indexPosition;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Get the position of this index in the segment, which is also the end of the records in the segment.
+     *
+     * @return the position of this index
+     */
+    long indexPosition() {
+        return indexPosition;
+    }
+
+    List<Entry> entries() {
+        return entries;
+    }
+}
@@ -0,0 +1,218 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Crc32C;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The manifest of a segmented snapshot. A snapshot is made of several segment files, each is a sequence
+ * of {@link FilterRecord}s, and the manifest tells where the record of every persisted filter is. An unchanged
+ * filter is carried over to the next snapshot by its entry in the manifest without rewriting its record.
+ * <p>
+ * The schema is:
+ * Magic: Int32
+ * EntryCount: Int32
+ * Entries: EntryCount * Entry
+ * CRC: Uint32, of all the bytes above
+ * <p>
+ * The schema of an Entry is:
+ * NameLength: Int32
+ * Name: Bytes
+ * SegmentId: Int64
+ * Position: Int64, the position of the record in the segment
+ * Length: Int32, the length of the record
+ * ExpirationMillis: Int64, the {@link BloomFilter#expirationMillis()} of the filter when it was persisted, or
+ * when it was carried over to the latest snapshot. The expiration of a filter which is only read moves forward
+ * without changing the filter, so it's updated here instead of writing the filter again, and the filter recovered
+ * is extended to it
+ * LogSequence: Int64, the last sequence of the {@link WriteAheadLog} when the filter was persisted. All the
+ * operations logged with a sequence no greater than it are already in the persisted filter
+ */
+final class SnapshotManifest {
+    private static final int MAGIC = 0x464D4E31;
+    private static final int CRC_LENGTH = 4;
+
+    static final class Entry {
+        private final String name;
+        private final long segmentId;
+        private final long position;
+        private final int length;
+        private final long expirationMillis;
+        private final long logSequence;
+
+        Entry(String name, long segmentId, long position, int length, long expirationMillis, long logSequence) {
+            this.name = name;
+            this.segmentId = segmentId;
+            this.position = position;
+            this.length = length;
+            this.expirationMillis = expirationMillis;
+            this.logSequence = logSequence;
+        }
+
+        String name() {
+            return name;
+        }
+
+        long segmentId() {
+            return segmentId;
+        }
+
+        long position() {
+            return position;
+        }
+
+        int length() {
+            return length;
+        }
+
+        long expirationMillis() {
+            return expirationMillis;
+        }
+
+        long logSequence() {
+            return logSequence;
+        }
+
+        Entry withExpirationMillis(long expirationMillis) {
+            return new Entry(name, segmentId, position, length, expirationMillis, logSequence);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Entry entry = (Entry) o;
+            return segmentId == entry.segmentId &&
+                    position == entry.position &&
+                    length == entry.length &&
+                    expirationMillis == entry.expirationMillis &&
+                    logSequence == entry.logSequence &&
+                    name.equals(entry.name);
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = name.hashCode();
+            ret = 31 * ret + Long.hashCode(segmentId);
+            ret = 31 * ret + Long.hashCode(position);
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", segmentId=" + segmentId +
+                    ", position=" + position +
+                    ", length=" + length +
+                    ", expirationMillis=" + expirationMillis +
+                    ", logSequence=" + logSequence +
+                    '}';
+        }
+    }
+
+    static final SnapshotManifest EMPTY = new SnapshotManifest(Collections.emptyMap());
+
+    /**
+     * Read a manifest from a file.
+     *
+     * @param path the path of the manifest file
+     * @return the manifest read
+     * @throws IOException             if an I/O error occurs
+     * @throws InvalidFilterException if the manifest file is corrupted
+     */
+    static SnapshotManifest readFrom(Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 2 * Integer.BYTES + CRC_LENGTH) {
+            throw new InvalidFilterException("manifest file: " + path + " is too short: " + buffer.remaining() + "B");
+        }
+
+        final long expectCrc = buffer.getInt(buffer.limit() - CRC_LENGTH) & 0xffffffffL;
+        final long actualCrc = Crc32C.compute(buffer, 0, buffer.limit() - CRC_LENGTH);
+        if (expectCrc != actualCrc) {
+            throw new InvalidFilterException("got unmatched crc when read manifest file: " + path +
+                    ". expect: " + expectCrc + ", actual: " + actualCrc);
+        }
+
+        final int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new InvalidFilterException("read unknown Magic: " + magic + " from manifest file: " + path);
+        }
+
+        try {
+            final int count = buffer.getInt();
+            final Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final byte[] nameInBytes = new byte[buffer.getInt()];
+                buffer.get(nameInBytes);
+                final String name = new String(nameInBytes, StandardCharsets.UTF_8);
+                entries.put(name, new Entry(name, buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getLong(),
+                        buffer.getLong()));
+            }
+            return new SnapshotManifest(entries);
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new InvalidFilterException("invalid manifest file: " + path, ex);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    SnapshotManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Write this manifest to a file. The file is replaced atomically, so a crash during the write leaves
+     * the previous manifest untouched.
+     *
+     * @param path     the path of the manifest file
+     * @param tempPath the path of the temporary file to write to before replacing the manifest file
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(Path path, Path tempPath) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            final byte[] nameInBytes = entry.name().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(nameInBytes.length);
+            out.write(nameInBytes);
+            out.writeLong(entry.segmentId());
+            out.writeLong(entry.position());
+            out.writeInt(entry.length());
+            out.writeLong(entry.expirationMillis());
+            out.writeLong(entry.logSequence());
+        }
+        final byte[] body = bytes.toByteArray();
+        out.writeInt((int) Crc32C.compute(body, 0, body.length));
+        out.flush();
+
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        FilterServiceFileUtils.atomicMoveWithFallback(tempPath, path);
+    }
+}
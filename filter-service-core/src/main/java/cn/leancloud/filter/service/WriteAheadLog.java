@@ -0,0 +1,809 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.ChecksumedBufferedOutputStream;
+import cn.leancloud.filter.service.utils.Crc32C;
+import com.google.common.hash.HashCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * An append-only log of the operations which change the filters, so the operations done after the last snapshot
+ * can be replayed on top of it after a crash.
+ * <p>
+ * Every operation is tagged with an increasing sequence and queued, then a flusher thread writes all the queued
+ * operations in a batch and flushes them to disk according to the {@link SyncPolicy}, so the cost of a flush is
+ * shared by all the operations in the batch. The future returned on logging an operation is completed after the
+ * batch it's in is written, and the requests wait on it to be responded, except with {@link SyncPolicy#NEVER}.
+ * The queue is bounded, so when the disk can not keep up, logging an operation blocks until the flusher catches
+ * up rather than piling up the operations in memory.
+ * <p>
+ * A created filter is logged by the parameters it was created with rather than its content. It's rebuilt empty
+ * on replay, then the operations logged after it are replayed on it. The log is rolled to a new file before a
+ * snapshot is taken, and the files before it are deleted after the snapshot is committed.
+ * <p>
+ * Operations on the same filter which race with its creation or its snapshot may be replayed even if they are
+ * already in the recovered filter. It's harmless to set a value twice in a Bloom filter, but a counting or a
+ * cuckoo filter may count such a value twice.
+ * <p>
+ * Every log file starts with a Magic: Int32, followed by entries whose schema is:
+ * BodyLength: Int32
+ * CRC: Uint32, of the body
+ * Body: Bytes
+ * <p>
+ * The schema of the body is:
+ * LogSequence: Int64
+ * Operation: Byte
+ * NameLength: Int32
+ * Name: Bytes
+ * then for a {@link Operation#CREATE}, the {@link ExpirableBloomFilterConfig} the filter was created with:
+ * FilterMagic: Byte, the magic of the {@link BloomFilterType} configured
+ * ExpectedInsertions: Int32
+ * Fpp: Double
+ * ExpirationMillis: Int64, the expiration of the created filter
+ * ValidPeriodAfterCreateMillis: Int64
+ * ValidPeriodAfterAccessMillis: Int64, 0 when not configured
+ * Flags: Byte, {@link #OFF_HEAP_FLAG} and {@link #SCALABLE_FLAG}
+ * RotationPeriodMillis: Int64, 0 when not configured
+ * Generations: Int32
+ * ValueCount: Int32, -1 when no values are configured
+ * Values: ValueCount * (ValueLength: Int32, Value: Bytes)
+ * for a {@link Operation#SET} or a {@link Operation#REMOVE}:
+ * ValueType: Byte
+ * ValueCount: Int32
+ * Values: ValueCount * (ValueLength: Int32, Value: Bytes)
+ * and nothing more for a {@link Operation#DELETE}.
+ */
+public final class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final int MAGIC = 0x57414C31;
+    private static final String LOG_FILE_PREFIX = "wal-";
+    private static final String LOG_FILE_SUFFIX = ".log";
+    private static final int ENTRY_HEADER_LENGTH = 8;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int MAX_PENDING_ENTRIES = 64 * MAX_BATCH_SIZE;
+    private static final int SMALL_ENTRY_BUFFER_SIZE = 512;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final byte OFF_HEAP_FLAG = 0x01;
+    private static final byte SCALABLE_FLAG = 0x02;
+
+    /**
+     * When to flush the written operations to disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * Flush after every batch of operations written. An operation is acknowledged after it's flushed,
+         * so no acknowledged operation is lost even if the machine crashes.
+         */
+        ALWAYS("always"),
+        /**
+         * Flush at most once in every configured interval. An operation is acknowledged after it's written,
+         * so no acknowledged operation is lost if the service crashes, but the operations acknowledged in the
+         * last interval can be lost if the machine crashes.
+         */
+        INTERVAL("interval"),
+        /**
+         * Never flush explicitly, leave it to the operating system. This is the only policy with which an
+         * operation is acknowledged before it's written, so the operations acknowledged but still queued are
+         * lost if the service crashes.
+         */
+        NEVER("never");
+
+        private final String policyName;
+
+        SyncPolicy(String policyName) {
+            this.policyName = policyName;
+        }
+
+        /**
+         * Get the {@code SyncPolicy} with the input name, ignoring case.
+         *
+         * @param policyName the name of the policy
+         * @return the {@code SyncPolicy} with the input name, or null when no policy has the input name
+         */
+        @Nullable
+        public static SyncPolicy fromPolicyName(@Nullable String policyName) {
+            for (SyncPolicy policy : values()) {
+                if (policy.policyName.equalsIgnoreCase(policyName)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+
+        public String policyName() {
+            return policyName;
+        }
+    }
+
+    enum Operation {
+        CREATE((byte) 1),
+        SET((byte) 2),
+        REMOVE((byte) 3),
+        DELETE((byte) 4);
+
+        private final byte code;
+
+        Operation(byte code) {
+            this.code = code;
+        }
+
+        @Nullable
+        static Operation fromCode(byte code) {
+            for (Operation operation : values()) {
+                if (operation.code == code) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+    }
+
+    enum ValueType {
+        STRING((byte) 1),
+        BYTES((byte) 2),
+        HASH((byte) 3);
+
+        private final byte code;
+
+        ValueType(byte code) {
+            this.code = code;
+        }
+
+        @Nullable
+        static ValueType fromCode(byte code) {
+            for (ValueType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private interface BodyWriter {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private static final class PendingEntry {
+        private final long logSequence;
+        private final Operation operation;
+        private final String name;
+        private final BodyWriter bodyWriter;
+        private final CompletableFuture<Void> written;
+
+        PendingEntry(long logSequence, Operation operation, String name, BodyWriter bodyWriter) {
+            this.logSequence = logSequence;
+            this.operation = operation;
+            this.name = name;
+            this.bodyWriter = bodyWriter;
+            this.written = new CompletableFuture<>();
+        }
+    }
+
+    private final Path directory;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final BlockingQueue<PendingEntry> queue;
+    private final AtomicLong lastLogSequence;
+    private final Counter writtenEntries;
+    private final DistributionSummary batchSize;
+    private final Timer syncLatency;
+    private final Thread flusher;
+    // guards the current log file, which is written by the flusher and rolled by the persistent job
+    private final Object fileLock;
+    @Nullable
+    private FileChannel channel;
+    private long currentFileId;
+    private long lastSyncNanos;
+    private boolean unsynced;
+    // set while holding the lock of the queue, after which no entry can be added
+    private volatile boolean closed;
+
+    WriteAheadLog(Path directory, SyncPolicy syncPolicy, long syncIntervalMillis, MeterRegistry registry)
+            throws IOException {
+        this(directory, syncPolicy, syncIntervalMillis, registry, MAX_PENDING_ENTRIES);
+    }
+
+    WriteAheadLog(Path directory,
+                  SyncPolicy syncPolicy,
+                  long syncIntervalMillis,
+                  MeterRegistry registry,
+                  int maxPendingEntries)
+            throws IOException {
+        final File dir = directory.toFile();
+        if (dir.exists() && !dir.isDirectory()) {
+            throw new IllegalStateException("invalid write-ahead log directory path, it's a regular file: " +
+                    directory);
+        }
+
+        FileUtils.forceMkdir(dir);
+        this.directory = directory;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.queue = new LinkedBlockingQueue<>(maxPendingEntries);
+        this.lastLogSequence = new AtomicLong();
+        this.writtenEntries = registry.counter(Configuration.metricsPrefix() + ".writeAheadLog.entries");
+        this.batchSize = registry.summary(Configuration.metricsPrefix() + ".writeAheadLog.batchSize");
+        this.syncLatency = registry.timer(Configuration.metricsPrefix() + ".writeAheadLog.syncLatency");
+        this.flusher = new Thread(this::flushLoop, "filter-service-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.fileLock = new Object();
+    }
+
+    /**
+     * Replay all the operations in the log files, except those already persisted. Must be called before
+     * {@link #start(long)}, and the operations replayed are not logged again.
+     *
+     * @param manager              the manager of the filters to replay the operations on
+     * @param factory              the factory to rebuild the created filters
+     * @param persistedLogSequence returns for a filter the sequence up to which all the operations on it
+     *                             are persisted
+     * @param <F>                  the type of the filters
+     * @return the number of operations replayed
+     * @throws IOException if an I/O error occurs on reading the log files
+     */
+    <F extends BloomFilter> int replay(BloomFilterManager<F, ?> manager,
+                                       BloomFilterFactory<? extends F, ExpirableBloomFilterConfig> factory,
+                                       ToLongFunction<String> persistedLogSequence) throws IOException {
+        int replayed = 0;
+        for (long fileId : listLogFileIds()) {
+            final Path path = logFilePath(fileId);
+            long remaining = Files.size(path);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (remaining < Integer.BYTES || in.readInt() != MAGIC) {
+                    logger.warn("Skip write-ahead log file: {} with unknown Magic.", path);
+                    continue;
+                }
+                remaining -= Integer.BYTES;
+
+                while (remaining >= ENTRY_HEADER_LENGTH) {
+                    final int bodyLength = in.readInt();
+                    final long expectCrc = in.readInt() & 0xffffffffL;
+                    remaining -= ENTRY_HEADER_LENGTH;
+                    if (bodyLength < 0 || bodyLength > remaining) {
+                        break;
+                    }
+
+                    final byte[] body = new byte[bodyLength];
+                    in.readFully(body);
+                    remaining -= bodyLength;
+                    final long actualCrc = Crc32C.compute(body, 0, bodyLength);
+                    if (expectCrc != actualCrc) {
+                        logger.warn("Got unmatched crc when read write-ahead log file: {}. expect: {}, actual: {}",
+                                path, expectCrc, actualCrc);
+                        break;
+                    }
+
+                    if (replayEntry(manager, factory, persistedLogSequence, path, body)) {
+                        ++replayed;
+                    }
+                }
+
+                if (remaining > 0) {
+                    // the tail is an entry which was being written when the service crashed
+                    logger.warn("Skip the last {}B of write-ahead log file: {} which can not be read.",
+                            remaining, path);
+                }
+            } catch (EOFException ex) {
+                logger.warn("Write-ahead log file: {} ended unexpectedly.", path);
+            }
+        }
+        logger.info("Replayed " + replayed + " operations from write-ahead log in: " + directory);
+        return replayed;
+    }
+
+    /**
+     * Start logging to a new log file.
+     *
+     * @param lastPersistedLogSequence the greatest sequence persisted in the snapshot, the sequences of the
+     *                                 newly logged operations are greater than it
+     * @throws IOException if an I/O error occurs on creating the new log file
+     */
+    void start(long lastPersistedLogSequence) throws IOException {
+        lastLogSequence.accumulateAndGet(lastPersistedLogSequence, Math::max);
+        synchronized (fileLock) {
+            openLogFile(listLogFileIds().stream().max(Comparator.naturalOrder()).orElse(-1L) + 1);
+        }
+        lastSyncNanos = System.nanoTime();
+        flusher.start();
+    }
+
+    /**
+     * Get the sequence of the last logged operation. All the operations with a sequence no greater than it
+     * were applied to the filters before this method returns.
+     *
+     * @return the sequence of the last logged operation
+     */
+    long lastLogSequence() {
+        return lastLogSequence.get();
+    }
+
+    SyncPolicy syncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Log the creation of a filter. Only the config of the filter is logged, so it's cheap to log no matter
+     * how large the filter is.
+     *
+     * @param name   the name of the created filter
+     * @param config the config the filter was created with
+     * @param filter the created filter
+     * @return a future completed when the operation is written
+     */
+    CompletableFuture<Void> logCreate(String name, ExpirableBloomFilterConfig config, BloomFilter filter) {
+        // take the expiration right now, it may be pushed off when the filter is accessed later
+        final long expirationMillis = filter.expirationMillis();
+        return append(Operation.CREATE, name, out -> writeConfig(out, config, expirationMillis));
+    }
+
+    CompletableFuture<Void> logValues(Operation operation, String name, ValueType type, List<byte[]> values) {
+        assert operation == Operation.SET || operation == Operation.REMOVE;
+        return append(operation, name, out -> {
+            out.writeByte(type.code);
+            out.writeInt(values.size());
+            for (byte[] value : values) {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        });
+    }
+
+    CompletableFuture<Void> logDelete(String name) {
+        return append(Operation.DELETE, name, out -> {});
+    }
+
+    /**
+     * Continue logging to a new log file. All the operations logged before this method are in the previous files.
+     *
+     * @return the id of the new log file
+     * @throws IOException if an I/O error occurs on switching the log file
+     */
+    long roll() throws IOException {
+        synchronized (fileLock) {
+            closeLogFile();
+            openLogFile(currentFileId + 1);
+            return currentFileId;
+        }
+    }
+
+    /**
+     * Delete the log files before the input one, after all the operations in them were persisted.
+     *
+     * @param fileId the id of the first log file to keep
+     * @throws IOException if an I/O error occurs on deleting the files
+     */
+    void deleteLogFilesBefore(long fileId) throws IOException {
+        for (long id : listLogFileIds()) {
+            if (id < fileId) {
+                Files.deleteIfExists(logFilePath(id));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (queue) {
+            closed = true;
+        }
+
+        if (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (fileLock) {
+            closeLogFile();
+        }
+    }
+
+    // Package private for testing
+    Path logFilePath(long fileId) {
+        return directory.resolve(String.format("%s%020d%s", LOG_FILE_PREFIX, fileId, LOG_FILE_SUFFIX));
+    }
+
+    // Package private for testing
+    List<Long> listLogFileIds() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                LOG_FILE_PREFIX + "*" + LOG_FILE_SUFFIX)) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(fileName.substring(LOG_FILE_PREFIX.length(),
+                            fileName.length() - LOG_FILE_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("Ignore unknown file: {} in write-ahead log directory.", path);
+                }
+            }
+        }
+        ids.sort(Comparator.naturalOrder());
+        return ids;
+    }
+
+    private CompletableFuture<Void> append(Operation operation, String name, BodyWriter writer) {
+        // take the sequence and enqueue atomically, so the entries are written in the order of their sequences.
+        // The flusher never takes the lock, so waiting for room while holding the lock can not block the flusher
+        synchronized (queue) {
+            if (closed) {
+                return failedFuture(new IllegalStateException("write-ahead log is closed"));
+            }
+            final PendingEntry entry = new PendingEntry(lastLogSequence.incrementAndGet(), operation, name, writer);
+            try {
+                queue.put(entry);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return failedFuture(ex);
+            }
+            return entry.written;
+        }
+    }
+
+    private static CompletableFuture<Void> failedFuture(Throwable cause) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    private void flushLoop() {
+        final List<PendingEntry> batch = new ArrayList<>();
+        final long pollNanos = syncPolicy == SyncPolicy.INTERVAL ? syncIntervalNanos : IDLE_POLL_NANOS;
+        while (true) {
+            final PendingEntry first;
+            try {
+                first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                logger.warn("Write-ahead log flusher was interrupted, stop flushing.");
+                return;
+            }
+
+            if (first == null) {
+                // no lock here, a producer may hold it while waiting for the flusher to make room in the queue
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                syncIfDue();
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingEntry> batch) {
+        final List<PendingEntry> writtenBatch = new ArrayList<>(batch.size());
+        synchronized (fileLock) {
+            try {
+                assert channel != null;
+                for (PendingEntry entry : batch) {
+                    final long position = channel.position();
+                    try {
+                        writeEntry(channel, entry);
+                    } catch (IOException | RuntimeException ex) {
+                        // drop the partially written entry
+                        channel.truncate(position);
+                        channel.position(position);
+                        logger.error("Failed to write {} entry of filter: {} to write-ahead log.",
+                                entry.operation, entry.name, ex);
+                        entry.written.completeExceptionally(ex);
+                        continue;
+                    }
+                    writtenBatch.add(entry);
+                }
+
+                unsynced = true;
+                if (syncPolicy == SyncPolicy.ALWAYS ||
+                        (syncPolicy == SyncPolicy.INTERVAL && System.nanoTime() - lastSyncNanos >= syncIntervalNanos)) {
+                    sync();
+                }
+            } catch (IOException | RuntimeException ex) {
+                logger.error("Failed to write {} entries to write-ahead log.", batch.size(), ex);
+                for (PendingEntry entry : batch) {
+                    entry.written.completeExceptionally(ex);
+                }
+                return;
+            }
+        }
+
+        writtenEntries.increment(writtenBatch.size());
+        batchSize.record(writtenBatch.size());
+        for (PendingEntry entry : writtenBatch) {
+            entry.written.complete(null);
+        }
+    }
+
+    private void writeEntry(FileChannel channel, PendingEntry entry) throws IOException {
+        final long startPos = channel.position();
+        // write body first then we can know how large the body is
+        channel.position(startPos + ENTRY_HEADER_LENGTH);
+
+        // a created sealed filter may come with a lot of values, stream them to the file through a larger buffer
+        final ChecksumedBufferedOutputStream stream = new ChecksumedBufferedOutputStream(
+                Channels.newOutputStream(channel),
+                entry.operation == Operation.CREATE ? Configuration.channelBufferSizeForFilterPersistence() :
+                        SMALL_ENTRY_BUFFER_SIZE);
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeLong(entry.logSequence);
+        out.writeByte(entry.operation.code);
+        final byte[] nameInBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(nameInBytes.length);
+        out.write(nameInBytes);
+        entry.bodyWriter.writeTo(out);
+        out.flush();
+
+        final long endPos = channel.position();
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+        header.putInt(0, (int) (endPos - startPos - ENTRY_HEADER_LENGTH));
+        header.putInt(Integer.BYTES, (int) stream.checksum());
+        long pos = startPos;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+        }
+    }
+
+    private void syncIfDue() {
+        if (syncPolicy != SyncPolicy.INTERVAL) {
+            return;
+        }
+
+        synchronized (fileLock) {
+            if (unsynced && System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                try {
+                    sync();
+                } catch (IOException ex) {
+                    logger.error("Failed to flush write-ahead log.", ex);
+                }
+            }
+        }
+    }
+
+    private void sync() throws IOException {
+        assert Thread.holdsLock(fileLock);
+        assert channel != null;
+        final long start = System.nanoTime();
+        channel.force(false);
+        lastSyncNanos = System.nanoTime();
+        unsynced = false;
+        syncLatency.record(lastSyncNanos - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void openLogFile(long fileId) throws IOException {
+        assert Thread.holdsLock(fileLock);
+        final FileChannel newChannel = FileChannel.open(logFilePath(fileId), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).putInt(0, MAGIC);
+        while (magic.hasRemaining()) {
+            newChannel.write(magic);
+        }
+        channel = newChannel;
+        currentFileId = fileId;
+    }
+
+    private void closeLogFile() throws IOException {
+        assert Thread.holdsLock(fileLock);
+        if (channel != null) {
+            if (syncPolicy != SyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            channel.close();
+            channel = null;
+            unsynced = false;
+        }
+    }
+
+    private <F extends BloomFilter> boolean replayEntry(
+            BloomFilterManager<F, ?> manager,
+            BloomFilterFactory<? extends F, ExpirableBloomFilterConfig> factory,
+            ToLongFunction<String> persistedLogSequence,
+            Path path,
+            byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final long logSequence;
+        final Operation operation;
+        final String name;
+        try {
+            logSequence = buffer.getLong();
+            operation = Operation.fromCode(buffer.get());
+            final byte[] nameInBytes = new byte[buffer.getInt()];
+            buffer.get(nameInBytes);
+            name = new String(nameInBytes, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            logger.warn("Skip invalid entry in write-ahead log file: {}.", path);
+            return false;
+        }
+
+        lastLogSequence.accumulateAndGet(logSequence, Math::max);
+        if (operation == null) {
+            logger.warn("Skip entry with unknown operation in write-ahead log file: {}.", path);
+            return false;
+        }
+
+        if (logSequence <= persistedLogSequence.applyAsLong(name)) {
+            return false;
+        }
+
+        try {
+            switch (operation) {
+                case CREATE:
+                    final F filter = factory.createFilter(readConfig(buffer));
+                    manager.remove(name);
+                    manager.addFilters(
+                            Collections.<FilterRecord<? extends F>>singletonList(new FilterRecord<>(name, filter)));
+                    return true;
+                case SET:
+                case REMOVE:
+                    final F target = manager.getFilter(name);
+                    if (target == null) {
+                        // the filter was deleted or expired later
+                        return false;
+                    }
+                    replayValues(operation, target, buffer);
+                    return true;
+                case DELETE:
+                    manager.remove(name);
+                    return true;
+                default:
+                    throw new IllegalStateException("unknown operation: " + operation);
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException | PersistentStorageException ex) {
+            logger.warn("Skip invalid {} entry of filter: {} in write-ahead log file: {}.", operation, name, path);
+        } catch (UnsupportedOperationException | IllegalArgumentException | IllegalStateException |
+                UncheckedIOException | FilterFullException ex) {
+            logger.warn("Skip {} entry of filter: {} in write-ahead log file: {}, got error msg: \"{}\".",
+                    operation, name, path, ex.getMessage());
+        }
+        return false;
+    }
+
+    private static void writeConfig(DataOutputStream out, ExpirableBloomFilterConfig config, long expirationMillis)
+            throws IOException {
+        out.writeByte(config.type().magic());
+        out.writeInt(config.expectedInsertions());
+        out.writeDouble(config.fpp());
+        out.writeLong(expirationMillis);
+        out.writeLong(config.validPeriodAfterCreate().toMillis());
+        final Duration validPeriodAfterAccess = config.validPeriodAfterAccess();
+        out.writeLong(validPeriodAfterAccess == null ? 0 : validPeriodAfterAccess.toMillis());
+        out.writeByte((config.offHeap() ? OFF_HEAP_FLAG : 0) | (config.scalable() ? SCALABLE_FLAG : 0));
+        final Duration rotationPeriod = config.rotationPeriod();
+        out.writeLong(rotationPeriod == null ? 0 : rotationPeriod.toMillis());
+        out.writeInt(config.generations());
+        final Collection<String> values = config.values();
+        if (values == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(values.size());
+            for (String value : values) {
+                final byte[] valueInBytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(valueInBytes.length);
+                out.write(valueInBytes);
+            }
+        }
+    }
+
+    private static ExpirableBloomFilterConfig readConfig(ByteBuffer buffer) {
+        final BloomFilterType type = BloomFilterType.fromMagic(buffer.get());
+        if (type == null) {
+            throw new InvalidFilterException("unknown filter type");
+        }
+
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(buffer.getInt(), buffer.getDouble())
+                .setType(type);
+        final long expirationMillis = buffer.getLong();
+        config.setValidPeriodAfterCreate(Duration.ofMillis(buffer.getLong()));
+        final long validPeriodAfterAccessMillis = buffer.getLong();
+        if (validPeriodAfterAccessMillis > 0) {
+            config.setValidPeriodAfterAccess(Duration.ofMillis(validPeriodAfterAccessMillis));
+        }
+        final byte flags = buffer.get();
+        config.setOffHeap((flags & OFF_HEAP_FLAG) != 0);
+        config.setScalable((flags & SCALABLE_FLAG) != 0);
+        final long rotationPeriodMillis = buffer.getLong();
+        if (rotationPeriodMillis > 0) {
+            config.setRotationPeriod(Duration.ofMillis(rotationPeriodMillis));
+        }
+        config.setGenerations(buffer.getInt());
+        final int valueCount = buffer.getInt();
+        if (valueCount >= 0) {
+            final List<String> values = new ArrayList<>(valueCount);
+            for (int i = 0; i < valueCount; i++) {
+                final byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                values.add(new String(value, StandardCharsets.UTF_8));
+            }
+            config.setValues(values);
+        }
+
+        if (expirationMillis != Long.MIN_VALUE) {
+            // rebuild the filter with the same expiration as the created one
+            final ZonedDateTime expiration = ZonedDateTime.ofInstant(Instant.ofEpochMilli(expirationMillis),
+                    ZoneOffset.UTC);
+            final Duration validPeriodAfterAccess = config.validPeriodAfterAccess();
+            config.setCreation(expiration.minus(validPeriodAfterAccess != null ? validPeriodAfterAccess :
+                    config.validPeriodAfterCreate()));
+        }
+        return config;
+    }
+
+    private static void replayValues(Operation operation, BloomFilter filter, ByteBuffer buffer) {
+        final ValueType type = ValueType.fromCode(buffer.get());
+        if (type == null) {
+            throw new InvalidFilterException("unknown value type");
+        }
+
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            switch (type) {
+                case STRING:
+                    final String text = new String(value, StandardCharsets.UTF_8);
+                    if (operation == Operation.SET) {
+                        filter.set(text);
+                    } else {
+                        filter.remove(text);
+                    }
+                    break;
+                case BYTES:
+                    if (operation == Operation.SET) {
+                        filter.set(value);
+                    } else {
+                        filter.remove(value);
+                    }
+                    break;
+                case HASH:
+                    if (operation == Operation.SET) {
+                        filter.set(HashCode.fromBytes(value));
+                    } else {
+                        throw new UnsupportedOperationException("can not remove hashes");
+                    }
+                    break;
+            }
+        }
+    }
+}
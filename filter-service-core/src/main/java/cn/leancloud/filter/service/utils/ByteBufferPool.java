@@ -0,0 +1,63 @@
+package cn.leancloud.filter.service.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap {@link ByteBuffer}s, so the buffers used for a short while, like the ones to read a record,
+ * can be reused instead of being allocated every time. At most {@code maxPooledBuffers} idle buffers are kept,
+ * and a buffer too small for a request is dropped and replaced by a larger one.
+ */
+public final class ByteBufferPool {
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers;
+    private final AtomicInteger pooledBuffers;
+
+    public ByteBufferPool(int maxPooledBuffers) {
+        if (maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("maxPooledBuffers: " + maxPooledBuffers + " (expected: >= 0)");
+        }
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.buffers = new ConcurrentLinkedQueue<>();
+        this.pooledBuffers = new AtomicInteger();
+    }
+
+    /**
+     * Get a cleared buffer with at least {@code minCapacity} bytes from this pool, or allocate a new one
+     * if there's no such buffer in this pool. The buffer should be given back by {@link #release(ByteBuffer)}
+     * after use.
+     *
+     * @param minCapacity the minimum capacity of the returned buffer
+     * @return a cleared buffer with at least {@code minCapacity} bytes
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            if (buffer.capacity() >= minCapacity) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(minCapacity);
+    }
+
+    /**
+     * Give a buffer back to this pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer the buffer got from {@link #acquire(int)}
+     */
+    public void release(ByteBuffer buffer) {
+        if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffers.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    // Package private for testing
+    int pooledBuffers() {
+        return pooledBuffers.get();
+    }
+}
@@ -1,11 +1,78 @@
 package cn.leancloud.filter.service.utils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link Timer} used by the filters unless a test overrides it. After {@link #startTicking(Duration)}
+ * is called, it works as a coarse clock: a ticker thread caches the current time in a volatile field
+ * at the given resolution, so getting the current time, which happens on every access to a filter and
+ * on every validity check of a filter, is just a volatile read. Before the ticker is started or after it
+ * is stopped, the system clock is read on every call.
+ */
+public final class DefaultTimer implements Timer {
+    private static final long NOT_TICKING = Long.MIN_VALUE;
+
+    private volatile long cachedMillis = NOT_TICKING;
+    @Nullable
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Start a ticker thread which updates the cached current time every {@code resolution}. Does nothing
+     * if the ticker is already started.
+     *
+     * @param resolution the interval between two updates of the cached current time
+     */
+    public synchronized void startTicking(Duration resolution) {
+        if (ticker != null) {
+            return;
+        }
+
+        cachedMillis = System.currentTimeMillis();
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("filter-service-clock")
+                .setDaemon(true)
+                .build());
+        final long resolutionNanos = resolution.toNanos();
+        ticker.scheduleAtFixedRate(() -> cachedMillis = System.currentTimeMillis(),
+                resolutionNanos, resolutionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop the ticker thread and go back to read the system clock on every call.
+     */
+    public synchronized void stopTicking() {
+        if (ticker == null) {
+            return;
+        }
+
+        ticker.shutdownNow();
+        try {
+            // wait the running tick to finish, or it may override the reset below with a stale time
+            ticker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        ticker = null;
+        cachedMillis = NOT_TICKING;
+    }
 
-public final class DefaultTimer implements Timer{
     @Override
     public ZonedDateTime utcNow() {
-        return ZonedDateTime.now(ZoneOffset.UTC);
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(currentTimeMillis()), ZoneOffset.UTC);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        final long millis = cachedMillis;
+        return millis != NOT_TICKING ? millis : System.currentTimeMillis();
     }
 }
@@ -0,0 +1,119 @@
+package cn.leancloud.filter.service.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link InputStream} reading a range of a {@link FileChannel} through a heap buffer given by the caller.
+ * It reads the channel only by positional reads and never moves the position of the channel, so multiple
+ * streams can read the same channel concurrently. Closing this stream does not close the channel.
+ */
+public final class FileChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private final ByteBuffer buffer;
+    private long position;
+
+    /**
+     * Create a stream to read the bytes of {@code channel} from {@code position} (inclusive) to
+     * {@code position + length} (exclusive).
+     *
+     * @param channel  the channel to read
+     * @param position the position of the first byte to read
+     * @param length   the number of bytes to read
+     * @param buffer   the heap buffer to read through, it's used by this stream until it's no longer used
+     */
+    public FileChannelInputStream(FileChannel channel, long position, long length, ByteBuffer buffer) {
+        if (!buffer.hasArray() || buffer.capacity() == 0) {
+            throw new IllegalArgumentException("buffer: " + buffer + " (expected: a non-empty heap buffer)");
+        }
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+        this.buffer = buffer;
+        buffer.clear().limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity() && position < end) {
+                // read directly into the destination when the request is larger than the buffer
+                return readInto(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)));
+            }
+
+            if (!fill()) {
+                return -1;
+            }
+        }
+
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+
+        final long skipped = Math.min(n, available0());
+        final int skippedInBuffer = (int) Math.min(skipped, buffer.remaining());
+        buffer.position(buffer.position() + skippedInBuffer);
+        position += skipped - skippedInBuffer;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, available0());
+    }
+
+    private long available0() {
+        return buffer.remaining() + (end - position);
+    }
+
+    private boolean fill() throws IOException {
+        if (position >= end) {
+            return false;
+        }
+
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        readInto(buffer);
+        buffer.flip();
+        return true;
+    }
+
+    private int readInto(ByteBuffer destination) throws IOException {
+        final int expected = destination.remaining();
+        while (destination.hasRemaining()) {
+            final int read = channel.read(destination, position);
+            if (read < 0) {
+                throw new EOFException("reached end of file channel: " + channel + " at position: " + position +
+                        " before reading to position: " + end);
+            }
+            position += read;
+        }
+        return expected;
+    }
+}
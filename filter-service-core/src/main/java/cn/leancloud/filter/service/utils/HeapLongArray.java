@@ -0,0 +1,146 @@
+package cn.leancloud.filter.service.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link LongArray} stored on heap.
+ * <p>
+ * A point-in-time {@link Snapshot} of the array can be taken without stopping the updates. While a snapshot
+ * is open, the array is split into pages and every page is copied into the snapshot right before it's
+ * updated for the first time, so the snapshot keeps reading the values at the time it was taken. Only the
+ * pages updated during the snapshot are copied.
+ */
+public final class HeapLongArray implements LongArray {
+    // 1024 longs, namely 8 KiB, for each page
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final Snapshot[] NO_SNAPSHOTS = new Snapshot[0];
+
+    /**
+     * A point-in-time view of a {@link HeapLongArray}. It must be closed after use, otherwise the
+     * array keeps copying pages for it.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private final AtomicReferenceArray<long[]> copiedPages;
+
+        private Snapshot() {
+            this.copiedPages = new AtomicReferenceArray<>((array.length() + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+        }
+
+        /**
+         * Returns the length of the array.
+         *
+         * @return the length of the array
+         */
+        public int length() {
+            return array.length();
+        }
+
+        /**
+         * Gets the value at position {@code index} at the time this snapshot was taken.
+         *
+         * @param index the index
+         * @return the value at the time this snapshot was taken
+         */
+        public long get(int index) {
+            final long value = array.get(index);
+            // a page is always copied before it's updated, so if the value read above was updated after
+            // this snapshot was taken, the copied page is already there
+            final long[] page = copiedPages.get(index >>> PAGE_SHIFT);
+            if (page != null) {
+                return page[index & (PAGE_SIZE - 1)];
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            removeSnapshot(this);
+        }
+
+        private void copyPageIfAbsent(int pageIndex) {
+            if (copiedPages.get(pageIndex) == null) {
+                final int start = pageIndex << PAGE_SHIFT;
+                final long[] page = new long[Math.min(PAGE_SIZE, array.length() - start)];
+                for (int i = 0; i < page.length; i++) {
+                    page[i] = array.get(start + i);
+                }
+                // the first copy wins, it's taken before any update on this page after this snapshot was taken
+                copiedPages.compareAndSet(pageIndex, null, page);
+            }
+        }
+    }
+
+    private final AtomicLongArray array;
+    private volatile Snapshot[] snapshots;
+
+    public HeapLongArray(int length) {
+        this.array = new AtomicLongArray(length);
+        this.snapshots = NO_SNAPSHOTS;
+    }
+
+    @Override
+    public int length() {
+        return array.length();
+    }
+
+    @Override
+    public long get(int index) {
+        return array.get(index);
+    }
+
+    @Override
+    public boolean compareAndSet(int index, long expect, long update) {
+        final Snapshot[] snapshots = this.snapshots;
+        if (snapshots.length != 0 && expect != update) {
+            for (Snapshot snapshot : snapshots) {
+                snapshot.copyPageIfAbsent(index >>> PAGE_SHIFT);
+            }
+        }
+        return array.compareAndSet(index, expect, update);
+    }
+
+    /**
+     * Sets the element at position {@code index} to the given value without the guarantee
+     * that the new value is visible to other threads immediately. Used to fill the array
+     * before it is published.
+     *
+     * @param index    the index
+     * @param newValue the new value
+     */
+    public void lazySet(int index, long newValue) {
+        array.lazySet(index, newValue);
+    }
+
+    /**
+     * Take a point-in-time snapshot of this array. The updates done after this method returns are not
+     * seen by the snapshot. The updates done concurrently with this method may or may not be seen.
+     *
+     * @return the snapshot taken, which must be closed after use
+     */
+    public synchronized Snapshot snapshot() {
+        final Snapshot snapshot = new Snapshot();
+        final Snapshot[] newSnapshots = Arrays.copyOf(snapshots, snapshots.length + 1);
+        newSnapshots[snapshots.length] = snapshot;
+        snapshots = newSnapshots;
+        return snapshot;
+    }
+
+    // Package private for testing
+    int openSnapshots() {
+        return snapshots.length;
+    }
+
+    private synchronized void removeSnapshot(Snapshot snapshot) {
+        final Snapshot[] newSnapshots = new Snapshot[snapshots.length];
+        int size = 0;
+        for (Snapshot s : snapshots) {
+            if (s != snapshot) {
+                newSnapshots[size++] = s;
+            }
+        }
+        snapshots = size == 0 ? NO_SNAPSHOTS : Arrays.copyOf(newSnapshots, size);
+    }
+}
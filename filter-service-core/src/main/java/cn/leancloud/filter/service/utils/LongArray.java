@@ -0,0 +1,34 @@
+package cn.leancloud.filter.service.utils;
+
+/**
+ * A fixed length array of longs which can be updated atomically element by element.
+ * It's used to decouple the Bloom filters with where their bits are stored.
+ */
+public interface LongArray {
+    /**
+     * Returns the length of this array.
+     *
+     * @return the length of this array
+     */
+    int length();
+
+    /**
+     * Gets the current value at position {@code index}.
+     *
+     * @param index the index
+     * @return the current value
+     */
+    long get(int index);
+
+    /**
+     * Atomically sets the element at position {@code index} to the given
+     * updated value if the current value equals to the expected value.
+     *
+     * @param index  the index
+     * @param expect the expected value
+     * @param update the new value
+     * @return true if successful. False return indicates that the actual value
+     * was not equal to the expected value.
+     */
+    boolean compareAndSet(int index, long expect, long update);
+}
@@ -0,0 +1,118 @@
+package cn.leancloud.filter.service.utils;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link LongArray} stored in a memory mapped file. The values live in the page cache instead
+ * of the Java heap, and {@link #force()} is all we need to persist them to the backing file.
+ * <p>
+ * Java 8 do not provide atomic operations on a {@link MappedByteBuffer}, so updates are done under
+ * a lock striped by cache line, while reads are plain reads without any lock. That's enough for Bloom
+ * filters which tolerate a concurrent reader not seeing a value which is being updated.
+ */
+public final class MappedLongArray implements LongArray {
+    // 2^27 longs, namely 1 GiB, for each mapped segment because a MappedByteBuffer can not exceed 2 GiB
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int LOCK_STRIPES = 1024;
+
+    /**
+     * Create a new file on the given path and map it as a {@code MappedLongArray} with all the values being zero.
+     *
+     * @param path   the path of the file to create
+     * @param length the length of the array
+     * @return the created {@code MappedLongArray}
+     * @throws IOException if the file already exists or any I/O error occurs
+     */
+    public static MappedLongArray create(Path path, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new MappedLongArray(path, channel, length);
+        }
+    }
+
+    /**
+     * Map an existing file created by {@link #create(Path, int)} as a {@code MappedLongArray}.
+     *
+     * @param path   the path of the file to map
+     * @param length the expected length of the array
+     * @return the mapped {@code MappedLongArray}
+     * @throws IOException if the size of the file mismatch with the expected length or any I/O error occurs
+     */
+    public static MappedLongArray open(Path path, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() != (long) length * Long.BYTES) {
+                throw new IOException("unexpected size: " + channel.size() + " for mapped file: " + path +
+                        " (expected: " + (long) length * Long.BYTES + ")");
+            }
+            return new MappedLongArray(path, channel, length);
+        }
+    }
+
+    private final Path path;
+    private final int length;
+    private final MappedByteBuffer[] segments;
+    private final Object[] locks;
+
+    private MappedLongArray(Path path, FileChannel channel, int length) throws IOException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("length: " + length + " (expected: > 0)");
+        }
+        this.path = path;
+        this.length = length;
+        this.segments = new MappedByteBuffer[((length - 1) >>> SEGMENT_SHIFT) + 1];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = ((long) i << SEGMENT_SHIFT) * Long.BYTES;
+            final long size = Math.min((long) length * Long.BYTES - position, (long) (SEGMENT_MASK + 1) * Long.BYTES);
+            final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments[i] = segment;
+        }
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public long get(int index) {
+        return segments[index >>> SEGMENT_SHIFT].getLong((index & SEGMENT_MASK) << 3);
+    }
+
+    @Override
+    public boolean compareAndSet(int index, long expect, long update) {
+        final MappedByteBuffer segment = segments[index >>> SEGMENT_SHIFT];
+        final int offset = (index & SEGMENT_MASK) << 3;
+        // 8 longs share a cache line, so they share a lock too
+        synchronized (locks[(index >>> 3) & (LOCK_STRIPES - 1)]) {
+            if (segment.getLong(offset) != expect) {
+                return false;
+            }
+            segment.putLong(offset, update);
+            return true;
+        }
+    }
+
+    /**
+     * Forces all the changes made to this array to be written to the backing file.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+}
@@ -3,7 +3,17 @@ package cn.leancloud.filter.service.utils;
 import java.time.ZonedDateTime;
 
 public interface Timer {
-    Timer DEFAULT_TIMER = new DefaultTimer();
+    DefaultTimer DEFAULT_TIMER = new DefaultTimer();
 
     ZonedDateTime utcNow();
+
+    /**
+     * Get the current time in milliseconds since the epoch. Implementations should override it to get
+     * the time without creating a {@link ZonedDateTime}, because it's called on every access to a filter.
+     *
+     * @return the current time in milliseconds since the epoch
+     */
+    default long currentTimeMillis() {
+        return utcNow().toInstant().toEpochMilli();
+    }
 }
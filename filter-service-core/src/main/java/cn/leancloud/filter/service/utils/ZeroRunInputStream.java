@@ -0,0 +1,146 @@
+package cn.leancloud.filter.service.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static cn.leancloud.filter.service.utils.ZeroRunOutputStream.WORD_BYTES;
+
+/**
+ * An {@link InputStream} decoding the bytes encoded by {@link ZeroRunOutputStream}. It stops at the end of
+ * the encoded bytes, and the bytes after them in the underlying input stream are left unread.
+ */
+public final class ZeroRunInputStream extends InputStream {
+    private final InputStream in;
+    private long zeroBytes;
+    private long literalBytes;
+    private boolean lastBlock;
+
+    public ZeroRunInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        if (zeroBytes > 0) {
+            zeroBytes--;
+            return 0;
+        }
+
+        final int b = in.read();
+        if (b < 0) {
+            throw new EOFException("unexpected end of the encoded bytes");
+        }
+        literalBytes--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        if (zeroBytes > 0) {
+            final int n = (int) Math.min(len, zeroBytes);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            zeroBytes -= n;
+            return n;
+        }
+
+        final int n = in.read(b, off, (int) Math.min(len, literalBytes));
+        if (n < 0) {
+            throw new EOFException("unexpected end of the encoded bytes");
+        }
+        literalBytes -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && nextBlock()) {
+            if (zeroBytes > 0) {
+                final long s = Math.min(n - skipped, zeroBytes);
+                zeroBytes -= s;
+                skipped += s;
+            } else {
+                final long s = in.skip(Math.min(n - skipped, literalBytes));
+                if (s <= 0) {
+                    break;
+                }
+                literalBytes -= s;
+                skipped += s;
+            }
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (zeroBytes > 0) {
+            return (int) Math.min(zeroBytes, Integer.MAX_VALUE);
+        }
+        return (int) Math.min(literalBytes, in.available());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read the headers of the blocks until a block with bytes left is found.
+     *
+     * @return true if there are bytes left, false if the end of the encoded bytes is reached
+     */
+    private boolean nextBlock() throws IOException {
+        while (zeroBytes == 0 && literalBytes == 0) {
+            if (lastBlock) {
+                return false;
+            }
+
+            final long header = readVarint();
+            final long words = header >>> 1;
+            if ((header & 1) != 0) {
+                zeroBytes = words * WORD_BYTES;
+            } else if (words > 0) {
+                literalBytes = words * WORD_BYTES;
+            } else {
+                final int tail = in.read();
+                if (tail < 0 || tail >= WORD_BYTES) {
+                    throw new IOException("invalid tail length: " + tail);
+                }
+                literalBytes = tail;
+                lastBlock = true;
+            }
+        }
+        return true;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("unexpected end of the encoded bytes");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
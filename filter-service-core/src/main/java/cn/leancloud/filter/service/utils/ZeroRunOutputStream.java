@@ -0,0 +1,155 @@
+package cn.leancloud.filter.service.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} encoding the bytes written to it as 8 bytes words, in which a run of zero words is
+ * encoded by its length only. The bit arrays of the sparse filters are mostly zero words so they are encoded
+ * into far fewer bytes. The other words are written as they are in literal blocks, so a dense bit array costs
+ * only a few more bytes for the headers of the blocks. The encoded bytes can be decoded by
+ * {@link ZeroRunInputStream}.
+ * <p>
+ * The encoded bytes are a sequence of blocks, the schema of a block is:
+ * Header: unsigned varint, {@code (words << 1) | 1} for a run of zero words, or {@code words << 1} for
+ * a literal block followed by {@code words * 8} bytes of the words
+ * <p>
+ * A literal block with no words ends the blocks and is followed by:
+ * TailLength: Byte, the number of bytes written after the last word, from 0 to 7
+ * Tail: Bytes
+ * <p>
+ * {@link #finish()} must be called after all the bytes are written. Closing this stream finishes it as well.
+ */
+public final class ZeroRunOutputStream extends FilterOutputStream {
+    static final int WORD_BYTES = 8;
+    // 4 KiB for each literal block
+    private static final int MAX_LITERAL_WORDS = 512;
+
+    /**
+     * The words of the current literal block, followed by the bytes of the word not finished yet.
+     */
+    private final byte[] buf;
+    private int count;
+    private long zeroWords;
+    private boolean finished;
+
+    public ZeroRunOutputStream(OutputStream out) {
+        super(out);
+        this.buf = new byte[MAX_LITERAL_WORDS * WORD_BYTES];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureNotFinished();
+        buf[count++] = (byte) b;
+        if ((count & (WORD_BYTES - 1)) == 0) {
+            wordFinished();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureNotFinished();
+
+        while (len > 0) {
+            final int n = Math.min(len, WORD_BYTES - (count & (WORD_BYTES - 1)));
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if ((count & (WORD_BYTES - 1)) == 0) {
+                wordFinished();
+            }
+        }
+    }
+
+    /**
+     * Write all the pending blocks and the end of the blocks to the underlying output stream. No more bytes
+     * can be written after this method is called. The underlying output stream is not closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        final int tail = count & (WORD_BYTES - 1);
+        final int literalBytes = count - tail;
+        if (zeroWords > 0) {
+            writeZeroRun();
+        }
+        if (literalBytes > 0) {
+            writeLiteralBlock(literalBytes);
+        }
+        writeVarint(0);
+        out.write(tail);
+        out.write(buf, literalBytes, tail);
+        count = 0;
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+
+    private void wordFinished() throws IOException {
+        final int wordStart = count - WORD_BYTES;
+        if (isZeroWord(wordStart)) {
+            count = wordStart;
+            if (count > 0) {
+                writeLiteralBlock(count);
+                count = 0;
+            }
+            zeroWords++;
+        } else {
+            // the literal block is always written before a run of zero words starts, so the word finished
+            // is the only one in the buffer here if there's a run of zero words before it
+            if (zeroWords > 0) {
+                writeZeroRun();
+            }
+            if (count == buf.length) {
+                writeLiteralBlock(count);
+                count = 0;
+            }
+        }
+    }
+
+    private boolean isZeroWord(int wordStart) {
+        int bits = 0;
+        for (int i = wordStart; i < wordStart + WORD_BYTES; i++) {
+            bits |= buf[i];
+        }
+        return bits == 0;
+    }
+
+    private void writeZeroRun() throws IOException {
+        writeVarint((zeroWords << 1) | 1);
+        zeroWords = 0;
+    }
+
+    private void writeLiteralBlock(int bytes) throws IOException {
+        writeVarint((long) (bytes / WORD_BYTES) << 1);
+        out.write(buf, 0, bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private void ensureNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("stream finished");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static cn.leancloud.filter.service.TestingUtils.numberBytes;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BinaryFuseFilterTest {
+    private static final BinaryFuseFilterFactory testingFactory = new BinaryFuseFilterFactory();
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final BinaryFuseFilter filter = BinaryFuseFilter.build(
+                Arrays.asList("value1", "value2", "value2", "value3"),
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.SEALED);
+        assertThat(filter.supportRemove()).isFalse();
+        assertThat(filter.fpp()).isEqualTo(BinaryFuseFilter.FPP);
+        assertThat(filter.expectedInsertions()).isEqualTo(3);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.expired()).isFalse();
+    }
+
+    @Test
+    public void testCreateWithoutValues() {
+        assertThatThrownBy(() -> testingFactory.createFilter(
+                new ExpirableBloomFilterConfig().setType(BloomFilterType.SEALED)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("values are required");
+    }
+
+    @Test
+    public void testSetIsNotSupported() {
+        final BinaryFuseFilter filter = newFilter(Collections.singletonList("SomeValue"));
+        assertThatThrownBy(() -> filter.set("SomeValue"))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("is immutable");
+        assertThatThrownBy(() -> filter.remove("SomeValue"))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testSmallFilters() {
+        assertThat(newFilter(Collections.emptyList()).mightContain("SomeValue")).isFalse();
+        for (int size = 1; size < 100; size++) {
+            final List<String> values = numberStrings(0, size);
+            final BinaryFuseFilter filter = newFilter(values);
+            for (String value : values) {
+                assertThat(filter.mightContain(value)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testNoFalseNegative() {
+        final List<String> values = numberStrings(0, 1000000);
+        final BinaryFuseFilter filter = newFilter(values);
+        for (String value : values) {
+            assertThat(filter.mightContain(value)).isTrue();
+        }
+    }
+
+    @Test
+    public void testFalsePositiveProbabilityAndSize() {
+        final int size = 100000;
+        final BinaryFuseFilter filter = newFilter(numberStrings(0, size));
+        // about 9 bits per value
+        assertThat((double) filter.arrayLength() * Byte.SIZE / size).isLessThan(10);
+
+        int falsePositives = 0;
+        final int testingTimes = 1000000;
+        for (int i = size; i < size + testingTimes; i++) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / testingTimes).isLessThan(BinaryFuseFilter.FPP * 1.5);
+    }
+
+    @Test
+    public void testToJson() {
+        final BinaryFuseFilter filter = newFilter(numberStrings(0, 100));
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("sealed");
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(100);
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final List<String> values = numberStrings(0, 1000);
+        final BinaryFuseFilter expect = BinaryFuseFilter.build(values, creation, expiration, validPeriodAfterAccess);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final BinaryFuseFilter actualFilter = testingFactory.readFrom(in);
+
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        for (String value : values) {
+            assertThat(actualFilter.mightContain(value)).isTrue();
+        }
+    }
+
+    @Test
+    public void testReadFromOtherType() {
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThatThrownBy(() -> testingFactory.readFrom(BloomFilterType.GUAVA, in))
+                .isInstanceOf(InvalidFilterException.class)
+                .hasMessageContaining("unsupported filter type");
+    }
+
+    @Test
+    public void testHashcodeAndEquals() {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final BinaryFuseFilter filter = BinaryFuseFilter.build(numberStrings(0, 1000), creation, expiration, null);
+        final BinaryFuseFilter filter2 = BinaryFuseFilter.build(numberStrings(0, 1000), creation, expiration, null);
+
+        assertThat(filter).isEqualTo(filter);
+        // filters built from the same values may use different seeds
+        assertThat(filter).isNotEqualTo(filter2);
+        assertThat(filter).isNotEqualTo(null);
+    }
+
+    private static BinaryFuseFilter newFilter(List<String> values) {
+        return testingFactory.createFilter(new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.SEALED)
+                .setValues(values));
+    }
+
+    private static List<String> numberStrings(int from, int to) {
+        final List<String> values = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            values.add(numberString(i));
+        }
+        return values;
+    }
+
+    @Test
+    public void testBinaryValues() {
+        final BinaryFuseFilter filter = newFilter(numberStrings(0, 1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(filter.mightContain(numberBytes(i))).isTrue();
+            assertThat(filter.mightContain(ByteBuffer.wrap(numberBytes(i)))).isTrue();
+        }
+        assertThatThrownBy(() -> filter.set(numberBytes(0)))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("is immutable");
+    }
+
+    @Test
+    public void testHashes() {
+        final BinaryFuseFilter filter = newFilter(numberStrings(0, 1000));
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(filter.mightContain(numberHash(i, HashScheme.MURMUR3_64))).isTrue();
+            assertThat(filter.mightContain(numberHash(i, HashScheme.MURMUR3_128))).isTrue();
+        }
+        assertThatThrownBy(() -> filter.set(numberHash(0, HashScheme.MURMUR3_64)))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("is immutable");
+    }
+
+}
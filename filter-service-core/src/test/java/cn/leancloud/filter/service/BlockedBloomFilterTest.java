@@ -0,0 +1,318 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashCode;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.assertHashesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BlockedBloomFilterTest {
+    private static final BlockedBloomFilterFactory testingFactory = new BlockedBloomFilterFactory();
+    private static final ExpirableBloomFilterConfig defaultTestingConfig =
+            new ExpirableBloomFilterConfig().setType(BloomFilterType.BLOCKED);
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final int expectedInsertions = 1000000;
+        final double fpp = 0.0001;
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final BlockedBloomFilter filter = new BlockedBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(filter.fpp()).isEqualTo(fpp);
+        assertThat(filter.expectedInsertions()).isEqualTo(expectedInsertions);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.expired()).isFalse();
+        assertThat(filter.bitSize() % BlockedBloomFilter.BLOCK_BITS).isZero();
+    }
+
+    @Test
+    public void testMightContain() {
+        final String testingValue = "SomeValue";
+        final BlockedBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.mightContain(testingValue)).isFalse();
+        assertThat(filter.set(testingValue)).isTrue();
+        assertThat(filter.set(testingValue)).isFalse();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+    }
+
+    @Test
+    public void testNoFalseNegative() {
+        final BlockedBloomFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(10000, 0.01).setType(BloomFilterType.BLOCKED));
+        for (int i = 0; i < 10000; i++) {
+            filter.set(numberString(i));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testFalsePositiveProbability() {
+        final int expectedInsertions = 100000;
+        final double fpp = 0.001;
+        final BlockedBloomFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(expectedInsertions, fpp).setType(BloomFilterType.BLOCKED));
+        for (int i = 0; i < expectedInsertions; i++) {
+            filter.set(numberString(i));
+        }
+
+        int falsePositives = 0;
+        final int testingTimes = 1000000;
+        for (int i = expectedInsertions; i < expectedInsertions + testingTimes; i++) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / testingTimes).isLessThan(fpp * 1.5);
+    }
+
+    @Test
+    public void testBitsPerKeyNotLessThanClassicBloomFilter() {
+        for (double fpp : new double[]{0.1, 0.01, 0.001, 0.0001, 0.00001}) {
+            final double classicBitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+            final double bitsPerKey = BlockedBloomFilter.bitsPerKey(fpp);
+            assertThat(bitsPerKey).isGreaterThanOrEqualTo(classicBitsPerKey);
+            assertThat(BlockedBloomFilter.estimateFpp(bitsPerKey, BlockedBloomFilter.optimalNumOfHashFunctions(bitsPerKey)))
+                    .isLessThanOrEqualTo(fpp);
+        }
+    }
+
+    @Test
+    public void testTooLargeFilter() {
+        assertThatThrownBy(() -> BlockedBloomFilter.numLongs(Integer.MAX_VALUE, 1e-15))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Could not create blocked Bloom filter");
+    }
+
+    @Test
+    public void testExtendExpirationOnSet() {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(5);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(validPeriodAfterAccess);
+        final BlockedBloomFilter filter = new BlockedBloomFilter(
+                1000,
+                0.001,
+                creation,
+                expiration,
+                validPeriodAfterAccess,
+                timer);
+        timer.setNow(expiration);
+        assertThat(filter.expired()).isFalse();
+        filter.set("SomeValue");
+        timer.setNow(expiration.plus(Duration.ofSeconds(1)));
+        assertThat(filter.expired()).isFalse();
+    }
+
+    @Test
+    public void testToJson() throws Exception {
+        final BlockedBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("blocked");
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(filter.expectedInsertions());
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final int expectedInsertions = 100000;
+        final double fpp = 0.0001;
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final BlockedBloomFilter expect = new BlockedBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final BlockedBloomFilter actualFilter = testingFactory.readFrom(in);
+
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.numHashFunctions()).isEqualTo(expect.numHashFunctions());
+        assertThat(actualFilter.bitSize()).isEqualTo(expect.bitSize());
+        assertThat(actualFilter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(actualFilter.created().toEpochSecond()).isEqualTo(creation.toEpochSecond());
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testSerializePointInTimeImage() throws Exception {
+        final BlockedBloomFilter expect = testingFactory.createFilter(defaultTestingConfig);
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        // set more values into the filter while it's being serialized
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            private boolean updated;
+
+            @Override
+            public synchronized void write(int b) {
+                super.write(b);
+                updateOnce();
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                updateOnce();
+            }
+
+            private void updateOnce() {
+                if (!updated && size() > 1024) {
+                    updated = true;
+                    for (int i = 1000; i < 2000; i++) {
+                        expect.set(numberString(i));
+                    }
+                }
+            }
+        };
+        expect.writeTo(out);
+
+        final BlockedBloomFilter actualFilter = testingFactory.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+            assertThat(expect.mightContain(numberString(i + 1000))).isTrue();
+            if (actualFilter.mightContain(numberString(i + 1000))) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(10);
+    }
+
+    @Test
+    public void testOffHeapSerialization() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        try {
+            final MappedStorageDirectory directory = new MappedStorageDirectory(tempDirPath);
+            final BlockedBloomFilterFactory factory = new BlockedBloomFilterFactory(directory);
+            final BlockedBloomFilter expect = factory.createFilter(
+                    new ExpirableBloomFilterConfig(10000, 0.001).setType(BloomFilterType.BLOCKED).setOffHeap(true));
+            assertThat(expect.offHeap()).isTrue();
+            for (int i = 0; i < 1000; i++) {
+                expect.set(numberString(i));
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            expect.writeTo(out);
+            // only the reference to the mapped file is written
+            assertThat((long) out.size()).isLessThan(expect.bitSize() / Byte.SIZE);
+
+            final BlockedBloomFilter actualFilter = factory.readFrom(new ByteArrayInputStream(out.toByteArray()));
+            assertThat(actualFilter).isEqualTo(expect);
+            assertThat(actualFilter.offHeap()).isTrue();
+            for (int i = 0; i < 1000; i++) {
+                assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+            }
+
+            expect.release();
+            actualFilter.release();
+            assertThat(tempDirPath.toFile().list()).isEmpty();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testOffHeapNotEnabled() {
+        assertThatThrownBy(() -> testingFactory.createFilter(
+                new ExpirableBloomFilterConfig().setType(BloomFilterType.BLOCKED).setOffHeap(true)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("off-heap storage is not enabled");
+    }
+
+    @Test
+    public void testReadFromOtherType() {
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThatThrownBy(() -> testingFactory.readFrom(BloomFilterType.GUAVA, in))
+                .isInstanceOf(InvalidFilterException.class)
+                .hasMessageContaining("unsupported filter type");
+    }
+
+    @Test
+    public void testHashcodeAndEquals() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final BlockedBloomFilter filter = new BlockedBloomFilter(
+                1000,
+                0.001,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        final BlockedBloomFilter filter2 = new BlockedBloomFilter(
+                1000,
+                0.001,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        final BlockedBloomFilter filter3 = new BlockedBloomFilter(
+                1001,
+                0.001,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+
+        assertThat(filter.hashCode()).isEqualTo(filter2.hashCode());
+        assertThat(filter).isEqualTo(filter2);
+        assertThat(filter.hashCode()).isNotEqualTo(filter3.hashCode());
+        assertThat(filter).isNotEqualTo(filter3);
+    }
+
+    @Test
+    public void testBinaryValues() {
+        assertBinaryValuesSameAsStringValues(testingFactory.createFilter(defaultTestingConfig), 1000);
+    }
+
+    @Test
+    public void testHashes() {
+        final BlockedBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        assertHashesSameAsStringValues(filter, 1000);
+        assertThatThrownBy(() -> filter.mightContain(HashCode.fromInt(1)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("too short");
+    }
+
+}
@@ -1,23 +1,39 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.BloomFilterManager.CreateFilterResult;
+import cn.leancloud.filter.service.WriteAheadLog.SyncPolicy;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
 import com.linecorp.armeria.common.AggregatedHttpResponse;
 import com.linecorp.armeria.common.HttpStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -32,7 +48,7 @@ public class BloomFilterHttpServiceTest {
     @SuppressWarnings("unchecked")
     @Before
     public void setUp() {
-        mockedManager = Mockito.mock(BloomFilterManager.class);
+        mockedManager = newMockedManager();
         service = new BloomFilterHttpService(mockedManager);
     }
 
@@ -83,6 +99,207 @@ public class BloomFilterHttpServiceTest {
         assertThat(filter).isNotNull().isEqualTo(expectedFilter);
     }
 
+    @Test
+    public void testCreateBlockedFilter() throws Exception {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "blocked");
+        final ExpirableBloomFilterConfig expectConfig = new ExpirableBloomFilterConfig().setType(BloomFilterType.BLOCKED);
+        final GuavaBloomFilter expectedFilter = factory.createFilter(expectConfig);
+        final CreateFilterResult<GuavaBloomFilter> result = new CreateFilterResult<>(expectedFilter, true);
+
+        when(mockedManager.createFilter(testingFilterName, expectConfig)).thenReturn(result);
+
+        final AggregatedHttpResponse response = service.create(testingFilterName, request).aggregate().get();
+        assertThat(response.status().code()).isEqualTo(HttpStatus.CREATED.code());
+        verify(mockedManager).createFilter(testingFilterName, expectConfig);
+    }
+
+    @Test
+    public void testCreateFilterWithUnknownType() {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "unknown");
+        assertThatThrownBy(() -> service.create(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("unknown filter type");
+    }
+
+    @Test
+    public void testCreateScalableFilter() throws Exception {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "blocked");
+        request.put("scalable", true);
+        final ExpirableBloomFilterConfig expectConfig = new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.BLOCKED)
+                .setScalable(true);
+        final GuavaBloomFilter expectedFilter = factory.createFilter(expectConfig);
+        final CreateFilterResult<GuavaBloomFilter> result = new CreateFilterResult<>(expectedFilter, true);
+
+        when(mockedManager.createFilter(testingFilterName, expectConfig)).thenReturn(result);
+
+        final AggregatedHttpResponse response = service.create(testingFilterName, request).aggregate().get();
+        assertThat(response.status().code()).isEqualTo(HttpStatus.CREATED.code());
+        verify(mockedManager).createFilter(testingFilterName, expectConfig);
+    }
+
+    @Test
+    public void testCreateScalableFilterWithUnsupportedType() {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "cuckoo");
+        request.put("scalable", true);
+        assertThatThrownBy(() -> service.create(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("can not be scalable");
+
+        final ObjectNode scalableTypeRequest = mapper.createObjectNode();
+        scalableTypeRequest.put("type", "scalable");
+        assertThatThrownBy(() -> service.create(testingFilterName, scalableTypeRequest))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("to create scalable filters");
+    }
+
+    @Test
+    public void testBuildSealedFilter() throws Exception {
+        final ObjectNode request = mapper.createObjectNode();
+        final ArrayNode values = request.putArray("values");
+        values.add("testing-value1");
+        values.add("testing-value2");
+        values.add("testing-value2");
+        request.put("validPeriod", 1000);
+        request.put("overwrite", true);
+        final ExpirableBloomFilterConfig expectConfig = new ExpirableBloomFilterConfig(2, BinaryFuseFilter.FPP)
+                .setType(BloomFilterType.SEALED)
+                .setValues(new HashSet<>(Arrays.asList("testing-value1", "testing-value2")))
+                .setValidPeriodAfterCreate(Duration.ofSeconds(1000));
+        final GuavaBloomFilter expectedFilter = factory.createFilter(expectConfig);
+        final CreateFilterResult<GuavaBloomFilter> result = new CreateFilterResult<>(expectedFilter, true);
+
+        when(mockedManager.createFilter(testingFilterName, expectConfig, true)).thenReturn(result);
+
+        final AggregatedHttpResponse response = service.build(testingFilterName, request).aggregate().get();
+        assertThat(response.status().code()).isEqualTo(HttpStatus.CREATED.code());
+        verify(mockedManager).createFilter(testingFilterName, expectConfig, true);
+    }
+
+    @Test
+    public void testBuildSealedFilterWithInvalidValues() {
+        final ObjectNode request = mapper.createObjectNode();
+        assertThatThrownBy(() -> service.build(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("required parameter");
+
+        request.putArray("values");
+        assertThatThrownBy(() -> service.build(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("expect non-empty Json array");
+
+        request.putArray("values").add(12345);
+        assertThatThrownBy(() -> service.build(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("expect string type");
+
+        final ObjectNode sealedTypeRequest = mapper.createObjectNode();
+        sealedTypeRequest.put("type", "sealed");
+        assertThatThrownBy(() -> service.create(testingFilterName, sealedTypeRequest))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("use the build API");
+    }
+
+    @Test
+    public void testCheckAndSetOnSealedFilter() throws Exception {
+        final String testingValue = "testing-value";
+        final BloomFilterManager<BinaryFuseFilter, ExpirableBloomFilterConfig> manager = newSealedFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final BinaryFuseFilter testingFilter = new BinaryFuseFilterFactory().createFilter(
+                new ExpirableBloomFilterConfig()
+                        .setType(BloomFilterType.SEALED)
+                        .setValues(Collections.singletonList(testingValue)));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+
+        final ObjectNode param = mapper.createObjectNode();
+        param.put("value", testingValue);
+        assertThat(service.check(testingFilterName, param).asBoolean()).isTrue();
+        assertThatThrownBy(() -> service.checkAndSet(testingFilterName, param))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("is immutable");
+    }
+
+    @Test
+    public void testCreateRotatingFilter() throws Exception {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "blocked");
+        request.put("rotationPeriod", 3600);
+        request.put("generations", 24);
+        final ExpirableBloomFilterConfig expectConfig = new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.BLOCKED)
+                .setRotationPeriod(Duration.ofHours(1))
+                .setGenerations(24);
+        final GuavaBloomFilter expectedFilter = factory.createFilter(expectConfig);
+        final CreateFilterResult<GuavaBloomFilter> result = new CreateFilterResult<>(expectedFilter, true);
+
+        when(mockedManager.createFilter(testingFilterName, expectConfig)).thenReturn(result);
+
+        final AggregatedHttpResponse response = service.create(testingFilterName, request).aggregate().get();
+        assertThat(response.status().code()).isEqualTo(HttpStatus.CREATED.code());
+        verify(mockedManager).createFilter(testingFilterName, expectConfig);
+    }
+
+    @Test
+    public void testCreateRotatingFilterWithInvalidParameters() {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "cuckoo");
+        request.put("rotationPeriod", 3600);
+        assertThatThrownBy(() -> service.create(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("can not be rotated");
+
+        final ObjectNode scalableRequest = mapper.createObjectNode();
+        scalableRequest.put("scalable", true);
+        scalableRequest.put("rotationPeriod", 3600);
+        assertThatThrownBy(() -> service.create(testingFilterName, scalableRequest))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("scalable filters can not be rotated");
+
+        final ObjectNode generationsRequest = mapper.createObjectNode();
+        generationsRequest.put("rotationPeriod", 3600);
+        generationsRequest.put("generations", 1);
+        assertThatThrownBy(() -> service.create(testingFilterName, generationsRequest))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid parameter");
+
+        final ObjectNode rotatingTypeRequest = mapper.createObjectNode();
+        rotatingTypeRequest.put("type", "rotating");
+        assertThatThrownBy(() -> service.create(testingFilterName, rotatingTypeRequest))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("to create rotating filters");
+    }
+
+    @Test
+    public void testCreateOffHeapFilter() throws Exception {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("type", "blocked");
+        request.put("offHeap", true);
+        final ExpirableBloomFilterConfig expectConfig = new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.BLOCKED)
+                .setOffHeap(true);
+        final GuavaBloomFilter expectedFilter = factory.createFilter(expectConfig);
+        final CreateFilterResult<GuavaBloomFilter> result = new CreateFilterResult<>(expectedFilter, true);
+
+        when(mockedManager.createFilter(testingFilterName, expectConfig)).thenReturn(result);
+
+        final AggregatedHttpResponse response = service.create(testingFilterName, request).aggregate().get();
+        assertThat(response.status().code()).isEqualTo(HttpStatus.CREATED.code());
+        verify(mockedManager).createFilter(testingFilterName, expectConfig);
+    }
+
+    @Test
+    public void testCreateOffHeapFilterWithUnsupportedType() {
+        final ObjectNode request = mapper.createObjectNode();
+        request.put("offHeap", true);
+        assertThatThrownBy(() -> service.create(testingFilterName, request))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("filters can be stored off heap");
+    }
+
     @Test
     public void testGetFilterInfo() throws Exception {
         final GuavaBloomFilter expectedFilter = factory.createFilter(new ExpirableBloomFilterConfig());
@@ -129,12 +346,134 @@ public class BloomFilterHttpServiceTest {
         when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
         final ObjectNode param = mapper.createObjectNode();
         param.put("value", testingValue);
-        final JsonNode res = service.checkAndSet(testingFilterName, param);
+        final JsonNode res = service.checkAndSet(testingFilterName, param).join();
         assertThat(res.isBoolean()).isTrue();
         assertThat(res.asBoolean()).isFalse();
         assertThat(testingFilter.mightContain(testingValue)).isTrue();
     }
 
+    @Test
+    public void testLogValuesToWriteAheadLog() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        WriteAheadLog writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, new SimpleMeterRegistry());
+        try {
+            writeAheadLog.start(0);
+            final BloomFilterHttpService service = new BloomFilterHttpService(mockedManager, writeAheadLog);
+            when(mockedManager.ensureGetValidFilter(testingFilterName))
+                    .thenReturn(factory.createFilter(new ExpirableBloomFilterConfig()));
+            final ObjectNode param = mapper.createObjectNode();
+            param.put("value", "testing-value");
+            service.checkAndSet(testingFilterName, param).join();
+            final ObjectNode multiParam = mapper.createObjectNode();
+            multiParam.putArray("values").add("value1").add(1).add("value2");
+            service.multiCheckAndSet(testingFilterName, multiParam).join();
+            service.checkAndSetBytes(testingFilterName, new byte[]{1, 2, 3}).join();
+            writeAheadLog.close();
+
+            final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                    new BloomFilterManagerImpl<>(factory);
+            final GuavaBloomFilter filter = manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig()).getFilter();
+            writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, new SimpleMeterRegistry());
+            assertThat(writeAheadLog.replay(manager, factory, name -> 0L)).isEqualTo(3);
+            assertThat(filter.mightContain("testing-value")).isTrue();
+            assertThat(filter.mightContain("value1")).isTrue();
+            assertThat(filter.mightContain("value2")).isTrue();
+            assertThat(filter.mightContain(new byte[]{1, 2, 3})).isTrue();
+        } finally {
+            writeAheadLog.close();
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testRespondAfterValuesWritten() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        final WriteAheadLog writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100,
+                new SimpleMeterRegistry());
+        try {
+            final BloomFilterHttpService service = new BloomFilterHttpService(mockedManager, writeAheadLog);
+            when(mockedManager.ensureGetValidFilter(testingFilterName))
+                    .thenReturn(factory.createFilter(new ExpirableBloomFilterConfig()));
+            final ObjectNode param = mapper.createObjectNode();
+            param.put("value", "testing-value");
+            // nothing is written before the log is started
+            final CompletableFuture<JsonNode> res = service.checkAndSet(testingFilterName, param);
+            assertThat(res).isNotDone();
+
+            writeAheadLog.start(0);
+            assertThat(res.get(10, TimeUnit.SECONDS).asBoolean()).isFalse();
+        } finally {
+            writeAheadLog.close();
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testRespondBeforeValuesWrittenWithNeverSyncPolicy() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        final WriteAheadLog writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.NEVER, 100,
+                new SimpleMeterRegistry());
+        try {
+            final BloomFilterHttpService service = new BloomFilterHttpService(mockedManager, writeAheadLog);
+            when(mockedManager.ensureGetValidFilter(testingFilterName))
+                    .thenReturn(factory.createFilter(new ExpirableBloomFilterConfig()));
+            final ObjectNode param = mapper.createObjectNode();
+            param.put("value", "testing-value");
+            assertThat(service.checkAndSet(testingFilterName, param)).isCompleted();
+        } finally {
+            writeAheadLog.close();
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLogValuesSetBeforeFailure() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        WriteAheadLog writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, new SimpleMeterRegistry());
+        try {
+            writeAheadLog.start(0);
+            final BloomFilterManager<BloomFilter, ExpirableBloomFilterConfig> mockedManager = newMockedManager();
+            final BloomFilter fullFilter = Mockito.mock(BloomFilter.class);
+            when(fullFilter.set("value1")).thenReturn(true);
+            when(fullFilter.set("value2")).thenThrow(new FilterFullException("filter is full"));
+            when(fullFilter.set(ByteBuffer.wrap(new byte[]{1}))).thenReturn(true);
+            when(fullFilter.set(ByteBuffer.wrap(new byte[]{2}))).thenThrow(new FilterFullException("filter is full"));
+            when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(fullFilter);
+            final BloomFilterHttpService service = new BloomFilterHttpService(mockedManager, writeAheadLog);
+
+            final ObjectNode multiParam = mapper.createObjectNode();
+            multiParam.putArray("values").add("value1").add("value2").add("value3");
+            assertThatThrownBy(() -> service.multiCheckAndSet(testingFilterName, multiParam))
+                    .isInstanceOf(FilterFullException.class);
+            final ByteArrayOutputStream values = new ByteArrayOutputStream();
+            for (byte value = 1; value <= 3; value++) {
+                values.write(new byte[]{0, 0, 0, 1, value});
+            }
+            assertThatThrownBy(() -> service.multiCheckAndSetBytes(testingFilterName, values.toByteArray()))
+                    .isInstanceOf(FilterFullException.class);
+            writeAheadLog.close();
+
+            final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                    new BloomFilterManagerImpl<>(factory);
+            final GuavaBloomFilter filter = manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig()).getFilter();
+            writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, new SimpleMeterRegistry());
+            assertThat(writeAheadLog.replay(manager, factory, name -> 0L)).isEqualTo(2);
+            assertThat(filter.mightContain("value1")).isTrue();
+            assertThat(filter.mightContain("value2")).isFalse();
+            assertThat(filter.mightContain("value3")).isFalse();
+            assertThat(filter.mightContain(new byte[]{1})).isTrue();
+            assertThat(filter.mightContain(new byte[]{2})).isFalse();
+        } finally {
+            writeAheadLog.close();
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
     @Test
     public void testMultiSetValueIsNull() {
         final ObjectNode param = mapper.createObjectNode();
@@ -164,7 +503,7 @@ public class BloomFilterHttpServiceTest {
         testingValues.forEach(values::add);
         final ObjectNode param = mapper.createObjectNode();
         param.set("values", values);
-        final JsonNode res = service.multiCheckAndSet(testingFilterName, param);
+        final JsonNode res = service.multiCheckAndSet(testingFilterName, param).join();
         assertThat(res.isArray()).isTrue();
         for (final JsonNode mightContain : res) {
             assertThat(mightContain.isBoolean()).isTrue();
@@ -176,6 +515,147 @@ public class BloomFilterHttpServiceTest {
         }
     }
 
+    @Test
+    public void testRemoveValueIsNull() {
+        final ObjectNode param = mapper.createObjectNode();
+        assertThatThrownBy(() -> service.removeValue(testingFilterName, param))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("required parameter");
+    }
+
+    @Test
+    public void testRemoveFromFilterNotSupportRemove() throws Exception {
+        final GuavaBloomFilter testingFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+        when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        final ObjectNode param = mapper.createObjectNode();
+        param.put("value", "testing-value");
+        assertThatThrownBy(() -> service.removeValue(testingFilterName, param))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("do not support remove");
+
+        final ObjectNode multiParam = mapper.createObjectNode();
+        multiParam.set("values", mapper.createArrayNode());
+        assertThatThrownBy(() -> service.multiRemoveValues(testingFilterName, multiParam))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("do not support remove");
+    }
+
+    @Test
+    public void testRemoveValue() throws Exception {
+        final String testingValue = "testing-value";
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        testingFilter.set(testingValue);
+
+        final ObjectNode param = mapper.createObjectNode();
+        param.put("value", testingValue);
+        final JsonNode res = service.removeValue(testingFilterName, param).join();
+        assertThat(res.isBoolean()).isTrue();
+        assertThat(res.asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain(testingValue)).isFalse();
+        assertThat(service.removeValue(testingFilterName, param).join().asBoolean()).isFalse();
+    }
+
+    @Test
+    public void testMultiRemoveValues() throws Exception {
+        final List<String> testingValues = new ArrayList<>();
+        testingValues.add("testing-value1");
+        testingValues.add("testing-value2");
+        testingValues.add("testing-value3");
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        testingValues.forEach(testingFilter::set);
+
+        final ArrayNode values = mapper.createArrayNode();
+        testingValues.forEach(values::add);
+        values.add(12345);
+        final ObjectNode param = mapper.createObjectNode();
+        param.set("values", values);
+        final JsonNode res = service.multiRemoveValues(testingFilterName, param).join();
+        assertThat(res.isArray()).isTrue();
+        assertThat(res.size()).isEqualTo(testingValues.size() + 1);
+        for (int i = 0; i < testingValues.size(); i++) {
+            assertThat(res.get(i).asBoolean()).isTrue();
+            assertThat(testingFilter.mightContain(testingValues.get(i))).isFalse();
+        }
+        assertThat(res.get(testingValues.size()).asBoolean()).isFalse();
+    }
+
+    @Test
+    public void testCheckAndSetBytes() throws Exception {
+        final byte[] testingValue = "testing-value".getBytes(StandardCharsets.UTF_8);
+        final GuavaBloomFilter testingFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+        when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        assertThat(service.checkBytes(testingFilterName, testingValue).asBoolean()).isFalse();
+        assertThat(service.checkAndSetBytes(testingFilterName, testingValue).join().asBoolean()).isFalse();
+        assertThat(service.checkAndSetBytes(testingFilterName, testingValue).join().asBoolean()).isTrue();
+        assertThat(service.checkBytes(testingFilterName, testingValue).asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value")).isTrue();
+    }
+
+    @Test
+    public void testMultiCheckAndSetBytes() throws Exception {
+        final GuavaBloomFilter testingFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+        when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        testingFilter.set("testing-value1");
+        final byte[] body = binaryValues("testing-value1", "testing-value2", "", "testing-value2");
+
+        final JsonNode checkRes = service.multiCheckBytes(testingFilterName, body);
+        assertThat(checkRes.size()).isEqualTo(4);
+        assertThat(checkRes.get(0).asBoolean()).isTrue();
+        assertThat(checkRes.get(1).asBoolean()).isFalse();
+        assertThat(checkRes.get(2).asBoolean()).isFalse();
+        assertThat(checkRes.get(3).asBoolean()).isFalse();
+
+        final JsonNode setRes = service.multiCheckAndSetBytes(testingFilterName, body).join();
+        assertThat(setRes.size()).isEqualTo(4);
+        assertThat(setRes.get(0).asBoolean()).isTrue();
+        assertThat(setRes.get(1).asBoolean()).isFalse();
+        assertThat(setRes.get(2).asBoolean()).isFalse();
+        assertThat(setRes.get(3).asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value2")).isTrue();
+        assertThat(testingFilter.mightContain("")).isTrue();
+    }
+
+    @Test
+    public void testMultiCheckBytesWithInvalidBody() {
+        assertThatThrownBy(() -> service.multiCheckBytes(testingFilterName, new byte[]{0, 0, 1}))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("incomplete length");
+        assertThatThrownBy(() -> service.multiCheckBytes(testingFilterName, new byte[]{0, 0, 0, 2, 1}))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid length");
+        assertThatThrownBy(() -> service.multiCheckBytes(testingFilterName, new byte[]{-1, -1, -1, -1}))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid length");
+    }
+
+    @Test
+    public void testRemoveBytes() throws Exception {
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        testingFilter.set("testing-value1");
+        testingFilter.set("testing-value2");
+
+        assertThat(service.removeBytes(testingFilterName, "testing-value1".getBytes(StandardCharsets.UTF_8)).join()
+                .asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value1")).isFalse();
+
+        final JsonNode res = service.multiRemoveBytes(testingFilterName, binaryValues("testing-value1", "testing-value2")).join();
+        assertThat(res.get(0).asBoolean()).isFalse();
+        assertThat(res.get(1).asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value2")).isFalse();
+    }
+
     @Test
     public void testCheckValueIsNull() {
         final ObjectNode param = mapper.createObjectNode();
@@ -244,4 +724,148 @@ public class BloomFilterHttpServiceTest {
         assertThat(res.status()).isEqualTo(HttpStatus.OK);
         verify(mockedManager).remove(testingFilterName);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCheckAndSetHashes() throws Exception {
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        final String scheme = HashScheme.MURMUR3_128.schemeName();
+        final byte[] testingHash = hash("testing-value");
+        assertThat(service.getFilterInfo(testingFilterName).get("hashScheme").asText()).isEqualTo(scheme);
+        assertThat(service.checkHash(testingFilterName, scheme, testingHash).asBoolean()).isFalse();
+        assertThat(service.checkAndSetHash(testingFilterName, scheme, testingHash).join().asBoolean()).isFalse();
+        assertThat(service.checkAndSetHash(testingFilterName, scheme, testingHash).join().asBoolean()).isTrue();
+        assertThat(service.checkHash(testingFilterName, scheme, testingHash).asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value")).isTrue();
+
+        final byte[] body = hashes("testing-value", "testing-value2", "testing-value2");
+        final JsonNode checkRes = service.multiCheckHashes(testingFilterName, scheme, body);
+        assertThat(checkRes.size()).isEqualTo(3);
+        assertThat(checkRes.get(0).asBoolean()).isTrue();
+        assertThat(checkRes.get(1).asBoolean()).isFalse();
+        assertThat(checkRes.get(2).asBoolean()).isFalse();
+
+        final JsonNode setRes = service.multiCheckAndSetHashes(testingFilterName, scheme, body).join();
+        assertThat(setRes.size()).isEqualTo(3);
+        assertThat(setRes.get(0).asBoolean()).isTrue();
+        assertThat(setRes.get(1).asBoolean()).isFalse();
+        assertThat(setRes.get(2).asBoolean()).isTrue();
+        assertThat(testingFilter.mightContain("testing-value2")).isTrue();
+    }
+
+    @Test
+    public void testCheckHashesWithLongerScheme() throws Exception {
+        final BloomFilterManager<BlockedBloomFilter, ExpirableBloomFilterConfig> manager = newBlockedFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final BlockedBloomFilter testingFilter = new BlockedBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.BLOCKED));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        testingFilter.set("testing-value");
+
+        assertThat(service.checkHash(testingFilterName, HashScheme.MURMUR3_64.schemeName(),
+                Arrays.copyOf(hash("testing-value"), Long.BYTES)).asBoolean()).isTrue();
+        assertThat(service.checkHash(testingFilterName, HashScheme.MURMUR3_128.schemeName(),
+                hash("testing-value")).asBoolean()).isTrue();
+    }
+
+    @Test
+    public void testCheckHashesWithInvalidScheme() throws Exception {
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+
+        assertThatThrownBy(() -> service.checkHash(testingFilterName, "md5", hash("testing-value")))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("unknown hash scheme");
+        assertThatThrownBy(() -> service.checkHash(testingFilterName, HashScheme.MURMUR3_64.schemeName(),
+                Arrays.copyOf(hash("testing-value"), Long.BYTES)))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("can not be used by filter with hash scheme: murmur3_128");
+    }
+
+    @Test
+    public void testCheckHashesWithInvalidBody() throws Exception {
+        final BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> manager = newCountingFilterManager();
+        final BloomFilterHttpService service = new BloomFilterHttpService(manager);
+        final CountingBloomFilter testingFilter = new CountingBloomFilterFactory()
+                .createFilter(new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING));
+        when(manager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        final String scheme = HashScheme.MURMUR3_128.schemeName();
+
+        assertThatThrownBy(() -> service.checkAndSetHash(testingFilterName, scheme, new byte[8]))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid length: 8 of hash");
+        assertThatThrownBy(() -> service.multiCheckHashes(testingFilterName, scheme, new byte[24]))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid length: 24 of hashes");
+    }
+
+    @Test
+    public void testCheckHashesNotSupported() throws Exception {
+        final GuavaBloomFilter testingFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+        when(mockedManager.ensureGetValidFilter(testingFilterName)).thenReturn(testingFilter);
+        assertThatThrownBy(() -> service.multiCheckAndSetHashes(testingFilterName,
+                HashScheme.MURMUR3_128.schemeName(), hash("testing-value")))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("do not support hashes");
+    }
+
+    private static byte[] hash(String value) {
+        return Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asBytes();
+    }
+
+    private static byte[] hashes(String... values) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String value : values) {
+            final byte[] hash = hash(value);
+            out.write(hash, 0, hash.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] binaryValues(String... values) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String value : values) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.write(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array(), 0, Integer.BYTES);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BloomFilterManager<BinaryFuseFilter, ExpirableBloomFilterConfig> newSealedFilterManager() {
+        return newMockedManager();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BloomFilterManager<BlockedBloomFilter, ExpirableBloomFilterConfig> newBlockedFilterManager() {
+        return newMockedManager();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BloomFilterManager<CountingBloomFilter, ExpirableBloomFilterConfig> newCountingFilterManager() {
+        return newMockedManager();
+    }
+
+    /**
+     * Mock a manager which applies the updates on the filters returned by the mocked
+     * {@code ensureGetValidFilter}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <F extends BloomFilter> BloomFilterManager<F, ExpirableBloomFilterConfig> newMockedManager() {
+        final BloomFilterManager<F, ExpirableBloomFilterConfig> manager = Mockito.mock(BloomFilterManager.class);
+        try {
+            when(manager.update(any(), any())).thenAnswer(invocation ->
+                    invocation.<Function<F, ?>>getArgument(1).apply(manager.ensureGetValidFilter(invocation.getArgument(0))));
+        } catch (FilterNotFoundException ex) {
+            throw new AssertionError(ex);
+        }
+        return manager;
+    }
+}
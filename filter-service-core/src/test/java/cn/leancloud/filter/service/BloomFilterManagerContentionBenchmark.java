@@ -0,0 +1,81 @@
+package cn.leancloud.filter.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Measures create/remove throughput of {@link BloomFilterManagerImpl} when many threads work on
+ * different filter names at the same time. {@code globalLockCreateAndRemove} serializes the same
+ * operations through one shared lock, as the manager did before, to be used as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(value = 8)
+public class BloomFilterManagerContentionBenchmark {
+    private static final int NAMES = 1024;
+
+    private final Lock globalLock = new ReentrantLock();
+    private BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager;
+    private ExpirableBloomFilterConfig config;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        manager = new BloomFilterManagerImpl<>(new GuavaBloomFilterFactory());
+        config = new ExpirableBloomFilterConfig(10000, 0.01);
+        names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = "filter-" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean perNameCreateAndRemove() {
+        final String name = names[ThreadLocalRandom.current().nextInt(NAMES)];
+        final boolean created = manager.createFilter(name, config, true).isCreated();
+        manager.remove(name);
+        return created;
+    }
+
+    @Benchmark
+    public boolean globalLockCreateAndRemove() {
+        final String name = names[ThreadLocalRandom.current().nextInt(NAMES)];
+        final boolean created;
+        globalLock.lock();
+        try {
+            created = manager.createFilter(name, config, true).isCreated();
+        } finally {
+            globalLock.unlock();
+        }
+
+        globalLock.lock();
+        try {
+            manager.remove(name);
+        } finally {
+            globalLock.unlock();
+        }
+        return created;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(BloomFilterManagerContentionBenchmark.class.getSimpleName())
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(10))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(10))
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -1,16 +1,27 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.BloomFilterManager.CreateFilterResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -166,6 +177,176 @@ public class BloomFilterManagerImplTest {
         assertThat(manager.getAllFilterNames()).containsExactlyInAnyOrderElementsOf(expectFilterNames);
     }
 
+    @Test
+    public void testRejectTooLargeFilter() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(1000, 0.01);
+        final long filterBytes = factory.estimatedMemoryBytes(config);
+        final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(factory, filterBytes - 1, Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> manager.createFilter(testingFilterName, config))
+                .isInstanceOf(FilterTooLargeException.class)
+                .hasMessageContaining("exceeds the limit");
+        assertThat(manager.getFilter(testingFilterName)).isNull();
+        assertThat(manager.usedMemoryBytes()).isZero();
+    }
+
+    @Test
+    public void testRejectFilterExceedsMemoryBudget() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(1000, 0.01);
+        final long filterBytes = factory.estimatedMemoryBytes(config);
+        final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(factory, Long.MAX_VALUE, filterBytes * 2);
+
+        manager.createFilter(numberString(1), config);
+        manager.createFilter(numberString(2), config);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes * 2);
+        assertThatThrownBy(() -> manager.createFilter(numberString(3), config))
+                .isInstanceOf(MemoryBudgetExceededException.class)
+                .hasMessageContaining("exceeds the available memory budget");
+        assertThat(manager.getFilter(numberString(3))).isNull();
+
+        // getting an exists filter is not limited by the budget
+        assertThat(manager.createFilter(numberString(1), config).isCreated()).isFalse();
+
+        manager.remove(numberString(1));
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes);
+        assertThat(manager.createFilter(numberString(3), config).isCreated()).isTrue();
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes * 2);
+    }
+
+    @Test
+    public void testMemoryAccountingOnOverwriteAndAdd() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(1000, 0.01);
+        final long filterBytes = factory.estimatedMemoryBytes(config);
+        final BloomFilter filter = manager.createFilter(testingFilterName, config).getFilter();
+        assertThat(filter.estimatedMemoryBytes()).isEqualTo(filterBytes);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes);
+
+        manager.createFilter(testingFilterName, config, true);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes);
+
+        final GuavaBloomFilter addedFilter = factory.createFilter(config);
+        manager.addFilters(Arrays.asList(
+                new FilterRecord<>(testingFilterName, addedFilter),
+                new FilterRecord<>(numberString(1), addedFilter)));
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes * 2);
+
+        manager.remove(testingFilterName, addedFilter);
+        manager.remove(numberString(1));
+        assertThat(manager.usedMemoryBytes()).isZero();
+    }
+
+    @Test
+    public void testAccountMemoryWhenScalableFilterGrows() {
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(100, 0.01).setScalable(true);
+        final long filterBytes = multiTypeFactory.estimatedMemoryBytes(config);
+        final long secondSubFilterBytes = multiTypeFactory.estimatedMemoryBytes(ScalableBloomFilter.subFilterConfig(
+                100 * ScalableBloomFilter.GROWTH_FACTOR, 0.01, 1, BloomFilterType.GUAVA));
+        final BloomFilterManagerImpl<ExpirableBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(multiTypeFactory, Long.MAX_VALUE, filterBytes + secondSubFilterBytes);
+        final ScalableBloomFilter filter = (ScalableBloomFilter) manager.createFilter(testingFilterName, config).getFilter();
+        int i = 0;
+        for (; filter.numSubFilters() < 2; i++) {
+            filter.set(numberString(i));
+        }
+        assertThat(filter.estimatedMemoryBytes()).isEqualTo(filterBytes + secondSubFilterBytes);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filter.estimatedMemoryBytes());
+
+        // the third sub-filter can not fit into the budget
+        while (filter.lastSubFilterInsertions() < filter.subFilters().get(1).expectedInsertions()) {
+            filter.set(numberString(i++));
+        }
+        final String rejectedValue = numberString(i);
+        assertThatThrownBy(() -> filter.set(rejectedValue))
+                .isInstanceOf(MemoryBudgetExceededException.class);
+        assertThat(filter.numSubFilters()).isEqualTo(2);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filter.estimatedMemoryBytes());
+
+        manager.remove(testingFilterName);
+        assertThat(manager.usedMemoryBytes()).isZero();
+    }
+
+    @Test
+    public void testScalableFilterFullWhenGrowOverFilterMemoryLimit() {
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(100, 0.01).setScalable(true);
+        final long filterBytes = multiTypeFactory.estimatedMemoryBytes(config);
+        final BloomFilterManagerImpl<ExpirableBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(multiTypeFactory, filterBytes * 2, Long.MAX_VALUE);
+        final ScalableBloomFilter filter = (ScalableBloomFilter) manager.createFilter(testingFilterName, config).getFilter();
+        int i = 0;
+        while (filter.lastSubFilterInsertions() < filter.subFilters().get(0).expectedInsertions()) {
+            filter.set(numberString(i++));
+        }
+
+        final String rejectedValue = numberString(i);
+        assertThatThrownBy(() -> filter.set(rejectedValue))
+                .isInstanceOf(FilterFullException.class)
+                .hasMessageContaining("exceeds the limit");
+        assertThat(filter.numSubFilters()).isEqualTo(1);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes);
+    }
+
+    @Test
+    public void testEstimateMemoryBeforeCreate() {
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        final List<ExpirableBloomFilterConfig> configs = new ArrayList<>();
+        for (BloomFilterType type : Arrays.asList(BloomFilterType.GUAVA, BloomFilterType.BLOCKED,
+                BloomFilterType.COUNTING, BloomFilterType.CUCKOO)) {
+            configs.add(new ExpirableBloomFilterConfig(10000, 0.001).setType(type));
+        }
+        configs.add(new ExpirableBloomFilterConfig(10000, 0.001)
+                .setType(BloomFilterType.GUAVA)
+                .setScalable(true));
+        configs.add(new ExpirableBloomFilterConfig(10000, 0.001)
+                .setType(BloomFilterType.BLOCKED)
+                .setRotationPeriod(Duration.ofSeconds(10)));
+        configs.add(new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.SEALED)
+                .setValues(IntStream.range(0, 10000).mapToObj(TestingUtils::numberString).collect(Collectors.toList())));
+
+        for (ExpirableBloomFilterConfig config : configs) {
+            final long estimatedBytes = multiTypeFactory.estimatedMemoryBytes(config);
+            assertThat(estimatedBytes).as(config.toString()).isPositive();
+            assertThat(multiTypeFactory.createFilter(config).estimatedMemoryBytes())
+                    .as(config.toString())
+                    .isEqualTo(estimatedBytes);
+        }
+    }
+
+    @Test
+    public void testConcurrentCreateSameFilter() throws Exception {
+        final int threads = 8;
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        final AtomicInteger createdCounter = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<BloomFilter>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    final CreateFilterResult<BloomFilter> result = manager.createFilter(testingFilterName, config);
+                    if (result.isCreated()) {
+                        createdCounter.incrementAndGet();
+                    }
+                    return result.getFilter();
+                }));
+            }
+            startLatch.countDown();
+
+            for (Future<BloomFilter> future : futures) {
+                assertThat(future.get()).isSameAs(manager.getFilter(testingFilterName));
+            }
+            assertThat(createdCounter.get()).isEqualTo(1);
+            assertThat(manager.size()).isEqualTo(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testRemove() {
         final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
@@ -279,6 +460,46 @@ public class BloomFilterManagerImplTest {
         assertThat((events.get(1)).getName()).isSameAs(testingFilterName);
     }
 
+    @Test
+    public void testNotifyFilterCreatedBeforeItIsVisible() {
+        final List<BloomFilter> visibleFilters = new ArrayList<>();
+        manager.addListener(new BloomFilterManagerListener<BloomFilter, ExpirableBloomFilterConfig>() {
+            @Override
+            public void onBloomFilterCreated(String name, ExpirableBloomFilterConfig config, BloomFilter filter) {
+                // look up from another thread, like a concurrent request which would log an operation on the filter
+                visibleFilters.add(CompletableFuture.supplyAsync(() -> manager.getFilter(name)).join());
+            }
+        });
+
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        final BloomFilter filter = manager.createFilter(testingFilterName, config).getFilter();
+        manager.createFilter(testingFilterName, config, true);
+        assertThat(visibleFilters).hasSize(2);
+        assertThat(visibleFilters.get(0)).isNull();
+        assertThat(visibleFilters.get(1)).isSameAs(filter);
+    }
+
+    @Test
+    public void testListenFilterReplacedByAddedFilter() {
+        final TestingListener listener = new TestingListener();
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        final GuavaBloomFilter filter = factory.createFilter(config);
+        manager.addFilters(Collections.singletonList(new FilterRecord<>(testingFilterName, filter)));
+        manager.addListener(listener);
+
+        manager.addFilters(Collections.singletonList(new FilterRecord<>(testingFilterName, filter)));
+        assertThat(listener.getReceivedEvents()).isEmpty();
+
+        final GuavaBloomFilter newFilter = factory.createFilter(config);
+        manager.addFilters(Collections.singletonList(new FilterRecord<>(testingFilterName, newFilter)));
+        final List<FilterEvent> events = listener.getReceivedEvents();
+        assertThat(events.size()).isEqualTo(1);
+        assertThat(((FilterRemovedEvent) events.get(0)).getFilter()).isSameAs(filter);
+        assertThat(events.get(0).getName()).isSameAs(testingFilterName);
+        assertThat(manager.getFilter(testingFilterName)).isSameAs(newFilter);
+        assertThat(manager.usedMemoryBytes()).isEqualTo(newFilter.estimatedMemoryBytes());
+    }
+
     @Test
     public void removeListener() {
         final TestingListener listener = new TestingListener();
@@ -360,4 +581,185 @@ public class BloomFilterManagerImplTest {
             return filter;
         }
     }
+    @Test
+    public void testEvictAndLoadColdFilter() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final ColdFilterStorage<BloomFilter> storage =
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry());
+            final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE, storage, 1, Duration.ofMinutes(1), timer);
+            final BloomFilter filter = manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig()).getFilter();
+            filter.set("Hello");
+            final long filterBytes = filter.estimatedMemoryBytes();
+
+            // not idle for long enough
+            assertThat(manager.evictColdFilters()).isZero();
+
+            timer.setNow(timer.utcNow().plusMinutes(2));
+            assertThat(manager.evictColdFilters()).isEqualTo(1);
+            assertThat(manager.usedMemoryBytes()).isZero();
+            assertThat(manager.coldFilterSize()).isEqualTo(1);
+            assertThat(manager.size()).isEqualTo(1);
+            assertThat(manager.getAllFilterNames()).containsExactly(testingFilterName);
+            assertThat(manager.iterator()).isExhausted();
+
+            final BloomFilter loadedFilter = manager.ensureGetValidFilter(testingFilterName);
+            assertThat(loadedFilter).isNotSameAs(filter).isEqualTo(filter);
+            assertThat(loadedFilter.mightContain("Hello")).isTrue();
+            assertThat(manager.usedMemoryBytes()).isEqualTo(filterBytes);
+            assertThat(manager.coldFilterSize()).isZero();
+            assertThat(manager.size()).isEqualTo(1);
+
+            // just accessed
+            assertThat(manager.evictColdFilters()).isZero();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testRetryUpdateOnEvictedFilter() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final ColdFilterStorage<BloomFilter> storage =
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry());
+            final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE, storage, 1, Duration.ofMinutes(1), timer);
+            final BloomFilter filter = manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig()).getFilter();
+
+            final List<BloomFilter> updatedFilters = new ArrayList<>();
+            final boolean contain = manager.update(testingFilterName, f -> {
+                if (updatedFilters.isEmpty()) {
+                    // the filter is evicted after it's got by the update but before it's updated
+                    timer.setNow(timer.utcNow().plusMinutes(2));
+                    assertThat(manager.evictColdFilters()).isEqualTo(1);
+                }
+                updatedFilters.add(f);
+                return !f.set("Hello");
+            });
+
+            assertThat(contain).isFalse();
+            assertThat(updatedFilters).hasSize(2);
+            assertThat(updatedFilters.get(0)).isSameAs(filter);
+            assertThat(updatedFilters.get(1)).isNotSameAs(filter);
+            assertThat(manager.getFilter(testingFilterName)).isSameAs(updatedFilters.get(1));
+            assertThat(manager.getFilter(testingFilterName).mightContain("Hello")).isTrue();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testNotRetryUpdateOnRemovedFilter() throws Exception {
+        manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig());
+        final AtomicInteger updated = new AtomicInteger();
+        manager.update(testingFilterName, f -> {
+            manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig(), true);
+            updated.incrementAndGet();
+            return f.set("Hello");
+        });
+
+        assertThat(updated.get()).isOne();
+        assertThat(manager.getFilter(testingFilterName).mightContain("Hello")).isFalse();
+
+        manager.update(testingFilterName, f -> {
+            manager.remove(testingFilterName);
+            updated.incrementAndGet();
+            return f.set("Hello");
+        });
+        assertThat(updated.get()).isEqualTo(2);
+        assertThat(manager.getFilter(testingFilterName)).isNull();
+    }
+
+    @Test
+    public void testRemoveColdFilter() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final ColdFilterStorage<BloomFilter> storage =
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry());
+            final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE, storage, 1, Duration.ofMinutes(1), timer);
+            manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig());
+            timer.setNow(timer.utcNow().plusMinutes(2));
+            assertThat(manager.evictColdFilters()).isEqualTo(1);
+            assertThat(storage.filterPath(testingFilterName)).exists();
+
+            manager.remove(testingFilterName);
+            assertThat(manager.size()).isZero();
+            assertThat(manager.getFilter(testingFilterName)).isNull();
+            assertThat(storage.filterPath(testingFilterName)).doesNotExist();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testDropExpiredColdFilter() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final ColdFilterStorage<BloomFilter> storage =
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry());
+            final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE, storage, 1, Duration.ofMinutes(1), timer);
+            final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+            config.setValidPeriodAfterCreate(Duration.ofHours(1));
+            manager.createFilter(testingFilterName, config);
+            timer.setNow(timer.utcNow().plusMinutes(2));
+            assertThat(manager.evictColdFilters()).isEqualTo(1);
+
+            // expired filter is dropped without loading it
+            timer.setNow(timer.utcNow().plusHours(2));
+            assertThat(manager.getFilter(testingFilterName)).isNull();
+            assertThat(manager.size()).isZero();
+            assertThat(manager.usedMemoryBytes()).isZero();
+            assertThat(storage.filterPath(testingFilterName)).doesNotExist();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testAddColdFilters() throws Exception {
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final ColdFilterStorage<BloomFilter> storage =
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry());
+            final BloomFilterManagerImpl<BloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE, storage, 1, Duration.ofMinutes(1), new AdjustableTimer());
+            final BloomFilter coldFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+            coldFilter.set("Hello");
+            storage.write("filter1", coldFilter);
+            storage.write("filter2", coldFilter);
+            storage.write("filter3", coldFilter);
+            final BloomFilter snapshotFilter = factory.createFilter(new ExpirableBloomFilterConfig());
+            manager.addFilters(Arrays.asList(
+                    new FilterRecord<>("filter2", snapshotFilter),
+                    new FilterRecord<>("filter3", snapshotFilter)));
+
+            // filter2 stored before the snapshot, filter3 stored after the snapshot
+            final long snapshotMillis = storage.filterPath("filter2").toFile().lastModified();
+            assertThat(storage.filterPath("filter3").toFile().setLastModified(snapshotMillis + 1000)).isTrue();
+            manager.addColdFilters(storage.recover(), snapshotMillis);
+
+            assertThat(manager.size()).isEqualTo(3);
+            assertThat(manager.coldFilterSize()).isEqualTo(2);
+            assertThat(storage.filterPath("filter2")).doesNotExist();
+            assertThat(manager.getFilter("filter1").mightContain("Hello")).isTrue();
+            assertThat(manager.getFilter("filter2")).isSameAs(snapshotFilter);
+            assertThat(manager.getFilter("filter3").mightContain("Hello")).isTrue();
+            assertThat(manager.usedMemoryBytes()).isEqualTo(3 * coldFilter.estimatedMemoryBytes());
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    private Path newTempDirPath() {
+        return Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.ColdFilterStorage.ColdFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ColdFilterStorageTest {
+    private final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+
+    private Path tempDirPath;
+    private MeterRegistry registry;
+    private ColdFilterStorage<BloomFilter> storage;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        registry = new SimpleMeterRegistry();
+        storage = new ColdFilterStorage<>(tempDirPath, factory, registry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final BloomFilter filter = factory.createFilter(new ExpirableBloomFilterConfig());
+        filter.set("Hello");
+
+        final ColdFilter coldFilter = storage.write("TestingFilter", filter);
+        assertThat(coldFilter.name()).isEqualTo("TestingFilter");
+        assertThat(coldFilter.path()).isEqualTo(storage.filterPath("TestingFilter")).exists();
+        assertThat(coldFilter.expirationMillis()).isEqualTo(filter.expirationMillis());
+
+        final BloomFilter readFilter = storage.read(coldFilter);
+        assertThat(readFilter).isEqualTo(filter);
+        assertThat(readFilter.mightContain("Hello")).isTrue();
+
+        assertThat(registry.counter(Configuration.metricsPrefix() + ".coldFilter.evictions").count()).isEqualTo(1);
+        assertThat(registry.counter(Configuration.metricsPrefix() + ".coldFilter.faults").count()).isEqualTo(1);
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".coldFilter.faultLatency").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final BloomFilter filter = factory.createFilter(new ExpirableBloomFilterConfig());
+        final ColdFilter coldFilter = storage.write("TestingFilter", filter);
+
+        storage.delete("TestingFilter");
+        assertThat(coldFilter.path()).doesNotExist();
+
+        // delete again is fine
+        storage.delete("TestingFilter");
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        final BloomFilter filter1 = factory.createFilter(new ExpirableBloomFilterConfig());
+        final BloomFilter filter2 = factory.createFilter(new ExpirableBloomFilterConfig());
+        storage.write("TestingFilter1", filter1);
+        storage.write("TestingFilter2", filter2);
+        final Path tempFile = tempDirPath.resolve("unfinished.filter.tmp");
+        Files.write(tempFile, "unfinished".getBytes(StandardCharsets.UTF_8));
+        final Path corruptedFile = tempDirPath.resolve("corrupted.filter");
+        Files.write(corruptedFile, "corrupted".getBytes(StandardCharsets.UTF_8));
+
+        final ColdFilterStorage<BloomFilter> newStorage = new ColdFilterStorage<>(tempDirPath, factory, registry);
+        final List<ColdFilter> coldFilters = newStorage.recover();
+        assertThat(coldFilters)
+                .extracting(ColdFilter::name)
+                .containsExactlyInAnyOrder("TestingFilter1", "TestingFilter2");
+        for (ColdFilter coldFilter : coldFilters) {
+            assertThat(coldFilter.expirationMillis()).isEqualTo(newStorage.read(coldFilter).expirationMillis());
+        }
+        assertThat(tempFile).doesNotExist();
+        assertThat(corruptedFile).doesNotExist();
+    }
+}
@@ -31,6 +31,9 @@ public class ConfigurationTest {
     public void testDefaultValues() {
         assertThat(Configuration.metricsPrefix()).isEqualTo("filterService");
         assertThat(Configuration.purgeFilterInterval()).isEqualTo(Duration.ofMillis(300));
+        assertThat(Configuration.rotateFilterInterval()).isEqualTo(Duration.ofMillis(1000));
+        assertThat(Configuration.clockResolution()).isEqualTo(Duration.ofMillis(10));
+        assertThat(Configuration.expirationUpdateGranularity()).isEqualTo(Duration.ZERO);
         assertThat(Configuration.maxHttpConnections()).isEqualTo(1000);
         assertThat(Configuration.maxHttpRequestLength()).isEqualTo(10 * 1024 * 1024);
         assertThat(Configuration.maxWorkerThreadPoolSize()).isEqualTo(10);
@@ -39,9 +42,22 @@ public class ConfigurationTest {
         assertThat(Configuration.defaultExpectedInsertions()).isEqualTo(1000_000);
         assertThat(Configuration.defaultFalsePositiveProbability()).isEqualTo(0.0001);
         assertThat(Configuration.defaultValidPeriodAfterCreate()).isEqualTo(Duration.ofDays(1));
+        assertThat(Configuration.maxFilterMemoryBytes()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Configuration.maxTotalFilterMemoryBytes()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Configuration.coldFilterWatermarkBytes()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Configuration.coldFilterMinIdle()).isEqualTo(Duration.ofMinutes(10));
+        assertThat(Configuration.evictColdFiltersInterval()).isEqualTo(Duration.ofMillis(1000));
         assertThat(Configuration.persistentStorageDirectory()).isEqualTo(System.getProperty("user.dir"));
         assertThat(Configuration.channelBufferSizeForFilterPersistence()).isEqualTo(102400);
+        assertThat(Configuration.persistenceThreads()).isEqualTo(1);
+        assertThat(Configuration.recoveryThreads()).isEqualTo(Runtime.getRuntime().availableProcessors());
+        assertThat(Configuration.persistenceBytesPerSecond()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Configuration.persistenceForceIntervalBytes()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Configuration.enableSnapshotCompression()).isFalse();
         assertThat(Configuration.allowRecoverFromCorruptedPersistentFile()).isTrue();
+        assertThat(Configuration.enableWriteAheadLog()).isFalse();
+        assertThat(Configuration.writeAheadLogSyncPolicy()).isEqualTo(WriteAheadLog.SyncPolicy.INTERVAL);
+        assertThat(Configuration.writeAheadLogSyncInterval()).isEqualTo(Duration.ofMillis(100));
         assertThat(Configuration.channelOptions().SO_BACKLOG()).isEqualTo(2048);
         assertThat(Configuration.channelOptions().SO_RCVBUF()).isEqualTo(2048);
         assertThat(Configuration.channelOptions().SO_SNDBUF()).isEqualTo(2048);
@@ -70,6 +86,9 @@ public class ConfigurationTest {
         System.out.println(Configuration.spec());
         assertThat(Configuration.metricsPrefix()).isEqualTo("filterServiceTest");
         assertThat(Configuration.purgeFilterInterval()).isEqualTo(Duration.ofMillis(200));
+        assertThat(Configuration.rotateFilterInterval()).isEqualTo(Duration.ofMillis(500));
+        assertThat(Configuration.clockResolution()).isEqualTo(Duration.ofMillis(20));
+        assertThat(Configuration.expirationUpdateGranularity()).isEqualTo(Duration.ofMillis(10));
         assertThat(Configuration.maxHttpConnections()).isEqualTo(2000);
         assertThat(Configuration.maxHttpRequestLength()).isEqualTo(5 * 1024 * 1024);
         assertThat(Configuration.maxWorkerThreadPoolSize()).isEqualTo(11);
@@ -78,9 +97,22 @@ public class ConfigurationTest {
         assertThat(Configuration.defaultExpectedInsertions()).isEqualTo(2000_000);
         assertThat(Configuration.defaultFalsePositiveProbability()).isEqualTo(0.0002);
         assertThat(Configuration.defaultValidPeriodAfterCreate()).isEqualTo(Duration.ofDays(2));
+        assertThat(Configuration.maxFilterMemoryBytes()).isEqualTo(512L * 1024 * 1024);
+        assertThat(Configuration.maxTotalFilterMemoryBytes()).isEqualTo(4L * 1024 * 1024 * 1024);
+        assertThat(Configuration.coldFilterWatermarkBytes()).isEqualTo(2L * 1024 * 1024 * 1024);
+        assertThat(Configuration.coldFilterMinIdle()).isEqualTo(Duration.ofMinutes(5));
+        assertThat(Configuration.evictColdFiltersInterval()).isEqualTo(Duration.ofMillis(500));
         assertThat(Configuration.persistentStorageDirectory()).isEqualTo("./log/storage");
         assertThat(Configuration.channelBufferSizeForFilterPersistence()).isEqualTo(102401);
+        assertThat(Configuration.persistenceThreads()).isEqualTo(4);
+        assertThat(Configuration.recoveryThreads()).isEqualTo(3);
+        assertThat(Configuration.persistenceBytesPerSecond()).isEqualTo(50L * 1024 * 1024);
+        assertThat(Configuration.persistenceForceIntervalBytes()).isEqualTo(8L * 1024 * 1024);
+        assertThat(Configuration.enableSnapshotCompression()).isTrue();
         assertThat(Configuration.allowRecoverFromCorruptedPersistentFile()).isTrue();
+        assertThat(Configuration.enableWriteAheadLog()).isTrue();
+        assertThat(Configuration.writeAheadLogSyncPolicy()).isEqualTo(WriteAheadLog.SyncPolicy.ALWAYS);
+        assertThat(Configuration.writeAheadLogSyncInterval()).isEqualTo(Duration.ofMillis(200));
         assertThat(Configuration.channelOptions().SO_BACKLOG()).isEqualTo(1024);
         assertThat(Configuration.channelOptions().SO_RCVBUF()).isEqualTo(1024);
         assertThat(Configuration.channelOptions().SO_SNDBUF()).isEqualTo(1024);
@@ -114,6 +146,30 @@ public class ConfigurationTest {
                 .hasMessage("purgeFilterIntervalMillis: 0 (expected: > 0)");
     }
 
+    @Test
+    public void testSetInvalidRotateFilterInterval() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setRotateFilterInterval(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("rotateFilterIntervalMillis: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetInvalidClockResolution() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setClockResolution(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("clockResolutionMillis: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetInvalidExpirationUpdateGranularity() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setExpirationUpdateGranularity(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("expirationUpdateGranularityMillis: -1 (expected: >= 0)");
+    }
+
     @Test
     public void testSetMaxHttpConnections() {
         final Configuration c = new Configuration();
@@ -218,6 +274,90 @@ public class ConfigurationTest {
                 .hasMessage("defaultValidSecondsAfterCreate: 0 (expected: > 0)");
     }
 
+    @Test
+    public void testSetMaxFilterMemoryBytes() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setMaxFilterMemoryBytes(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxFilterMemoryBytes: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setMaxFilterMemoryBytes(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxFilterMemoryBytes: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetMaxTotalFilterMemoryBytes() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setMaxTotalFilterMemoryBytes(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxTotalFilterMemoryBytes: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setMaxTotalFilterMemoryBytes(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("maxTotalFilterMemoryBytes: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetColdFilterWatermarkBytes() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setColdFilterWatermarkBytes(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("coldFilterWatermarkBytes: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setColdFilterWatermarkBytes(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("coldFilterWatermarkBytes: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetColdFilterMinIdle() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setColdFilterMinIdle(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("coldFilterMinIdleMillis: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setColdFilterMinIdle(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("coldFilterMinIdleMillis: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetEvictColdFiltersInterval() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setEvictColdFiltersInterval(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("evictColdFiltersIntervalMillis: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setEvictColdFiltersInterval(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("evictColdFiltersIntervalMillis: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetWriteAheadLogSyncPolicy() {
+        final Configuration c = new Configuration();
+        c.setWriteAheadLogSyncPolicy("NEVER");
+        Configuration.initConfiguration(c);
+        assertThat(Configuration.writeAheadLogSyncPolicy()).isEqualTo(WriteAheadLog.SyncPolicy.NEVER);
+
+        assertThatThrownBy(() -> c.setWriteAheadLogSyncPolicy("sometimes"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("writeAheadLogSyncPolicy: sometimes (expected: always, interval or never)");
+    }
+
+    @Test
+    public void testSetWriteAheadLogSyncInterval() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setWriteAheadLogSyncInterval(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("writeAheadLogSyncIntervalMillis: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setWriteAheadLogSyncInterval(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("writeAheadLogSyncIntervalMillis: 0 (expected: > 0)");
+    }
+
     @Test
     public void testSetChannelBufferSizeForFilterPersistence() {
         final Configuration c = new Configuration();
@@ -230,6 +370,54 @@ public class ConfigurationTest {
                 .hasMessage("channelBufferSizeForFilterPersistence: 0 (expected: > 0)");
     }
 
+    @Test
+    public void testSetPersistenceThreads() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setPersistenceThreads(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceThreads: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setPersistenceThreads(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceThreads: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetRecoveryThreads() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setRecoveryThreads(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("recoveryThreads: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setRecoveryThreads(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("recoveryThreads: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetPersistenceBytesPerSecond() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setPersistenceBytesPerSecond(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceBytesPerSecond: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setPersistenceBytesPerSecond(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceBytesPerSecond: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testSetPersistenceForceIntervalBytes() {
+        final Configuration c = new Configuration();
+        assertThatThrownBy(() -> c.setPersistenceForceIntervalBytes(-1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceForceIntervalBytes: -1 (expected: > 0)");
+
+        assertThatThrownBy(() -> c.setPersistenceForceIntervalBytes(0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("persistenceForceIntervalBytes: 0 (expected: > 0)");
+    }
+
     @Test
     public void testSetPersistentStorageDirectory() {
         Configuration c = new Configuration();
@@ -1,12 +1,14 @@
 package cn.leancloud.filter.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashCode;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -56,6 +58,18 @@ public class CountUpdateBloomFilterWrapperTest {
         verify(innerFilter, times(1)).writeTo(out);
     }
 
+    @Test
+    public void testDelegateMemoryBudget() {
+        final MemoryBudget budget = mock(MemoryBudget.class);
+        when(innerFilter.attachMemoryBudget(budget)).thenReturn(100L);
+        when(innerFilter.detachMemoryBudget()).thenReturn(200L);
+
+        assertThat(wrapper.attachMemoryBudget(budget)).isEqualTo(100L);
+        assertThat(wrapper.detachMemoryBudget()).isEqualTo(200L);
+        verify(innerFilter, times(1)).attachMemoryBudget(budget);
+        verify(innerFilter, times(1)).detachMemoryBudget();
+    }
+
     @Test
     public void testUpdateCounter() {
         final String testingValue = "testingValue";
@@ -65,6 +79,112 @@ public class CountUpdateBloomFilterWrapperTest {
         assertThat(filterUpdateTimesCounter.sum()).isEqualTo(1);
     }
 
+    @Test
+    public void testRemoveUpdateCounter() {
+        final String testingValue = "testingValue";
+        when(innerFilter.supportRemove()).thenReturn(true);
+        when(innerFilter.remove(testingValue)).thenReturn(true);
+        assertThat(wrapper.supportRemove()).isTrue();
+        assertThat(wrapper.remove(testingValue)).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isEqualTo(1);
+        verify(innerFilter, times(1)).remove(testingValue);
+    }
+
+    @Test
+    public void testHashesUpdateCounter() {
+        final HashCode testingHash = HashCode.fromLong(1L);
+        when(innerFilter.hashScheme()).thenReturn(HashScheme.MURMUR3_64);
+        when(innerFilter.mightContain(testingHash)).thenReturn(true);
+        when(innerFilter.set(testingHash)).thenReturn(true);
+        assertThat(wrapper.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        assertThat(wrapper.mightContain(testingHash)).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isZero();
+        assertThat(wrapper.set(testingHash)).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isEqualTo(1);
+        verify(innerFilter, times(1)).set(testingHash);
+    }
+
+    @Test
+    public void testRotateUpdateCounter() {
+        when(innerFilter.tryRotate()).thenReturn(false);
+        assertThat(wrapper.tryRotate()).isFalse();
+        assertThat(filterUpdateTimesCounter.sum()).isZero();
+
+        when(innerFilter.tryRotate()).thenReturn(true);
+        assertThat(wrapper.tryRotate()).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTrackDirty() {
+        final String testingValue = "testingValue";
+        assertThat(wrapper.dirty()).isTrue();
+
+        wrapper.clearDirty();
+        assertThat(wrapper.dirty()).isFalse();
+        wrapper.mightContain(testingValue);
+        assertThat(wrapper.dirty()).isFalse();
+        wrapper.set(testingValue);
+        assertThat(wrapper.dirty()).isTrue();
+
+        wrapper.clearDirty();
+        wrapper.remove(testingValue);
+        assertThat(wrapper.dirty()).isTrue();
+
+        wrapper.clearDirty();
+        when(innerFilter.tryRotate()).thenReturn(false);
+        wrapper.tryRotate();
+        assertThat(wrapper.dirty()).isFalse();
+        when(innerFilter.tryRotate()).thenReturn(true);
+        wrapper.tryRotate();
+        assertThat(wrapper.dirty()).isTrue();
+    }
+
+    @Test
+    public void testMarkDirtyAfterUpdate() {
+        final String testingValue = "testingValue";
+        // a snapshot clears the dirty mark while the update is being applied
+        when(innerFilter.set(testingValue)).thenAnswer(invocation -> {
+            wrapper.clearDirty();
+            return true;
+        });
+        when(innerFilter.remove(testingValue)).thenAnswer(invocation -> {
+            wrapper.clearDirty();
+            return true;
+        });
+
+        wrapper.set(testingValue);
+        assertThat(wrapper.dirty()).isTrue();
+
+        wrapper.remove(testingValue);
+        assertThat(wrapper.dirty()).isTrue();
+    }
+
+    @Test
+    public void testMarkDirtyWhenUpdateFailed() {
+        final String testingValue = "testingValue";
+        wrapper.clearDirty();
+        when(innerFilter.set(testingValue)).thenThrow(new FilterFullException("filter is full"));
+
+        assertThatThrownBy(() -> wrapper.set(testingValue)).isInstanceOf(FilterFullException.class);
+        assertThat(wrapper.dirty()).isTrue();
+    }
+
+    @Test
+    public void testBinaryValuesUpdateCounter() {
+        final ByteBuffer testingValue = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        when(innerFilter.mightContain(testingValue)).thenReturn(true);
+        when(innerFilter.set(testingValue)).thenReturn(true);
+        when(innerFilter.remove(testingValue)).thenReturn(true);
+        assertThat(wrapper.mightContain(testingValue)).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isZero();
+        assertThat(wrapper.set(testingValue)).isTrue();
+        assertThat(wrapper.remove(testingValue)).isTrue();
+        assertThat(filterUpdateTimesCounter.sum()).isEqualTo(2);
+        verify(innerFilter, times(1)).set(testingValue);
+        verify(innerFilter, times(1)).remove(testingValue);
+    }
+
     @Test
     public void testWriteToThrowException() throws IOException {
         final OutputStream out = new ByteArrayOutputStream();
@@ -0,0 +1,208 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.assertHashesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberBytes;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CountingBloomFilterTest {
+    private static final CountingBloomFilterFactory testingFactory = new CountingBloomFilterFactory();
+    private static final ExpirableBloomFilterConfig defaultTestingConfig =
+            new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING);
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final int expectedInsertions = 1000000;
+        final double fpp = 0.0001;
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CountingBloomFilter filter = new CountingBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.COUNTING);
+        assertThat(filter.supportRemove()).isTrue();
+        assertThat(filter.fpp()).isEqualTo(fpp);
+        assertThat(filter.expectedInsertions()).isEqualTo(expectedInsertions);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.expired()).isFalse();
+        assertThat(filter.numCounters())
+                .isGreaterThanOrEqualTo(CountingBloomFilter.optimalNumOfCounters(expectedInsertions, fpp));
+    }
+
+    @Test
+    public void testSetAndRemove() {
+        final String testingValue = "SomeValue";
+        final CountingBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.remove(testingValue)).isFalse();
+        assertThat(filter.set(testingValue)).isTrue();
+        assertThat(filter.set(testingValue)).isFalse();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        assertThat(filter.remove(testingValue)).isTrue();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        assertThat(filter.remove(testingValue)).isTrue();
+        assertThat(filter.mightContain(testingValue)).isFalse();
+        assertThat(filter.remove(testingValue)).isFalse();
+    }
+
+    @Test
+    public void testRemoveKeepOtherValues() {
+        final CountingBloomFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(10000, 0.01).setType(BloomFilterType.COUNTING));
+        for (int i = 0; i < 10000; i++) {
+            filter.set(numberString(i));
+        }
+
+        for (int i = 0; i < 10000; i += 2) {
+            assertThat(filter.remove(numberString(i))).isTrue();
+        }
+
+        for (int i = 1; i < 10000; i += 2) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i += 2) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / 5000).isLessThan(0.01 * 1.5);
+    }
+
+    @Test
+    public void testSaturatedCounterNeverDecrease() {
+        final CountingBloomFilter filter = new CountingBloomFilter(
+                1,
+                0.5,
+                ZonedDateTime.now(ZoneOffset.UTC),
+                ZonedDateTime.now(ZoneOffset.UTC).plus(Duration.ofSeconds(10)),
+                null);
+        final String testingValue = "SomeValue";
+        for (int i = 0; i < CountingBloomFilter.MAX_COUNTER_VALUE + 5; i++) {
+            filter.set(testingValue);
+        }
+        for (int i = 0; i < CountingBloomFilter.MAX_COUNTER_VALUE + 5; i++) {
+            assertThat(filter.remove(testingValue)).isTrue();
+        }
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        for (long i = 0; i < filter.numCounters(); i++) {
+            assertThat(filter.counter(i)).isIn(0L, CountingBloomFilter.MAX_COUNTER_VALUE);
+        }
+    }
+
+    @Test
+    public void testTooLargeFilter() {
+        assertThatThrownBy(() -> CountingBloomFilter.numLongs(Integer.MAX_VALUE, 1e-15))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Could not create counting Bloom filter");
+    }
+
+    @Test
+    public void testToJson() {
+        final CountingBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("counting");
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(filter.expectedInsertions());
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CountingBloomFilter expect = new CountingBloomFilter(
+                100000,
+                0.0001,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final CountingBloomFilter actualFilter = testingFactory.readFrom(in);
+
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.numHashFunctions()).isEqualTo(expect.numHashFunctions());
+        assertThat(actualFilter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        for (long i = 0; i < expect.numCounters(); i++) {
+            assertThat(actualFilter.counter(i)).isEqualTo(expect.counter(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.remove(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testReadFromOtherType() {
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThatThrownBy(() -> testingFactory.readFrom(BloomFilterType.GUAVA, in))
+                .isInstanceOf(InvalidFilterException.class)
+                .hasMessageContaining("unsupported filter type");
+    }
+
+    @Test
+    public void testHashcodeAndEquals() {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CountingBloomFilter filter = new CountingBloomFilter(1000, 0.001, creation, expiration, null);
+        final CountingBloomFilter filter2 = new CountingBloomFilter(1000, 0.001, creation, expiration, null);
+        final CountingBloomFilter filter3 = new CountingBloomFilter(1001, 0.001, creation, expiration, null);
+
+        assertThat(filter.hashCode()).isEqualTo(filter2.hashCode());
+        assertThat(filter).isEqualTo(filter2);
+        assertThat(filter.hashCode()).isNotEqualTo(filter3.hashCode());
+        assertThat(filter).isNotEqualTo(filter3);
+    }
+
+    @Test
+    public void testBinaryValues() {
+        final CountingBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertBinaryValuesSameAsStringValues(filter, 1000);
+
+        filter.set(numberString(1000));
+        assertThat(filter.remove(numberBytes(1000))).isTrue();
+        assertThat(filter.mightContain(numberString(1000))).isFalse();
+        filter.set(numberBytes(1001));
+        assertThat(filter.remove(ByteBuffer.wrap(numberBytes(1001)))).isTrue();
+        assertThat(filter.mightContain(numberString(1001))).isFalse();
+    }
+
+    @Test
+    public void testHashes() {
+        final CountingBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_128);
+        assertHashesSameAsStringValues(filter, 1000);
+        assertThatThrownBy(() -> filter.set(numberHash(1000, HashScheme.MURMUR3_64)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("too short");
+    }
+
+}
@@ -0,0 +1,233 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.assertHashesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberBytes;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CuckooFilterTest {
+    private static final CuckooFilterFactory testingFactory = new CuckooFilterFactory();
+    private static final ExpirableBloomFilterConfig defaultTestingConfig =
+            new ExpirableBloomFilterConfig().setType(BloomFilterType.CUCKOO);
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final int expectedInsertions = 1000000;
+        final double fpp = 0.0001;
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CuckooFilter filter = new CuckooFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.CUCKOO);
+        assertThat(filter.supportRemove()).isTrue();
+        assertThat(filter.fpp()).isEqualTo(fpp);
+        assertThat(filter.expectedInsertions()).isEqualTo(expectedInsertions);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.expired()).isFalse();
+        assertThat(filter.fingerprintBits()).isEqualTo(17);
+        assertThat((long) filter.numBuckets() * CuckooFilter.SLOTS_PER_BUCKET).isGreaterThan(expectedInsertions);
+    }
+
+    @Test
+    public void testFingerprintBits() {
+        assertThat(CuckooFilter.fingerprintBits(0.5)).isEqualTo(CuckooFilter.MIN_FINGERPRINT_BITS);
+        assertThat(CuckooFilter.fingerprintBits(0.001)).isEqualTo(13);
+        assertThat(CuckooFilter.fingerprintBits(1e-15)).isEqualTo(CuckooFilter.MAX_FINGERPRINT_BITS);
+    }
+
+    @Test
+    public void testSetAndRemove() {
+        final String testingValue = "SomeValue";
+        final CuckooFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.mightContain(testingValue)).isFalse();
+        assertThat(filter.remove(testingValue)).isFalse();
+        assertThat(filter.set(testingValue)).isTrue();
+        assertThat(filter.set(testingValue)).isFalse();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        assertThat(filter.remove(testingValue)).isTrue();
+        assertThat(filter.mightContain(testingValue)).isFalse();
+    }
+
+    @Test
+    public void testNoFalseNegativeAtFullCapacity() {
+        final int expectedInsertions = 100000;
+        final double fpp = 0.001;
+        final CuckooFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(expectedInsertions, fpp).setType(BloomFilterType.CUCKOO));
+        for (int i = 0; i < expectedInsertions; i++) {
+            filter.set(numberString(i));
+        }
+
+        for (int i = 0; i < expectedInsertions; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+        }
+
+        for (int i = 0; i < expectedInsertions; i += 2) {
+            filter.remove(numberString(i));
+        }
+
+        // values sharing a slot with the removed values are removed too
+        int falseNegatives = 0;
+        for (int i = 1; i < expectedInsertions; i += 2) {
+            if (!filter.mightContain(numberString(i))) {
+                falseNegatives++;
+            }
+        }
+        assertThat((double) falseNegatives / (expectedInsertions / 2)).isLessThan(fpp);
+    }
+
+    @Test
+    public void testFalsePositiveProbability() {
+        final int expectedInsertions = 100000;
+        final double fpp = 0.001;
+        final CuckooFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(expectedInsertions, fpp).setType(BloomFilterType.CUCKOO));
+        for (int i = 0; i < expectedInsertions; i++) {
+            filter.set(numberString(i));
+        }
+
+        int falsePositives = 0;
+        final int testingTimes = 1000000;
+        for (int i = expectedInsertions; i < expectedInsertions + testingTimes; i++) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / testingTimes).isLessThan(fpp * 1.5);
+    }
+
+    @Test
+    public void testFilterFull() throws Exception {
+        final CuckooFilter filter = testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.001).setType(BloomFilterType.CUCKOO));
+        int inserted = 0;
+        ByteArrayOutputStream before;
+        while (true) {
+            before = new ByteArrayOutputStream();
+            filter.writeTo(before);
+            try {
+                if (filter.set(numberString(inserted))) {
+                    inserted++;
+                }
+            } catch (FilterFullException ex) {
+                assertThat(ex).hasMessageContaining("cuckoo filter is full");
+                break;
+            }
+        }
+
+        assertThat(inserted).isGreaterThanOrEqualTo(100);
+        // a failed insertion leaves the filter unchanged
+        final ByteArrayOutputStream after = new ByteArrayOutputStream();
+        filter.writeTo(after);
+        assertThat(after.toByteArray()).isEqualTo(before.toByteArray());
+        for (int i = 0; i < inserted; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testToJson() {
+        final CuckooFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("cuckoo");
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(filter.expectedInsertions());
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CuckooFilter expect = new CuckooFilter(
+                100000,
+                0.0001,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final CuckooFilter actualFilter = testingFactory.readFrom(in);
+
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.remove(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testReadFromOtherType() {
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThatThrownBy(() -> testingFactory.readFrom(BloomFilterType.GUAVA, in))
+                .isInstanceOf(InvalidFilterException.class)
+                .hasMessageContaining("unsupported filter type");
+    }
+
+    @Test
+    public void testHashcodeAndEquals() {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final CuckooFilter filter = new CuckooFilter(1000, 0.001, creation, expiration, null);
+        final CuckooFilter filter2 = new CuckooFilter(1000, 0.001, creation, expiration, null);
+        final CuckooFilter filter3 = new CuckooFilter(10000, 0.001, creation, expiration, null);
+
+        assertThat(filter.hashCode()).isEqualTo(filter2.hashCode());
+        assertThat(filter).isEqualTo(filter2);
+        assertThat(filter.hashCode()).isNotEqualTo(filter3.hashCode());
+        assertThat(filter).isNotEqualTo(filter3);
+    }
+
+    @Test
+    public void testBinaryValues() {
+        final CuckooFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertBinaryValuesSameAsStringValues(filter, 1000);
+
+        filter.set(numberString(1000));
+        assertThat(filter.remove(numberBytes(1000))).isTrue();
+        assertThat(filter.mightContain(numberString(1000))).isFalse();
+        filter.set(numberBytes(1001));
+        assertThat(filter.remove(ByteBuffer.wrap(numberBytes(1001)))).isTrue();
+        assertThat(filter.mightContain(numberString(1001))).isFalse();
+    }
+
+    @Test
+    public void testHashes() {
+        final CuckooFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        assertHashesSameAsStringValues(filter, 1000);
+        filter.set(numberHash(1000, HashScheme.MURMUR3_64));
+        assertThat(filter.remove(numberString(1000))).isTrue();
+        assertThat(filter.mightContain(numberHash(1000, HashScheme.MURMUR3_64))).isFalse();
+    }
+
+}
@@ -31,4 +31,40 @@ public class ErrorsTest {
         assertThat(Errors.FILTER_NOT_FOUND.buildErrorInfoInJson("error msg").toString())
                 .isEqualTo("{\"error\":\"error msg\",\"code\":2}");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUnsupportedOperation() {
+        assertThat(Errors.UNSUPPORTED_OPERATION.buildErrorInfoInJson().toString())
+                .isEqualTo("{\"error\":\"operation not supported by filter\",\"code\":3}");
+
+        assertThat(Errors.UNSUPPORTED_OPERATION.buildErrorInfoInJson("error msg").toString())
+                .isEqualTo("{\"error\":\"error msg\",\"code\":3}");
+    }
+
+    @Test
+    public void testFilterFull() {
+        assertThat(Errors.FILTER_FULL.buildErrorInfoInJson().toString())
+                .isEqualTo("{\"error\":\"filter is full\",\"code\":4}");
+
+        assertThat(Errors.FILTER_FULL.buildErrorInfoInJson("error msg").toString())
+                .isEqualTo("{\"error\":\"error msg\",\"code\":4}");
+    }
+
+    @Test
+    public void testFilterTooLarge() {
+        assertThat(Errors.FILTER_TOO_LARGE.buildErrorInfoInJson().toString())
+                .isEqualTo("{\"error\":\"filter is too large\",\"code\":5}");
+
+        assertThat(Errors.FILTER_TOO_LARGE.buildErrorInfoInJson("error msg").toString())
+                .isEqualTo("{\"error\":\"error msg\",\"code\":5}");
+    }
+
+    @Test
+    public void testMemoryBudgetExceeded() {
+        assertThat(Errors.MEMORY_BUDGET_EXCEEDED.buildErrorInfoInJson().toString())
+                .isEqualTo("{\"error\":\"memory budget for filters exceeded\",\"code\":6}");
+
+        assertThat(Errors.MEMORY_BUDGET_EXCEEDED.buildErrorInfoInJson("error msg").toString())
+                .isEqualTo("{\"error\":\"error msg\",\"code\":6}");
+    }
+}
@@ -3,6 +3,9 @@ package cn.leancloud.filter.service;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -41,6 +44,47 @@ public class ExpirableBloomFilterConfigTest {
         assertThat(config.validPeriodAfterCreate()).isEqualTo(old);
     }
 
+    @Test
+    public void testGetAndSetType() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        assertThat(config.type()).isEqualTo(BloomFilterType.GUAVA);
+        assertThat(config.setType(BloomFilterType.BLOCKED)).isSameAs(config);
+        assertThat(config.type()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(new ExpirableBloomFilterConfig(config).type()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(config).isNotEqualTo(new ExpirableBloomFilterConfig());
+    }
+
+    @Test
+    public void testGetAndSetScalable() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        assertThat(config.scalable()).isFalse();
+        assertThat(config.setScalable(true)).isSameAs(config);
+        assertThat(config.scalable()).isTrue();
+        assertThat(new ExpirableBloomFilterConfig(config).scalable()).isTrue();
+        assertThat(config).isNotEqualTo(new ExpirableBloomFilterConfig());
+    }
+
+    @Test
+    public void testGetAndSetCreation() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC).minusDays(1).truncatedTo(ChronoUnit.SECONDS);
+        assertThat(config.creation()).isAfter(creation);
+        assertThat(config.setCreation(creation)).isSameAs(config);
+        assertThat(config.creation()).isEqualTo(creation);
+        assertThat(new ExpirableBloomFilterConfig(config).creation()).isEqualTo(creation);
+        assertThat(config).isNotEqualTo(new ExpirableBloomFilterConfig());
+        assertThat(new GuavaBloomFilterFactory().createFilter(config).expiration())
+                .isEqualTo(creation.plus(config.validPeriodAfterCreate()));
+    }
+
+    @Test
+    public void testSetNullType() {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        assertThatThrownBy(() -> config.setType(null))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("required parameter");
+    }
+
     @Test
     public void testDefaultValidPeriodAfterAccess() {
         final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
@@ -0,0 +1,107 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.Crc32C;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static cn.leancloud.filter.service.FilterRecord.BODY_LENGTH_OFFSET;
+import static cn.leancloud.filter.service.FilterRecord.CRC_OFFSET;
+import static cn.leancloud.filter.service.FilterRecord.HEADER_OVERHEAD;
+
+/**
+ * Measures reading a large filter record back from a file. {@code testReadFilterRecord} reads through the
+ * pooled buffers of {@link FilterRecordInputStream}, and {@code testReadWholeBody} reads the whole body into a
+ * new heap buffer before deserializing it, as the recovery did before, to be used as the baseline. Run with
+ * the {@link GCProfiler} to compare the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(value = 1)
+public class FilterRecordInputStreamBenchmark {
+    private final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+    private Path tempDirPath;
+    private Path recordPath;
+    private FileChannel fileChannel;
+
+    @Setup
+    public void setup() throws Exception {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofDays(1));
+        final GuavaBloomFilter filter = new GuavaBloomFilter(
+                10000000,
+                0.001,
+                creation,
+                expiration,
+                Duration.ofDays(1));
+        tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_record_benchmark_" + System.nanoTime());
+        FileUtils.forceMkdir(tempDirPath.toFile());
+        recordPath = tempDirPath.resolve("record");
+        try (FileChannel channel = FileChannel.open(recordPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            new FilterRecord<>("filter", filter).writeFullyTo(channel);
+        }
+        fileChannel = FileChannel.open(recordPath, StandardOpenOption.READ);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        fileChannel.close();
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Benchmark
+    public FilterRecord<? extends GuavaBloomFilter> testReadFilterRecord() throws Exception {
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(recordPath, factory)) {
+            return stream.nextFilterRecord();
+        }
+    }
+
+    @Benchmark
+    public GuavaBloomFilter testReadWholeBody() throws Exception {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_OVERHEAD);
+        FilterRecordInputStream.readFullyOrFail(fileChannel, header, 0);
+        final ByteBuffer body = ByteBuffer.allocate(header.getInt(BODY_LENGTH_OFFSET));
+        FilterRecordInputStream.readFullyOrFail(fileChannel, body, HEADER_OVERHEAD);
+        body.flip();
+        if (Crc32C.compute(body, 0, body.limit()) != (header.getInt(CRC_OFFSET) & 0xffffffffL)) {
+            throw new InvalidFilterException("got unmatched crc");
+        }
+        body.getLong();
+        final int nameLength = body.getInt();
+        final int filterOffset = Long.BYTES + Integer.BYTES + nameLength;
+        return factory.readFrom(new ByteArrayInputStream(body.array(), filterOffset, body.limit() - filterOffset));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(FilterRecordInputStreamBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(10))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(10))
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
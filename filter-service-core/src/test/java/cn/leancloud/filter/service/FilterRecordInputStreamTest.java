@@ -1,21 +1,30 @@
 package cn.leancloud.filter.service;
 
+import cn.leancloud.filter.service.utils.Crc32C;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static cn.leancloud.filter.service.FilterRecord.*;
 import static cn.leancloud.filter.service.TestingUtils.generateFilterRecords;
+import static cn.leancloud.filter.service.TestingUtils.generateInvalidFilter;
 import static cn.leancloud.filter.service.TestingUtils.generateSingleFilterRecord;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -94,6 +103,34 @@ public class FilterRecordInputStreamTest {
         }
     }
 
+    @Test
+    public void testNegativeBodyLength() throws Exception {
+        for (int bodyLen : new int[]{-1, -HEADER_OVERHEAD}) {
+            writeRecordChannel.truncate(0);
+            writeRecordChannel.position(0);
+            final FilterRecord<BloomFilter> record = generateSingleFilterRecord();
+            record.writeFullyTo(writeRecordChannel);
+
+            overwriteFirstFilterRecordBodyLength(bodyLen);
+
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                assertThatThrownBy(stream::nextFilterRecord)
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("invalid body length: " + bodyLen + " from position: 0");
+
+                final List<Long> positions = new ArrayList<>();
+                assertThatThrownBy(() -> stream.indexRecordPositions(positions))
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("invalid body length: " + bodyLen + " from position: 0");
+                assertThat(positions).isEmpty();
+
+                assertThatThrownBy(() -> stream.decodeFilterRecordAt(0))
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("invalid body length: " + bodyLen + " from position: 0");
+            }
+        }
+    }
+
     @Test
     public void testBadCrc() throws Exception {
         final FilterRecord<BloomFilter> record = generateSingleFilterRecord();
@@ -115,12 +152,216 @@ public class FilterRecordInputStreamTest {
 
         try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
             writeRecordChannel.truncate(writeRecordChannel.size() - 1);
+            // the body is larger than the buffer, so it's read through the stream on the file channel
             assertThatThrownBy(stream::nextFilterRecord)
                     .isInstanceOf(EOFException.class)
-                    .hasMessageContaining("Failed to read `FilterRecord` from file channel");
+                    .hasMessageContaining("reached end of file channel");
+        }
+    }
+
+    @Test
+    public void testIndexAndDecodeRecords() throws Exception {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        final List<Long> expectPositions = new ArrayList<>();
+        for (FilterRecord<BloomFilter> record : records) {
+            expectPositions.add(writeRecordChannel.position());
+            record.writeFullyTo(writeRecordChannel);
+        }
+
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            final List<Long> positions = new ArrayList<>();
+            stream.indexRecordPositions(positions);
+            assertThat(positions).isEqualTo(expectPositions);
+
+            // decode in reverse order
+            for (int i = records.size() - 1; i >= 0; i--) {
+                assertThat(stream.decodeFilterRecordAt(positions.get(i))).isEqualTo(records.get(i));
+            }
+            assertThat(stream.nextFilterRecord()).isNull();
+        }
+    }
+
+    @Test
+    public void testIndexUnfinishedRecords() throws Exception {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(2);
+        for (FilterRecord<BloomFilter> record : records) {
+            record.writeFullyTo(writeRecordChannel);
+        }
+        writeRecordChannel.truncate(writeRecordChannel.size() - 1);
+
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            final List<Long> positions = new ArrayList<>();
+            assertThatThrownBy(() -> stream.indexRecordPositions(positions))
+                    .hasMessage(UnfinishedFilterException.shortReadFilterBody(tempFile.toString(), 1).getMessage());
+            assertThat(positions).containsExactly(0L);
+            assertThat(stream.decodeFilterRecordAt(0)).isEqualTo(records.get(0));
+        }
+    }
+
+    @Test
+    public void testIndexSkipsExpiredRecords() throws Exception {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(4);
+        records.add(1, new FilterRecord<>("Invalid_Filter", generateInvalidFilter()));
+        final List<Long> expectPositions = new ArrayList<>();
+        for (FilterRecord<BloomFilter> record : records) {
+            if (record.filter().valid()) {
+                expectPositions.add(writeRecordChannel.position());
+            }
+            record.writeFullyTo(writeRecordChannel);
+        }
+
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            final List<Long> positions = new ArrayList<>();
+            stream.indexRecordPositions(positions, System.currentTimeMillis());
+            assertThat(positions).isEqualTo(expectPositions);
+        }
+
+        // the expired record can still be read sequentially
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            for (FilterRecord<BloomFilter> expectRecord : records) {
+                assertThat(stream.nextFilterRecord()).isEqualTo(expectRecord);
+            }
         }
     }
 
+    @Test
+    public void testReadRecordsWithoutExpiration() throws Exception {
+        // the records written by the previous versions have no ExpirationMillis
+        final FilterRecord<BloomFilter> expiredRecord = new FilterRecord<>("Invalid_Filter", generateInvalidFilter());
+        final FilterRecord<BloomFilter> record = generateSingleFilterRecord();
+        writeRecordWithoutExpiration(expiredRecord);
+        writeRecordWithoutExpiration(record);
+
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            assertThat(stream.nextFilterRecord()).isEqualTo(expiredRecord);
+            assertThat(stream.nextFilterRecord()).isEqualTo(record);
+            assertThat(stream.nextFilterRecord()).isNull();
+        }
+
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+            final List<Long> positions = new ArrayList<>();
+            stream.indexRecordPositions(positions, System.currentTimeMillis());
+            assertThat(positions).hasSize(2);
+            assertThat(stream.decodeFilterRecordAt(positions.get(1))).isEqualTo(record);
+        }
+    }
+
+    @Test
+    public void testReadRecordsLargerThanBuffer() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.setChannelBufferSizeForFilterPersistence(128);
+        Configuration.initConfiguration(configuration);
+        try {
+            final List<FilterRecord<BloomFilter>> records = generateFilterRecords(3);
+            final List<Long> positions = new ArrayList<>();
+            for (FilterRecord<BloomFilter> record : records) {
+                positions.add(writeRecordChannel.position());
+                record.writeFullyTo(writeRecordChannel);
+            }
+
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                for (FilterRecord<BloomFilter> expectRecord : records) {
+                    assertThat(stream.nextFilterRecord()).isEqualTo(expectRecord);
+                }
+                assertThat(stream.nextFilterRecord()).isNull();
+                assertThat(stream.decodeFilterRecordAt(positions.get(1))).isEqualTo(records.get(1));
+            }
+
+            overwriteFirstFilterRecordCrc(101);
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                assertThatThrownBy(stream::nextFilterRecord)
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("got unmatched crc when read filter from position");
+            }
+        } finally {
+            Configuration.initConfiguration(new Configuration());
+        }
+    }
+
+    @Test
+    public void testDropCorruptedRecordsLargerThanBuffer() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.setChannelBufferSizeForFilterPersistence(128);
+        Configuration.initConfiguration(configuration);
+        try {
+            final FilterRecord<BloomFilter> record = generateSingleFilterRecord();
+            final int length = record.writeFullyTo(writeRecordChannel);
+            assertThat(length).isGreaterThan(HEADER_OVERHEAD + 128);
+
+            // corrupt the bits of the filter, which are only found corrupted after the filter is deserialized
+            overwriteFirstFilterRecordBody(length - HEADER_OVERHEAD - 16, ByteBuffer.allocate(8).putLong(0, -1L));
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                assertThatThrownBy(stream::nextFilterRecord)
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("got unmatched crc when read filter from position");
+            }
+
+            // corrupt the length of the name, which fails the deserialization
+            overwriteFirstFilterRecordBody(EXPIRATION_LENGTH, ByteBuffer.allocate(4).putInt(0, -1));
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                assertThatThrownBy(stream::nextFilterRecord)
+                        .isInstanceOf(InvalidFilterException.class)
+                        .hasMessageContaining("got unmatched crc when read filter from position");
+            }
+        } finally {
+            Configuration.initConfiguration(new Configuration());
+        }
+    }
+
+    @Test
+    public void testReadWriteCompressedRecords() throws Exception {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final GuavaBloomFilter filter = new GuavaBloomFilter(1000000, 0.001, creation,
+                creation.plus(Duration.ofDays(1)), null);
+        for (int i = 0; i < 1000; i++) {
+            filter.set("Hello" + i);
+        }
+        final FilterRecord<GuavaBloomFilter> record = new FilterRecord<>("sparse_filter", filter);
+        final int rawLength = record.writeFullyTo(writeRecordChannel);
+
+        final Configuration configuration = new Configuration();
+        configuration.setEnableSnapshotCompression(true);
+        Configuration.initConfiguration(configuration);
+        try {
+            final int compressedLength = record.writeFullyTo(writeRecordChannel);
+            assertThat(compressedLength).isLessThan(rawLength / 10);
+            final FilterRecord<BloomFilter> denseRecord = generateSingleFilterRecord();
+            denseRecord.writeFullyTo(writeRecordChannel);
+
+            try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), factory)) {
+                for (int i = 0; i < 2; i++) {
+                    final FilterRecord<? extends GuavaBloomFilter> readRecord = stream.nextFilterRecord();
+                    assertThat(readRecord).isEqualTo(record);
+                    for (int j = 0; j < 1000; j++) {
+                        assertThat(readRecord.filter().mightContain("Hello" + j)).isTrue();
+                    }
+                }
+                assertThat(stream.nextFilterRecord()).isEqualTo(denseRecord);
+                assertThat(stream.nextFilterRecord()).isNull();
+            }
+        } finally {
+            Configuration.initConfiguration(new Configuration());
+        }
+    }
+
+    private void writeRecordWithoutExpiration(FilterRecord<BloomFilter> record) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream dout = new DataOutputStream(body);
+        final byte[] nameInBytes = record.name().getBytes(StandardCharsets.UTF_8);
+        dout.writeInt(nameInBytes.length);
+        dout.write(nameInBytes);
+        record.filter().writeTo(dout);
+        dout.flush();
+
+        final byte[] bodyInBytes = body.toByteArray();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_OVERHEAD);
+        header.putInt(BODY_LENGTH_OFFSET, bodyInBytes.length);
+        header.put(MAGIC_OFFSET, record.filter().type().magic());
+        header.putInt(CRC_OFFSET, (int) Crc32C.compute(bodyInBytes, 0, bodyInBytes.length));
+        writeFullyTo(writeRecordChannel, header);
+        writeFullyTo(writeRecordChannel, ByteBuffer.wrap(bodyInBytes));
+    }
+
     private void overwriteFirstFilterRecordMagic(byte magic) throws IOException {
         ByteBuffer buffer = readFirstHeader();
         buffer.flip();
@@ -129,6 +370,14 @@ public class FilterRecordInputStreamTest {
         writeFullyTo(writeRecordChannel, buffer);
     }
 
+    private void overwriteFirstFilterRecordBodyLength(int bodyLen) throws IOException {
+        ByteBuffer buffer = readFirstHeader();
+        buffer.flip();
+        buffer.putInt(BODY_LENGTH_OFFSET, bodyLen);
+        writeRecordChannel.position(0);
+        writeFullyTo(writeRecordChannel, buffer);
+    }
+
     private void overwriteFirstFilterRecordCrc(int crc) throws IOException {
         ByteBuffer buffer = readFirstHeader();
         buffer.flip();
@@ -137,6 +386,11 @@ public class FilterRecordInputStreamTest {
         writeFullyTo(writeRecordChannel, buffer);
     }
 
+    private void overwriteFirstFilterRecordBody(int offset, ByteBuffer bytes) throws IOException {
+        writeRecordChannel.position(HEADER_OVERHEAD + offset);
+        writeFullyTo(writeRecordChannel, bytes);
+    }
+
     private int writeFullyTo(GatheringByteChannel channel, ByteBuffer buffer) throws IOException {
         buffer.mark();
         int written = 0;
@@ -11,6 +11,7 @@ import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -55,6 +56,66 @@ public class FilterRecordTest {
         assertThat(stream.nextFilterRecord()).isEqualTo(new FilterRecord<>(testingFilterName, filter));
     }
 
+    @Test
+    public void testReadWriteFiltersWithDifferentTypes() throws Exception {
+        final GuavaBloomFilter guavaFilter = new GuavaBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        final BlockedBloomFilter blockedFilter = new BlockedBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        blockedFilter.set("testing_value");
+        final CountingBloomFilter countingFilter = new CountingBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        countingFilter.set("testing_value");
+        final CuckooFilter cuckooFilter = new CuckooFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        cuckooFilter.set("testing_value");
+        final BinaryFuseFilter sealedFilter = BinaryFuseFilter.build(
+                Collections.singletonList("testing_value"),
+                creation,
+                expiration,
+                validPeriodAfterAccess);
+        final FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+
+        new FilterRecord<>("guava", guavaFilter).writeFullyTo(channel);
+        new FilterRecord<>("blocked", blockedFilter).writeFullyTo(channel);
+        new FilterRecord<>("counting", countingFilter).writeFullyTo(channel);
+        new FilterRecord<>("cuckoo", cuckooFilter).writeFullyTo(channel);
+        new FilterRecord<>("sealed", sealedFilter).writeFullyTo(channel);
+
+        final FilterRecordInputStream<ExpirableBloomFilter> stream = new FilterRecordInputStream<>(tempFile.toPath(), new MultiTypeBloomFilterFactory());
+        assertThat(stream.nextFilterRecord()).isEqualTo(new FilterRecord<>("guava", guavaFilter));
+        final FilterRecord<? extends ExpirableBloomFilter> blockedRecord = stream.nextFilterRecord();
+        assertThat(blockedRecord).isEqualTo(new FilterRecord<>("blocked", blockedFilter));
+        assertThat(blockedRecord.filter().mightContain("testing_value")).isTrue();
+        final FilterRecord<? extends ExpirableBloomFilter> countingRecord = stream.nextFilterRecord();
+        assertThat(countingRecord).isEqualTo(new FilterRecord<>("counting", countingFilter));
+        assertThat(countingRecord.filter().remove("testing_value")).isTrue();
+        assertThat(countingRecord.filter().mightContain("testing_value")).isFalse();
+        final FilterRecord<? extends ExpirableBloomFilter> cuckooRecord = stream.nextFilterRecord();
+        assertThat(cuckooRecord).isEqualTo(new FilterRecord<>("cuckoo", cuckooFilter));
+        assertThat(cuckooRecord.filter().mightContain("testing_value")).isTrue();
+        final FilterRecord<? extends ExpirableBloomFilter> sealedRecord = stream.nextFilterRecord();
+        assertThat(sealedRecord).isEqualTo(new FilterRecord<>("sealed", sealedFilter));
+        assertThat(sealedRecord.filter().mightContain("testing_value")).isTrue();
+        assertThat(stream.nextFilterRecord()).isNull();
+    }
+
     @Test
     public void testHashAndEquals() {
         final GuavaBloomFilter filter = new GuavaBloomFilter(
@@ -8,8 +8,13 @@ import java.io.ByteArrayOutputStream;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class GuavaBloomFilterTest {
     private static final GuavaBloomFilterFactory testingFactory = new GuavaBloomFilterFactory();
@@ -31,7 +36,7 @@ public class GuavaBloomFilterTest {
 
         assertThat(filter.fpp()).isEqualTo(fpp);
         assertThat(filter.expectedInsertions()).isEqualTo(expectedInsertions);
-        assertThat(filter.expiration()).isEqualTo(expiration);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
         assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
         assertThat(filter.created()).isEqualTo(creation);
         assertThat(filter.expired()).isFalse();
@@ -106,6 +111,53 @@ public class GuavaBloomFilterTest {
         assertThat(filter.expired()).isFalse();
     }
 
+    @Test
+    public void testExpirationNeverMovesBackward() {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(5);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS);
+        final GuavaBloomFilter filter = new GuavaBloomFilter(
+                1000,
+                0.001,
+                creation,
+                creation.plus(validPeriodAfterAccess),
+                validPeriodAfterAccess,
+                timer);
+        timer.setNow(creation.plusSeconds(3));
+        filter.set("SomeValue");
+        assertThat(filter.expiration()).isEqualTo(creation.plusSeconds(8));
+        timer.setNow(creation.plusSeconds(1));
+        filter.mightContain("SomeValue");
+        assertThat(filter.expiration()).isEqualTo(creation.plusSeconds(8));
+    }
+
+    @Test
+    public void testExpirationUpdateGranularity() {
+        final Configuration configuration = new Configuration();
+        configuration.setExpirationUpdateGranularity(1000);
+        Configuration.initConfiguration(configuration);
+        try {
+            final AdjustableTimer timer = new AdjustableTimer();
+            final Duration validPeriodAfterAccess = Duration.ofSeconds(5);
+            final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS);
+            final GuavaBloomFilter filter = new GuavaBloomFilter(
+                    1000,
+                    0.001,
+                    creation,
+                    creation.plus(validPeriodAfterAccess),
+                    validPeriodAfterAccess,
+                    timer);
+            timer.setNow(creation.plusNanos(Duration.ofMillis(999).toNanos()));
+            filter.set("SomeValue");
+            assertThat(filter.expiration()).isEqualTo(creation.plus(validPeriodAfterAccess));
+            timer.setNow(creation.plusSeconds(1));
+            filter.set("SomeValue");
+            assertThat(filter.expiration()).isEqualTo(creation.plusSeconds(6));
+        } finally {
+            Configuration.initConfiguration(new Configuration());
+        }
+    }
+
     @Test
     public void testToJson() throws Exception {
         final Duration validPeriodAfterAccess = Duration.ofSeconds(10);
@@ -177,6 +229,52 @@ public class GuavaBloomFilterTest {
         assertThat(actualFilter.expired()).isFalse();
     }
 
+    @Test
+    public void testSerializePointInTimeImage() throws Exception {
+        final GuavaBloomFilter expect = testingFactory.createFilter(new ExpirableBloomFilterConfig(2000, 0.01));
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        // set more values into the filter while it's being serialized
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            private boolean updated;
+
+            @Override
+            public synchronized void write(int b) {
+                super.write(b);
+                updateOnce();
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                updateOnce();
+            }
+
+            private void updateOnce() {
+                if (!updated && size() > 1024) {
+                    updated = true;
+                    for (int i = 1000; i < 2000; i++) {
+                        expect.set(numberString(i));
+                    }
+                }
+            }
+        };
+        expect.writeTo(out);
+
+        final GuavaBloomFilter actualFilter = testingFactory.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+            assertThat(expect.mightContain(numberString(i + 1000))).isTrue();
+            if (actualFilter.mightContain(numberString(i + 1000))) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(10);
+    }
+
     @Test
     public void testHashcodeAndEquals() {
         final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
@@ -225,4 +323,21 @@ public class GuavaBloomFilterTest {
         assertThat(filter.hashCode()).isNotEqualTo(filter2.hashCode());
         assertThat(filter.equals(filter2)).isFalse();
     }
+
+    @Test
+    public void testBinaryValues() {
+        assertBinaryValuesSameAsStringValues(testingFactory.createFilter(defaultTestingConfig), 1000);
+    }
+
+    @Test
+    public void testHashesNotSupported() {
+        final GuavaBloomFilter filter = testingFactory.createFilter(defaultTestingConfig);
+        assertThat(filter.hashScheme()).isNull();
+        assertThatThrownBy(() -> filter.set(numberHash(1, HashScheme.MURMUR3_128)))
+                .isInstanceOf(UnsupportedOperationException.class)
+                .hasMessageContaining("do not support hashes");
+        assertThatThrownBy(() -> filter.mightContain(numberHash(1, HashScheme.MURMUR3_128)))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
 }
\ No newline at end of file
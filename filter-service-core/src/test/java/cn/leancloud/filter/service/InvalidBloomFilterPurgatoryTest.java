@@ -1,16 +1,25 @@
 package cn.leancloud.filter.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class InvalidBloomFilterPurgatoryTest {
     private static final String testingFilterName = "TestingFilterName";
+
     @Test
     public void testPurge() {
         final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
@@ -28,7 +37,7 @@ public class InvalidBloomFilterPurgatoryTest {
 
         final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(mockedFactory);
         final GuavaBloomFilter filter = manager.createFilter(testingFilterName, config).getFilter();
-        final InvalidBloomFilterPurgatory<GuavaBloomFilter> purgatory =
+        final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
                 new InvalidBloomFilterPurgatory<>(manager);
 
         assertThat(filter.expired()).isTrue();
@@ -38,4 +47,168 @@ public class InvalidBloomFilterPurgatoryTest {
 
         assertThat(manager.getFilter(testingFilterName)).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPurgeFilterCreatedLater() {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final ZonedDateTime now = timer.utcNow();
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        final GuavaBloomFilterFactory mockedFactory = Mockito.mock(GuavaBloomFilterFactory.class);
+        Mockito.when(mockedFactory.createFilter(config))
+                .thenReturn(new GuavaBloomFilter(1000, 0.01, now, now.plusSeconds(10), null, timer));
+
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(mockedFactory);
+        final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
+                new InvalidBloomFilterPurgatory<>(manager, Duration.ofSeconds(1), timer);
+        manager.addListener(purgatory);
+
+        final GuavaBloomFilter filter = manager.createFilter(testingFilterName, config).getFilter();
+
+        purgatory.purge();
+        assertThat(manager.getFilter(testingFilterName)).isSameAs(filter);
+        assertThat(purgatory.scheduledFilters()).isEqualTo(1);
+
+        timer.setNow(filter.expiration().plusSeconds(1));
+        assertThat(filter.expired()).isTrue();
+        purgatory.purge();
+        assertThat(manager.getFilter(testingFilterName)).isNull();
+        assertThat(purgatory.scheduledFilters()).isZero();
+    }
+
+    @Test
+    public void testOnlyVisitDueFilters() {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final ZonedDateTime now = timer.utcNow();
+        final GuavaBloomFilter dueFilter = new GuavaBloomFilter(1000, 0.01, now, now.plusSeconds(5), null, timer);
+        final GuavaBloomFilter notDueFilter = new GuavaBloomFilter(1000, 0.01, now, now.plusSeconds(100), null, timer);
+        @SuppressWarnings("unchecked")
+        final BloomFilterManager<GuavaBloomFilter, ExpirableBloomFilterConfig> manager = Mockito.mock(BloomFilterManager.class);
+        Mockito.when(manager.iterator()).thenReturn(Arrays.asList(
+                new FilterRecord<>("due", dueFilter),
+                new FilterRecord<>("notDue", notDueFilter)).iterator());
+        Mockito.when(manager.peekFilter("due")).thenReturn(dueFilter);
+        Mockito.when(manager.peekFilter("notDue")).thenReturn(notDueFilter);
+
+        final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
+                new InvalidBloomFilterPurgatory<>(manager, Duration.ofSeconds(1), timer);
+        purgatory.purge();
+        Mockito.verify(manager, Mockito.times(1)).peekFilter("due");
+        Mockito.verify(manager, Mockito.times(1)).peekFilter("notDue");
+
+        timer.setNow(now.plusSeconds(10));
+        purgatory.purge();
+        Mockito.verify(manager, Mockito.times(2)).peekFilter("due");
+        Mockito.verify(manager, Mockito.times(1)).peekFilter("notDue");
+        Mockito.verify(manager).remove("due", dueFilter);
+        Mockito.verify(manager, Mockito.never()).remove("notDue", notDueFilter);
+        Mockito.verify(manager, Mockito.times(1)).iterator();
+    }
+
+    @Test
+    public void testRescheduleExtendedFilter() {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final ZonedDateTime now = timer.utcNow();
+        final GuavaBloomFilter filter = new GuavaBloomFilter(1000, 0.01, now, now.plusSeconds(5),
+                Duration.ofSeconds(20), timer);
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(new GuavaBloomFilterFactory());
+        manager.addFilters(Collections.singletonList(new FilterRecord<>(testingFilterName, filter)));
+        final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
+                new InvalidBloomFilterPurgatory<>(manager, Duration.ofSeconds(1), timer);
+        purgatory.purge();
+
+        // extend the expiration of the filter by accessing it
+        timer.setNow(now.plusSeconds(4));
+        filter.set("value");
+
+        timer.setNow(now.plusSeconds(10));
+        purgatory.purge();
+        assertThat(manager.getFilter(testingFilterName)).isSameAs(filter);
+        assertThat(purgatory.scheduledFilters()).isEqualTo(1);
+
+        timer.setNow(now.plusSeconds(30));
+        purgatory.purge();
+        assertThat(manager.getFilter(testingFilterName)).isNull();
+    }
+
+    @Test
+    public void testNotLoadEvictedFilter() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final ZonedDateTime now = timer.utcNow();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+            final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE,
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry()),
+                    1, Duration.ofMinutes(1), timer);
+            final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
+                    new InvalidBloomFilterPurgatory<>(manager, Duration.ofSeconds(1), timer);
+            manager.addListener(purgatory);
+            manager.createFilter(testingFilterName,
+                    new ExpirableBloomFilterConfig().setValidPeriodAfterCreate(Duration.ofMinutes(10)));
+            purgatory.purge();
+            assertThat(purgatory.scheduledFilters()).isEqualTo(1);
+
+            timer.setNow(now.plusMinutes(2));
+            assertThat(manager.evictColdFilters()).isEqualTo(1);
+
+            // the evicted filter is due, but it's left to the manager
+            timer.setNow(now.plusMinutes(11));
+            purgatory.purge();
+            assertThat(purgatory.scheduledFilters()).isZero();
+            assertThat(manager.coldFilterSize()).isEqualTo(1);
+            assertThat(manager.usedMemoryBytes()).isZero();
+
+            manager.evictColdFilters();
+            assertThat(manager.coldFilterSize()).isZero();
+            assertThat(manager.size()).isZero();
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testIndexFilterLoadedBack() throws Exception {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final Path tempDirPath = newTempDirPath();
+        try {
+            final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+            final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager = new BloomFilterManagerImpl<>(
+                    factory, Long.MAX_VALUE, Long.MAX_VALUE,
+                    new ColdFilterStorage<>(tempDirPath, factory, new SimpleMeterRegistry()),
+                    1, Duration.ofMinutes(1), timer);
+            manager.createFilter(testingFilterName,
+                    new ExpirableBloomFilterConfig().setValidPeriodAfterCreate(Duration.ofMinutes(10)));
+            timer.setNow(timer.utcNow().plusMinutes(2));
+            assertThat(manager.evictColdFilters()).isEqualTo(1);
+
+            final InvalidBloomFilterPurgatory<GuavaBloomFilter, ExpirableBloomFilterConfig> purgatory =
+                    new InvalidBloomFilterPurgatory<>(manager, Duration.ofSeconds(1), timer);
+            manager.addListener(purgatory);
+            purgatory.purge();
+            assertThat(purgatory.scheduledFilters()).isZero();
+
+            assertThat(manager.getFilter(testingFilterName)).isNotNull();
+            purgatory.purge();
+            assertThat(purgatory.scheduledFilters()).isEqualTo(1);
+        } finally {
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+
+    @Test
+    public void testInvalidTick() {
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(new GuavaBloomFilterFactory());
+        assertThatThrownBy(() -> new InvalidBloomFilterPurgatory<>(manager, Duration.ZERO, new AdjustableTimer()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("tick");
+    }
+
+    private Path newTempDirPath() {
+        return Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+    }
+}
@@ -0,0 +1,96 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.MappedLongArray;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedStorageDirectoryTest {
+    private Path tempDirPath;
+    private MappedStorageDirectory directory;
+
+    @Before
+    public void setUp() throws Exception {
+        final String tempDir = System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime();
+        tempDirPath = Paths.get(tempDir);
+        directory = new MappedStorageDirectory(tempDirPath.resolve("mapped"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Test
+    public void testDirectoryIsAFile() throws Exception {
+        final Path plainFile = tempDirPath.resolve("plain_file");
+        FileChannel.open(plainFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE).close();
+        assertThatThrownBy(() -> new MappedStorageDirectory(plainFile))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("invalid mapped storage directory path, it's a regular file");
+    }
+
+    @Test
+    public void testAllocateAndOpen() throws Exception {
+        final MappedLongArray array = directory.allocate(100);
+        assertThat(array.length()).isEqualTo(100);
+        assertThat(array.path().getParent()).isEqualTo(directory.directory());
+        for (int i = 0; i < array.length(); i++) {
+            assertThat(array.get(i)).isZero();
+            assertThat(array.compareAndSet(i, 0, i)).isTrue();
+        }
+        assertThat(array.compareAndSet(1, 0, 100)).isFalse();
+        array.force();
+
+        final MappedLongArray reopened = directory.open(array.path().getFileName().toString(), 100);
+        for (int i = 0; i < reopened.length(); i++) {
+            assertThat(reopened.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testOpenWithMismatchedLength() throws Exception {
+        final MappedLongArray array = directory.allocate(100);
+        assertThatThrownBy(() -> directory.open(array.path().getFileName().toString(), 101))
+                .hasMessageContaining("unexpected size");
+    }
+
+    @Test
+    public void testOpenMissingFile() {
+        assertThatThrownBy(() -> directory.open("missing.bits", 100))
+                .isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void testDeleteFileOnLastRelease() throws Exception {
+        final MappedLongArray array = directory.allocate(100);
+        final MappedLongArray reopened = directory.open(array.path().getFileName().toString(), 100);
+
+        directory.release(array);
+        assertThat(array.path().toFile().exists()).isTrue();
+        directory.release(reopened);
+        assertThat(array.path().toFile().exists()).isFalse();
+    }
+
+    @Test
+    public void testDeleteUnusedFiles() throws Exception {
+        final MappedLongArray used = directory.allocate(100);
+        final MappedLongArray unused = MappedLongArray.create(directory.directory().resolve("unused.bits"), 100);
+
+        directory.deleteUnusedFiles();
+        assertThat(used.path().toFile().exists()).isTrue();
+        assertThat(unused.path().toFile().exists()).isFalse();
+    }
+}
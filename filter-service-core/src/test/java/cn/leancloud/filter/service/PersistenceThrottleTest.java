@@ -0,0 +1,121 @@
+package cn.leancloud.filter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PersistenceThrottleTest {
+    private SimpleMeterRegistry registry;
+    private Path tempDirPath;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        final String tempDir = System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime();
+        tempDirPath = Paths.get(tempDir);
+        FileUtils.forceMkdir(tempDirPath.toFile());
+        channel = FileChannel.open(tempDirPath.resolve("segment"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ);
+        registry = new SimpleMeterRegistry();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThatThrownBy(() -> new PersistenceThrottle(0, Long.MAX_VALUE, registry))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("bytesPerSecond: 0 (expected: > 0)");
+
+        assertThatThrownBy(() -> new PersistenceThrottle(Long.MAX_VALUE, 0, registry))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("forceIntervalBytes: 0 (expected: > 0)");
+    }
+
+    @Test
+    public void testWriteWithoutLimit() throws Exception {
+        final PersistenceThrottle throttle = new PersistenceThrottle(Long.MAX_VALUE, Long.MAX_VALUE, registry);
+        final byte[] content = randomBytes(100000);
+        final OutputStream out = throttle.newOutputStream(channel);
+        out.write(content);
+        out.write(content[0]);
+
+        assertThat(registry.counter(Configuration.metricsPrefix() + ".persistence.writtenBytes").count())
+                .isEqualTo(content.length + 1);
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.stallTime").count()).isZero();
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count()).isZero();
+        assertThat(Files.readAllBytes(tempDirPath.resolve("segment")))
+                .startsWith(content)
+                .endsWith(content[0])
+                .hasSize(content.length + 1);
+    }
+
+    @Test
+    public void testLimitWriteRate() throws Exception {
+        final PersistenceThrottle throttle = new PersistenceThrottle(1024 * 1024, Long.MAX_VALUE, registry);
+        final byte[] content = randomBytes(100 * 1024);
+        final OutputStream out = throttle.newOutputStream(channel);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            out.write(content);
+        }
+
+        // the first write is not delayed, every one after it waits for about 100ms
+        assertThat(System.nanoTime() - start).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(300));
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.stallTime")
+                .totalTime(TimeUnit.MILLISECONDS)).isGreaterThan(300);
+        assertThat(channel.size()).isEqualTo(5 * content.length);
+    }
+
+    @Test
+    public void testForcePeriodically() throws Exception {
+        final PersistenceThrottle throttle = new PersistenceThrottle(Long.MAX_VALUE, 1000, registry);
+        final OutputStream out = throttle.newOutputStream(channel);
+        out.write(randomBytes(999));
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count()).isZero();
+        out.write(1);
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count()).isOne();
+        out.write(randomBytes(2500));
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count()).isEqualTo(2);
+
+        throttle.force(channel, true);
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count()).isEqualTo(3);
+    }
+
+    @Test
+    public void testRecordSnapshot() {
+        final PersistenceThrottle throttle = new PersistenceThrottle(Long.MAX_VALUE, Long.MAX_VALUE, registry);
+        throttle.recordSnapshot(2048, TimeUnit.SECONDS.toNanos(2));
+        throttle.recordSnapshot(2048, 0);
+
+        assertThat(registry.summary(Configuration.metricsPrefix() + ".persistence.throughput").count()).isOne();
+        assertThat(registry.summary(Configuration.metricsPrefix() + ".persistence.throughput").max())
+                .isEqualTo(1024);
+    }
+
+    private byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(101).nextBytes(bytes);
+        return bytes;
+    }
+}
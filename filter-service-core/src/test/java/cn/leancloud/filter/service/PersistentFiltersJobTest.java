@@ -1,12 +1,18 @@
 package cn.leancloud.filter.service;
 
 import cn.leancloud.filter.service.Configuration.TriggerPersistenceCriteria;
+import cn.leancloud.filter.service.WriteAheadLog.SyncPolicy;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -76,4 +82,30 @@ public class PersistentFiltersJobTest {
         assertThat(filterUpdateTimesCounter.sum()).isZero();
         verify(persistentManager, times(1)).freezeAllFilters(bloomFilterManager);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRollAndTruncateWriteAheadLog() throws Exception {
+        final Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        final WriteAheadLog writeAheadLog = new WriteAheadLog(tempDirPath, SyncPolicy.NEVER, 100, new SimpleMeterRegistry());
+        try {
+            writeAheadLog.start(0);
+            writeAheadLog.logDelete("TestingFilter").get();
+            final PersistentFiltersJob<BloomFilter> job = new PersistentFiltersJob<>(bloomFilterManager,
+                    persistentManager, filterUpdateTimesCounter, criteria, writeAheadLog);
+            filterUpdateTimesCounter.add(100);
+            job.run();
+            verify(persistentManager, times(1)).freezeAllFilters(bloomFilterManager);
+            assertThat(writeAheadLog.listLogFileIds()).containsExactly(1L);
+
+            // keep the log when persistence failed
+            doThrow(new IOException("expected exception")).when(persistentManager).freezeAllFilters(bloomFilterManager);
+            filterUpdateTimesCounter.add(100);
+            job.run();
+            assertThat(writeAheadLog.listLogFileIds()).containsExactly(1L, 2L);
+        } finally {
+            writeAheadLog.close();
+            FileUtils.forceDelete(tempDirPath.toFile());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cn.leancloud.filter.service;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to recover the filters from a snapshot on start, with different numbers of threads
+ * to check and deserialize the records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SingleShotTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(value = 1)
+public class PersistentManagerRecoveryBenchmark {
+    private static final int FILTERS = 256;
+
+    @Param({"1", "4", "8"})
+    int recoveryThreads;
+
+    private final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+    private Path tempDirPath;
+    private PersistentManager<GuavaBloomFilter> manager;
+
+    @Setup
+    public void setup() throws Exception {
+        tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_recovery_benchmark_" + System.nanoTime());
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofDays(1));
+        final List<FilterRecord<GuavaBloomFilter>> records = new ArrayList<>(FILTERS);
+        for (int i = 0; i < FILTERS; i++) {
+            final GuavaBloomFilter filter = new GuavaBloomFilter(1000000, 0.001, creation, expiration,
+                    Duration.ofDays(1));
+            filter.set("Hello" + i);
+            records.add(new FilterRecord<>("filter-" + i, filter));
+        }
+
+        try (PersistentManager<GuavaBloomFilter> writer = new PersistentManager<>(tempDirPath, () -> 0L, 4, 1)) {
+            writer.freezeAllFilters(records);
+        }
+
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 1, recoveryThreads);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        manager.close();
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Benchmark
+    public int recoverFilters() throws Exception {
+        return manager.recoverFilters(factory, false).size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(PersistentManagerRecoveryBenchmark.class.getSimpleName())
+                .warmupIterations(3)
+                .measurementIterations(10)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
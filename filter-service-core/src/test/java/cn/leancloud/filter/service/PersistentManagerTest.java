@@ -1,5 +1,7 @@
 package cn.leancloud.filter.service;
 
+import cn.leancloud.filter.service.SnapshotManifest.Entry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -7,13 +9,20 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import static cn.leancloud.filter.service.TestingUtils.generateFilterRecords;
 import static cn.leancloud.filter.service.TestingUtils.generateInvalidFilter;
@@ -38,7 +47,8 @@ public class PersistentManagerTest {
         filterManager = mock(BloomFilterManager.class);
         factory = mock(GuavaBloomFilterFactory.class);
         when(factory.readFrom(any())).thenCallRealMethod();
-        manager = new PersistentManager<>(tempDirPath);
+        when(factory.readFrom(any(), any())).thenCallRealMethod();
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 1);
     }
 
     @After
@@ -83,8 +93,10 @@ public class PersistentManagerTest {
 
         manager.freezeAllFilters(filterManager);
 
+        assertThat(manager.manifestFilePath()).exists();
+        assertThat(manager.listSegmentIds()).containsExactly(0L);
         try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(
-                manager.persistentFilePath(),
+                manager.segmentFilePath(0),
                 new GuavaBloomFilterFactory())) {
             for (FilterRecord<BloomFilter> expectRecord : records) {
                 assertThat(stream.nextFilterRecord()).isEqualTo(expectRecord);
@@ -126,8 +138,10 @@ public class PersistentManagerTest {
         final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
         when(filterManager.iterator()).thenReturn(records.iterator());
         manager.freezeAllFilters(filterManager);
-        try (FileChannel channel = FileChannel.open(manager.persistentFilePath(), StandardOpenOption.WRITE)) {
-            channel.truncate(channel.size() - 1);
+        try (FileChannel channel = FileChannel.open(manager.segmentFilePath(0), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // cut the last record along with the index after it
+            channel.truncate(SegmentIndex.indexPosition(channel) - 1);
 
             assertThatThrownBy(() -> manager.recoverFilters(factory, false))
                     .hasMessageContaining("failed to recover filters from:")
@@ -140,8 +154,10 @@ public class PersistentManagerTest {
         final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
         when(filterManager.iterator()).thenReturn(records.iterator());
         manager.freezeAllFilters(filterManager);
-        try (FileChannel channel = FileChannel.open(manager.persistentFilePath(), StandardOpenOption.WRITE)) {
-            channel.truncate(channel.size() - 1);
+        try (FileChannel channel = FileChannel.open(manager.segmentFilePath(0), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // cut the last record along with the index after it
+            channel.truncate(SegmentIndex.indexPosition(channel) - 1);
 
             assertThat(manager.recoverFilters(factory, true))
                     .isEqualTo(records.subList(0, records.size() - 1));
@@ -151,10 +167,7 @@ public class PersistentManagerTest {
     @Test
     public void testRecoverOnlyFromTemporaryFile() throws IOException {
         final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
-        when(filterManager.iterator()).thenReturn(records.iterator());
-
-        manager.freezeAllFilters(filterManager);
-        FilterServiceFileUtils.atomicMoveWithFallback(manager.persistentFilePath(), manager.temporaryPersistentFilePath());
+        writeSingleFileSnapshot(manager.temporaryPersistentFilePath(), records);
 
         assertThat(manager.recoverFilters(factory, false)).isEqualTo(records);
     }
@@ -168,13 +181,10 @@ public class PersistentManagerTest {
         expected.addAll(records.subList(10, 20));
 
         // prepare temporary file
-        when(filterManager.iterator()).thenReturn(records.subList(10, 20).iterator());
-        manager.freezeAllFilters(filterManager);
-        FilterServiceFileUtils.atomicMoveWithFallback(manager.persistentFilePath(), temporaryPath);
+        writeSingleFileSnapshot(temporaryPath, records.subList(10, 20));
 
         // prepare normal file
-        when(filterManager.iterator()).thenReturn(records.iterator());
-        manager.freezeAllFilters(filterManager);
+        writeSingleFileSnapshot(manager.persistentFilePath(), records);
 
         FilterServiceFileUtils.atomicMoveWithFallback(temporaryPath, manager.temporaryPersistentFilePath());
         assertThat(manager.recoverFilters(factory, false)).isEqualTo(expected);
@@ -186,13 +196,10 @@ public class PersistentManagerTest {
         final List<FilterRecord<BloomFilter>> records = generateFilterRecords(20);
 
         // prepare temporary file
-        when(filterManager.iterator()).thenReturn(generateFilterRecords(50, 20).iterator());
-        manager.freezeAllFilters(filterManager);
-        FilterServiceFileUtils.atomicMoveWithFallback(manager.persistentFilePath(), temporaryPath);
+        writeSingleFileSnapshot(temporaryPath, generateFilterRecords(50, 20));
 
         // prepare normal file
-        when(filterManager.iterator()).thenReturn(records.iterator());
-        manager.freezeAllFilters(filterManager);
+        writeSingleFileSnapshot(manager.persistentFilePath(), records);
 
         FilterServiceFileUtils.atomicMoveWithFallback(temporaryPath, manager.temporaryPersistentFilePath());
         try (FileChannel channel = FileChannel.open(manager.temporaryPersistentFilePath(), StandardOpenOption.WRITE)) {
@@ -200,4 +207,367 @@ public class PersistentManagerTest {
             assertThat(manager.recoverFilters(factory, false)).isEqualTo(records);
         }
     }
+    @Test
+    public void testOnlyWriteDirtyFilters() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(10);
+        when(filterManager.iterator()).thenAnswer(invocation -> records.iterator());
+        manager.freezeAllFilters(filterManager);
+        assertThat(records).allMatch(r -> !r.filter().dirty());
+
+        // nothing changed
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L);
+
+        records.get(3).filter().set("Hello");
+        assertThat(records.get(3).filter().dirty()).isTrue();
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L, 1L);
+        assertThat(readAllRecords(manager.segmentFilePath(1)))
+                .extracting(FilterRecord::name)
+                .containsExactly(records.get(3).name());
+
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(factory, false);
+        assertThat(recovered)
+                .extracting(FilterRecord::name)
+                .containsExactlyInAnyOrderElementsOf(records.stream().map(FilterRecord::name).collect(Collectors.toList()));
+        assertThat(recovered)
+                .filteredOn(r -> r.name().equals(records.get(3).name()))
+                .allMatch(r -> r.filter().mightContain("Hello"));
+    }
+
+    @Test
+    public void testCarryOverFilterWithExtendedExpiration() throws IOException {
+        final AdjustableTimer timer = new AdjustableTimer();
+        final ZonedDateTime now = timer.utcNow();
+        final GuavaBloomFilter filter = new GuavaBloomFilter(1000, 0.01, now, now.plusSeconds(10),
+                Duration.ofSeconds(60), timer);
+        final List<FilterRecord<BloomFilter>> records = Collections.singletonList(
+                new FilterRecord<>("TestingFilter", new CountUpdateBloomFilterWrapper(filter, new LongAdder())));
+        when(filterManager.iterator()).thenAnswer(invocation -> records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        // reading the filter extends its expiration without changing it
+        timer.setNow(now.plusSeconds(30));
+        assertThat(records.get(0).filter().mightContain("Hello")).isFalse();
+        assertThat(records.get(0).filter().dirty()).isFalse();
+        final long extendedExpirationMillis = filter.expirationMillis();
+        assertThat(extendedExpirationMillis).isGreaterThan(now.plusSeconds(10).toInstant().toEpochMilli());
+
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L);
+        assertThat(persistedEntries())
+                .extracting(Entry::expirationMillis)
+                .containsExactly(extendedExpirationMillis);
+
+        // recover the filter after the expiration in its record, but before the extended one
+        manager.close();
+        timer.setNow(now.plusSeconds(60));
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 1, 1,
+                new PersistenceThrottle(Long.MAX_VALUE, Long.MAX_VALUE, new SimpleMeterRegistry()), timer);
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(factory, false);
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.get(0).filter().expirationMillis()).isEqualTo(extendedExpirationMillis);
+    }
+
+    @Test
+    public void testRemovedFiltersAreNotCarriedOver() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        when(filterManager.iterator()).thenReturn(records.subList(0, 8).iterator());
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L);
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(factory, false);
+        assertThat(recovered)
+                .extracting(FilterRecord::name)
+                .containsExactlyInAnyOrderElementsOf(
+                        records.subList(0, 8).stream().map(FilterRecord::name).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testRewriteLiveFiltersInSparseSegment() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(10);
+        when(filterManager.iterator()).thenAnswer(invocation -> records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        for (FilterRecord<BloomFilter> record : records.subList(0, 6)) {
+            record.filter().set("Hello");
+        }
+        manager.freezeAllFilters(filterManager);
+
+        // only 4 of 10 filters in the first segment are still live
+        assertThat(manager.listSegmentIds()).containsExactly(1L);
+        assertThat(readAllRecords(manager.segmentFilePath(1))).hasSize(10);
+    }
+
+    @Test
+    public void testCarryOverRecoveredFilters() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(
+                new CountUpdateBloomFilterFactory<>(new GuavaBloomFilterFactory(), new LongAdder()), false);
+        when(filterManager.iterator()).thenReturn(recovered.iterator());
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L);
+    }
+
+    @Test
+    public void testDeleteSingleFileSnapshotAfterFreeze() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        writeSingleFileSnapshot(manager.persistentFilePath(), records);
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(factory, false);
+        assertThat(recovered).isEqualTo(records);
+
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.persistentFilePath()).doesNotExist();
+        assertThat(manager.recoverFilters(factory, false)).isEqualTo(records);
+    }
+
+    @Test
+    public void testRecoverFromCorruptedManifest() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+        try (FileChannel channel = FileChannel.open(manager.manifestFilePath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThatThrownBy(() -> manager.recoverFilters(factory, false))
+                .hasMessageContaining("failed to recover filters from:")
+                .isInstanceOf(PersistentStorageException.class);
+        assertThat(manager.recoverFilters(factory, true)).isEqualTo(records);
+    }
+
+    @Test
+    public void testPersistLogSequence() throws IOException {
+        final AtomicLong logSequence = new AtomicLong(10);
+        manager.close();
+        manager = new PersistentManager<>(tempDirPath, logSequence::get);
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(2);
+        when(filterManager.iterator()).thenAnswer(invocation -> records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        logSequence.set(20);
+        records.get(1).filter().set("Hello");
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.persistedLogSequence(records.get(0).name())).isEqualTo(10);
+        assertThat(manager.persistedLogSequence(records.get(1).name())).isEqualTo(20);
+        assertThat(manager.persistedLogSequence("NotPersistedFilter")).isZero();
+
+        manager.close();
+        manager = new PersistentManager<>(tempDirPath);
+        manager.recoverFilters(factory, false);
+        assertThat(manager.persistedLogSequence(records.get(0).name())).isEqualTo(10);
+        assertThat(manager.persistedLogSequence(records.get(1).name())).isEqualTo(20);
+        assertThat(manager.lastPersistedLogSequence()).isEqualTo(20);
+    }
+
+    @Test
+    public void testParallelFreeze() throws IOException {
+        manager.close();
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 4);
+        final List<FilterRecord<BloomFilter>> records = generateWrappedFilterRecords(10);
+        when(filterManager.iterator()).thenAnswer(invocation -> records.iterator());
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L, 1L, 2L, 3L);
+        assertThat(records).allMatch(r -> !r.filter().dirty());
+
+        // only one filter to write, so only one segment is added
+        records.get(3).filter().set("Hello");
+        manager.freezeAllFilters(filterManager);
+        assertThat(manager.listSegmentIds()).containsExactly(0L, 1L, 2L, 3L, 4L);
+        assertThat(readAllRecords(manager.segmentFilePath(4)))
+                .extracting(FilterRecord::name)
+                .containsExactly(records.get(3).name());
+
+        final List<FilterRecord<? extends BloomFilter>> recovered = manager.recoverFilters(factory, false);
+        assertThat(recovered)
+                .extracting(FilterRecord::name)
+                .containsExactlyInAnyOrderElementsOf(records.stream().map(FilterRecord::name).collect(Collectors.toList()));
+        assertThat(recovered)
+                .filteredOn(r -> r.name().equals(records.get(3).name()))
+                .allMatch(r -> r.filter().mightContain("Hello"));
+    }
+
+    @Test
+    public void testParallelRecovery() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(20);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+        writeSingleFileSnapshot(manager.temporaryPersistentFilePath(), records.subList(0, 10));
+
+        manager.close();
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 1, 4);
+        assertThat(manager.recoverFilters(factory, false)).isEqualTo(records);
+
+        // recover from the single file snapshot of the previous versions when there is no manifest
+        FileUtils.forceDelete(manager.manifestFilePath().toFile());
+        assertThat(manager.recoverFilters(factory, false)).isEqualTo(records.subList(0, 10));
+    }
+
+    @Test
+    public void testWriteSegmentIndex() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        final SegmentIndex index;
+        try (FilterRecordInputStream<BloomFilter> stream = new FilterRecordInputStream<>(
+                manager.segmentFilePath(0), factory)) {
+            index = stream.readSegmentIndex();
+        }
+        assertThat(index).isNotNull();
+        assertThat(index.entries())
+                .extracting(SegmentIndex.Entry::name)
+                .containsExactlyElementsOf(records.stream().map(FilterRecord::name).collect(Collectors.toList()));
+        for (SegmentIndex.Entry entry : index.entries()) {
+            final Entry manifestEntry = persistedEntries()
+                    .stream()
+                    .filter(e -> e.name().equals(entry.name()))
+                    .findFirst()
+                    .orElseThrow(AssertionError::new);
+            assertThat(entry.position()).isEqualTo(manifestEntry.position());
+            assertThat(entry.length()).isEqualTo(manifestEntry.length());
+            assertThat(entry.expirationMillis()).isEqualTo(manifestEntry.expirationMillis());
+        }
+
+        // reading the records one by one stops at the index
+        assertThat(readAllRecords(manager.segmentFilePath(0))).isEqualTo(records);
+    }
+
+    @Test
+    public void testSkipFiltersExpiredByTimer() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        manager.close();
+        final AdjustableTimer timer = new AdjustableTimer();
+        // all the filters expire 10 seconds after their creation
+        timer.setNow(timer.utcNow().plus(Duration.ofSeconds(11)));
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 1, 1,
+                new PersistenceThrottle(Long.MAX_VALUE, Long.MAX_VALUE, new SimpleMeterRegistry()), timer);
+        assertThat(manager.recoverFilters(factory, false)).isEmpty();
+        verify(factory, never()).readFrom(any(), any());
+    }
+
+    @Test
+    public void testSkipExpiredFiltersWithoutReading() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        for (int i = 0; i < 5; i++) {
+            records.add(new FilterRecord<>("Invalid_Filter_" + i, generateInvalidFilter()));
+        }
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        assertThat(manager.recoverFilters(factory, false)).isEqualTo(records.subList(0, 10));
+        verify(factory, times(10)).readFrom(any(), any());
+
+        // find the records by the index of the segment when the manifest is corrupted
+        truncateManifest();
+        assertThat(manager.recoverFilters(factory, true)).isEqualTo(records.subList(0, 10));
+        verify(factory, times(20)).readFrom(any(), any());
+
+        // find the records by their headers in the single file snapshot
+        FileUtils.forceDelete(manager.manifestFilePath().toFile());
+        writeSingleFileSnapshot(manager.persistentFilePath(), records);
+        assertThat(manager.recoverFilters(factory, false)).isEqualTo(records.subList(0, 10));
+        verify(factory, times(30)).readFrom(any(), any());
+    }
+
+    @Test
+    public void testRecoverFromSegmentWithCorruptedIndex() throws IOException {
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+        truncateManifest();
+        try (FileChannel channel = FileChannel.open(manager.segmentFilePath(0), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // break the CRC of the index
+            channel.write(ByteBuffer.wrap(new byte[]{1}), SegmentIndex.indexPosition(channel));
+        }
+
+        assertThat(manager.recoverFilters(factory, true)).isEqualTo(records);
+    }
+
+    @Test
+    public void testRecoverCompressedFilters() throws IOException {
+        final Configuration configuration = new Configuration();
+        configuration.setEnableSnapshotCompression(true);
+        Configuration.initConfiguration(configuration);
+        try {
+            final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+            when(filterManager.iterator()).thenReturn(records.iterator());
+            manager.freezeAllFilters(filterManager);
+            assertThat(persistedEntries())
+                    .allMatch(e -> e.length() < GuavaBloomFilter.estimatedMemoryBytes(1000000, 0.0001) / 10);
+
+            assertThat(manager.recoverFilters(factory, false)).isEqualTo(records);
+        } finally {
+            Configuration.initConfiguration(new Configuration());
+        }
+    }
+
+    @Test
+    public void testThrottledFreeze() throws IOException {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        manager.close();
+        manager = new PersistentManager<>(tempDirPath, () -> 0L, 2, 1,
+                new PersistenceThrottle(100 * 1024 * 1024, 1024 * 1024, registry));
+        final List<FilterRecord<BloomFilter>> records = generateFilterRecords(10);
+        when(filterManager.iterator()).thenReturn(records.iterator());
+        manager.freezeAllFilters(filterManager);
+
+        final long recordBytes = persistedEntries().stream().mapToLong(Entry::length).sum();
+        assertThat(registry.counter(Configuration.metricsPrefix() + ".persistence.writtenBytes").count())
+                .isGreaterThan(recordBytes * 0.9)
+                .isLessThanOrEqualTo(recordBytes);
+        // forced periodically while written, then once for each of the two segments
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".persistence.forceLatency").count())
+                .isGreaterThan(2);
+        assertThat(registry.summary(Configuration.metricsPrefix() + ".persistence.throughput").count()).isOne();
+        assertThat(manager.recoverFilters(factory, false)).containsExactlyInAnyOrderElementsOf(records);
+    }
+
+    private List<FilterRecord<BloomFilter>> generateWrappedFilterRecords(int size) {
+        final LongAdder counter = new LongAdder();
+        return generateFilterRecords(size)
+                .stream()
+                .map(r -> new FilterRecord<BloomFilter>(r.name(), new CountUpdateBloomFilterWrapper(r.filter(), counter)))
+                .collect(Collectors.toList());
+    }
+
+    private List<Entry> persistedEntries() throws IOException {
+        return new ArrayList<>(SnapshotManifest.readFrom(manager.manifestFilePath()).entries().values());
+    }
+
+    private void truncateManifest() throws IOException {
+        try (FileChannel channel = FileChannel.open(manager.manifestFilePath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+    }
+
+    private void writeSingleFileSnapshot(Path path, List<FilterRecord<BloomFilter>> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            for (FilterRecord<BloomFilter> record : records) {
+                record.writeFullyTo(channel);
+            }
+        }
+    }
+
+    private List<FilterRecord<? extends GuavaBloomFilter>> readAllRecords(Path path) throws IOException {
+        final List<FilterRecord<? extends GuavaBloomFilter>> records = new ArrayList<>();
+        try (FilterRecordInputStream<GuavaBloomFilter> stream = new FilterRecordInputStream<>(
+                path, new GuavaBloomFilterFactory())) {
+            FilterRecord<? extends GuavaBloomFilter> record;
+            while ((record = stream.nextFilterRecord()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package cn.leancloud.filter.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.*;
+
+public class RotateFiltersJobTest {
+    private BloomFilterManager<BloomFilter, ?> manager;
+    private RotateFiltersJob<BloomFilter> job;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        manager = mock(BloomFilterManager.class);
+        job = new RotateFiltersJob<>(manager);
+    }
+
+    @Test
+    public void testRotate() {
+        final BloomFilter filter = mock(BloomFilter.class);
+        final BloomFilter filter2 = mock(BloomFilter.class);
+        when(filter.tryRotate()).thenReturn(true);
+        when(manager.iterator()).thenReturn(Arrays.asList(
+                new FilterRecord<>("filter", filter),
+                new FilterRecord<>("filter2", filter2)).iterator());
+        job.run();
+        verify(filter, times(1)).tryRotate();
+        verify(filter2, times(1)).tryRotate();
+    }
+
+    @Test
+    public void testRotateThrowsException() {
+        final RuntimeException ex = new RuntimeException("expected exception");
+        doThrow(ex).when(manager).iterator();
+        job.run();
+        verify(manager, times(1)).iterator();
+    }
+}
@@ -0,0 +1,246 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.assertHashesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberBytes;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RotatingBloomFilterTest {
+    private static final MultiTypeBloomFilterFactory testingFactory = new MultiTypeBloomFilterFactory();
+    private static final Duration rotationPeriod = Duration.ofSeconds(10);
+    private AdjustableTimer timer;
+    private ZonedDateTime creation;
+
+    @Before
+    public void setUp() {
+        timer = new AdjustableTimer();
+        creation = timer.utcNow();
+    }
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(100));
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, expiration, validPeriodAfterAccess, 4);
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.ROTATING);
+        assertThat(filter.subFilterType()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(filter.maxGenerations()).isEqualTo(4);
+        assertThat(filter.rotationPeriod()).isEqualTo(rotationPeriod);
+        assertThat(filter.fpp()).isEqualTo(0.001);
+        assertThat(filter.expectedInsertions()).isEqualTo(1000);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.lastRotation()).isEqualTo(creation.toInstant().toEpochMilli());
+        assertThat(filter.generations()).hasSize(1);
+        assertThat(filter.generations().get(0).type()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(filter.generations().get(0).expectedInsertions()).isEqualTo(1000);
+        assertThat(filter.generations().get(0).fpp()).isEqualTo(0.001 / 4);
+    }
+
+    @Test
+    public void testUnsupportedSubFilterType() {
+        assertThatThrownBy(() -> testingFactory.createFilter(
+                new ExpirableBloomFilterConfig()
+                        .setType(BloomFilterType.COUNTING)
+                        .setRotationPeriod(rotationPeriod)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unsupported sub-filter type");
+    }
+
+    @Test
+    public void testInvalidGenerations() {
+        assertThatThrownBy(() -> new ExpirableBloomFilterConfig().setGenerations(1))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid parameter");
+        assertThatThrownBy(() -> new ExpirableBloomFilterConfig().setGenerations(RotatingBloomFilter.MAX_GENERATIONS + 1))
+                .isInstanceOf(BadParameterException.class)
+                .hasMessageContaining("invalid parameter");
+    }
+
+    @Test
+    public void testRotate() {
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, creation.plusDays(1), null, 3);
+        assertThat(filter.tryRotate()).isFalse();
+
+        timer.setNow(creation.plus(rotationPeriod).minus(Duration.ofMillis(1)));
+        assertThat(filter.tryRotate()).isFalse();
+        assertThat(filter.generations()).hasSize(1);
+
+        timer.setNow(creation.plus(rotationPeriod));
+        assertThat(filter.tryRotate()).isTrue();
+        assertThat(filter.generations()).hasSize(2);
+        assertThat(filter.lastRotation()).isEqualTo(creation.plus(rotationPeriod).toInstant().toEpochMilli());
+        assertThat(filter.tryRotate()).isFalse();
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(2)));
+        assertThat(filter.tryRotate()).isTrue();
+        assertThat(filter.generations()).hasSize(3);
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(3)));
+        assertThat(filter.tryRotate()).isTrue();
+        assertThat(filter.generations()).hasSize(3);
+    }
+
+    @Test
+    public void testCatchUpMissedRotations() {
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, creation.plusDays(1), null, 3);
+        filter.set("SomeValue");
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(100)).plusSeconds(1));
+        assertThat(filter.tryRotate()).isTrue();
+        assertThat(filter.generations()).hasSize(3);
+        assertThat(filter.lastRotation()).isEqualTo(creation.plus(rotationPeriod.multipliedBy(100)).toInstant().toEpochMilli());
+        assertThat(filter.mightContain("SomeValue")).isFalse();
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, creation.plusDays(1), null, 3);
+        final String testingValue = "SomeValue";
+        final String refreshedValue = "RefreshedValue";
+        assertThat(filter.set(testingValue)).isTrue();
+        assertThat(filter.set(refreshedValue)).isTrue();
+        assertThat(filter.set(testingValue)).isFalse();
+
+        timer.setNow(creation.plus(rotationPeriod));
+        filter.tryRotate();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        // set a value found in an older generation puts it into the newest generation again
+        assertThat(filter.set(refreshedValue)).isFalse();
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(2)));
+        filter.tryRotate();
+        assertThat(filter.mightContain(testingValue)).isTrue();
+        assertThat(filter.mightContain(refreshedValue)).isTrue();
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(3)));
+        filter.tryRotate();
+        assertThat(filter.mightContain(testingValue)).isFalse();
+        assertThat(filter.mightContain(refreshedValue)).isTrue();
+        assertThat(filter.set(testingValue)).isTrue();
+
+        timer.setNow(creation.plus(rotationPeriod.multipliedBy(4)));
+        filter.tryRotate();
+        assertThat(filter.mightContain(refreshedValue)).isFalse();
+    }
+
+    @Test
+    public void testKeepFppWithAllGenerations() {
+        final int expectedInsertions = 1000;
+        final double fpp = 0.01;
+        final int generations = 4;
+        final RotatingBloomFilter filter = newFilter(expectedInsertions, fpp, creation.plusDays(1), null, generations);
+        for (int i = 0; i < expectedInsertions * generations; i++) {
+            if (i > 0 && i % expectedInsertions == 0) {
+                timer.setNow(creation.plus(rotationPeriod.multipliedBy(i / expectedInsertions)));
+                filter.tryRotate();
+            }
+            filter.set(numberString(i));
+        }
+        assertThat(filter.generations()).hasSize(generations);
+
+        int falsePositives = 0;
+        final int testingTimes = 100000;
+        final int start = expectedInsertions * generations;
+        for (int i = start; i < start + testingTimes; i++) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / testingTimes).isLessThan(fpp);
+    }
+
+    @Test
+    public void testToJson() {
+        final RotatingBloomFilter filter = (RotatingBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig().setRotationPeriod(rotationPeriod));
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("rotating");
+        assertThat(json.get("subFilterType").textValue()).isEqualTo("guava");
+        assertThat(json.get("generations").intValue()).isEqualTo(RotatingBloomFilter.DEFAULT_GENERATIONS);
+        assertThat(json.get("rotationPeriod").intValue()).isEqualTo(10);
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(filter.expectedInsertions());
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final RotatingBloomFilter expect = newFilter(100, 0.001, creation.plusDays(1), Duration.ofSeconds(3), 3);
+        for (int i = 0; i < 200; i++) {
+            if (i == 100) {
+                timer.setNow(creation.plus(rotationPeriod));
+                expect.tryRotate();
+            }
+            expect.set(numberString(i));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final RotatingBloomFilter actualFilter =
+                (RotatingBloomFilter) testingFactory.readFrom(BloomFilterType.ROTATING, in);
+
+        assertThat(in.available()).isZero();
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.generations()).hasSize(2);
+        assertThat(actualFilter.lastRotation()).isEqualTo(expect.lastRotation());
+        for (int i = 0; i < 200; i++) {
+            assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+        }
+    }
+
+    private RotatingBloomFilter newFilter(int expectedInsertions,
+                                          double fpp,
+                                          ZonedDateTime expiration,
+                                          Duration validPeriodAfterAccess,
+                                          int generations) {
+        return new RotatingBloomFilter(
+                expectedInsertions,
+                fpp,
+                creation,
+                expiration,
+                validPeriodAfterAccess,
+                BloomFilterType.BLOCKED,
+                testingFactory,
+                generations,
+                rotationPeriod,
+                timer);
+    }
+
+    @Test
+    public void testBinaryValues() {
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, creation.plusDays(1), null, 3);
+        assertBinaryValuesSameAsStringValues(filter, 1000);
+        timer.setNow(creation.plus(rotationPeriod));
+        filter.tryRotate();
+        assertThat(filter.set(numberBytes(0))).isFalse();
+    }
+
+    @Test
+    public void testHashes() {
+        final RotatingBloomFilter filter = newFilter(1000, 0.001, creation.plusDays(1), null, 3);
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        assertHashesSameAsStringValues(filter, 1000);
+        timer.setNow(creation.plus(rotationPeriod));
+        filter.tryRotate();
+        assertThat(filter.set(numberHash(0, HashScheme.MURMUR3_64))).isFalse();
+    }
+
+}
@@ -0,0 +1,303 @@
+package cn.leancloud.filter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static cn.leancloud.filter.service.TestingUtils.assertBinaryValuesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.assertHashesSameAsStringValues;
+import static cn.leancloud.filter.service.TestingUtils.numberHash;
+import static cn.leancloud.filter.service.TestingUtils.numberString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScalableBloomFilterTest {
+    private static final MultiTypeBloomFilterFactory testingFactory = new MultiTypeBloomFilterFactory();
+
+    @Test
+    public void testGetters() {
+        final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        final ZonedDateTime expiration = creation.plus(Duration.ofSeconds(10));
+        final ScalableBloomFilter filter = new ScalableBloomFilter(
+                1000,
+                0.001,
+                creation,
+                expiration,
+                validPeriodAfterAccess,
+                BloomFilterType.BLOCKED,
+                testingFactory,
+                new AdjustableTimer());
+
+        assertThat(filter.type()).isEqualTo(BloomFilterType.SCALABLE);
+        assertThat(filter.subFilterType()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(filter.numSubFilters()).isEqualTo(1);
+        assertThat(filter.fpp()).isEqualTo(0.001);
+        assertThat(filter.expectedInsertions()).isEqualTo(1000);
+        assertThat(filter.expiration()).isEqualTo(expiration.truncatedTo(ChronoUnit.MILLIS));
+        assertThat(filter.validPeriodAfterAccess()).isEqualTo(validPeriodAfterAccess);
+        assertThat(filter.created()).isEqualTo(creation);
+        assertThat(filter.subFilters().get(0).type()).isEqualTo(BloomFilterType.BLOCKED);
+        assertThat(filter.subFilters().get(0).expectedInsertions()).isEqualTo(1000);
+        assertThat(filter.subFilters().get(0).fpp()).isEqualTo(0.001 * (1 - ScalableBloomFilter.TIGHTENING_RATIO));
+    }
+
+    @Test
+    public void testUnsupportedSubFilterType() {
+        assertThatThrownBy(() -> testingFactory.createFilter(
+                new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING).setScalable(true)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unsupported sub-filter type");
+    }
+
+    @Test
+    public void testGrow() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(1000, 0.01).setScalable(true));
+        int inserted = 0;
+        for (int i = 0; inserted < 1000; i++) {
+            if (filter.set(numberString(i))) {
+                inserted++;
+            }
+        }
+        assertThat(filter.numSubFilters()).isEqualTo(2);
+        assertThat(filter.lastSubFilterInsertions()).isZero();
+        assertThat(filter.subFilters().get(1).expectedInsertions()).isEqualTo(1000 * ScalableBloomFilter.GROWTH_FACTOR);
+        assertThat(filter.subFilters().get(1).fpp()).isLessThan(filter.subFilters().get(0).fpp());
+    }
+
+    @Test
+    public void testEstimatedMemoryBytesCountAllSubFilters() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.01).setScalable(true));
+        final long initialBytes = filter.estimatedMemoryBytes();
+        for (int i = 0; filter.numSubFilters() < 3; i++) {
+            filter.set(numberString(i));
+        }
+
+        assertThat(filter.estimatedMemoryBytes())
+                .isGreaterThan(initialBytes)
+                .isEqualTo(filter.subFilters().stream().mapToLong(BloomFilter::estimatedMemoryBytes).sum());
+    }
+
+    @Test
+    public void testReserveMemoryBeforeGrow() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.01).setScalable(true));
+        final TestingMemoryBudget budget = new TestingMemoryBudget();
+        assertThat(filter.attachMemoryBudget(budget)).isEqualTo(filter.estimatedMemoryBytes());
+        for (int i = 0; filter.numSubFilters() < 2; i++) {
+            filter.set(numberString(i));
+        }
+
+        assertThat(budget.reservedBytes).isEqualTo(filter.subFilters().get(1).estimatedMemoryBytes());
+        assertThat(filter.detachMemoryBudget()).isEqualTo(filter.estimatedMemoryBytes());
+        for (int i = 0; filter.numSubFilters() < 3; i++) {
+            filter.set(numberString(i));
+        }
+        assertThat(budget.reservedBytes).isEqualTo(filter.subFilters().get(1).estimatedMemoryBytes());
+    }
+
+    @Test
+    public void testFailToGrowOverMemoryBudget() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.01).setScalable(true));
+        final TestingMemoryBudget budget = new TestingMemoryBudget();
+        budget.availableBytes = 0;
+        filter.attachMemoryBudget(budget);
+        int inserted = 0;
+        int i = 0;
+        for (; inserted < 100; i++) {
+            if (filter.set(numberString(i))) {
+                inserted++;
+            }
+        }
+        final long bytes = filter.estimatedMemoryBytes();
+
+        // the value which fills the last sub-filter is put, the following values are rejected
+        assertThat(filter.numSubFilters()).isEqualTo(1);
+        assertThat(filter.mightContain(numberString(i - 1))).isTrue();
+        final String rejectedValue = numberString(i);
+        assertThatThrownBy(() -> filter.set(rejectedValue))
+                .isInstanceOf(MemoryBudgetExceededException.class);
+        assertThat(filter.numSubFilters()).isEqualTo(1);
+        assertThat(filter.estimatedMemoryBytes()).isEqualTo(bytes);
+        assertThat(budget.reservedBytes).isZero();
+
+        budget.availableBytes = Long.MAX_VALUE;
+        assertThat(filter.set(rejectedValue)).isTrue();
+        assertThat(filter.numSubFilters()).isEqualTo(2);
+        assertThat(filter.subFilters().get(1).mightContain(rejectedValue)).isTrue();
+        assertThat(budget.reservedBytes).isEqualTo(filter.subFilters().get(1).estimatedMemoryBytes());
+    }
+
+    @Test
+    public void testFullWhenReachMaxTotalInsertions() throws Exception {
+        @SuppressWarnings("unchecked")
+        final BloomFilterFactory<ExpirableBloomFilter, ExpirableBloomFilterConfig> subFilterFactory =
+                mock(BloomFilterFactory.class);
+        final ExpirableBloomFilter firstSubFilter = mock(ExpirableBloomFilter.class);
+        final ExpirableBloomFilter lastSubFilter = mock(ExpirableBloomFilter.class);
+        final int firstInsertions = (int) (ScalableBloomFilter.MAX_TOTAL_INSERTIONS / 3);
+        final int lastInsertions = (int) (ScalableBloomFilter.MAX_TOTAL_INSERTIONS - firstInsertions);
+        when(firstSubFilter.expectedInsertions()).thenReturn(firstInsertions);
+        when(lastSubFilter.expectedInsertions()).thenReturn(lastInsertions);
+        when(subFilterFactory.readFrom(any(), any())).thenReturn(firstSubFilter, lastSubFilter);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(firstInsertions);
+        dout.writeDouble(0.01);
+        dout.writeLong(0);
+        dout.writeLong(ZonedDateTime.now(ZoneOffset.UTC).plusDays(1).toEpochSecond());
+        dout.writeLong(-1);
+        dout.writeByte(BloomFilterType.GUAVA.magic());
+        dout.writeInt(2);
+        dout.writeLong(lastInsertions);
+        dout.flush();
+        final ScalableBloomFilter filter =
+                ScalableBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), subFilterFactory);
+
+        assertThatThrownBy(() -> filter.set("value"))
+                .isInstanceOf(FilterFullException.class)
+                .hasMessageContaining("expected insertions");
+        assertThat(filter.numSubFilters()).isEqualTo(2);
+        verify(subFilterFactory, never()).createFilter(any());
+        verify(lastSubFilter, never()).set(anyString());
+    }
+
+    @Test
+    public void testKeepFppWhenOverfilled() {
+        final int expectedInsertions = 1000;
+        final double fpp = 0.01;
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(expectedInsertions, fpp).setScalable(true));
+        final int insertions = expectedInsertions * 20;
+        for (int i = 0; i < insertions; i++) {
+            filter.set(numberString(i));
+        }
+        assertThat(filter.numSubFilters()).isGreaterThan(1);
+
+        for (int i = 0; i < insertions; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+        }
+
+        int falsePositives = 0;
+        final int testingTimes = 100000;
+        for (int i = insertions; i < insertions + testingTimes; i++) {
+            if (filter.mightContain(numberString(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / testingTimes).isLessThan(fpp);
+    }
+
+    @Test
+    public void testSetValueInEarlierSubFilter() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(10, 0.01).setScalable(true));
+        final String testingValue = "SomeValue";
+        assertThat(filter.set(testingValue)).isTrue();
+        for (int i = 0; filter.numSubFilters() < 2; i++) {
+            filter.set(numberString(i));
+        }
+        assertThat(filter.set(testingValue)).isFalse();
+        assertThat(filter.subFilters().get(1).mightContain(testingValue)).isFalse();
+    }
+
+    @Test
+    public void testToJson() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig().setScalable(true));
+        final JsonNode json = new ObjectMapper().valueToTree(filter);
+        assertThat(json.get("type").textValue()).isEqualTo("scalable");
+        assertThat(json.get("subFilterType").textValue()).isEqualTo("guava");
+        assertThat(json.get("subFilters").intValue()).isEqualTo(1);
+        assertThat(json.get("expectedInsertions").intValue()).isEqualTo(filter.expectedInsertions());
+        assertThat(json.get("fpp").doubleValue()).isEqualTo(filter.fpp());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final ScalableBloomFilter expect = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.001)
+                        .setValidPeriodAfterAccess(Duration.ofSeconds(3))
+                        .setScalable(true));
+        for (int i = 0; i < 1000; i++) {
+            expect.set(numberString(i));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        expect.writeTo(out);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final ScalableBloomFilter actualFilter =
+                (ScalableBloomFilter) testingFactory.readFrom(BloomFilterType.SCALABLE, in);
+
+        assertThat(in.available()).isZero();
+        assertThat(actualFilter).isEqualTo(expect);
+        assertThat(actualFilter.numSubFilters()).isEqualTo(expect.numSubFilters());
+        assertThat(actualFilter.lastSubFilterInsertions()).isEqualTo(expect.lastSubFilterInsertions());
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actualFilter.mightContain(numberString(i))).isTrue();
+        }
+    }
+
+    @Test
+    public void testBinaryValues() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.001).setScalable(true));
+        assertBinaryValuesSameAsStringValues(filter, 1000);
+        assertThat(filter.numSubFilters()).isGreaterThan(1);
+    }
+
+    @Test
+    public void testHashes() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.001).setType(BloomFilterType.BLOCKED).setScalable(true));
+        assertThat(filter.hashScheme()).isSameAs(HashScheme.MURMUR3_64);
+        assertHashesSameAsStringValues(filter, 1000);
+        assertThat(filter.numSubFilters()).isGreaterThan(1);
+    }
+
+    @Test
+    public void testHashesNotSupportedByGuavaSubFilters() {
+        final ScalableBloomFilter filter = (ScalableBloomFilter) testingFactory.createFilter(
+                new ExpirableBloomFilterConfig(100, 0.001).setScalable(true));
+        assertThat(filter.hashScheme()).isNull();
+        assertThatThrownBy(() -> filter.set(numberHash(1, HashScheme.MURMUR3_128)))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    private static final class TestingMemoryBudget implements MemoryBudget {
+        private long availableBytes = Long.MAX_VALUE;
+        private long reservedBytes;
+
+        @Override
+        public void reserve(long filterBytes, long bytes) {
+            if (bytes > availableBytes) {
+                throw new MemoryBudgetExceededException("no memory");
+            }
+            reservedBytes += bytes;
+        }
+
+        @Override
+        public void release(long bytes) {
+            reservedBytes -= bytes;
+        }
+    }
+}
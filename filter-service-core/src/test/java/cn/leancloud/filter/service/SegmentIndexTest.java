@@ -0,0 +1,99 @@
+package cn.leancloud.filter.service;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SegmentIndexTest {
+    private Path tempDirPath;
+    private Path segmentPath;
+
+    @Before
+    public void setUp() throws Exception {
+        final String tempDir = System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime();
+        tempDirPath = Paths.get(tempDir);
+        FileUtils.forceMkdir(tempDirPath.toFile());
+        segmentPath = tempDirPath.resolve("segment");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Test
+    public void testWriteAndReadIndex() throws Exception {
+        final List<SegmentIndex.Entry> entries = Arrays.asList(
+                new SegmentIndex.Entry("filter_0", 0, 100, 0xffffffffL, Long.MIN_VALUE),
+                new SegmentIndex.Entry("filter_1", 100, 200, 12345, 1000));
+        try (FileChannel channel = openChannel()) {
+            channel.write(ByteBuffer.allocate(300));
+            SegmentIndex.writeTo(channel, entries);
+
+            assertThat(SegmentIndex.indexPosition(channel)).isEqualTo(300);
+            final SegmentIndex index = SegmentIndex.readFrom(channel);
+            assertThat(index).isNotNull();
+            assertThat(index.indexPosition()).isEqualTo(300);
+            assertThat(index.entries()).isEqualTo(entries);
+        }
+    }
+
+    @Test
+    public void testWriteAndReadEmptyIndex() throws Exception {
+        try (FileChannel channel = openChannel()) {
+            SegmentIndex.writeTo(channel, Collections.emptyList());
+
+            final SegmentIndex index = SegmentIndex.readFrom(channel);
+            assertThat(index).isNotNull();
+            assertThat(index.indexPosition()).isZero();
+            assertThat(index.entries()).isEmpty();
+        }
+    }
+
+    @Test
+    public void testNoIndex() throws Exception {
+        try (FileChannel channel = openChannel()) {
+            assertThat(SegmentIndex.readFrom(channel)).isNull();
+
+            channel.write(ByteBuffer.allocate(300));
+            assertThat(SegmentIndex.indexPosition(channel)).isEqualTo(-1);
+            assertThat(SegmentIndex.readFrom(channel)).isNull();
+        }
+    }
+
+    @Test
+    public void testCorruptedIndex() throws Exception {
+        final List<SegmentIndex.Entry> entries = new ArrayList<>();
+        entries.add(new SegmentIndex.Entry("filter_0", 0, 100, 0, 1000));
+        try (FileChannel channel = openChannel()) {
+            channel.write(ByteBuffer.allocate(100));
+            SegmentIndex.writeTo(channel, entries);
+            channel.write(ByteBuffer.wrap(new byte[]{1}), 104);
+
+            assertThatThrownBy(() -> SegmentIndex.readFrom(channel))
+                    .isInstanceOf(InvalidFilterException.class)
+                    .hasMessageContaining("got unmatched crc when read segment index");
+        }
+    }
+
+    private FileChannel openChannel() throws Exception {
+        return FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,94 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.utils.ZeroRunInputStream;
+import cn.leancloud.filter.service.utils.ZeroRunOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of serializing and deserializing a filter of 10M capacity with and without the
+ * {@link ZeroRunOutputStream} encoding, from a nearly empty filter to a full one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(value = 1)
+public class SnapshotCompressionBenchmark {
+    private static final int EXPECTED_INSERTIONS = 10000000;
+
+    @Param({"1000", "100000", "10000000"})
+    int insertions;
+
+    private final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+    private GuavaBloomFilter filter;
+    private byte[] raw;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        final ZonedDateTime creation = ZonedDateTime.now(ZoneOffset.UTC);
+        filter = new GuavaBloomFilter(EXPECTED_INSERTIONS, 0.001, creation, creation.plus(Duration.ofDays(1)),
+                Duration.ofDays(1));
+        for (int i = 0; i < insertions; i++) {
+            filter.set("Hello" + i);
+        }
+
+        final ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        filter.writeTo(rawOut);
+        raw = rawOut.toByteArray();
+
+        final ByteArrayOutputStream encodedOut = new ByteArrayOutputStream();
+        try (ZeroRunOutputStream out = new ZeroRunOutputStream(encodedOut)) {
+            filter.writeTo(out);
+        }
+        encoded = encodedOut.toByteArray();
+    }
+
+    @Benchmark
+    public long testEncodeRaw() throws Exception {
+        final CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        filter.writeTo(out);
+        return out.getByteCount();
+    }
+
+    @Benchmark
+    public long testEncodeZeroRun() throws Exception {
+        final CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        final ZeroRunOutputStream zout = new ZeroRunOutputStream(out);
+        filter.writeTo(zout);
+        zout.finish();
+        return out.getByteCount();
+    }
+
+    @Benchmark
+    public GuavaBloomFilter testDecodeRaw() throws Exception {
+        return factory.readFrom(new ByteArrayInputStream(raw));
+    }
+
+    @Benchmark
+    public GuavaBloomFilter testDecodeZeroRun() throws Exception {
+        return factory.readFrom(new ZeroRunInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(SnapshotCompressionBenchmark.class.getSimpleName())
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -1,11 +1,19 @@
 package cn.leancloud.filter.service;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public final class TestingUtils {
     private static final Duration validPeriodAfterAccess = Duration.ofSeconds(3);
     private static final int expectedInsertions = 1000000;
@@ -16,6 +24,66 @@ public final class TestingUtils {
         return "" + num;
     }
 
+    public static byte[] numberBytes(Number num) {
+        return numberString(num).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Put {@code size} values into the filter, as {@code String}s and as binary values alternately, then check
+     * every value can be found in both forms.
+     */
+    public static void assertBinaryValuesSameAsStringValues(BloomFilter filter, int size) {
+        for (int i = 0; i < size; i++) {
+            if (i % 2 == 0) {
+                filter.set(numberString(i));
+                assertThat(filter.set(numberBytes(i))).isFalse();
+            } else {
+                filter.set(ByteBuffer.wrap(numberBytes(i)));
+                assertThat(filter.set(numberString(i))).isFalse();
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+            assertThat(filter.mightContain(numberBytes(i))).isTrue();
+            final ByteBuffer buffer = ByteBuffer.wrap(numberBytes(i));
+            assertThat(filter.mightContain(buffer)).isTrue();
+            assertThat(buffer.remaining()).isEqualTo(numberBytes(i).length);
+        }
+    }
+
+    /**
+     * Get the hash of the number string with the input {@link HashScheme}, as computed by the clients.
+     */
+    public static HashCode numberHash(Number num, HashScheme scheme) {
+        final HashCode hash = Hashing.murmur3_128().hashBytes(numberBytes(num));
+        return HashCode.fromBytes(Arrays.copyOf(hash.asBytes(), scheme.bytes()));
+    }
+
+    /**
+     * Put {@code size} values into the filter, as {@code String}s and as hashes with the hash scheme of the
+     * filter alternately, then check every value can be found in both forms.
+     */
+    public static void assertHashesSameAsStringValues(BloomFilter filter, int size) {
+        final HashScheme scheme = filter.hashScheme();
+        assertThat(scheme).isNotNull();
+        for (int i = 0; i < size; i++) {
+            if (i % 2 == 0) {
+                filter.set(numberString(i));
+                assertThat(filter.set(numberHash(i, scheme))).isFalse();
+            } else {
+                filter.set(numberHash(i, scheme));
+                assertThat(filter.set(numberString(i))).isFalse();
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            assertThat(filter.mightContain(numberString(i))).isTrue();
+            assertThat(filter.mightContain(numberHash(i, scheme))).isTrue();
+            assertThat(filter.mightContain(numberHash(i, HashScheme.MURMUR3_128))).isTrue();
+        }
+    }
+
     public static FilterRecord<BloomFilter> generateSingleFilterRecord() {
         return generateFilterRecords(1).get(0);
     }
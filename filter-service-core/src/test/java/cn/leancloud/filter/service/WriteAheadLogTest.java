@@ -0,0 +1,272 @@
+package cn.leancloud.filter.service;
+
+import cn.leancloud.filter.service.WriteAheadLog.Operation;
+import cn.leancloud.filter.service.WriteAheadLog.SyncPolicy;
+import cn.leancloud.filter.service.WriteAheadLog.ValueType;
+import com.google.common.hash.HashCode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WriteAheadLogTest {
+    private static final String testingFilterName = "TestingFilter";
+    private final GuavaBloomFilterFactory factory = new GuavaBloomFilterFactory();
+
+    private Path tempDirPath;
+    private MeterRegistry registry;
+    private WriteAheadLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDirPath = Paths.get(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        registry = new SimpleMeterRegistry();
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        log.start(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+        FileUtils.forceDelete(tempDirPath.toFile());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig(10000, 0.01);
+        final GuavaBloomFilter filter = factory.createFilter(config);
+        log.logCreate(testingFilterName, config, filter);
+        // not logged, so it's not replayed
+        filter.set("Hello");
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("World")));
+        log.logValues(Operation.SET, testingFilterName, ValueType.BYTES, Collections.singletonList(new byte[]{1, 2, 3}));
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        final ExpirableBloomFilterConfig hashFilterConfig = new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.BLOCKED);
+        log.logCreate("HashFilter", hashFilterConfig, multiTypeFactory.createFilter(hashFilterConfig));
+        final HashCode hash = HashCode.fromLong(1010101);
+        log.logValues(Operation.SET, "HashFilter", ValueType.HASH, Collections.singletonList(hash.asBytes())).get();
+        log.close();
+
+        assertThat(registry.counter(Configuration.metricsPrefix() + ".writeAheadLog.entries").count()).isEqualTo(5);
+        assertThat(registry.timer(Configuration.metricsPrefix() + ".writeAheadLog.syncLatency").count()).isPositive();
+
+        final BloomFilterManagerImpl<ExpirableBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(multiTypeFactory);
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        assertThat(log.replay(manager, multiTypeFactory, name -> 0L)).isEqualTo(5);
+        assertThat(log.lastLogSequence()).isEqualTo(5);
+
+        final ExpirableBloomFilter replayedFilter = manager.getFilter(testingFilterName);
+        assertThat(replayedFilter).isNotNull();
+        assertThat(replayedFilter.type()).isEqualTo(BloomFilterType.GUAVA);
+        assertThat(replayedFilter.expectedInsertions()).isEqualTo(10000);
+        assertThat(replayedFilter.fpp()).isEqualTo(0.01);
+        assertThat(replayedFilter.expiration()).isEqualTo(filter.expiration());
+        assertThat(replayedFilter.mightContain("Hello")).isFalse();
+        assertThat(replayedFilter.mightContain("World")).isTrue();
+        assertThat(replayedFilter.mightContain(new byte[]{1, 2, 3})).isTrue();
+        assertThat(manager.getFilter("HashFilter").mightContain(hash)).isTrue();
+
+        log.start(0);
+        log.logDelete(testingFilterName).get();
+        assertThat(log.lastLogSequence()).isEqualTo(6);
+    }
+
+    @Test
+    public void testReplayRemoveAndDelete() throws Exception {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig().setType(BloomFilterType.COUNTING);
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        log.logCreate(testingFilterName, config, multiTypeFactory.createFilter(config));
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Arrays.asList(bytes("Hello"), bytes("World")));
+        log.logValues(Operation.REMOVE, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("Hello")));
+        log.logCreate("AnotherFilter", config, multiTypeFactory.createFilter(config));
+        log.logDelete("AnotherFilter").get();
+        log.close();
+
+        final BloomFilterManagerImpl<ExpirableBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(multiTypeFactory);
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        assertThat(log.replay(manager, multiTypeFactory, name -> 0L)).isEqualTo(5);
+
+        final BloomFilter replayedFilter = manager.getFilter(testingFilterName);
+        assertThat(replayedFilter).isNotNull();
+        assertThat(replayedFilter.mightContain("Hello")).isFalse();
+        assertThat(replayedFilter.mightContain("World")).isTrue();
+        assertThat(manager.getFilter("AnotherFilter")).isNull();
+        log.start(0);
+    }
+
+    @Test
+    public void testReplayCreateWithConfig() throws Exception {
+        final MultiTypeBloomFilterFactory multiTypeFactory = new MultiTypeBloomFilterFactory();
+        final ExpirableBloomFilterConfig sealedConfig = new ExpirableBloomFilterConfig()
+                .setType(BloomFilterType.SEALED)
+                .setValues(Arrays.asList("Hello", "World"))
+                .setValidPeriodAfterAccess(Duration.ofSeconds(100));
+        final ExpirableBloomFilter sealedFilter = multiTypeFactory.createFilter(sealedConfig);
+        log.logCreate("SealedFilter", sealedConfig, sealedFilter);
+        final ExpirableBloomFilterConfig rotatingConfig = new ExpirableBloomFilterConfig(1000, 0.01)
+                .setValidPeriodAfterCreate(Duration.ofSeconds(200))
+                .setRotationPeriod(Duration.ofSeconds(10))
+                .setGenerations(3);
+        final ExpirableBloomFilter rotatingFilter = multiTypeFactory.createFilter(rotatingConfig);
+        log.logCreate("RotatingFilter", rotatingConfig, rotatingFilter);
+        final ExpirableBloomFilterConfig scalableConfig = new ExpirableBloomFilterConfig(1000, 0.01)
+                .setType(BloomFilterType.BLOCKED)
+                .setScalable(true);
+        final ExpirableBloomFilter scalableFilter = multiTypeFactory.createFilter(scalableConfig);
+        log.logCreate("ScalableFilter", scalableConfig, scalableFilter).get();
+        log.close();
+
+        final BloomFilterManagerImpl<ExpirableBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(multiTypeFactory);
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        assertThat(log.replay(manager, multiTypeFactory, name -> 0L)).isEqualTo(3);
+
+        final ExpirableBloomFilter replayedSealedFilter = manager.getFilter("SealedFilter");
+        assertThat(replayedSealedFilter.type()).isEqualTo(BloomFilterType.SEALED);
+        assertThat(replayedSealedFilter.expiration()).isEqualTo(sealedFilter.expiration());
+        assertThat(replayedSealedFilter.mightContain("Hello")).isTrue();
+        assertThat(replayedSealedFilter.mightContain("World")).isTrue();
+
+        final ExpirableBloomFilter replayedRotatingFilter = manager.getFilter("RotatingFilter");
+        assertThat(replayedRotatingFilter.type()).isEqualTo(BloomFilterType.ROTATING);
+        assertThat(replayedRotatingFilter.expiration()).isEqualTo(rotatingFilter.expiration());
+        assertThat(((RotatingBloomFilter) replayedRotatingFilter).rotationPeriod()).isEqualTo(Duration.ofSeconds(10));
+
+        final ExpirableBloomFilter replayedScalableFilter = manager.getFilter("ScalableFilter");
+        assertThat(replayedScalableFilter.type()).isEqualTo(BloomFilterType.SCALABLE);
+        assertThat(replayedScalableFilter.expiration()).isEqualTo(scalableFilter.expiration());
+        assertThat(replayedScalableFilter.expectedInsertions()).isEqualTo(1000);
+        log.start(0);
+    }
+
+    @Test
+    public void testSkipPersistedOperations() throws Exception {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        log.logCreate(testingFilterName, config, factory.createFilter(config));
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("Hello")));
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("World"))).get();
+        log.close();
+
+        // the persisted filter has the first two operations, but not the last one
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(factory);
+        manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig());
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        assertThat(log.replay(manager, factory, name -> 2L)).isEqualTo(1);
+
+        final GuavaBloomFilter replayedFilter = manager.getFilter(testingFilterName);
+        assertThat(replayedFilter).isNotNull();
+        assertThat(replayedFilter.mightContain("Hello")).isFalse();
+        assertThat(replayedFilter.mightContain("World")).isTrue();
+
+        // the new operations continue from the greater one of the persisted and the logged sequences
+        log.start(10);
+        assertThat(log.lastLogSequence()).isEqualTo(10);
+    }
+
+    @Test
+    public void testRollAndDeleteLogFiles() throws Exception {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        log.logCreate(testingFilterName, config, factory.createFilter(config)).get();
+        final long fileId = log.roll();
+        assertThat(log.listLogFileIds()).containsExactly(fileId - 1, fileId);
+
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("Hello"))).get();
+        log.deleteLogFilesBefore(fileId);
+        assertThat(log.listLogFileIds()).containsExactly(fileId);
+        log.close();
+
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(factory);
+        manager.createFilter(testingFilterName, new ExpirableBloomFilterConfig());
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry);
+        assertThat(log.replay(manager, factory, name -> 0L)).isEqualTo(1);
+        assertThat(manager.getFilter(testingFilterName).mightContain("Hello")).isTrue();
+
+        // start logging to a new file after the existing ones
+        log.start(0);
+        assertThat(log.listLogFileIds()).containsExactly(fileId, fileId + 1);
+    }
+
+    @Test
+    public void testSkipUnfinishedTail() throws Exception {
+        final ExpirableBloomFilterConfig config = new ExpirableBloomFilterConfig();
+        log.logCreate(testingFilterName, config, factory.createFilter(config));
+        log.logValues(Operation.SET, testingFilterName, ValueType.STRING, Collections.singletonList(bytes("Hello"))).get();
+        log.close();
+
+        final Path logFilePath = log.logFilePath(log.listLogFileIds().get(0));
+        final long validLength = Files.size(logFilePath);
+        // an entry claims to be longer than the rest of the file
+        Files.write(logFilePath, new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> manager =
+                new BloomFilterManagerImpl<>(factory);
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.NEVER, 100, registry);
+        assertThat(log.replay(manager, factory, name -> 0L)).isEqualTo(2);
+        assertThat(manager.getFilter(testingFilterName).mightContain("Hello")).isTrue();
+
+        // corrupt the last entry
+        try (FileChannel channel = FileChannel.open(logFilePath, StandardOpenOption.WRITE)) {
+            channel.truncate(validLength - 1);
+        }
+        final BloomFilterManagerImpl<GuavaBloomFilter, ExpirableBloomFilterConfig> anotherManager =
+                new BloomFilterManagerImpl<>(factory);
+        assertThat(log.replay(anotherManager, factory, name -> 0L)).isEqualTo(1);
+        assertThat(anotherManager.getFilter(testingFilterName).mightContain("Hello")).isFalse();
+        log.start(0);
+    }
+
+    @Test
+    public void testBlockLoggingWhenQueueIsFull() throws Exception {
+        log.close();
+        log = new WriteAheadLog(tempDirPath, SyncPolicy.ALWAYS, 100, registry, 1);
+        final CompletableFuture<Void> first = log.logDelete("Filter1");
+        final CompletableFuture<CompletableFuture<Void>> second = CompletableFuture.supplyAsync(
+                () -> log.logDelete("Filter2"));
+        // the flusher is not started, so there's no room for the second entry
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+
+        log.start(0);
+        second.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+        assertThat(first).isCompleted();
+        assertThat(log.lastLogSequence()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLogAfterClose() throws Exception {
+        log.close();
+        assertThatThrownBy(() -> log.logDelete(testingFilterName).get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("write-ahead log is closed");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
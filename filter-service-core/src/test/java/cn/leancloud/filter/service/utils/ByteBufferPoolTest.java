@@ -0,0 +1,24 @@
+package cn.leancloud.filter.service.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteBufferPoolTest {
+    @Test
+    public void testReusePooledBuffer() {
+        final ByteBufferPool pool = new ByteBufferPool(1);
+        final ByteBuffer buffer = pool.acquire(16);
+        pool.release(buffer);
+        pool.release(ByteBuffer.allocate(16));
+        assertThat(pool.pooledBuffers()).isEqualTo(1);
+
+        assertThat(pool.acquire(8)).isSameAs(buffer);
+        pool.release(buffer);
+        // the pooled one is too small
+        assertThat(pool.acquire(32).capacity()).isEqualTo(32);
+        assertThat(pool.pooledBuffers()).isZero();
+    }
+}
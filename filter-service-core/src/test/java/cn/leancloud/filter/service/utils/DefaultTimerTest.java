@@ -0,0 +1,58 @@
+package cn.leancloud.filter.service.utils;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultTimerTest {
+    @Test
+    public void testReadSystemClockWhenNotTicking() throws Exception {
+        final DefaultTimer timer = new DefaultTimer();
+        final long before = System.currentTimeMillis();
+        Thread.sleep(10);
+        assertThat(timer.currentTimeMillis()).isGreaterThan(before);
+        assertThat(timer.utcNow().toInstant().toEpochMilli()).isGreaterThan(before);
+    }
+
+    @Test
+    public void testCachedTimeOnlyUpdatedByTicker() throws Exception {
+        final DefaultTimer timer = new DefaultTimer();
+        timer.startTicking(Duration.ofHours(1));
+        try {
+            final long cached = timer.currentTimeMillis();
+            Thread.sleep(10);
+            assertThat(timer.currentTimeMillis()).isEqualTo(cached);
+            assertThat(timer.utcNow().toInstant().toEpochMilli()).isEqualTo(cached);
+        } finally {
+            timer.stopTicking();
+        }
+    }
+
+    @Test
+    public void testTicking() throws Exception {
+        final DefaultTimer timer = new DefaultTimer();
+        timer.startTicking(Duration.ofMillis(1));
+        try {
+            final long start = timer.currentTimeMillis();
+            final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (timer.currentTimeMillis() == start && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThat(timer.currentTimeMillis()).isGreaterThan(start);
+        } finally {
+            timer.stopTicking();
+        }
+    }
+
+    @Test
+    public void testStopTicking() throws Exception {
+        final DefaultTimer timer = new DefaultTimer();
+        timer.startTicking(Duration.ofHours(1));
+        final long cached = timer.currentTimeMillis();
+        timer.stopTicking();
+        Thread.sleep(10);
+        assertThat(timer.currentTimeMillis()).isGreaterThan(cached);
+    }
+}
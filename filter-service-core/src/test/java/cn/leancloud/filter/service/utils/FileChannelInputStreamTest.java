@@ -0,0 +1,72 @@
+package cn.leancloud.filter.service.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileChannelInputStreamTest {
+    private File tempDir;
+    private FileChannel channel;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new File(System.getProperty("java.io.tmpdir", "/tmp") +
+                File.separator + "filter_service_" + System.nanoTime());
+        FileUtils.forceMkdir(tempDir);
+        final Path path = tempDir.toPath().resolve("content");
+        content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(path, content);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Test
+    public void testReadRange() throws Exception {
+        final FileChannelInputStream in = new FileChannelInputStream(channel, 100, 800, ByteBuffer.allocate(16));
+        assertThat(in.available()).isEqualTo(800);
+        assertThat(in.read()).isEqualTo(100);
+
+        // smaller than the buffer
+        final byte[] small = new byte[10];
+        new DataInputStream(in).readFully(small);
+        assertThat(small).isEqualTo(slice(101, 10));
+
+        assertThat(in.skip(89)).isEqualTo(89);
+
+        // larger than the buffer, read directly
+        final byte[] large = new byte[600];
+        new DataInputStream(in).readFully(large);
+        assertThat(large).isEqualTo(slice(200, 600));
+
+        assertThat(in.skip(1000)).isEqualTo(100);
+        assertThat(in.read()).isEqualTo(-1);
+        assertThat(in.read(large, 0, 10)).isEqualTo(-1);
+        assertThat(channel.position()).isZero();
+    }
+
+    private byte[] slice(int from, int length) {
+        final byte[] bytes = new byte[length];
+        System.arraycopy(content, from, bytes, 0, length);
+        return bytes;
+    }
+}
@@ -0,0 +1,49 @@
+package cn.leancloud.filter.service.utils;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapLongArrayTest {
+    @Test
+    public void testSnapshotIgnoresLaterUpdates() {
+        // not a multiple of the page size, so the last page is a short one
+        final HeapLongArray array = new HeapLongArray(3000);
+        for (int i = 0; i < array.length(); i++) {
+            array.lazySet(i, i);
+        }
+
+        try (HeapLongArray.Snapshot snapshot = array.snapshot()) {
+            for (int i = 0; i < array.length(); i += 7) {
+                assertThat(array.compareAndSet(i, i, -i)).isTrue();
+            }
+
+            assertThat(snapshot.length()).isEqualTo(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                assertThat(snapshot.get(i)).isEqualTo(i);
+                assertThat(array.get(i)).isEqualTo(i % 7 == 0 ? -i : i);
+            }
+        }
+        assertThat(array.openSnapshots()).isZero();
+    }
+
+    @Test
+    public void testMultipleSnapshots() {
+        final HeapLongArray array = new HeapLongArray(10);
+        final HeapLongArray.Snapshot first = array.snapshot();
+        assertThat(array.compareAndSet(1, 0, 1)).isTrue();
+        final HeapLongArray.Snapshot second = array.snapshot();
+        assertThat(array.compareAndSet(1, 1, 2)).isTrue();
+        assertThat(array.openSnapshots()).isEqualTo(2);
+
+        assertThat(first.get(1)).isZero();
+        assertThat(second.get(1)).isEqualTo(1);
+
+        first.close();
+        assertThat(array.compareAndSet(1, 2, 3)).isTrue();
+        assertThat(second.get(1)).isEqualTo(1);
+        second.close();
+        assertThat(array.openSnapshots()).isZero();
+        assertThat(array.get(1)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,178 @@
+package cn.leancloud.filter.service.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZeroRunOutputStreamTest {
+    private final Random random = new Random(101);
+
+    @Test
+    public void testEncodeEmpty() throws Exception {
+        final byte[] encoded = encode(new byte[0]);
+        // the end of the blocks with an empty tail
+        assertThat(encoded).containsExactly(0, 0);
+        assertThat(decode(encoded, 0)).isEmpty();
+    }
+
+    @Test
+    public void testEncodeZeroWords() throws Exception {
+        final byte[] content = new byte[1024 * 1024];
+        final byte[] encoded = encode(content);
+        assertThat(encoded.length).isLessThan(10);
+        assertThat(decode(encoded, content.length)).isEqualTo(content);
+    }
+
+    @Test
+    public void testEncodeDenseWords() throws Exception {
+        final byte[] content = new byte[1024 * 1024];
+        random.nextBytes(content);
+        final byte[] encoded = encode(content);
+        // only the headers of the literal blocks are added
+        assertThat(encoded.length).isLessThan(content.length + content.length / 1024);
+        assertThat(decode(encoded, content.length)).isEqualTo(content);
+    }
+
+    @Test
+    public void testEncodeSparseWords() throws Exception {
+        final byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < 1000; i++) {
+            content[random.nextInt(content.length)] = (byte) (random.nextInt(255) + 1);
+        }
+        final byte[] encoded = encode(content);
+        assertThat(encoded.length).isLessThan(content.length / 50);
+        assertThat(decode(encoded, content.length)).isEqualTo(content);
+    }
+
+    @Test
+    public void testEncodeUnalignedTail() throws Exception {
+        for (int length = 1; length < 24; length++) {
+            final byte[] content = new byte[length];
+            random.nextBytes(content);
+            content[0] = 0;
+            assertThat(decode(encode(content), length)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void testWriteByteByByte() throws Exception {
+        final byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i += 3) {
+            if (i % 2000 < 1000) {
+                content[i] = (byte) i;
+            }
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZeroRunOutputStream zout = new ZeroRunOutputStream(out);
+        for (byte b : content) {
+            zout.write(b);
+        }
+        zout.finish();
+
+        assertThat(out.toByteArray()).isEqualTo(encode(content));
+        assertThat(decode(out.toByteArray(), content.length)).isEqualTo(content);
+    }
+
+    @Test
+    public void testReadByteByByte() throws Exception {
+        final byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i += 7) {
+            if (i % 2000 < 1000) {
+                content[i] = (byte) i;
+            }
+        }
+
+        final ZeroRunInputStream in = new ZeroRunInputStream(new ByteArrayInputStream(encode(content)));
+        for (byte b : content) {
+            assertThat(in.read()).isEqualTo(b & 0xff);
+        }
+        assertThat(in.read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        final byte[] content = new byte[10000];
+        for (int i = 5000; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        final ZeroRunInputStream in = new ZeroRunInputStream(new ByteArrayInputStream(encode(content)));
+        assertThat(in.skip(6000)).isEqualTo(6000);
+        assertThat(in.read()).isEqualTo(content[6000] & 0xff);
+        assertThat(in.skip(10000)).isEqualTo(3999);
+        assertThat(in.read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testLeaveBytesAfterEncodedBytesUnread() throws Exception {
+        final byte[] content = new byte[100];
+        content[50] = 1;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZeroRunOutputStream zout = new ZeroRunOutputStream(out);
+        zout.write(content);
+        zout.finish();
+        out.write(new byte[]{1, 2, 3});
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertThat(decode(new ZeroRunInputStream(in), content.length)).isEqualTo(content);
+        assertThat(new ZeroRunInputStream(in).read()).isNotEqualTo(-1);
+    }
+
+    @Test
+    public void testWriteAfterFinish() throws Exception {
+        final ZeroRunOutputStream zout = new ZeroRunOutputStream(new ByteArrayOutputStream());
+        zout.finish();
+        zout.finish();
+
+        assertThatThrownBy(() -> zout.write(1))
+                .isInstanceOf(IOException.class)
+                .hasMessage("stream finished");
+    }
+
+    @Test
+    public void testDecodeTruncatedBytes() throws Exception {
+        final byte[] content = new byte[100];
+        random.nextBytes(content);
+        final byte[] encoded = encode(content);
+        final byte[] truncated = new byte[encoded.length - 3];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertThatThrownBy(() -> decode(truncated, content.length))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testDecodeInvalidTailLength() throws Exception {
+        assertThatThrownBy(() -> decode(new byte[]{0, 8}, 0))
+                .isInstanceOf(IOException.class)
+                .hasMessage("invalid tail length: 8");
+    }
+
+    private byte[] encode(byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZeroRunOutputStream zout = new ZeroRunOutputStream(out)) {
+            zout.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decode(byte[] encoded, int length) throws IOException {
+        return decode(new ZeroRunInputStream(new ByteArrayInputStream(encoded)), length);
+    }
+
+    private byte[] decode(ZeroRunInputStream in, int length) throws IOException {
+        final byte[] content = new byte[length];
+        new DataInputStream(in).readFully(content);
+        assertThat(in.read()).isEqualTo(-1);
+        assertThat(in.read(new byte[1], 0, 1)).isEqualTo(-1);
+        return content;
+    }
+}